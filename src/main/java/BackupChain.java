@@ -0,0 +1,422 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+
+// Цепочка инкрементальных резервных копий базы в одной директории.
+// Файлы базы (данные и индекс смещений) делятся на сегменты по SEGMENT_SIZE байт; для каждого сегмента
+// в копии хранится контрольная сумма (CRC32 и Adler32). В копию пишутся только сегменты, сумма которых
+// отличается от родительской копии, поэтому дописанные записи и правки на месте стоят несколько сегментов.
+// Первая копия цепочки и каждая MAX_CHAIN_LENGTH-я - полные, чтобы восстановление читало ограниченное число файлов.
+// Файл копии backup-<номер>.bak: магическое число, сегменты ("файл, сегмент, длина, байты"), затем описание:
+// номер, родительская копия (0 - полная), время, размер сегмента, для каждого файла имя, длина и суммы сегментов,
+// оглавление записанных сегментов; последние 8 байт - отступ описания.
+// Восстановление на момент копии N собирает каждый сегмент из ближайшей к N копии цепочки, где он записан.
+public class BackupChain {
+    static final int SEGMENT_SIZE = 1 << 20;
+    static final int MAX_CHAIN_LENGTH = 30;
+    private static final long MAGIC = 0x4644424241434B31L; // "FDBBACK1"
+    private static final String PREFIX = "backup-";
+    private static final String SUFFIX = ".bak";
+
+    private final File directory;
+
+    // Описание копии
+    public static final class Backup {
+        public final int number;
+        public final int parent; // 0 для полной копии
+        public final long time; // момент копии, мс от 1970-01-01
+        public final int segments; // записано сегментов
+        public final int totalSegments; // сегментов во всех файлах базы на момент копии
+        final File file;
+        final String[] names;
+        final long[] lengths;
+        final long[][] checksums;
+        final Map<Long, Long> positions; // (файл << 32 | сегмент) -> отступ байтов сегмента в файле копии
+        private final Backup[] parts; // копии шардов, из которых собрано сводное описание, иначе null
+
+        Backup(int number, int parent, long time, File file, String[] names, long[] lengths, long[][] checksums,
+               Map<Long, Long> positions) {
+            this.number = number;
+            this.parent = parent;
+            this.time = time;
+            this.file = file;
+            this.names = names;
+            this.lengths = lengths;
+            this.checksums = checksums;
+            this.positions = positions;
+            this.segments = positions.size();
+            int total = 0;
+            for (long[] sums : checksums) {
+                total += sums.length;
+            }
+            this.totalSegments = total;
+            this.parts = null;
+        }
+
+        // Сводное описание копий шардов с одним номером (см. ShardedStorageEngine): сегменты и размер складываются.
+        // По нему нельзя восстанавливать, восстанавливается каждая копия шарда в своей цепочке
+        private Backup(Backup[] parts) {
+            this.number = parts[0].number;
+            this.parent = parts[0].parent;
+            long latest = 0;
+            int written = 0;
+            int total = 0;
+            for (Backup part : parts) {
+                latest = Math.max(latest, part.time);
+                written += part.segments;
+                total += part.totalSegments;
+            }
+            this.time = latest;
+            this.segments = written;
+            this.totalSegments = total;
+            this.file = null;
+            this.names = null;
+            this.lengths = null;
+            this.checksums = null;
+            this.positions = null;
+            this.parts = parts;
+        }
+
+        static Backup combine(List<Backup> parts) {
+            return parts.size() == 1 ? parts.get(0) : new Backup(parts.toArray(new Backup[0]));
+        }
+
+        public boolean isFull() {
+            return parent == 0;
+        }
+
+        // Размер файла копии в байтах
+        public long size() {
+            if (parts == null) {
+                return file.length();
+            }
+            long size = 0;
+            for (Backup part : parts) {
+                size += part.size();
+            }
+            return size;
+        }
+    }
+
+    public BackupChain(File directory) {
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    // Копии цепочки по возрастанию номера
+    public List<Backup> list() throws IOException {
+        List<Backup> backups = new ArrayList<>();
+        String[] names = directory.list();
+        if (names == null) {
+            return backups;
+        }
+        for (String name : names) {
+            if (name.startsWith(PREFIX) && name.endsWith(SUFFIX)) {
+                backups.add(read(new File(directory, name)));
+            }
+        }
+        backups.sort((a, b) -> Integer.compare(a.number, b.number));
+        return backups;
+    }
+
+    // Номер следующей копии цепочки
+    public int nextNumber() throws IOException {
+        List<Backup> backups = list();
+        return backups.isEmpty() ? 1 : backups.get(backups.size() - 1).number + 1;
+    }
+
+    // Новая копия снимков файлов (см. FileSnapshot): в базу можно писать, пока копия создается.
+    // full - полная копия независимо от цепочки
+    public Backup create(FileSnapshot[] files, boolean full, StorageEngine.Progress progress) throws IOException {
+        return create(files, nextNumber(), full, progress);
+    }
+
+    // То же с заданным номером, больше номеров копий цепочки: копии шардов одного бэкапа получают общий номер
+    public Backup create(FileSnapshot[] files, int number, boolean full, StorageEngine.Progress progress) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("не удалось создать директорию " + directory.getPath());
+        }
+        List<Backup> backups = list();
+        Backup parent = backups.isEmpty() ? null : backups.get(backups.size() - 1);
+        if (parent != null && number <= parent.number) {
+            throw new IllegalArgumentException("номер копии " + number + " не больше номера последней копии " + parent.number);
+        }
+        if (full || parent == null || depth(parent, backups) + 1 >= MAX_CHAIN_LENGTH || parent.names.length != files.length) {
+            parent = null;
+        }
+        long[] lengths = new long[files.length];
+        long total = 0;
+        for (int f = 0; f < files.length; f++) {
+            lengths[f] = files[f].length();
+            total += lengths[f];
+        }
+        File target = file(number);
+        File tmp = new File(target.getPath() + ".tmp");
+        long[][] checksums = new long[files.length][];
+        Map<Long, Long> positions = new HashMap<>();
+        try (FileOutputStream fileOut = new FileOutputStream(tmp);
+             CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(fileOut, 1 << 16));
+             DataOutputStream out = new DataOutputStream(counter)) {
+            out.writeLong(MAGIC);
+            ByteBuffer buffer = ByteBuffer.allocate(SEGMENT_SIZE);
+            long done = 0;
+            for (int f = 0; f < files.length; f++) {
+                int count = (int) ((lengths[f] + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+                checksums[f] = new long[count];
+                for (int s = 0; s < count; s++) {
+                    long start = (long) s * SEGMENT_SIZE;
+                    int length = (int) Math.min(SEGMENT_SIZE, lengths[f] - start);
+                    buffer.clear().limit(length);
+                    files[f].read(buffer, start);
+                    buffer.flip();
+                    long checksum = checksum(buffer);
+                    checksums[f][s] = checksum;
+                    if (parent == null || !sameSegment(parent, f, s, length, checksum)) {
+                        out.writeInt(f);
+                        out.writeInt(s);
+                        out.writeInt(length);
+                        out.flush();
+                        positions.put(key(f, s), counter.count);
+                        out.write(buffer.array(), 0, length);
+                    }
+                    done += length;
+                    report(progress, done, total);
+                }
+            }
+            out.flush();
+            long manifest = counter.count;
+            out.writeInt(number);
+            out.writeInt(parent == null ? 0 : parent.number);
+            long time = System.currentTimeMillis();
+            out.writeLong(time);
+            out.writeInt(SEGMENT_SIZE);
+            out.writeInt(files.length);
+            String[] names = new String[files.length];
+            for (int f = 0; f < files.length; f++) {
+                names[f] = files[f].getFile().getName();
+                out.writeUTF(names[f]);
+                out.writeLong(lengths[f]);
+                out.writeInt(checksums[f].length);
+                for (long checksum : checksums[f]) {
+                    out.writeLong(checksum);
+                }
+            }
+            out.writeInt(positions.size());
+            for (Map.Entry<Long, Long> entry : positions.entrySet()) {
+                out.writeLong(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+            out.writeLong(manifest);
+            out.flush();
+            fileOut.getFD().sync();
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return new Backup(number, parent == null ? 0 : parent.number, time, target, names, lengths, checksums, positions);
+        } finally {
+            Files.deleteIfExists(tmp.toPath()); // копия не дописана (ошибка или отмена)
+        }
+    }
+
+    // Удаление последней копии number (откат бэкапа, который дошел не до всех шардов), false если ее нет
+    public boolean delete(int number) {
+        return file(number).delete();
+    }
+
+    private File file(int number) {
+        return new File(directory, String.format("%s%06d%s", PREFIX, number, SUFFIX));
+    }
+
+    // Сборка файлов базы на момент копии number: targets[i] перезаписывается i-м файлом копии.
+    // Каждый собранный сегмент сверяется с контрольной суммой, IOException если копия повреждена
+    public void restore(int number, File[] targets) throws IOException {
+        List<Backup> chain = chain(number);
+        Backup point = chain.get(0);
+        if (point.names.length != targets.length) {
+            throw new IOException("в копии " + number + " файлов: " + point.names.length + ", ожидалось " + targets.length);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(SEGMENT_SIZE);
+        Map<Backup, FileChannel> channels = new HashMap<>();
+        try {
+            for (int f = 0; f < targets.length; f++) {
+                File tmp = new File(targets[f].getPath() + ".restore");
+                try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+                    for (int s = 0; s < point.checksums[f].length; s++) {
+                        long start = (long) s * SEGMENT_SIZE;
+                        int length = (int) Math.min(SEGMENT_SIZE, point.lengths[f] - start);
+                        Backup source = null;
+                        for (Backup backup : chain) {
+                            if (backup.positions.containsKey(key(f, s))) {
+                                source = backup;
+                                break;
+                            }
+                        }
+                        if (source == null) {
+                            throw new IOException("в цепочке копий нет сегмента " + s + " файла " + point.names[f]);
+                        }
+                        FileChannel in = channels.get(source);
+                        if (in == null) {
+                            in = FileChannel.open(source.file.toPath(), StandardOpenOption.READ);
+                            channels.put(source, in);
+                        }
+                        readFully(in, buffer, source.positions.get(key(f, s)), length, source.file);
+                        if (checksum(buffer) != point.checksums[f][s]) {
+                            throw new IOException("копия " + source.number + " повреждена: сегмент " + s + " файла " + point.names[f]);
+                        }
+                        while (buffer.hasRemaining()) {
+                            out.write(buffer, start + buffer.position());
+                        }
+                    }
+                    out.force(false);
+                }
+                Files.move(tmp.toPath(), targets[f].toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } finally {
+            for (FileChannel channel : channels.values()) {
+                channel.close();
+            }
+        }
+    }
+
+    // Копия number и ее предки до полной копии, начиная с самой копии
+    private List<Backup> chain(int number) throws IOException {
+        Map<Integer, Backup> byNumber = new HashMap<>();
+        for (Backup backup : list()) {
+            byNumber.put(backup.number, backup);
+        }
+        List<Backup> chain = new ArrayList<>();
+        Backup backup = byNumber.get(number);
+        if (backup == null) {
+            throw new FileNotFoundException("нет резервной копии " + number + " в " + directory.getPath());
+        }
+        while (true) {
+            chain.add(backup);
+            if (backup.isFull()) {
+                return chain;
+            }
+            Backup parent = byNumber.get(backup.parent);
+            if (parent == null) {
+                throw new FileNotFoundException("цепочка копий прервана: нет копии " + backup.parent);
+            }
+            backup = parent;
+        }
+    }
+
+    private static int depth(Backup backup, List<Backup> backups) {
+        int depth = 0;
+        Map<Integer, Backup> byNumber = new HashMap<>();
+        for (Backup each : backups) {
+            byNumber.put(each.number, each);
+        }
+        while (backup != null && !backup.isFull()) {
+            depth++;
+            backup = byNumber.get(backup.parent);
+        }
+        return depth;
+    }
+
+    private static boolean sameSegment(Backup parent, int file, int segment, int length, long checksum) {
+        if (segment >= parent.checksums[file].length) {
+            return false;
+        }
+        long parentLength = Math.min(SEGMENT_SIZE, parent.lengths[file] - (long) segment * SEGMENT_SIZE);
+        return parentLength == length && parent.checksums[file][segment] == checksum;
+    }
+
+    private static Backup read(File file) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            if (in.length() < 16 || in.readLong() != MAGIC) {
+                throw new IOException("файл не является резервной копией базы данных: " + file.getPath());
+            }
+            in.seek(in.length() - 8);
+            in.seek(in.readLong());
+            DataInputStream manifest = new DataInputStream(new BufferedInputStream(Channels.newInputStream(in.getChannel()), 1 << 16));
+            int number = manifest.readInt();
+            int parent = manifest.readInt();
+            long time = manifest.readLong();
+            if (manifest.readInt() != SEGMENT_SIZE) {
+                throw new IOException("другой размер сегмента в копии " + file.getPath());
+            }
+            int files = manifest.readInt();
+            String[] names = new String[files];
+            long[] lengths = new long[files];
+            long[][] checksums = new long[files][];
+            for (int f = 0; f < files; f++) {
+                names[f] = manifest.readUTF();
+                lengths[f] = manifest.readLong();
+                checksums[f] = new long[manifest.readInt()];
+                for (int s = 0; s < checksums[f].length; s++) {
+                    checksums[f][s] = manifest.readLong();
+                }
+            }
+            int count = manifest.readInt();
+            Map<Long, Long> positions = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                positions.put(manifest.readLong(), manifest.readLong());
+            }
+            return new Backup(number, parent, time, file, names, lengths, checksums, Collections.unmodifiableMap(positions));
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position, int length, File file) throws IOException {
+        buffer.clear().limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("файл короче ожидаемого: " + file.getPath());
+            }
+        }
+        buffer.flip();
+    }
+
+    private static long checksum(ByteBuffer segment) {
+        CRC32 crc = new CRC32();
+        crc.update(segment.duplicate());
+        Adler32 adler = new Adler32();
+        adler.update(segment.duplicate());
+        return crc.getValue() << 32 | adler.getValue();
+    }
+
+    private static long key(int file, int segment) {
+        return (long) file << 32 | segment;
+    }
+
+    private static void report(StorageEngine.Progress progress, long done, long total) {
+        if (progress != null && !progress.update(done, total)) {
+            throw new java.util.concurrent.CancellationException("копирование отменено");
+        }
+    }
+
+    // Поток, считающий записанные байты: по счетчику определяются отступы сегментов в файле копии
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+            count += length;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+import java.io.File;
+import java.io.IOException;
+
+// Индекс по неключевому столбцу, который движок поддерживает вместе с индексом смещений:
+// обновляет при изменениях, сохраняет на диск при контрольной точке и перестраивает после сбоя.
+// В индекс попадают только живые записи.
+public interface ColumnIndex {
+    int getColumn();
+
+    File getFile();
+
+    void add(int id, String record);
+
+    // Добавление живой строки при проходе по файлу, без создания String для всей записи
+    void add(int id, CsvTokenizer line);
+
+    void remove(int id, String record);
+
+    void clear();
+
+    // Загрузка индекса с диска, false если файла нет или он записан для другого состояния файла данных (stamp)
+    boolean load(long stamp) throws IOException;
+
+    void save(long stamp) throws IOException;
+
+    void drop() throws IOException;
+}
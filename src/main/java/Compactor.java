@@ -0,0 +1,79 @@
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Фоновое сжатие базы данных: запускает StorageEngine.compact в отдельном потоке,
+// не более одного сжатия одновременно. Повторные запросы во время сжатия игнорируются.
+// Ошибка сжатия сохраняется и выбрасывается движком из следующего compact или close (rethrowFailure).
+public class Compactor {
+    private final StorageEngine engine;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+    private ExecutorService executor;
+
+    public Compactor(StorageEngine engine) {
+        this.engine = engine;
+    }
+
+    public synchronized void request() {
+        if (!scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "filedb-compactor");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        executor.execute(() -> {
+            try {
+                if (engine.needsCompaction()) {
+                    engine.compactNow();
+                }
+            } catch (IOException | RuntimeException e) {
+                failure.compareAndSet(null, e); // до передачи вызывающему хранится первая ошибка
+            } finally {
+                scheduled.set(false);
+            }
+        });
+    }
+
+    // Ошибка фонового сжатия, случившаяся после прошлого вызова, выбрасывается один раз
+    public void rethrowFailure() throws IOException {
+        Exception e = failure.getAndSet(null);
+        if (e instanceof IOException) {
+            throw new IOException("ошибка фонового сжатия базы данных: " + e.getMessage(), e);
+        }
+        if (e != null) {
+            throw (RuntimeException) e;
+        }
+    }
+
+    // Сброс ошибки без передачи вызывающему: база удаляется или заменяется целиком
+    public void discardFailure() {
+        failure.set(null);
+    }
+
+    // Остановка потока с ожиданием текущего сжатия. Ожидание идет вне монитора: request вызывается
+    // под эксклюзивной блокировкой движка, которая нужна сжатию для подмены файла
+    public void close() {
+        ExecutorService stopping;
+        synchronized (this) {
+            stopping = executor;
+            executor = null;
+        }
+        if (stopping == null) {
+            return;
+        }
+        stopping.shutdown();
+        try {
+            stopping.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,496 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+// Потоковый разбор CSV по строкам поверх одного переиспользуемого буфера байтов.
+// next() переходит к следующей строке без создания String; поля находятся лениво (только до нужного поля)
+// и сравниваются (fieldEquals) или разбираются (parseInt, parseDouble, parseEpochDay) прямо в буфере.
+// String создается только по запросу (field, fields, toString).
+// Источник - поток (буфер дочитывается и переиспользуется), готовый ByteBuffer (например, участок файла,
+// отображенный в память: тогда байты не копируются вовсе) или одна запись.
+// Кавычки по RFC 4180: поле в двойных кавычках может содержать запятые, кавычка внутри него удваивается.
+// Перевод строки внутри кавычек не поддерживается: файл базы данных построчный (отступы в индексе,
+// журнал, свободные слоты), поэтому запись всегда занимает одну строку.
+// Как и при split(","), пустые поля в конце строки не считаются; пробелы и '\r' в конце строки
+// (дополнение записи на месте более длинной) в содержимое строки не входят.
+public class CsvTokenizer {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final long NEWLINES = 0x0A0A0A0A0A0A0A0AL; // '\n' в каждом байте
+    private static final int MAX_EXACT_DIGITS = 15; // до стольких цифр double из long / 10^k вычисляется точно
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    public interface LineVisitor {
+        // Строка действительна только во время вызова: буфер переиспользуется для следующей
+        void visit(CsvTokenizer line) throws IOException;
+    }
+
+    public interface LinePredicate {
+        // Условие отбора строки, вызывается для разбора, действительного только во время вызова
+        boolean test(CsvTokenizer line);
+    }
+
+    private final InputStream in; // null, если все байты уже в data
+    private byte[] array; // массив буфера потока
+    private ByteBuffer data; // байты строк, обращение по абсолютным индексам
+    private int limit; // конец прочитанных байтов в data
+    private long bufferOffset; // отступ data[0] в файле
+    private boolean eof;
+
+    private int lineStart;
+    private int lineEnd; // конец содержимого строки без перевода строки и дополнения
+    private int next; // начало следующей строки в буфере
+
+    private int found; // сколько полей текущей строки уже найдено
+    private int scanPosition; // где начинается следующее поле, -1 если строка разобрана до конца
+    private int fieldCount = -1; // количество полей без пустых в конце, -1 - еще не подсчитано
+    private int[] fieldStarts = new int[16];
+    private int[] fieldEnds = new int[16];
+    private boolean[] quoted = new boolean[16];
+
+    // Значение поля после locate: в data (без кавычек) или в scratch (с раскрытыми кавычками)
+    private byte[] scratch = new byte[64];
+    private ByteBuffer scratchData = ByteBuffer.wrap(scratch);
+    private ByteBuffer value;
+    private int valueStart;
+    private int valueEnd;
+
+    // Разбор потока, первый байт которого находится в файле по отступу offset
+    public CsvTokenizer(InputStream in, long offset) {
+        this.in = in;
+        this.array = new byte[BUFFER_SIZE];
+        this.data = ByteBuffer.wrap(array);
+        this.bufferOffset = offset;
+    }
+
+    public CsvTokenizer(InputStream in) {
+        this(in, 0);
+    }
+
+    // Разбор строк bytes[position, limit) без копирования, байт bytes[position] находится в файле по отступу offset
+    public CsvTokenizer(ByteBuffer bytes, long offset) {
+        this.in = null;
+        this.data = bytes.order() == ByteOrder.BIG_ENDIAN ? bytes : bytes.duplicate().order(ByteOrder.BIG_ENDIAN);
+        this.bufferOffset = offset - bytes.position();
+        this.next = bytes.position();
+        this.limit = bytes.limit();
+        this.eof = true;
+    }
+
+    // Разбор одной записи bytes[start, end) без перевода строки; содержимое не обрезается
+    public CsvTokenizer(byte[] bytes, int start, int end) {
+        this.in = null;
+        this.data = ByteBuffer.wrap(bytes);
+        this.lineStart = start;
+        this.lineEnd = end;
+        this.next = end;
+        this.limit = end;
+        this.eof = true;
+        resetFields();
+    }
+
+    public static CsvTokenizer of(String record) {
+        byte[] bytes = record.getBytes(StandardCharsets.UTF_8);
+        return new CsvTokenizer(bytes, 0, bytes.length);
+    }
+
+    // Поля записи с учетом кавычек, замена record.split(",")
+    public static String[] split(String record) {
+        return of(record).fields();
+    }
+
+    // Значение поля записи, null если поля нет
+    public static String field(String record, int field) {
+        CsvTokenizer line = of(record);
+        return field < line.fieldCount() ? line.field(field) : null;
+    }
+
+    // Дописывание поля в запись, в кавычках если в значении есть запятая или кавычка
+    public static void appendField(StringBuilder record, String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0) {
+            record.append(value);
+            return;
+        }
+        record.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                record.append('"');
+            }
+            record.append(c);
+        }
+        record.append('"');
+    }
+
+    // Переход к следующей строке, false в конце данных
+    public boolean next() throws IOException {
+        lineStart = next;
+        resetFields();
+        int newline = lineStart;
+        while (true) {
+            newline = indexOfNewline(newline, limit);
+            if (newline < limit || eof) {
+                break;
+            }
+            newline -= lineStart;
+            fill();
+            newline += lineStart;
+        }
+        if (newline == limit && lineStart == limit) {
+            return false;
+        }
+        next = newline < limit ? newline + 1 : limit;
+        lineEnd = newline;
+        while (lineEnd > lineStart && (data.get(lineEnd - 1) == '\r' || data.get(lineEnd - 1) == ' ')) {
+            lineEnd--;
+        }
+        resetFields();
+        return true;
+    }
+
+    // Отступ начала строки в файле
+    public long offset() {
+        return bufferOffset + lineStart;
+    }
+
+    // Длина строки в байтах вместе с переводом строки
+    public int length() {
+        return next - lineStart;
+    }
+
+    // Пустая строка (свободный слот в файле базы данных)
+    public boolean isEmpty() {
+        return lineEnd == lineStart;
+    }
+
+    // Длина содержимого строки в байтах без перевода строки и дополнения
+    public int contentLength() {
+        return lineEnd - lineStart;
+    }
+
+    // Запись содержимого строки в поток без перевода строки
+    public void writeTo(OutputStream out) throws IOException {
+        if (data.hasArray()) {
+            out.write(data.array(), data.arrayOffset() + lineStart, lineEnd - lineStart);
+            return;
+        }
+        byte[] chunk = ensureScratch(Math.min(lineEnd - lineStart, BUFFER_SIZE));
+        for (int position = lineStart; position < lineEnd; position += chunk.length) {
+            int length = Math.min(chunk.length, lineEnd - position);
+            ByteBuffer source = data.duplicate();
+            source.limit(position + length).position(position);
+            source.get(chunk, 0, length);
+            out.write(chunk, 0, length);
+        }
+    }
+
+    public int fieldCount() {
+        if (fieldCount < 0) {
+            findFields(Integer.MAX_VALUE - 1);
+            int count = found;
+            while (count > 0 && fieldStarts[count - 1] == fieldEnds[count - 1]) {
+                count--; // пустые поля в конце, как у split(",")
+            }
+            fieldCount = count;
+        }
+        return fieldCount;
+    }
+
+    // Сравнение значения поля с байтами UTF-8 без создания String; отсутствующее поле не равно ничему
+    public boolean fieldEquals(int field, byte[] expected) {
+        if (!hasField(field)) {
+            return false;
+        }
+        locate(field);
+        int length = valueEnd - valueStart;
+        if (length != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (value.get(valueStart + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Целое число из поля (пробелы по краям допускаются), NumberFormatException если поле не число
+    public int parseInt(int field) {
+        locate(field);
+        int i = skipSpaces(valueStart);
+        int end = trimSpaces(i);
+        boolean negative = i < end && value.get(i) == '-';
+        if (negative || i < end && value.get(i) == '+') {
+            i++;
+        }
+        if (i == end) {
+            throw invalid("число");
+        }
+        long result = 0;
+        for (; i < end; i++) {
+            int digit = value.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw invalid("число");
+            }
+            result = result * 10 + digit;
+            if (result > (long) Integer.MAX_VALUE + 1) {
+                throw invalid("число");
+            }
+        }
+        result = negative ? -result : result;
+        if (result > Integer.MAX_VALUE) {
+            throw invalid("число");
+        }
+        return (int) result;
+    }
+
+    // Число с плавающей точкой из поля, результат совпадает с Double.parseDouble.
+    // Простые десятичные записи разбираются в буфере, остальные (экспонента, много цифр) - через String
+    public double parseDouble(int field) {
+        locate(field);
+        int i = skipSpaces(valueStart);
+        int end = trimSpaces(i);
+        boolean negative = i < end && value.get(i) == '-';
+        if (negative || i < end && value.get(i) == '+') {
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = -1; // -1 - точки еще не было
+        for (; i < end; i++) {
+            byte b = value.get(i);
+            if (b == '.' && scale < 0) {
+                scale = 0;
+            } else if (b >= '0' && b <= '9' && digits < MAX_EXACT_DIGITS) {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (scale >= 0) {
+                    scale++;
+                }
+            } else {
+                break;
+            }
+        }
+        if (i < end || digits == 0) {
+            return Double.parseDouble(valueString()); // бросит NumberFormatException, если это не число
+        }
+        double result = scale > 0 ? mantissa / POWERS_OF_TEN[scale] : mantissa;
+        return negative ? -result : result;
+    }
+
+    // Дата ISO yyyy-MM-dd из поля как номер дня от 1970-01-01, DateTimeException если поле не дата
+    public long parseEpochDay(int field) {
+        locate(field);
+        int i = skipSpaces(valueStart);
+        int end = trimSpaces(i);
+        if (end - i == 10 && value.get(i + 4) == '-' && value.get(i + 7) == '-') {
+            int year = digits(i, 4);
+            int month = digits(i + 5, 2);
+            int day = digits(i + 8, 2);
+            if (year >= 0 && month >= 0 && day >= 0) {
+                return LocalDate.of(year, month, day).toEpochDay();
+            }
+        }
+        return LocalDate.parse(valueString().trim()).toEpochDay();
+    }
+
+    public String field(int field) {
+        locate(field);
+        return valueString();
+    }
+
+    // Все поля строки, как split(",") с учетом кавычек
+    public String[] fields() {
+        String[] fields = new String[fieldCount()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = field(i);
+        }
+        return fields;
+    }
+
+    // Строка целиком, в том виде, в котором она записана в файле
+    @Override
+    public String toString() {
+        return string(data, lineStart, lineEnd);
+    }
+
+    // Дочитывание потока: непрочитанный остаток переносится в начало буфера, буфер растет для длинных строк
+    private void fill() throws IOException {
+        int remaining = limit - lineStart;
+        if (lineStart == 0 && limit == array.length) {
+            array = Arrays.copyOf(array, array.length * 2);
+            data = ByteBuffer.wrap(array);
+        } else if (lineStart > 0) {
+            System.arraycopy(array, lineStart, array, 0, remaining);
+            bufferOffset += lineStart;
+            lineStart = 0;
+            limit = remaining;
+        }
+        int read = in.read(array, limit, array.length - limit);
+        if (read < 0) {
+            eof = true;
+        } else {
+            limit += read;
+        }
+    }
+
+    // Поиск '\n' в data[from, to) по 8 байтов за чтение; to, если перевода строки нет
+    private int indexOfNewline(int from, int to) {
+        int i = from;
+        for (; i + 8 <= to; i += 8) {
+            long word = data.getLong(i) ^ NEWLINES; // байты '\n' становятся нулевыми
+            long zeros = ~((word & 0x7F7F7F7F7F7F7F7FL) + 0x7F7F7F7F7F7F7F7FL | word | 0x7F7F7F7F7F7F7F7FL);
+            if (zeros != 0) {
+                return i + (Long.numberOfLeadingZeros(zeros) >>> 3); // порядок байтов big-endian
+            }
+        }
+        for (; i < to; i++) {
+            if (data.get(i) == '\n') {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    private void resetFields() {
+        found = 0;
+        scanPosition = lineStart;
+        fieldCount = -1;
+    }
+
+    // Поиск границ полей текущей строки, пока не найдено field + 1 полей или строка не кончилась
+    private void findFields(int field) {
+        int position = scanPosition;
+        while (found <= field && position >= 0) {
+            if (found == fieldStarts.length) {
+                fieldStarts = Arrays.copyOf(fieldStarts, found * 2);
+                fieldEnds = Arrays.copyOf(fieldEnds, found * 2);
+                quoted = Arrays.copyOf(quoted, found * 2);
+            }
+            fieldStarts[found] = position;
+            quoted[found] = position < lineEnd && data.get(position) == '"';
+            if (quoted[found]) {
+                position++;
+                while (position < lineEnd) {
+                    if (data.get(position) == '"') {
+                        if (position + 1 < lineEnd && data.get(position + 1) == '"') {
+                            position += 2;
+                            continue;
+                        }
+                        position++;
+                        break;
+                    }
+                    position++;
+                }
+            }
+            while (position < lineEnd && data.get(position) != ',') {
+                position++;
+            }
+            fieldEnds[found++] = position;
+            position = position == lineEnd ? -1 : position + 1;
+        }
+        scanPosition = position;
+    }
+
+    // Поле есть в строке: найдено и не входит в пустые поля в конце строки
+    private boolean hasField(int field) {
+        findFields(field);
+        if (field >= found) {
+            return false;
+        }
+        return fieldStarts[field] != fieldEnds[field] || field < fieldCount();
+    }
+
+    // Установка value/valueStart/valueEnd на значение поля; для поля в кавычках кавычки раскрываются в scratch
+    private void locate(int field) {
+        if (!hasField(field)) {
+            throw new IndexOutOfBoundsException("поле " + field + " из " + fieldCount());
+        }
+        int start = fieldStarts[field];
+        int end = fieldEnds[field];
+        if (!quoted[field]) {
+            value = data;
+            valueStart = start;
+            valueEnd = end;
+            return;
+        }
+        byte[] unquoted = ensureScratch(end - start);
+        int length = 0;
+        boolean inQuotes = true;
+        for (int i = start + 1; i < end; i++) {
+            byte b = data.get(i);
+            if (inQuotes && b == '"') {
+                if (i + 1 < end && data.get(i + 1) == '"') {
+                    unquoted[length++] = '"';
+                    i++;
+                } else {
+                    inQuotes = false; // символы после закрывающей кавычки остаются как есть
+                }
+                continue;
+            }
+            unquoted[length++] = b;
+        }
+        value = scratchData;
+        valueStart = 0;
+        valueEnd = length;
+    }
+
+    private byte[] ensureScratch(int length) {
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+            scratchData = ByteBuffer.wrap(scratch);
+        }
+        return scratch;
+    }
+
+    private static String string(ByteBuffer bytes, int start, int end) {
+        if (bytes.hasArray()) {
+            return new String(bytes.array(), bytes.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+        }
+        byte[] copy = new byte[end - start];
+        ByteBuffer source = bytes.duplicate();
+        source.limit(end).position(start);
+        source.get(copy);
+        return new String(copy, StandardCharsets.UTF_8);
+    }
+
+    private String valueString() {
+        return string(value, valueStart, valueEnd);
+    }
+
+    private int skipSpaces(int i) {
+        while (i < valueEnd && (value.get(i) & 0xFF) <= ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    private int trimSpaces(int from) {
+        int end = valueEnd;
+        while (end > from && (value.get(end - 1) & 0xFF) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    private int digits(int from, int count) {
+        int result = 0;
+        for (int i = from; i < from + count; i++) {
+            int digit = value.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            result = result * 10 + digit;
+        }
+        return result;
+    }
+
+    private NumberFormatException invalid(String what) {
+        return new NumberFormatException("For input string: \"" + valueString() + "\" (ожидалось " + what + ")");
+    }
+}
@@ -0,0 +1,123 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.StampedLock;
+
+// Поколение файла данных для чтения без блокировок (MVCC): свой канал чтения и прежнее содержимое строк,
+// переписанных на месте. Перед записью поверх строки писатель сохраняет ее прежние байты с номером версии,
+// которая их переписывает (preserve). Читатель версии v сначала читает строку из файла, затем проверяет lineAt:
+// если после v строку переписывали, прежние байты берутся из памяти. Дописанное в конец файла и строки,
+// которые никто не переписывал, читаются из файла как есть.
+// Прежние байты нужны, пока жива хотя бы одна версия старше записи; prune вызывает писатель.
+// Поиск по отображению файла в память разбирает строку прямо на страницах файла, поэтому запись поверх строки
+// и разбор этой строки не должны пересекаться: они берут блокировку строки (lineLock) на запись и на чтение.
+// Поколение меняется, когда файл данных подменяется (сжатие, восстановление, новая база): открытый канал
+// продолжает читать прежний файл. Канал закрывается, когда поколением перестают пользоваться (release).
+public class DataFileVersions implements Closeable {
+    private static final int LINE_LOCKS = 64; // блокировки строк по страницам 4 КБ
+    private final File file;
+    private final FileChannel channel;
+    private final ConcurrentHashMap<Long, Undo> undo = new ConcurrentHashMap<>(); // отступ -> последняя запись поверх
+    private final ArrayDeque<Undo> order = new ArrayDeque<>(); // записи по возрастанию версии, меняет только писатель
+    private final AtomicInteger users = new AtomicInteger(1);
+    private final StampedLock[] lineLocks = new StampedLock[LINE_LOCKS];
+
+    // Прежнее содержимое строки, переписанной версией version; older - содержимое до более ранней записи
+    private static final class Undo {
+        final long offset;
+        final long version;
+        final byte[] line;
+        volatile Undo older;
+        Undo newer; // только для писателя
+
+        Undo(long offset, long version, byte[] line) {
+            this.offset = offset;
+            this.version = version;
+            this.line = line;
+        }
+    }
+
+    public DataFileVersions(File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        for (int i = 0; i < LINE_LOCKS; i++) {
+            lineLocks[i] = new StampedLock();
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    // Канал для позиционного чтения, безопасен для параллельных читателей
+    public FileChannel channel() {
+        return channel;
+    }
+
+    // Вызывается писателем перед записью поверх строки offset: line - ее байты вместе с переводом строки
+    public void preserve(long offset, byte[] line, long version) {
+        Undo entry = new Undo(offset, version, line);
+        Undo head = undo.get(offset);
+        if (head != null) {
+            entry.older = head;
+            head.newer = entry;
+        }
+        undo.put(offset, entry);
+        order.add(entry);
+    }
+
+    // Блокировка строки offset: писатель держит ее на запись, пока пишет поверх строки,
+    // поиск по отображению - на чтение, пока разбирает строку
+    public StampedLock lineLock(long offset) {
+        return lineLocks[(int) (offset >>> 12) & (LINE_LOCKS - 1)];
+    }
+
+    // Байты строки offset в версии version, если ее переписали позже; null - в файле та же строка
+    public byte[] lineAt(long offset, long version) {
+        if (undo.isEmpty()) {
+            return null;
+        }
+        byte[] line = null;
+        for (Undo entry = undo.get(offset); entry != null && entry.version > version; entry = entry.older) {
+            line = entry.line;
+        }
+        return line;
+    }
+
+    // Прежние байты, которые не нужны версиям не старше oldest, освобождаются. Вызывается писателем
+    public void prune(long oldest) {
+        while (!order.isEmpty() && order.peek().version <= oldest) {
+            Undo entry = order.poll();
+            if (entry.newer != null) {
+                entry.newer.older = null;
+            } else {
+                undo.remove(entry.offset, entry);
+            }
+        }
+    }
+
+    public void retain() {
+        users.incrementAndGet();
+    }
+
+    // Канал закрывается, когда поколение отпустили все: движок и версии для чтения
+    public void release() {
+        if (users.decrementAndGet() == 0) {
+            try {
+                close();
+            } catch (IOException e) {
+                // канал только для чтения, ошибка закрытия ничего не теряет
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
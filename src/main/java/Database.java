@@ -0,0 +1,81 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Операции с базой данных, которыми пользуются интерфейс, модель таблицы и экспорт.
+// Реализации: StorageEngine (один файл данных) и ShardedStorageEngine (записи распределены по шардам).
+// Правила операций описаны у StorageEngine
+public interface Database extends Closeable {
+    File getDirectory();
+
+    boolean exists();
+
+    void create(String header) throws IOException;
+
+    void open() throws IOException;
+
+    Schema getSchema();
+
+    String[] getColumns();
+
+    boolean contains(int id);
+
+    boolean isDeleted(int id);
+
+    int size();
+
+    RecordCache.Stats getCacheStats();
+
+    String get(int id) throws IOException;
+
+    String[] getAll(int[] ids, int from, int to) throws IOException;
+
+    int[] ids() throws IOException;
+
+    boolean put(String record) throws IOException;
+
+    boolean update(int id, String record) throws IOException;
+
+    boolean delete(int id) throws IOException;
+
+    StorageEngine.LoadResult bulkLoad(File csvFile, StorageEngine.Progress progress) throws IOException;
+
+    void scanLines(CsvTokenizer.LineVisitor visitor, StorageEngine.Progress progress) throws IOException;
+
+    void findByField(String columnName, String value, Consumer<List<String>> consumer, StorageEngine.Progress progress) throws IOException;
+
+    List<String> findAll(CsvTokenizer.LinePredicate predicate) throws IOException;
+
+    int deleteByField(String columnName, String value) throws IOException;
+
+    boolean createIndex(String columnName) throws IOException;
+
+    boolean dropIndex(String columnName) throws IOException;
+
+    List<String> getIndexedColumns();
+
+    boolean createRangeIndex(String columnName, RangeIndex.Type type) throws IOException;
+
+    RangeIndex.Type getRangeIndexType(String columnName);
+
+    List<StorageEngine.RecordRef> findRange(String columnName, String from, String to) throws IOException;
+
+    void clear() throws IOException;
+
+    void drop() throws IOException;
+
+    // Копия, записанная writeSnapshot в эти файлы, существует
+    boolean hasCopy(File dbFile, File idFile);
+
+    void writeSnapshot(File targetDbFile, File targetIdFile, StorageEngine.Progress progress) throws IOException;
+
+    boolean restore(File sourceDbFile, File sourceIdFile) throws IOException;
+
+    BackupChain.Backup backup(File backupDirectory, boolean full, StorageEngine.Progress progress) throws IOException;
+
+    List<BackupChain.Backup> listBackups(File backupDirectory) throws IOException;
+
+    void restoreBackup(File backupDirectory, int number) throws IOException;
+}
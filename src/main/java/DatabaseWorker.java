@@ -0,0 +1,128 @@
+import javax.swing.*;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Фоновая операция с базой данных: work() выполняется вне потока Swing, остальные методы - в потоке Swing.
+// Ход операции приходит от StorageEngine через Progress и переводится в проценты (свойство progress),
+// отмена (cancel) прерывает операцию через тот же Progress. Поток не прерывается: прерывание закрыло бы
+// общий канал файла данных. Части результата, выданные через publish, приходят в received.
+// cancel завершает SwingWorker сразу (состояние DONE и done()), хотя work() еще идет до ближайшей проверки Progress,
+// поэтому итог операции (succeeded, cancelled, failed) и свойство FINISHED приходят только после возврата из work().
+public abstract class DatabaseWorker<T, V> extends SwingWorker<T, V> implements StorageEngine.Progress {
+    private final String title;
+    private final String errorMessage;
+    private final boolean cancellable;
+    private final AtomicBoolean claimed = new AtomicBoolean(); // work() запущен или уже не запустится
+    private boolean workReturned; // дальше - только в потоке Swing
+    private boolean futureDone;
+
+    // Свойство, которое меняется на true, когда work() вернул управление и итог операции обработан
+    public static final String FINISHED = "finished";
+
+    // title - название операции для строки состояния, errorMessage - начало сообщения об ошибке ввода-вывода.
+    // Отменять можно только операции, которые передают себя в StorageEngine как Progress
+    protected DatabaseWorker(String title, String errorMessage, boolean cancellable) {
+        this.title = title;
+        this.errorMessage = errorMessage;
+        this.cancellable = cancellable;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public boolean isCancellable() {
+        return cancellable;
+    }
+
+    protected abstract T work() throws IOException;
+
+    protected void succeeded(T result) {
+    }
+
+    protected void received(List<V> chunks) {
+    }
+
+    protected void cancelled() {
+    }
+
+    // Ошибка операции: IllegalArgumentException (неверный ввод, в том числе NumberFormatException) -
+    // с ее сообщением, остальные - с errorMessage
+    protected void failed(Throwable cause) {
+        showError(errorMessage, cause);
+    }
+
+    // Сообщение об ошибке операции в потоке Swing (так же сообщают об ошибках чтения и модели таблицы)
+    static void showError(String errorMessage, Throwable cause) {
+        String message = cause instanceof IllegalArgumentException ? "Ошибка: " + cause.getMessage() : errorMessage + cause.getMessage();
+        JOptionPane.showMessageDialog(null, message, "Ошибка", JOptionPane.ERROR_MESSAGE);
+    }
+
+    @Override
+    public boolean update(long done, long total) {
+        setProgress(total <= 0 ? 100 : (int) Math.min(100, done * 100 / total));
+        return !isCancelled();
+    }
+
+    @Override
+    protected final T doInBackground() throws IOException {
+        if (!claimed.compareAndSet(false, true)) {
+            return null;
+        }
+        try {
+            return work();
+        } finally {
+            SwingUtilities.invokeLater(() -> {
+                workReturned = true;
+                complete();
+            });
+        }
+    }
+
+    @Override
+    protected final void process(List<V> chunks) {
+        if (!isCancelled()) {
+            received(chunks);
+        }
+    }
+
+    @Override
+    protected final void done() {
+        futureDone = true;
+        if (claimed.compareAndSet(false, true)) {
+            workReturned = true; // отменена до запуска, work() не вызывался
+        }
+        complete();
+    }
+
+    // Итог операции, когда завершились и SwingWorker, и сам work()
+    private void complete() {
+        if (!workReturned || !futureDone) {
+            return;
+        }
+        try {
+            outcome();
+        } finally {
+            firePropertyChange(FINISHED, false, true);
+        }
+    }
+
+    private void outcome() {
+        try {
+            succeeded(get());
+        } catch (CancellationException e) {
+            cancelled();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof CancellationException) {
+                cancelled();
+            } else {
+                failed(e.getCause());
+            }
+        }
+    }
+}
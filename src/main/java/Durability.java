@@ -0,0 +1,10 @@
+// Режим сброса журнала упреждающей записи (WriteAheadLog) на диск
+public enum Durability {
+    // fsync после каждой операции, операция возвращается после сброса
+    SYNC,
+    // групповой сброс: операции копятся, пока идет предыдущий fsync (или groupCommitMillis / groupCommitRecords),
+    // и сбрасываются одним fsync; операция возвращается после сброса своей группы
+    GROUP,
+    // фоновый сброс без ожидания: при сбое могут потеряться последние операции, но файл и индекс останутся согласованы
+    ASYNC
+}
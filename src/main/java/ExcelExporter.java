@@ -0,0 +1,189 @@
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+// Потоковый экспорт живых записей в .xlsx (SXSSF): в памяти держится только окно последних ROW_WINDOW строк,
+// остальные сбрасываются во временный файл, поэтому память не зависит от числа записей.
+// Ячейки типизированы: в типизированной базе по схеме, в базе без типов - по виду значения
+// (числа, даты yyyy-MM-dd, true/false); значение, которое не разбирается, пишется строкой.
+// Когда лист заполнен (1 048 576 строк вместе с заголовком), экспорт продолжается на следующем листе.
+// Ширина столбцов оценивается по первым WIDTH_SAMPLE записям вместо autoSizeColumn по всем строкам.
+public class ExcelExporter {
+    static final int ROW_WINDOW = 100;
+    static final int WIDTH_SAMPLE = 1000;
+    private static final int MAX_COLUMN_WIDTH = 80; // в символах
+    private static final String SHEET_NAME = "Database";
+
+    private final Database engine;
+    private final int maxRowsPerSheet;
+
+    public ExcelExporter(Database engine) {
+        this(engine, SpreadsheetVersion.EXCEL2007.getMaxRows());
+    }
+
+    ExcelExporter(Database engine, int maxRowsPerSheet) {
+        this.engine = engine;
+        this.maxRowsPerSheet = maxRowsPerSheet;
+    }
+
+    // Экспорт в файл, возвращает количество записей. При отмене через progress недописанный файл удаляется
+    public long export(File target, StorageEngine.Progress progress) throws IOException {
+        boolean written = false;
+        try (OutputStream out = new FileOutputStream(target)) {
+            long rows = export(out, progress);
+            written = true;
+            return rows;
+        } finally {
+            if (!written) {
+                target.delete();
+            }
+        }
+    }
+
+    public long export(OutputStream out, StorageEngine.Progress progress) throws IOException {
+        SXSSFWorkbook workbook = new SXSSFWorkbook(ROW_WINDOW);
+        workbook.setCompressTempFiles(true);
+        try {
+            Writer writer = new Writer(workbook, engine.getSchema(), engine.getColumns());
+            engine.scanLines(writer::write, progress);
+            writer.finish();
+            workbook.write(out);
+            return writer.records;
+        } finally {
+            workbook.dispose(); // временные файлы листов
+            workbook.close();
+        }
+    }
+
+    // Запись строк с переходом на новый лист и оценкой ширины столбцов
+    private final class Writer {
+        private final SXSSFWorkbook workbook;
+        private final Schema schema;
+        private final String[] columns;
+        private final CellStyle dateStyle;
+        private final int[] widths; // наибольшая длина значения столбца в выборке
+        private final List<Sheet> sheets = new ArrayList<>();
+        private Sheet sheet;
+        private int rowNum;
+        private long records;
+
+        Writer(SXSSFWorkbook workbook, Schema schema, String[] columns) {
+            this.workbook = workbook;
+            this.schema = schema;
+            this.columns = columns;
+            this.dateStyle = workbook.createCellStyle();
+            dateStyle.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat("yyyy-mm-dd"));
+            this.widths = new int[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                widths[i] = columns[i].trim().length();
+            }
+            newSheet();
+        }
+
+        void write(CsvTokenizer line) {
+            if (rowNum == maxRowsPerSheet) {
+                newSheet();
+            }
+            Row row = sheet.createRow(rowNum++);
+            for (int colNum = 0; colNum < line.fieldCount(); colNum++) {
+                String value = line.field(colNum).trim();
+                if (value.isEmpty()) {
+                    continue;
+                }
+                setValue(row.createCell(colNum), colNum, value);
+                if (records < WIDTH_SAMPLE && colNum < widths.length) {
+                    widths[colNum] = Math.max(widths[colNum], value.length());
+                }
+            }
+            records++;
+        }
+
+        void finish() {
+            for (Sheet each : sheets) {
+                for (int colNum = 0; colNum < widths.length; colNum++) {
+                    each.setColumnWidth(colNum, (Math.min(widths[colNum], MAX_COLUMN_WIDTH) + 2) * 256);
+                }
+            }
+        }
+
+        // Каждый лист начинается с названий столбцов
+        private void newSheet() {
+            sheet = workbook.createSheet(sheets.isEmpty() ? SHEET_NAME : SHEET_NAME + " " + (sheets.size() + 1));
+            sheets.add(sheet);
+            Row header = sheet.createRow(0);
+            for (int colNum = 0; colNum < columns.length; colNum++) {
+                header.createCell(colNum).setCellValue(columns[colNum].trim());
+            }
+            rowNum = 1;
+        }
+
+        private void setValue(Cell cell, int column, String value) {
+            Schema.Type type = column < schema.size() && schema.isTyped() ? schema.getType(column) : guessType(value);
+            try {
+                switch (type) {
+                    case INT:
+                    case DECIMAL:
+                        cell.setCellValue(Double.parseDouble(value));
+                        return;
+                    case DATE:
+                        cell.setCellValue(LocalDate.parse(value));
+                        cell.setCellStyle(dateStyle);
+                        return;
+                    case BOOLEAN:
+                        if (value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false")) {
+                            cell.setCellValue(Boolean.parseBoolean(value));
+                            return;
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            } catch (NumberFormatException | DateTimeException e) {
+                // значение не соответствует типу - остается строкой
+            }
+            cell.setCellValue(value);
+        }
+    }
+
+    // Тип значения в базе без типов. Числа с ведущими нулями ("007") и длиннее 15 цифр остаются строками,
+    // чтобы коды и номера не теряли нули и точность
+    static Schema.Type guessType(String value) {
+        if (value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false")) {
+            return Schema.Type.BOOLEAN;
+        }
+        if (value.length() == 10 && value.charAt(4) == '-' && value.charAt(7) == '-'
+                && Character.isDigit(value.charAt(0)) && Character.isDigit(value.charAt(9))) {
+            return Schema.Type.DATE;
+        }
+        int i = value.charAt(0) == '-' ? 1 : 0;
+        int digits = 0;
+        boolean point = false;
+        for (int j = i; j < value.length(); j++) {
+            char c = value.charAt(j);
+            if (c == '.' && !point && digits > 0) {
+                point = true;
+            } else if (c >= '0' && c <= '9') {
+                digits++;
+            } else {
+                return Schema.Type.STRING;
+            }
+        }
+        boolean leadingZero = value.length() > i + 1 && value.charAt(i) == '0' && value.charAt(i + 1) != '.';
+        if (digits == 0 || digits > 15 || leadingZero || value.endsWith(".")) {
+            return Schema.Type.STRING;
+        }
+        return Schema.Type.DECIMAL;
+    }
+}
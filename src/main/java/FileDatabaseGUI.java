@@ -1,46 +1,50 @@
-import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
-
 import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.*;
-import java.nio.file.FileAlreadyExistsException;
-import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
-import java.util.ArrayList;
-import java.util.HashMap;
 
 public class FileDatabaseGUI extends JFrame {
     private JTable table;
-    private DefaultTableModel tableModel;
+    private RecordTableModel tableModel;
+    private final JPanel buttonPanel = new JPanel();
+    private final JPanel buttonPanelUp = new JPanel();
+    private final JLabel statusLabel = new JLabel(" ");
+    private final JProgressBar progressBar = new JProgressBar(0, 100);
+    private final JButton cancelButton = new JButton("Отмена");
+    private DatabaseWorker<?, ?> currentWorker; // последняя запущенная операция, ее отменяет кнопка "Отмена"
+    private int runningWorkers;
     private final String fileName;
     private final String idFileName;
     private final String directory;
-    private final HashMap<Integer, Long> map = new HashMap<>();
+    private final Database engine;
 
-    public FileDatabaseGUI(String fileName, String idFileName, String directory) {
+    // shards - на сколько шардов делится новая база; существующая открывается со своим числом шардов
+    public FileDatabaseGUI(String fileName, String idFileName, String directory, int shards) {
         this.directory = directory;
         this.fileName = fileName;
         this.idFileName = idFileName;
+        this.engine = new ShardedStorageEngine(directory, fileName, idFileName, shards);
 
         setTitle("Управление базой данных");
         setSize(600, 500);
-        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
         setLocationRelativeTo(null);
         setLayout(new BorderLayout());
-        JPanel panel = new JPanel();
+        JPanel panel = buttonPanel;
         JPanel panelCenter = new JPanel();
-        JPanel panelUp = new JPanel();
+        JPanel panelUp = buttonPanelUp;
         panel.setLayout(new GridLayout(2, 1));
         panelUp.setLayout(new GridLayout(2, 1));
 
-        tableModel = new DefaultTableModel();
+        tableModel = new RecordTableModel(engine);
         JTable table = new JTable(tableModel);
         JScrollPane scrollPane = new JScrollPane(table);
         panelCenter.add(scrollPane);
@@ -79,6 +83,11 @@ public class FileDatabaseGUI extends JFrame {
         addButton.addActionListener(e -> addRecord());
         panelUp.add(addButton);
 
+        JButton bulkLoadButton = new JButton("Загрузить записи из CSV");
+        bulkLoadButton.setFocusable(false);
+        bulkLoadButton.addActionListener(e -> bulkLoadFromCsv());
+        panelUp.add(bulkLoadButton);
+
         JButton deleteIdButton = new JButton("Удалить запись по ключевому полю");
         deleteIdButton.setFocusable(false);
         deleteIdButton.addActionListener(e -> deleteRecordById());
@@ -99,6 +108,16 @@ public class FileDatabaseGUI extends JFrame {
         searchByFieldButton.addActionListener(e -> searchByField());
         panelUp.add(searchByFieldButton);
 
+        JButton rangeButton = new JButton("Поиск по диапазону");
+        rangeButton.setFocusable(false);
+        rangeButton.addActionListener(e -> searchByRange());
+        panelUp.add(rangeButton);
+
+        JButton indexButton = new JButton("Индекс по неключевому полю");
+        indexButton.setFocusable(false);
+        indexButton.addActionListener(e -> createFieldIndex());
+        panelUp.add(indexButton);
+
         JButton editButton = new JButton("Редактировать запись");
         editButton.setFocusable(false);
         editButton.addActionListener(e -> editRecord());
@@ -119,14 +138,121 @@ public class FileDatabaseGUI extends JFrame {
         importDbButton.setFocusable(false);
         panel.add(importDbButton);
 
-        add(panel, BorderLayout.SOUTH);
+        // Строка состояния фоновой операции: название, ход и отмена
+        JPanel statusPanel = new JPanel(new BorderLayout(5, 0));
+        progressBar.setVisible(false);
+        cancelButton.setFocusable(false);
+        cancelButton.setEnabled(false);
+        cancelButton.addActionListener(e -> {
+            if (currentWorker != null) {
+                currentWorker.cancel(false);
+            }
+        });
+        statusPanel.add(statusLabel, BorderLayout.WEST);
+        statusPanel.add(progressBar, BorderLayout.CENTER);
+        statusPanel.add(cancelButton, BorderLayout.EAST);
+        JPanel panelDown = new JPanel(new BorderLayout());
+        panelDown.add(panel, BorderLayout.CENTER);
+        panelDown.add(statusPanel, BorderLayout.SOUTH);
+
+        add(panelDown, BorderLayout.SOUTH);
         add(panelUp, BorderLayout.NORTH);
         add(scrollPane, BorderLayout.CENTER);
 
+        // При закрытии окна текущая операция отменяется, индекс смещений сохраняется в фоне, затем программа завершается
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                if (currentWorker != null && currentWorker.isCancellable()) {
+                    currentWorker.cancel(false);
+                }
+                runInBackground(new DatabaseWorker<Void, Void>("Сохранение индексов", "Ошибка при сохранении индексов: ", false) {
+                    @Override
+                    protected Void work() throws IOException {
+                        engine.close();
+                        return null;
+                    }
+
+                    @Override
+                    protected void failed(Throwable cause) {
+                        super.failed(cause);
+                        exit();
+                    }
+
+                    @Override
+                    protected void succeeded(Void result) {
+                        exit();
+                    }
+                });
+            }
+        });
+
+        // Открываем существующую базу данных, чтобы с ней можно было работать сразу
+        if (engine.exists()) {
+            runInBackground(new DatabaseWorker<int[], Void>("Открытие базы данных", "Ошибка при открытии базы данных: ", false) {
+                @Override
+                protected int[] work() throws IOException {
+                    engine.open();
+                    return engine.ids();
+                }
+
+                @Override
+                protected void succeeded(int[] ids) {
+                    tableModel.load(engine.getColumns(), ids);
+                }
+            });
+        }
+    }
+
+    private void exit() {
+        dispose();
+        System.exit(0);
+    }
+
+    // Запуск фоновой операции: кнопки отключаются до окончания всех запущенных операций
+    // (отмененная операция заканчивается, когда ее work() вернул управление), ход последней показывается в строке состояния
+    private void runInBackground(DatabaseWorker<?, ?> worker) {
+        currentWorker = worker;
+        runningWorkers++;
+        setButtonsEnabled(false);
+        statusLabel.setText(worker.getTitle() + "...");
+        progressBar.setValue(0);
+        progressBar.setIndeterminate(!worker.isCancellable());
+        progressBar.setVisible(true);
+        cancelButton.setEnabled(worker.isCancellable());
+        worker.addPropertyChangeListener(e -> {
+            if ("progress".equals(e.getPropertyName()) && worker == currentWorker) {
+                progressBar.setValue((Integer) e.getNewValue());
+            } else if (DatabaseWorker.FINISHED.equals(e.getPropertyName())) {
+                finished(worker);
+            }
+        });
+        worker.execute();
+    }
+
+    private void finished(DatabaseWorker<?, ?> worker) {
+        runningWorkers--;
+        if (worker == currentWorker) {
+            currentWorker = null;
+            statusLabel.setText(worker.isCancelled() ? worker.getTitle() + ": отменено" : " ");
+            progressBar.setVisible(false);
+            cancelButton.setEnabled(false);
+        }
+        if (runningWorkers == 0) {
+            setButtonsEnabled(true);
+        }
+    }
+
+    private void setButtonsEnabled(boolean enabled) {
+        for (JPanel panel : new JPanel[]{buttonPanel, buttonPanelUp}) {
+            for (Component component : panel.getComponents()) {
+                component.setEnabled(enabled);
+            }
+        }
     }
 
     private void createDatabase() {
-        String header = JOptionPane.showInputDialog(this, "Введите заголовок базы данных:", "Создание базы данных", JOptionPane.PLAIN_MESSAGE);
+        String header = JOptionPane.showInputDialog(this, "Введите заголовок базы данных (тип столбца можно указать через двоеточие, например Price:decimal):", "Создание базы данных", JOptionPane.PLAIN_MESSAGE);
         if (header != null && !header.isEmpty()) {
 
             // Создаем директорию, если она не существует
@@ -139,45 +265,30 @@ public class FileDatabaseGUI extends JFrame {
                 JOptionPane.showMessageDialog(this, "Директория с именем '" + directory + "' уже существует.", "Создание базы данных", JOptionPane.ERROR_MESSAGE);
             }
 
-
-            // Полные пути к файлам
-            File dbFile = new File(dbDirectory, fileName);
-            File idFile = new File(dbDirectory, idFileName);
-
             // Проверяем, существует ли файл базы данных
-            if (dbFile.exists()) {
+            if (engine.exists()) {
                 // Если файл существует, запрашиваем у пользователя, хочет ли он перезаписать его
                 int ans = JOptionPane.showConfirmDialog(this, "Файл базы данных уже существует. Перезаписать? ", "Создание базы данных", JOptionPane.YES_NO_OPTION);
                 if (ans == JOptionPane.NO_OPTION) {
                     JOptionPane.showMessageDialog(this, "Создание базы данных отменено.", "Создание базы данных", JOptionPane.INFORMATION_MESSAGE);
                     return;
                 }
-                // Удаляем существующий файл
-                if (!dbFile.delete()) {
-                    JOptionPane.showMessageDialog(this, "Ошибка при удалении существующего файла базы данных.", "Создание базы данных", JOptionPane.ERROR_MESSAGE);
-                    return;
-                }
             }
 
             // Создаем новый файл базы данных и индексный файл
-            try {
-                // Создание базы данных
-                Files.createFile(dbFile.toPath());
-                try (BufferedWriter writer = new BufferedWriter(new FileWriter(dbFile))) {
-                    // Записываем заголовок в файл
-                    writer.write(header);
-                    writer.newLine();
-                    JOptionPane.showMessageDialog(this, "База данных успешно создана.", "Создание базы данных", JOptionPane.INFORMATION_MESSAGE);
-                    String[] columns = header.split(",");
-                    tableModel.setColumnIdentifiers(columns);
-                    tableModel.setRowCount(0);
-                }
-
-            } catch (FileAlreadyExistsException e) {
-                JOptionPane.showMessageDialog(this, "Ошибка: Файл уже существует: " + e.getMessage(), "Создание базы данных", JOptionPane.ERROR_MESSAGE);
-            } catch (IOException e) {
-                JOptionPane.showMessageDialog(this, "Ошибка при создании базы данных: " + e.getMessage(), "Создание базы данных", JOptionPane.ERROR_MESSAGE);
-            }
+            runInBackground(new DatabaseWorker<Void, Void>("Создание базы данных", "Ошибка при создании базы данных: ", false) {
+                @Override
+                protected Void work() throws IOException {
+                    engine.create(header);
+                    return null;
+                }
+
+                @Override
+                protected void succeeded(Void result) {
+                    JOptionPane.showMessageDialog(FileDatabaseGUI.this, "База данных успешно создана.", "Создание базы данных", JOptionPane.INFORMATION_MESSAGE);
+                    tableModel.load(engine.getColumns(), new int[0]);
+                }
+            });
         } else {
             JOptionPane.showMessageDialog(this, "Заголовок не может быть пустым!", "Ошибка", JOptionPane.ERROR_MESSAGE);
         }
@@ -186,84 +297,54 @@ public class FileDatabaseGUI extends JFrame {
     private void deleteDatabase() {
         int confirm = JOptionPane.showConfirmDialog(this, "Вы уверены, что хотите удалить базу данных?", "Удаление базы данных", JOptionPane.YES_NO_OPTION);
         if (confirm == JOptionPane.YES_OPTION) {
-
-            File dbDirectory = new File(directory);
-            File dbFile = new File(dbDirectory, fileName);
-            File idFile = new File(dbDirectory, idFileName);
-
-            // Удаление файла с оффсетами
-            if (idFile.exists()) {
-                if (idFile.delete()) {
-                    JOptionPane.showMessageDialog(this, "Файл индексов успешно удален.", "Удаление базы данных", JOptionPane.INFORMATION_MESSAGE);
-                } else {
-                    JOptionPane.showMessageDialog(this, "Ошибка при удалении файла индексов.", "Удаление базы данных", JOptionPane.ERROR_MESSAGE);
-                }
-            } else {
-                JOptionPane.showMessageDialog(this, "Файл индексов не найден.", "Удаление базы данных", JOptionPane.WARNING_MESSAGE);
-            }
-
-            // Удаление файла базы данных
-            if (dbFile.exists()) {
-                if (dbFile.delete()) {
-                    JOptionPane.showMessageDialog(this, "База данных успешно удалена.", "Удаление базы данных", JOptionPane.INFORMATION_MESSAGE);
-                    tableModel.setRowCount(0);
-                    tableModel.setColumnIdentifiers(new Object[0]);
-                } else {
-                    JOptionPane.showMessageDialog(this, "Ошибка при удалении базы данных.", "Удаление базы данных", JOptionPane.ERROR_MESSAGE);
-                }
-            } else {
+            if (!engine.exists()) {
                 JOptionPane.showMessageDialog(this, "База данных не найдена.", "Удаление базы данных", JOptionPane.WARNING_MESSAGE);
+                return;
             }
 
-            // Удаление директории, если она пуста
-            if (dbDirectory.isDirectory() && dbDirectory.list().length == 0) {
-                if (dbDirectory.delete()) {
-                    JOptionPane.showMessageDialog(this, "Директория '" + directory + "' успешно удалена.", "Удаление базы данных", JOptionPane.INFORMATION_MESSAGE);
-                } else {
-                    JOptionPane.showMessageDialog(this, "Ошибка при удалении директории '" + directory + "'.", "Удаление базы данных", JOptionPane.ERROR_MESSAGE);
+            // Удаление файлов базы данных и индексов, а также директории, если она пуста
+            runInBackground(new DatabaseWorker<Void, Void>("Удаление базы данных", "Ошибка при удалении базы данных: ", false) {
+                @Override
+                protected Void work() throws IOException {
+                    engine.drop();
+                    return null;
                 }
-            }
 
+                @Override
+                protected void succeeded(Void result) {
+                    JOptionPane.showMessageDialog(FileDatabaseGUI.this, "База данных успешно удалена.", "Удаление базы данных", JOptionPane.INFORMATION_MESSAGE);
+                    tableModel.clear();
+                }
+            });
         }
     }
 
     private void clearDatabase() {
         int confirm = JOptionPane.showConfirmDialog(this, "Вы уверены, что хотите очистить базу данных?", "Чистка базы данных", JOptionPane.YES_NO_OPTION);
         if (confirm == JOptionPane.YES_OPTION) {
-            // Очищаем хэш-мапу
-            map.clear();
-
-            // Полные пути к файлам базы данных и индексов
-            File dbFile = new File(directory, fileName);
-            File idFile = new File(directory, idFileName);
-
-            // Читаем заголовок из файла базы данных
-            try (BufferedReader reader = new BufferedReader(new FileReader(dbFile))) {
-                String header = reader.readLine(); // Читаем заголовок
-
-                // Записываем только заголовок обратно в файл базы данных
-                try (BufferedWriter writer = new BufferedWriter(new FileWriter(dbFile))) {
-                    writer.write(header); // Записываем только заголовок
-                    writer.newLine(); // Добавляем новую строку после заголовка
-                    JOptionPane.showMessageDialog(this, "База данных успешно очищена.", "Очистка базы данных", JOptionPane.INFORMATION_MESSAGE);
-                    tableModel.setRowCount(0);
-                } catch (IOException e) {
-                    JOptionPane.showMessageDialog(this, "Ошибка при записи в базу данных: " + e.getMessage(), "Очистка базы данных", JOptionPane.ERROR_MESSAGE);
+            // Записываем только заголовок обратно в файл базы данных и очищаем файл индексов
+            runInBackground(new DatabaseWorker<Void, Void>("Очистка базы данных", "Ошибка при записи в базу данных: ", false) {
+                @Override
+                protected Void work() throws IOException {
+                    engine.clear();
+                    return null;
                 }
 
-                // Очищаем файл айдишников
-                try (BufferedWriter writer = new BufferedWriter(new FileWriter(idFile))) {
-                    // Ничего не пишем, просто очищаем файл
-                    JOptionPane.showMessageDialog(this, "Файл индексов успешно очищен.", "Очистка базы данных", JOptionPane.INFORMATION_MESSAGE);
-                } catch (IOException e) {
-                    JOptionPane.showMessageDialog(this, "Ошибка при записи в файл индексов: " + e.getMessage(), "Очистка базы данных", JOptionPane.ERROR_MESSAGE);
+                @Override
+                protected void succeeded(Void result) {
+                    JOptionPane.showMessageDialog(FileDatabaseGUI.this, "База данных успешно очищена.", "Очистка базы данных", JOptionPane.INFORMATION_MESSAGE);
+                    tableModel.load(engine.getColumns(), new int[0]);
                 }
 
-            } catch (FileNotFoundException e) {
-                JOptionPane.showMessageDialog(this, "Файл базы данных не найден: " + e.getMessage(), "Очистка базы данных", JOptionPane.ERROR_MESSAGE);
-            } catch (IOException e) {
-                JOptionPane.showMessageDialog(this, "Ошибка при чтении файла базы данных: " + e.getMessage(), "Очистка базы данных", JOptionPane.ERROR_MESSAGE);
-            }
+                @Override
+                protected void failed(Throwable cause) {
+                    if (cause instanceof FileNotFoundException) {
+                        JOptionPane.showMessageDialog(FileDatabaseGUI.this, "Файл базы данных не найден: " + cause.getMessage(), "Очистка базы данных", JOptionPane.ERROR_MESSAGE);
+                    } else {
+                        super.failed(cause);
+                    }
+                }
+            });
         }
     }
 
@@ -302,90 +383,48 @@ public class FileDatabaseGUI extends JFrame {
         File dbDirectory = new File(dbDirectoryPath); // Директория для сохранённой базы данных
         File backupDbFile = new File(dbDirectory, fileName + "_saved.backup"); // Файл бэкапа базы данных
         File backupIdFile = new File(dbDirectory, idFileName + "_saved.backup"); // Файл бэкапа ID
-        File databaseFile = new File(directory, fileName); // Основной файл базы данных
-        File dbDirectoryOld = new File(directory);
 
-        if (!backupDbFile.exists() || !backupIdFile.exists()) {
+        if (!engine.hasCopy(backupDbFile, backupIdFile)) {
             JOptionPane.showMessageDialog(null, "Ошибка: Не найдены файлы бэкапа базы данных или ID.", "Ошибка", JOptionPane.ERROR_MESSAGE);
             return;
         }
 
-        try {
-            if (!dbDirectoryOld.exists()) {
-                if (dbDirectoryOld.mkdirs()) {
-                    JOptionPane.showMessageDialog(null, "Директория '" + directory + "' успешно создана.", "Информация", JOptionPane.INFORMATION_MESSAGE);
-                } else {
-                    JOptionPane.showMessageDialog(null, "Ошибка при создании директории '" + directory + "'.", "Ошибка", JOptionPane.ERROR_MESSAGE);
-                    return; // Выход из метода, если не удалось создать директорию
-                }
-            }
-
-            // Проверяем существует ли база данных
-            if (!databaseFile.exists()) {
-                // Create the database file
-                if (databaseFile.createNewFile()) {
-                    JOptionPane.showMessageDialog(null, "Файл базы данных успешно создан: " + databaseFile.getPath(), "Информация", JOptionPane.INFORMATION_MESSAGE);
-
-                    // Копируем содержимое из сохраненной базы данных в текущую базу данных чтобы можно было с ней работать
-                    try (BufferedReader backupDbReader = new BufferedReader(new FileReader(backupDbFile));
-                         BufferedWriter databaseWriter = new BufferedWriter(new FileWriter(databaseFile))) {
+        runInBackground(new DatabaseWorker<int[], Void>("Открытие базы данных", "Ошибка при загрузке базы данных: ", false) {
+            private boolean restored;
 
-                        String line;
-                        while ((line = backupDbReader.readLine()) != null) {
-                            databaseWriter.write(line);
-                            databaseWriter.newLine();
-                        }
-                    }
-                } else {
-                    JOptionPane.showMessageDialog(null, "Ошибка: не удалось создать файл базы данных.", "Ошибка", JOptionPane.ERROR_MESSAGE);
-                    return;
-                }
+            @Override
+            protected int[] work() throws IOException {
+                // Копируем сохраненную базу данных в текущую, если текущей еще нет, и загружаем индекс
+                restored = engine.restore(backupDbFile, backupIdFile);
+                return engine.ids();
             }
 
-            // Загружаем айдишники из файла в хэш-мапу
-            try (BufferedReader backupIdReader = new BufferedReader(new FileReader(backupIdFile))) {
-                String line;
-                while ((line = backupIdReader.readLine()) != null) {
-                    String[] parts = line.split(",");
-
-                    if (parts.length == 2) {
-                        int id = Integer.parseInt(parts[0]);
-                        long mappingValue = Long.parseLong(parts[1]);
-                        map.put(id, mappingValue);
-                    }
+            @Override
+            protected void succeeded(int[] ids) {
+                if (restored) {
+                    JOptionPane.showMessageDialog(null, "База данных успешно создана: " + engine.getDirectory().getPath(), "Информация", JOptionPane.INFORMATION_MESSAGE);
                 }
-            }
 
-            try (BufferedReader backupDbReader = new BufferedReader(new FileReader(backupDbFile))) {
-                String header = backupDbReader.readLine();
-                if (header == null || header.isEmpty()) {
+                String[] columns = engine.getColumns();
+                if (columns.length == 0) {
                     JOptionPane.showMessageDialog(null, "Ошибка: База данных пуста.",
                             "Ошибка", JOptionPane.ERROR_MESSAGE);
                     return;
                 }
-                String[] columnNames = header.split(",");
-                DefaultTableModel tableModel = new DefaultTableModel(columnNames, 0);
-
-                String line;
-                while ((line = backupDbReader.readLine()) != null) {
-                    String[] rowData = line.split(",");
-                    tableModel.addRow(rowData);
-                }
+                tableModel.load(columns, ids);
 
                 // Отображаем данные в JTable
-                JTable table = new JTable(tableModel);
+                RecordTableModel model = new RecordTableModel(engine);
+                model.load(columns, ids.clone());
+                JTable table = new JTable(model);
                 JScrollPane scrollPane = new JScrollPane(table);
                 JFrame frame = new JFrame("Данные из базы данных");
                 frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
                 frame.add(scrollPane);
                 frame.setSize(800, 600);
                 frame.setVisible(true);
-
             }
-
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(null, "Ошибка при загрузке базы данных", "Ошибка", JOptionPane.ERROR_MESSAGE);
-        }
+        });
     }
 
     private void saveDatabase(String targetDirectoryPath) {
@@ -399,109 +438,85 @@ public class FileDatabaseGUI extends JFrame {
 
 
     private void rewriteTo(File targetDirectory, File dbDirectory, File backupDbFile, File backupIdFile) {
-        try {
-            // Создаем корневую директорию для бэкапов, если она не существует
-            if (!targetDirectory.exists()) {
-                if (targetDirectory.mkdir()) {
-                    JOptionPane.showMessageDialog(null, "Директория успешно создана: " + targetDirectory.getPath(),
-                            "Создание директории", JOptionPane.INFORMATION_MESSAGE);
-                } else {
-                    JOptionPane.showMessageDialog(null, "Ошибка: не удалось создать директорию.",
-                            "Ошибка", JOptionPane.ERROR_MESSAGE);
-                    return;
-                }
-            }
-
-            // Создаем директорию db_backup, если она не существует
-            if (!dbDirectory.exists()) {
-                if (dbDirectory.mkdir()) {
-                    JOptionPane.showMessageDialog(null, "Директория для бэкапов базы данных успешно создана: " + dbDirectory.getPath(),
-                            "Создание директории", JOptionPane.INFORMATION_MESSAGE);
-                } else {
-                    JOptionPane.showMessageDialog(null, "Ошибка: не удалось создать директорию для бэкапов базы данных.",
-                            "Ошибка", JOptionPane.ERROR_MESSAGE);
-                    return;
-                }
-            }
-
-            // Проверяем существование файлов бэкапов и создаем их, если они не существуют
-            if (!backupDbFile.exists() && !backupDbFile.createNewFile()) {
-                JOptionPane.showMessageDialog(null, "Ошибка: не удалось создать файл бэкапа базы данных.",
+        // Создаем корневую директорию для бэкапов, если она не существует
+        if (!targetDirectory.exists()) {
+            if (targetDirectory.mkdir()) {
+                JOptionPane.showMessageDialog(null, "Директория успешно создана: " + targetDirectory.getPath(),
+                        "Создание директории", JOptionPane.INFORMATION_MESSAGE);
+            } else {
+                JOptionPane.showMessageDialog(null, "Ошибка: не удалось создать директорию.",
                         "Ошибка", JOptionPane.ERROR_MESSAGE);
                 return;
             }
-            if (!backupIdFile.exists() && !backupIdFile.createNewFile()) {
-                JOptionPane.showMessageDialog(null, "Ошибка: не удалось создать файл бэкапа индексов.",
+        }
+
+        // Создаем директорию db_backup, если она не существует
+        if (!dbDirectory.exists()) {
+            if (dbDirectory.mkdir()) {
+                JOptionPane.showMessageDialog(null, "Директория для бэкапов базы данных успешно создана: " + dbDirectory.getPath(),
+                        "Создание директории", JOptionPane.INFORMATION_MESSAGE);
+            } else {
+                JOptionPane.showMessageDialog(null, "Ошибка: не удалось создать директорию для бэкапов базы данных.",
                         "Ошибка", JOptionPane.ERROR_MESSAGE);
                 return;
             }
+        }
 
-
+        if (engine.hasCopy(backupDbFile, backupIdFile)) {
             int ans = JOptionPane.showConfirmDialog(null, "База данных с таким именем уже существует. Перезаписать? ", "База данных уже существует", JOptionPane.YES_NO_OPTION);
-            if (ans == JOptionPane.YES_OPTION) {
-                // Создаем файлы бэкапа с фильтрацией записей
-                try (BufferedReader reader = new BufferedReader(new FileReader(new File(directory, fileName)));
-                     BufferedWriter backupDbWriter = new BufferedWriter(new FileWriter(backupDbFile));
-                     BufferedWriter backupIdWriter = new BufferedWriter(new FileWriter(backupIdFile))) {
-
-                    String header = reader.readLine(); // Читаем заголовок
-                    if (header != null) {
-                        backupDbWriter.write(header);
-                        backupDbWriter.newLine();
-                    }
-
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        String[] fields = line.split(",");
-
-                        // Проверяем, что ID корректен
-                        if (fields.length > 0) {
-                            int id = Integer.parseInt(fields[0]);
-
-                            // Если запись не удалена, добавляем ее в бэкап
-                            if (map.containsKey(id) && map.get(id) != -1L) {
-                                backupDbWriter.write(line);
-                                backupDbWriter.newLine();
-                                backupIdWriter.write(id + "," + map.get(id));
-                                backupIdWriter.newLine();
-                            }
-                        }
-                    }
-
-                    JOptionPane.showMessageDialog(null, "Бэкап базы данных успешно создан в директории: " + dbDirectory.getPath(),
-                            "Успех", JOptionPane.INFORMATION_MESSAGE);
-                } catch (IOException e) {
-                    JOptionPane.showMessageDialog(null, "Ошибка при создании бэкапа базы данных: " + e.getMessage(),
-                            "Ошибка", JOptionPane.ERROR_MESSAGE);
-                }
-            } else {
+            if (ans != JOptionPane.YES_OPTION) {
                 JOptionPane.showMessageDialog(null, "Сохранение базы данных отменено.",
                         "Отмена", JOptionPane.INFORMATION_MESSAGE);
+                return;
             }
-        } catch (IOException e) {
-                JOptionPane.showMessageDialog(null, "Ошибка при создании бэкапа базы данных: " + e.getMessage(),
-                        "Ошибка", JOptionPane.ERROR_MESSAGE);
         }
+
+        // Копируем снимок базы на момент нажатия, добавление и редактирование записей во время копии не ждут;
+        // при отмене недописанные файлы удаляются
+        runInBackground(new DatabaseWorker<Void, Void>("Создание бэкапа", "Ошибка при создании бэкапа базы данных: ", true) {
+            @Override
+            protected Void work() throws IOException {
+                engine.writeSnapshot(backupDbFile, backupIdFile, this);
+                return null;
+            }
+
+            @Override
+            protected void succeeded(Void result) {
+                JOptionPane.showMessageDialog(null, "Бэкап базы данных успешно создан в директории: " + dbDirectory.getPath(),
+                        "Успех", JOptionPane.INFORMATION_MESSAGE);
+            }
+        });
     }
 
+    // Инкрементальная копия в backups/<директория>_backup: в файл копии пишутся только изменившиеся сегменты базы
     private void createBackup() {
         File projectRoot = new File(System.getProperty("user.dir")); // Корневая директория проекта
         File backupRootDirectory = new File(projectRoot, "backups");
         File backupDirectory = new File(backupRootDirectory,  directory + "_backup");
-        File backupDbFile = new File(backupDirectory, fileName + ".backup");
-        File backupIdFile = new File(backupDirectory, idFileName + ".backup");
 
-        rewriteTo(backupRootDirectory, backupDirectory, backupDbFile, backupIdFile);
+        runInBackground(new DatabaseWorker<BackupChain.Backup, Void>("Создание бэкапа", "Ошибка при создании бэкапа базы данных: ", true) {
+            @Override
+            protected BackupChain.Backup work() throws IOException {
+                return engine.backup(backupDirectory, false, this);
+            }
+
+            @Override
+            protected void succeeded(BackupChain.Backup backup) {
+                JOptionPane.showMessageDialog(null, "Бэкап №" + backup.number + (backup.isFull() ? " (полный)" : " (инкрементальный)")
+                                + " создан в директории: " + backupDirectory.getPath() + "\nЗаписано сегментов: " + backup.segments
+                                + " из " + backup.totalSegments + ", размер файла: " + backup.size() + " байт",
+                        "Успех", JOptionPane.INFORMATION_MESSAGE);
+            }
+        });
     }
 
+    // Восстановление на момент выбранной копии цепочки. Если цепочки нет, восстанавливается копия старого формата
     private void loadBackup() {
         String backupsDirPath = "backups"; // Корневая директория проекта
         File backupsDirectory = new File(backupsDirPath);
         File backupDirectory = new File(backupsDirectory, directory + "_backup");
         File backupDbFile = new File(backupDirectory, fileName + ".backup");
         File backupIdFile = new File(backupDirectory, idFileName + ".backup");
-        File databaseFile = new File(directory, fileName); // Основной файл базы данных
-        File dbDirectoryOld = new File(directory);
 
         if (!backupsDirectory.exists() || !backupsDirectory.isDirectory()) {
             JOptionPane.showMessageDialog(null, "Директория 'backups' не найдена.", "Ошибка", JOptionPane.ERROR_MESSAGE);
@@ -513,94 +528,192 @@ public class FileDatabaseGUI extends JFrame {
             return;
         }
 
-        if (!backupDbFile.exists() || !backupIdFile.exists()) {
-            JOptionPane.showMessageDialog(null, "Ошибка: Не найдены файлы бэкапа базы данных или ID.", "Ошибка", JOptionPane.ERROR_MESSAGE);
+        List<BackupChain.Backup> backups;
+        try {
+            backups = engine.listBackups(backupDirectory);
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(null, "Ошибка при чтении бэкапов: " + e.getMessage(), "Ошибка", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        if (!backups.isEmpty()) {
+            restorePointInTime(backupDirectory, backups);
             return;
         }
 
-        try {
-            if (!dbDirectoryOld.exists()) {
-                if (dbDirectoryOld.mkdirs()) {
-                    JOptionPane.showMessageDialog(null, "Директория '" + directory + "' успешно создана.", "Успех", JOptionPane.INFORMATION_MESSAGE);
-                } else {
-                    JOptionPane.showMessageDialog(null, "Ошибка при создании директории '" + directory + "'.", "Ошибка", JOptionPane.ERROR_MESSAGE);
-                    return; // Выход из метода, если не удалось создать директорию
-                }
-            }
+        if (!engine.hasCopy(backupDbFile, backupIdFile)) {
+            JOptionPane.showMessageDialog(null, "Ошибка: Не найдены файлы бэкапа базы данных или ID.", "Ошибка", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
 
-            // Проверяем существует ли база данных
-            if (!databaseFile.exists()) {
-                // Создаем файл базы данных
-                if (databaseFile.createNewFile()) {
-                    JOptionPane.showMessageDialog(null, "База данных успешно восстановлена: " + databaseFile.getPath(), "Успех", JOptionPane.INFORMATION_MESSAGE);
+        runInBackground(new DatabaseWorker<int[], Void>("Восстановление базы данных", "Ошибка при восстановлении базы данных: ", false) {
+            private boolean restored;
 
-                    // Копируем содержимое из сохраненной базы данных в текущую базу данных
-                    try (BufferedReader backupDbReader = new BufferedReader(new FileReader(backupDbFile));
-                         BufferedWriter databaseWriter = new BufferedWriter(new FileWriter(databaseFile))) {
+            @Override
+            protected int[] work() throws IOException {
+                // Восстанавливаем файл базы данных, если его нет, и загружаем индекс
+                restored = engine.restore(backupDbFile, backupIdFile);
+                return engine.ids();
+            }
 
-                        String line;
-                        while ((line = backupDbReader.readLine()) != null) {
-                            databaseWriter.write(line);
-                            databaseWriter.newLine();
-                        }
-                    }
-                } else {
-                    JOptionPane.showMessageDialog(null, "Ошибка: не удалось восстановить файл базы данных.", "Ошибка", JOptionPane.ERROR_MESSAGE);
-                    return;
+            @Override
+            protected void succeeded(int[] ids) {
+                if (restored) {
+                    JOptionPane.showMessageDialog(null, "База данных успешно восстановлена: " + engine.getDirectory().getPath(), "Успех", JOptionPane.INFORMATION_MESSAGE);
                 }
+                tableModel.load(engine.getColumns(), ids);
+                JOptionPane.showMessageDialog(null, "Восстановление базы данных завершено успешно.", "Успех", JOptionPane.INFORMATION_MESSAGE);
             }
+        });
+    }
 
-            // Загружаем ID из файла в хэш-мапу
-            try (BufferedReader backupIdReader = new BufferedReader(new FileReader(backupIdFile))) {
-                String line;
-                while ((line = backupIdReader.readLine()) != null) {
-                    String[] parts = line.split(",");
+    private void restorePointInTime(File backupDirectory, List<BackupChain.Backup> backups) {
+        // Список копий от новой к старой, по умолчанию выбрана последняя
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        String[] points = new String[backups.size()];
+        for (int i = 0; i < points.length; i++) {
+            BackupChain.Backup backup = backups.get(backups.size() - 1 - i);
+            points[i] = "№" + backup.number + " от " + format.format(new Date(backup.time))
+                    + (backup.isFull() ? " (полный)" : " (изменения к №" + backup.parent + ")");
+        }
+        Object choice = JOptionPane.showInputDialog(this, "Выберите момент, на который восстановить базу данных:",
+                "Восстановление базы данных", JOptionPane.PLAIN_MESSAGE, null, points, points[0]);
+        if (choice == null) {
+            return;
+        }
+        BackupChain.Backup point = backups.get(backups.size() - 1 - Arrays.asList(points).indexOf(choice));
 
-                    if (parts.length == 2) {
-                        int id = Integer.parseInt(parts[0]);
-                        long mappingValue = Long.parseLong(parts[1]);
-                        map.put(id, mappingValue);
-                    }
-                }
-                JOptionPane.showMessageDialog(null, "Восстановление базы данных завершено успешно.", "Успех", JOptionPane.INFORMATION_MESSAGE);
+        if (engine.exists()) {
+            int ans = JOptionPane.showConfirmDialog(null, "Текущая база данных будет заменена состоянием бэкапа №" + point.number + ". Продолжить?",
+                    "Восстановление базы данных", JOptionPane.YES_NO_OPTION);
+            if (ans != JOptionPane.YES_OPTION) {
+                return;
             }
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(null, "Ошибка при восстановлении базы данных: " + e.getMessage(), "Ошибка", JOptionPane.ERROR_MESSAGE);
         }
+
+        runInBackground(new DatabaseWorker<int[], Void>("Восстановление базы данных", "Ошибка при восстановлении базы данных: ", false) {
+            @Override
+            protected int[] work() throws IOException {
+                engine.restoreBackup(backupDirectory, point.number);
+                return engine.ids();
+            }
+
+            @Override
+            protected void succeeded(int[] ids) {
+                tableModel.load(engine.getColumns(), ids);
+                JOptionPane.showMessageDialog(null, "База данных восстановлена на момент бэкапа №" + point.number + ".", "Успех", JOptionPane.INFORMATION_MESSAGE);
+            }
+        });
     }
 
     private void searchById() {
         // Запрашиваем ID у пользователя
         String input = JOptionPane.showInputDialog(this, "Введите ID для поиска:", "Поиск записи по ID", JOptionPane.PLAIN_MESSAGE);
         if (input != null && !input.isEmpty()) {
+            int searchId;
             try {
-                int searchId = Integer.parseInt(input); // Преобразуем ввод в целое число
-
-                // Проверяем, существует ли ID и не удален ли он
-                if (!map.containsKey(searchId) || map.get(searchId) == -1L) {
-                    JOptionPane.showMessageDialog(this, "Запись с ID " + searchId + " не найдена или была удалена.", "Результат поиска", JOptionPane.INFORMATION_MESSAGE);
-                    return; // Завершаем метод, если запись не найдена
-                }
-
-                // Если ID существует, ищем запись
-                try (RandomAccessFile raf = new RandomAccessFile(new File(directory, fileName), "r")) {
-                    raf.seek(map.get(searchId)); // Перемещаемся к смещению
-                    String record = raf.readLine(); // Читаем запись
-                    JOptionPane.showMessageDialog(this, "Найденная запись: " + record, "Результат поиска", JOptionPane.INFORMATION_MESSAGE);
-                } catch (IOException e) {
-                    JOptionPane.showMessageDialog(this, "Ошибка при поиске записи: " + e.getMessage(), "Ошибка", JOptionPane.ERROR_MESSAGE);
-                }
-
+                searchId = Integer.parseInt(input); // Преобразуем ввод в целое число
             } catch (NumberFormatException e) {
                 // Обрабатываем случай, если ввод не является корректным целым числом
                 JOptionPane.showMessageDialog(this, "Ошибка: Введите корректное целое число для ID.", "Ошибка ввода", JOptionPane.ERROR_MESSAGE);
+                return;
             }
+
+            runInBackground(new DatabaseWorker<String, Void>("Поиск записи", "Ошибка при поиске записи: ", false) {
+                @Override
+                protected String work() throws IOException {
+                    // Ищем запись, null - если ID не существует или был удален
+                    return engine.get(searchId);
+                }
+
+                @Override
+                protected void succeeded(String record) {
+                    if (record == null) {
+                        JOptionPane.showMessageDialog(FileDatabaseGUI.this, "Запись с ID " + searchId + " не найдена или была удалена.", "Результат поиска", JOptionPane.INFORMATION_MESSAGE);
+                        return;
+                    }
+                    JOptionPane.showMessageDialog(FileDatabaseGUI.this, "Найденная запись: " + record, "Результат поиска", JOptionPane.INFORMATION_MESSAGE);
+                }
+            });
         } else {
             JOptionPane.showMessageDialog(this, "Ошибка: ID не может быть пустым!", "Ошибка ввода", JOptionPane.ERROR_MESSAGE);
         }
     }
 
 
+    // Объявление вторичного индекса по столбцу: поиск и удаление по этому полю перестают читать весь файл
+    private void createFieldIndex() {
+        String columnName = JOptionPane.showInputDialog(this, "Введите название столбца для индекса:\nУже проиндексированы: "
+                + String.join(", ", engine.getIndexedColumns()), "Индекс по неключевому полю", JOptionPane.PLAIN_MESSAGE);
+        if (columnName == null || columnName.isEmpty()) {
+            return;
+        }
+        runInBackground(new DatabaseWorker<Boolean, Void>("Построение индекса", "Ошибка при построении индекса: ", false) {
+            @Override
+            protected Boolean work() throws IOException {
+                return engine.createIndex(columnName);
+            }
+
+            @Override
+            protected void succeeded(Boolean created) {
+                if (created) {
+                    JOptionPane.showMessageDialog(FileDatabaseGUI.this, "Индекс по столбцу \"" + columnName + "\" создан.", "Успех", JOptionPane.INFORMATION_MESSAGE);
+                    return;
+                }
+                int confirm = JOptionPane.showConfirmDialog(FileDatabaseGUI.this, "Индекс по столбцу \"" + columnName + "\" уже есть. Удалить его?", "Индекс по неключевому полю", JOptionPane.YES_NO_OPTION);
+                if (confirm == JOptionPane.YES_OPTION) {
+                    runInBackground(new DatabaseWorker<Void, Void>("Удаление индекса", "Ошибка при удалении индекса: ", false) {
+                        @Override
+                        protected Void work() throws IOException {
+                            engine.dropIndex(columnName);
+                            return null;
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    // Поиск записей со значением числового столбца или даты в диапазоне; пустая граница - без ограничения.
+    // Если упорядоченного индекса по столбцу еще нет, он создается (тип определяется по введенным границам)
+    private void searchByRange() {
+        String columnName = JOptionPane.showInputDialog(this, "Введите название столбца (число или дата yyyy-MM-dd):", "Поиск по диапазону", JOptionPane.PLAIN_MESSAGE);
+        if (columnName == null || columnName.isEmpty()) {
+            return;
+        }
+        String from = JOptionPane.showInputDialog(this, "Значение от (пусто - без ограничения):", "Поиск по диапазону", JOptionPane.PLAIN_MESSAGE);
+        if (from == null) {
+            return;
+        }
+        String to = JOptionPane.showInputDialog(this, "Значение до (пусто - без ограничения):", "Поиск по диапазону", JOptionPane.PLAIN_MESSAGE);
+        if (to == null) {
+            return;
+        }
+        String lower = from.trim().isEmpty() ? null : from.trim();
+        String upper = to.trim().isEmpty() ? null : to.trim();
+
+        runInBackground(new SearchWorker("Поиск по диапазону", "Ошибка при поиске: ") {
+            @Override
+            protected Integer work() throws IOException {
+                if (engine.getRangeIndexType(columnName) == null) {
+                    String sample = lower != null ? lower : upper;
+                    boolean date = sample != null && sample.matches("\\d{4}-\\d{2}-\\d{2}");
+                    engine.createRangeIndex(columnName, date ? RangeIndex.Type.DATE : RangeIndex.Type.NUMBER);
+                }
+                // ID берутся из индекса сразу, записи читаются и выводятся по одной
+                List<StorageEngine.RecordRef> refs = engine.findRange(columnName, lower, upper);
+                int found = 0;
+                for (int i = 0; i < refs.size() && update(i, refs.size()); i++) {
+                    String record = engine.get(refs.get(i).id);
+                    if (record != null) {
+                        publish(record);
+                        found++;
+                    }
+                }
+                return found;
+            }
+        });
+    }
+
     private void searchByField() {
         // Запрашиваем название столбца и значение у пользователя
         String columnName = JOptionPane.showInputDialog(this, "Введите название столбца для поиска:", "Поиск записи по полю", JOptionPane.PLAIN_MESSAGE);
@@ -615,57 +728,23 @@ public class FileDatabaseGUI extends JFrame {
             return; // Завершаем метод, если значение пустое
         }
 
-        List<String> results = new ArrayList<>();
-
-        // Поиск записей в файле
-        try (BufferedReader reader = new BufferedReader(new FileReader(new File(directory, fileName)))) {
-            String header = reader.readLine(); // Читаем заголовок
-            if (header == null) {
-                JOptionPane.showMessageDialog(this, "Ошибка: Файл базы данных пуст.", "Ошибка", JOptionPane.ERROR_MESSAGE);
-                return; // Завершаем метод, если файл пуст
-            }
-
-            String[] columnNames = header.split(",");
-            int columnIndex = -1;
-
-            // Ищем индекс столбца по его названию
-            for (int i = 0; i < columnNames.length; i++) {
-                if (columnNames[i].trim().equalsIgnoreCase(columnName)) {
-                    columnIndex = i;
-                    break;
-                }
-            }
-
-            if (columnIndex == -1) {
-                JOptionPane.showMessageDialog(this, "Ошибка: Столбец с названием \"" + columnName + "\" не найден.", "Ошибка", JOptionPane.ERROR_MESSAGE);
-                return; // Завершаем метод, если столбец не найден
-            }
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] fields = line.split(",");
-
-                // Проверяем, что индекс поля корректен и значение совпадает
-                if (columnIndex < fields.length && fields[columnIndex].equals(value)) {
-                    results.add(line);
-                }
-            }
+        if (engine.getColumns().length == 0) {
+            JOptionPane.showMessageDialog(this, "Ошибка: Файл базы данных пуст.", "Ошибка", JOptionPane.ERROR_MESSAGE);
+            return; // Завершаем метод, если файл пуст
+        }
 
-            // Проверяем, найдены ли результаты
-            if (results.isEmpty()) {
-                JOptionPane.showMessageDialog(this, "Результаты поиска: ничего не найдено.", "Результат поиска", JOptionPane.INFORMATION_MESSAGE);
-            } else {
-                // Если результаты найдены, показываем их пользователю
-                StringBuilder resultMessage = new StringBuilder("Найденные записи:\n");
-                for (String result : results) {
-                    resultMessage.append(result).append("\n");
-                }
-                JOptionPane.showMessageDialog(this, resultMessage.toString(), "Результат поиска", JOptionPane.INFORMATION_MESSAGE);
+        runInBackground(new SearchWorker("Поиск записей по полю", "Ошибка при чтении базы данных: ") {
+            @Override
+            protected Integer work() throws IOException {
+                // Записи приходят частями по мере проверки диапазонов файла
+                int[] found = {0};
+                engine.findByField(columnName, value, records -> {
+                    publish(records.toArray(new String[0]));
+                    found[0] += records.size();
+                }, this);
+                return found[0];
             }
-
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(this, "Ошибка при чтении базы данных: " + e.getMessage(), "Ошибка", JOptionPane.ERROR_MESSAGE);
-        }
+        });
     }
 
     private void editRecord() {
@@ -674,13 +753,12 @@ public class FileDatabaseGUI extends JFrame {
             try {
                 int id = Integer.parseInt(input);
                 // Проверка на существование ID
-                if (!map.containsKey(id)) {
+                if (!engine.contains(id)) {
                     JOptionPane.showMessageDialog(null, "Ошибка: ID не найден: " + id, "Ошибка", JOptionPane.ERROR_MESSAGE);
                     return; // Возвращаем false, если ID не найден
                 }
 
-                long offset = map.get(id);
-                if (offset == -1L) {
+                if (engine.isDeleted(id)) {
                     JOptionPane.showMessageDialog(null, "Ошибка: Запись с ID " + id + " была удалена.", "Ошибка", JOptionPane.ERROR_MESSAGE);
                     return; // Запись была удалена, нельзя редактировать
                 }
@@ -694,16 +772,23 @@ public class FileDatabaseGUI extends JFrame {
                     return;
                 }
 
-                try (RandomAccessFile raf = new RandomAccessFile(new File(directory, fileName), "rw")) {
-                    raf.seek(offset); // Перемещаемся к смещению
-                    raf.writeBytes(newRecord + System.lineSeparator()); // Записываем новую запись
-                    JOptionPane.showMessageDialog(null, "Запись с ID " + id + " успешно отредактирована.", "Успех", JOptionPane.INFORMATION_MESSAGE);
-                    loadDataFromCsvFile();
-                    return; // Возвращаем true, если запись успешно отредактирована
-                } catch (IOException e) {
-                    JOptionPane.showMessageDialog(null, "Ошибка при редактировании записи: " + e.getMessage(), "Ошибка", JOptionPane.ERROR_MESSAGE);
-                    return; // Возвращаем false в случае ошибки
-                }
+                // IllegalArgumentException, если ID в новой записи не совпадает с редактируемым
+                runInBackground(new DatabaseWorker<Boolean, Void>("Редактирование записи", "Ошибка при редактировании записи: ", false) {
+                    @Override
+                    protected Boolean work() throws IOException {
+                        return engine.update(id, newRecord);
+                    }
+
+                    @Override
+                    protected void succeeded(Boolean updated) {
+                        if (updated) {
+                            JOptionPane.showMessageDialog(null, "Запись с ID " + id + " успешно отредактирована.", "Успех", JOptionPane.INFORMATION_MESSAGE);
+                            tableModel.recordUpdated(id);
+                        } else {
+                            JOptionPane.showMessageDialog(null, "Ошибка: ID не найден: " + id, "Ошибка", JOptionPane.ERROR_MESSAGE);
+                        }
+                    }
+                });
             } catch (NumberFormatException e) {
                 // Обрабатываем случай, если ввод не является корректным целым числом
                 JOptionPane.showMessageDialog(this, "Ошибка: Введите корректное целое число для ID.", "Ошибка ввода", JOptionPane.ERROR_MESSAGE);
@@ -716,46 +801,65 @@ public class FileDatabaseGUI extends JFrame {
     // Добавление новой записи в базу данных с проверкой на уникальность
     private void addRecord() {
         String record = JOptionPane.showInputDialog(this, "Введите запись для добавления:", "Добавление новой записи", JOptionPane.PLAIN_MESSAGE);
-        // Разделяем запись на поля для проверки уникальности
-        String[] fields = record.split(",");
-        int key = Integer.parseInt(fields[0]);
-
-        // Проверка на уникальность ID
-        if (map.containsKey(key)) {
-            JOptionPane.showMessageDialog(null, "Ошибка: Дубликат ID: " + key, "Ошибка", JOptionPane.ERROR_MESSAGE);
-            return; // Возвращаем false, если ID уже существует
-        }
-
-        // Добавление записи в файл
-        try (RandomAccessFile raf = new RandomAccessFile(new File(directory, fileName), "rw")) {
-            raf.seek(raf.length()); // Перемещаемся в конец файла
-            long offset = raf.getFilePointer(); // Получаем текущее смещение
-            raf.writeBytes(record + System.lineSeparator()); // Записываем запись
-            map.put(key, offset); // Обновляем позицию в мапе
-            JOptionPane.showMessageDialog(null, "Запись успешно добавлена.", "Успех", JOptionPane.INFORMATION_MESSAGE);
-            tableModel.addRow(fields);
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(null, "Ошибка при добавлении записи: " + e.getMessage(), "Ошибка", JOptionPane.ERROR_MESSAGE);
+        if (record == null || record.trim().isEmpty()) {
+            return;
         }
+
+        int id;
+        try {
+            id = StorageEngine.parseId(record);
+        } catch (NumberFormatException e) {
+            JOptionPane.showMessageDialog(this, "Ошибка: ID должен быть числом. " + e.getMessage(), "Ошибка", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        runInBackground(new DatabaseWorker<Boolean, Void>("Добавление записи", "Ошибка при добавлении записи: ", false) {
+            @Override
+            protected Boolean work() throws IOException {
+                // Проверка на уникальность ID и добавление записи в файл
+                return engine.put(record);
+            }
+
+            @Override
+            protected void succeeded(Boolean added) {
+                if (!added) {
+                    JOptionPane.showMessageDialog(null, "Ошибка: Дубликат ID: " + id, "Ошибка", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                JOptionPane.showMessageDialog(null, "Запись успешно добавлена.", "Успех", JOptionPane.INFORMATION_MESSAGE);
+                tableModel.recordAdded(id);
+            }
+        });
     }
 
     // Удаление записи по ID
     private void deleteRecordById() {
         String input = JOptionPane.showInputDialog(this, "Введите ID для удаления:", "Удаление записи", JOptionPane.PLAIN_MESSAGE);
         if (input != null && !input.isEmpty()) {
+            int id;
             try {
-                int id = Integer.parseInt(input);
-                // Теперь можно использовать id, например, для удаления записи
-                if (map.containsKey(id)) {
-                    map.put(id, -1L); // Заменяем ID на -1, чтобы обозначить, что запись удалена
-                    JOptionPane.showMessageDialog(null, "Запись с ID " + id + " успешно удалена.", "Успех", JOptionPane.INFORMATION_MESSAGE);
-                    loadDataFromCsvFile();
-                } else {
-                    JOptionPane.showMessageDialog(null, "Ошибка: ID не найден для удаления: " + id, "Ошибка", JOptionPane.ERROR_MESSAGE);
-                }
+                id = Integer.parseInt(input);
             } catch (NumberFormatException e) {
                 JOptionPane.showMessageDialog(this, "Ошибка: Введите корректное целое число для ID.", "Ошибка ввода", JOptionPane.ERROR_MESSAGE);
+                return;
             }
+            runInBackground(new DatabaseWorker<Boolean, Void>("Удаление записи", "Ошибка при удалении записи: ", false) {
+                @Override
+                protected Boolean work() throws IOException {
+                    // Отступ записи заменяется на -1, чтобы обозначить, что запись удалена
+                    return engine.delete(id);
+                }
+
+                @Override
+                protected void succeeded(Boolean deleted) {
+                    if (deleted) {
+                        JOptionPane.showMessageDialog(null, "Запись с ID " + id + " успешно удалена.", "Успех", JOptionPane.INFORMATION_MESSAGE);
+                        tableModel.recordDeleted(id);
+                    } else {
+                        JOptionPane.showMessageDialog(null, "Ошибка: ID не найден для удаления: " + id, "Ошибка", JOptionPane.ERROR_MESSAGE);
+                    }
+                }
+            });
         } else {
             JOptionPane.showMessageDialog(this, "Ошибка: ID не может быть пустым!", "Ошибка ввода", JOptionPane.ERROR_MESSAGE);
         }
@@ -776,81 +880,126 @@ public class FileDatabaseGUI extends JFrame {
             return; // Завершаем метод, если значение пустое
         }
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(new File(directory, fileName)))) {
-            String header = reader.readLine(); // Читаем заголовок
-            if (header == null) {
-                JOptionPane.showMessageDialog(this, "Ошибка: Файл базы данных пуст.", "Ошибка", JOptionPane.ERROR_MESSAGE);
-                return;
+        if (engine.getColumns().length == 0) {
+            JOptionPane.showMessageDialog(this, "Ошибка: Файл базы данных пуст.", "Ошибка", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        // Удаление идет под блокировкой записи и не отменяется
+        runInBackground(new DatabaseWorker<Integer, Void>("Удаление записей по полю", "Ошибка при чтении базы данных: ", false) {
+            @Override
+            protected Integer work() throws IOException {
+                // Отступы всех совпавших записей заменяются на -1
+                return engine.deleteByField(columnName, value);
             }
 
-            String[] columnNames = header.split(",");
-            int columnIndex = -1;
+            @Override
+            protected void succeeded(Integer deleted) {
+                if (deleted > 0) {
+                    JOptionPane.showMessageDialog(FileDatabaseGUI.this, "Записи с полем \"" + columnName + "\" и значением \"" + value + "\" успешно удалены.", "Успех", JOptionPane.INFORMATION_MESSAGE);
+                    loadDataFromCsvFile();
+                } else {
+                    JOptionPane.showMessageDialog(FileDatabaseGUI.this, "Записи с полем \"" + columnName + "\" и значением \"" + value + "\" не найдены.", "Информация", JOptionPane.INFORMATION_MESSAGE);
+                }
+            }
 
-            // Ищем индекс столбца по его названию
-            for (int i = 0; i < columnNames.length; i++) {
-                if (columnNames[i].trim().equalsIgnoreCase(columnName)) {
-                    columnIndex = i;
-                    break;
+            @Override
+            protected void failed(Throwable cause) {
+                if (cause instanceof NumberFormatException) {
+                    JOptionPane.showMessageDialog(FileDatabaseGUI.this, "Ошибка: ID должен быть числом. " + cause.getMessage(), "Ошибка", JOptionPane.ERROR_MESSAGE);
+                } else {
+                    super.failed(cause);
                 }
             }
+        });
+    }
 
-            if (columnIndex == -1) {
-                JOptionPane.showMessageDialog(this, "Ошибка: Столбец с названием \"" + columnName + "\" не найден.", "Ошибка", JOptionPane.ERROR_MESSAGE);
-                return;
+    // Пакетная загрузка записей из CSV-файла с тем же заголовком; записи с существующими ID пропускаются
+    private void bulkLoadFromCsv() {
+        if (!engine.exists()) {
+            JOptionPane.showMessageDialog(this, "База данных не найдена.", "Ошибка", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Загрузить записи из CSV");
+        if (fileChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File csvFile = fileChooser.getSelectedFile();
+        // При отмене и остановке на ошибке записи, загруженные до этого, остаются в базе
+        runInBackground(new DatabaseWorker<StorageEngine.LoadResult, Void>("Загрузка записей", "Ошибка при загрузке записей: ", true) {
+            @Override
+            protected StorageEngine.LoadResult work() throws IOException {
+                return engine.bulkLoad(csvFile, this);
             }
 
-            String line;
-            boolean recordDeleted = false; // Флаг для отслеживания, была ли удалена хотя бы одна запись
-            while ((line = reader.readLine()) != null) {
-                String[] fields = line.split(",");
+            @Override
+            protected void succeeded(StorageEngine.LoadResult result) {
+                loadDataFromCsvFile();
+                JOptionPane.showMessageDialog(FileDatabaseGUI.this, "Загружено записей: " + result.loaded + ", пропущено с существующим ID: " + result.duplicates, "Успех", JOptionPane.INFORMATION_MESSAGE);
+            }
 
-                // Проверяем, что индекс поля корректен и значение совпадает
-                if (columnIndex < fields.length && fields[columnIndex].equals(value)) {
-                    // Получаем ID записи (предположим, что ID находится в первом столбце)
-                    int id = Integer.parseInt(fields[0]);
+            @Override
+            protected void cancelled() {
+                loadDataFromCsvFile();
+            }
 
-                    // Устанавливаем оффсет в хэш-мапе на -1L
-                    if (map.containsKey(id) && map.get(id) != -1L) {
-                        map.put(id, -1L);
-                        recordDeleted = true; // Запись была удалена
-                    } else {
-                        JOptionPane.showMessageDialog(this, "Ошибка: ID " + id + " не найден в хэш-мапе.", "Ошибка", JOptionPane.ERROR_MESSAGE);
-                    }
+            @Override
+            protected void failed(Throwable cause) {
+                if (cause instanceof IllegalArgumentException) {
+                    loadDataFromCsvFile();
+                    JOptionPane.showMessageDialog(FileDatabaseGUI.this, "Загрузка остановлена: " + cause.getMessage(), "Ошибка", JOptionPane.ERROR_MESSAGE);
+                } else {
+                    super.failed(cause);
                 }
             }
+        });
+    }
 
-            if (recordDeleted) {
-                JOptionPane.showMessageDialog(this, "Записи с полем \"" + columnName + "\" и значением \"" + value + "\" успешно удалены.", "Успех", JOptionPane.INFORMATION_MESSAGE);
-                loadDataFromCsvFile();
-            } else {
-                JOptionPane.showMessageDialog(this, "Записи с полем \"" + columnName + "\" и значением \"" + value + "\" не найдены.", "Информация", JOptionPane.INFORMATION_MESSAGE);
+    private void loadDataFromCsvFile() {
+        // Модель запоминает только ID живых записей, строки читаются при отрисовке
+        runInBackground(new DatabaseWorker<int[], Void>("Загрузка данных", "Ошибка при загрузке данных из файла: ", false) {
+            @Override
+            protected int[] work() throws IOException {
+                return engine.exists() ? engine.ids() : new int[0];
             }
 
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(this, "Ошибка при чтении базы данных: " + e.getMessage(), "Ошибка", JOptionPane.ERROR_MESSAGE);
-        } catch (NumberFormatException e) {
-            JOptionPane.showMessageDialog(this, "Ошибка: ID должен быть числом. " + e.getMessage(), "Ошибка", JOptionPane.ERROR_MESSAGE);
-        }
+            @Override
+            protected void succeeded(int[] ids) {
+                tableModel.load(engine.getColumns(), ids);
+            }
+        });
     }
 
-    private void loadDataFromCsvFile() {
-        try (BufferedReader reader = new BufferedReader(new FileReader(new File(directory, fileName)))) {
-            String line;
-            tableModel.setRowCount(0);
-            tableModel.setColumnIdentifiers(new Object[0]);
+    // Поиск, найденные записи которого добавляются в окно результатов по мере нахождения
+    private abstract class SearchWorker extends DatabaseWorker<Integer, String> {
+        private DefaultTableModel results;
 
-            String headerLine = reader.readLine();
-            tableModel.setColumnIdentifiers(headerLine.split(","));
+        SearchWorker(String title, String errorMessage) {
+            super(title, errorMessage, true);
+        }
 
-            while ((line = reader.readLine()) != null) {
-                String[] data = line.split(",");
-                int id = Integer.parseInt(data[0]);
-                if (map.containsKey(id) && map.get(id) != -1L) {
-                    tableModel.addRow(data);
-                }
+        @Override
+        protected void received(List<String> records) {
+            if (results == null) {
+                results = new DefaultTableModel(engine.getColumns(), 0);
+                JFrame frame = new JFrame("Результаты поиска");
+                frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+                frame.add(new JScrollPane(new JTable(results)));
+                frame.setSize(800, 400);
+                frame.setLocationRelativeTo(FileDatabaseGUI.this);
+                frame.setVisible(true);
+            }
+            for (String record : records) {
+                results.addRow(CsvTokenizer.split(record));
+            }
+        }
+
+        @Override
+        protected void succeeded(Integer found) {
+            if (found == 0) {
+                JOptionPane.showMessageDialog(FileDatabaseGUI.this, "Результаты поиска: ничего не найдено.", "Результат поиска", JOptionPane.INFORMATION_MESSAGE);
             }
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(this, "Ошибка при загрузке данных из файла: " + e.getMessage(), "Ошибка", JOptionPane.ERROR_MESSAGE);
         }
     }
 
@@ -868,40 +1017,25 @@ public class FileDatabaseGUI extends JFrame {
             if (!excelFile.getName().toLowerCase().endsWith(".xlsx")) {
                 excelFile = new File(excelFile.getAbsolutePath() + ".xlsx");
             }
-
-            try (BufferedReader reader = new BufferedReader(new FileReader(new File(directory, fileName)));
-                 FileOutputStream fos = new FileOutputStream(excelFile)) {
-
-                Workbook workbook = new XSSFWorkbook();
-                Sheet sheet = workbook.createSheet("Database");
-
-                String line;
-                int rowNum = 0;
-
-                while ((line = reader.readLine()) != null) {
-                    String[] fields = line.split(",");
-                    Row row = sheet.createRow(rowNum);
-                    rowNum++;
-
-                    for (int colNum = 0; colNum < fields.length; colNum++) {
-                        Cell cell = row.createCell(colNum);
-                        cell.setCellValue(fields[colNum].trim());
+            File targetFile = excelFile;
+
+            // Потоковая запись: в памяти только окно строк, после 1 048 576 строк экспорт переходит на новый лист
+            runInBackground(new DatabaseWorker<Long, Void>("Импорт в Excel", "Ошибка при импорте в Excel: ", true) {
+                @Override
+                protected Long work() throws IOException {
+                    long rows = new ExcelExporter(engine).export(targetFile, this);
+                    if (isCancelled()) {
+                        targetFile.delete(); // отменено во время записи файла
                     }
+                    return rows;
                 }
 
-                for (int colNum = 0; colNum < sheet.getRow(0).getLastCellNum(); colNum++) {
-                    sheet.autoSizeColumn(colNum);
+                @Override
+                protected void succeeded(Long rows) {
+                    JOptionPane.showMessageDialog(FileDatabaseGUI.this, "Данные успешно импортированы в Excel (записей: " + rows + "):\n" + targetFile.getAbsolutePath(),
+                            "Импорт завершен", JOptionPane.INFORMATION_MESSAGE);
                 }
-
-                workbook.write(fos);
-                workbook.close();
-
-                JOptionPane.showMessageDialog(this, "Данные успешно импортированы в Excel:\n" + excelFile.getAbsolutePath(),
-                        "Импорт завершен", JOptionPane.INFORMATION_MESSAGE);
-            } catch (IOException e) {
-                JOptionPane.showMessageDialog(this, "Ошибка при импорте в Excel: " + e.getMessage(),
-                        "Ошибка", JOptionPane.ERROR_MESSAGE);
-            }
+            });
         }
     }
 
@@ -0,0 +1,183 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+// Снимок файла на момент среза, который читается, пока в файл продолжают писать (копирование при записи).
+// Снимок держит свой канал файла и длину файла на момент среза. Тот, кто пишет в файл на место внутри среза,
+// перед записью вызывает preserve: прежнее содержимое затронутых страниц по PAGE_SIZE байт сохраняется в снимке.
+// Чтение снимка берет сохраненные страницы из памяти, остальные - из файла, и видит файл таким, каким он был
+// в момент среза. Дописанное за длиной среза в снимок не попадает. Файл, подмененный переименованием
+// (сжатие, контрольная точка журнала индекса), читается дальше через открытый канал.
+// Страницы, которые снимок уже прочитал по порядку, не сохраняются, поэтому при последовательном копировании
+// в памяти остаются только страницы, переписанные впереди копирования.
+public class FileSnapshot implements Closeable {
+    static final int PAGE_SIZE = 4096;
+    private static final int TRANSFER_CHUNK = 1 << 20; // запись ждет чтение снимка не дольше одного такого участка
+
+    private final File file;
+    private final FileChannel channel;
+    private final long length;
+    private final Map<Long, byte[]> pages = new HashMap<>(); // номер страницы -> содержимое на момент среза
+    private long copied; // снимок уже прочитал все до этой позиции
+    private String invalidated; // причина, по которой снимок больше нельзя читать
+    private boolean closed;
+
+    // Срез файла длиной length. Пока снимок создается, в файл не должны писать
+    public FileSnapshot(File file, long length) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.length = length;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    // Количество страниц, сохраненных из-за записи во время чтения снимка
+    public synchronized int preservedPages() {
+        return pages.size();
+    }
+
+    // Вызывается перед записью count байт с позиции position: страницы среза сохраняются, если еще не сохранены
+    public synchronized void preserve(long position, long count) throws IOException {
+        if (closed || invalidated != null) {
+            return;
+        }
+        long end = Math.min(position + count, length);
+        for (long page = Math.max(position, copied) / PAGE_SIZE; page * PAGE_SIZE < end; page++) {
+            if (!pages.containsKey(page)) {
+                long start = page * PAGE_SIZE;
+                ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(PAGE_SIZE, length - start));
+                readFromFile(buffer, start);
+                pages.put(page, buffer.array());
+            }
+        }
+    }
+
+    // Файл переписан не по месту (например, база создана заново): снимок больше не читается
+    public synchronized void invalidate(String reason) {
+        invalidated = reason;
+        pages.clear();
+    }
+
+    // Чтение снимка с позиции position до заполнения buffer (не дальше длины среза)
+    public synchronized void read(ByteBuffer buffer, long position) throws IOException {
+        checkReadable();
+        if (position + buffer.remaining() > length) {
+            throw new EOFException("чтение за пределами снимка " + file.getPath());
+        }
+        long start = position;
+        while (buffer.hasRemaining()) {
+            long page = position / PAGE_SIZE;
+            int inPage = (int) (position - page * PAGE_SIZE);
+            int count = Math.min(buffer.remaining(), PAGE_SIZE - inPage);
+            byte[] saved = pages.get(page);
+            int limit = buffer.limit();
+            buffer.limit(buffer.position() + count);
+            if (saved != null) {
+                buffer.put(saved, inPage, count);
+            } else {
+                readFromFile(buffer, position);
+            }
+            buffer.limit(limit);
+            position += count;
+        }
+        advance(start, position);
+    }
+
+    // Копирование [position, position + count) снимка в target. Участки без сохраненных страниц
+    // передаются через FileChannel.transferTo, без копирования через кучу
+    public void transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        long end = position + count;
+        if (end > length) {
+            throw new EOFException("чтение за пределами снимка " + file.getPath());
+        }
+        while (position < end) {
+            position = transferChunk(position, Math.min(end, position + TRANSFER_CHUNK), target);
+        }
+    }
+
+    // Один участок копируется под монитором снимка: запись, которой нужно сохранить страницу, ждет его конца
+    private synchronized long transferChunk(long position, long end, WritableByteChannel target) throws IOException {
+        checkReadable();
+        long start = position;
+        while (position < end) {
+            long page = position / PAGE_SIZE;
+            int inPage = (int) (position - page * PAGE_SIZE);
+            byte[] saved = pages.get(page);
+            if (saved != null) {
+                ByteBuffer buffer = ByteBuffer.wrap(saved, inPage, (int) Math.min(saved.length - inPage, end - position));
+                while (buffer.hasRemaining()) {
+                    target.write(buffer);
+                }
+                position = page * PAGE_SIZE + buffer.position();
+                continue;
+            }
+            long run = position; // участок подряд идущих несохраненных страниц
+            while (run < end && !pages.containsKey(run / PAGE_SIZE)) {
+                run = Math.min(end, (run / PAGE_SIZE + 1) * PAGE_SIZE);
+            }
+            while (position < run) {
+                long sent = channel.transferTo(position, run - position, target);
+                if (sent <= 0) {
+                    throw new EOFException("файл короче снимка: " + file.getPath());
+                }
+                position += sent;
+            }
+        }
+        advance(start, position);
+        return position;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        pages.clear();
+        channel.close();
+    }
+
+    private void checkReadable() throws IOException {
+        if (closed) {
+            throw new IOException("снимок закрыт: " + file.getPath());
+        }
+        if (invalidated != null) {
+            throw new IOException("снимок больше не действителен: " + invalidated);
+        }
+    }
+
+    // Прочитанные по порядку страницы больше не нужно сохранять
+    private void advance(long start, long end) {
+        if (start <= copied && end > copied) {
+            long page = copied / PAGE_SIZE;
+            copied = end;
+            for (; page < copied / PAGE_SIZE; page++) {
+                pages.remove(page);
+            }
+        }
+    }
+
+    private void readFromFile(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("файл короче снимка: " + file.getPath());
+            }
+            position += read;
+        }
+    }
+}
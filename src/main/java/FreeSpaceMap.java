@@ -0,0 +1,58 @@
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Карта свободного места в файле базы данных: освобожденные при редактировании строки (слоты),
+// сгруппированные по длине в байтах. Выдается наименьший подходящий слот.
+// Класс не потокобезопасен, синхронизацию обеспечивает владелец (StorageEngine).
+public class FreeSpaceMap {
+    private final TreeMap<Integer, ArrayDeque<Long>> slotsByLength = new TreeMap<>();
+    private long freeBytes;
+    private int slots;
+
+    // Свободный слот: отступ и длина в байтах вместе с переводом строки
+    public static final class Slot {
+        public final long offset;
+        public final int length;
+
+        Slot(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    public void add(long offset, int length) {
+        slotsByLength.computeIfAbsent(length, key -> new ArrayDeque<>()).add(offset);
+        freeBytes += length;
+        slots++;
+    }
+
+    // Наименьший слот длиной не меньше needed (слот удаляется из карты), null если такого нет
+    public Slot take(int needed) {
+        Map.Entry<Integer, ArrayDeque<Long>> entry = slotsByLength.ceilingEntry(needed);
+        if (entry == null) {
+            return null;
+        }
+        long offset = entry.getValue().poll();
+        if (entry.getValue().isEmpty()) {
+            slotsByLength.remove(entry.getKey());
+        }
+        freeBytes -= entry.getKey();
+        slots--;
+        return new Slot(offset, entry.getKey());
+    }
+
+    public long freeBytes() {
+        return freeBytes;
+    }
+
+    public int size() {
+        return slots;
+    }
+
+    public void clear() {
+        slotsByLength.clear();
+        freeBytes = 0;
+        slots = 0;
+    }
+}
@@ -0,0 +1,128 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+// Файл индексов (id.csv) в виде журнала: каждое изменение дописывается строкой "ID,отступ"
+// (-1 для удаленных), при загрузке побеждает последняя строка для ID.
+// Строки буферизуются и попадают в файл при вызове flush.
+// Когда устаревших строк становится слишком много, журнал переписывается контрольной точкой.
+public class IndexLog implements Closeable {
+    private static final int MIN_CHECKPOINT_ENTRIES = 10_000;
+
+    private final File file;
+    private Writer writer;
+    private long entries; // количество строк в журнале
+
+    public IndexLog(File file) {
+        this.file = file;
+    }
+
+    // Загрузка журнала: пары по порядку строк идут в visitor, возвращает максимальный отступ (-1, если строк нет)
+    public long load(IntLongHashMap.EntryVisitor visitor) throws IOException {
+        entries = 0;
+        long maxOffset = -1L;
+        if (file.exists()) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int comma = line.indexOf(',');
+                    if (comma < 0) {
+                        continue; // оборванная строка после сбоя
+                    }
+                    try {
+                        int id = Integer.parseInt(line.substring(0, comma).trim());
+                        long offset = Long.parseLong(line.substring(comma + 1).trim());
+                        visitor.visit(id, offset);
+                        maxOffset = Math.max(maxOffset, offset);
+                        entries++;
+                    } catch (NumberFormatException e) {
+                        // Оборванная строка после сбоя, остальные записи журнала остаются в силе
+                    }
+                }
+            }
+        }
+        return maxOffset;
+    }
+
+    public void append(int id, long offset) throws IOException {
+        if (writer == null) {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8), 1 << 16);
+        }
+        writer.write(id + "," + offset);
+        writer.write(System.lineSeparator());
+        entries++;
+    }
+
+    public void flush() throws IOException {
+        if (writer != null) {
+            writer.flush();
+        }
+    }
+
+    // Журнал разросся по сравнению с размером индекса и его пора сжать
+    public boolean needsCheckpoint(int indexSize) {
+        return entries > Math.max(MIN_CHECKPOINT_ENTRIES, 2L * indexSize);
+    }
+
+    // Переписывание журнала текущим состоянием индекса: пишем во временный файл и атомарно подменяем
+    public void checkpoint(StripedIntLongMap map) throws IOException {
+        closeWriter();
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(tmp);
+             BufferedOutputStream out = new BufferedOutputStream(fileOut, 1 << 16)) {
+            // Строки собираются в байтах без промежуточных String: контрольная точка пишет весь индекс
+            byte[] separator = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+            byte[] line = new byte[48];
+            map.forEach((id, offset) -> {
+                int end = line.length - separator.length;
+                System.arraycopy(separator, 0, line, end, separator.length);
+                int start = writeDigits(line, end, offset);
+                line[--start] = ',';
+                start = writeDigits(line, start, id);
+                out.write(line, start, line.length - start);
+            });
+            out.flush();
+            fileOut.getFD().sync(); // после контрольной точки журнал упреждающей записи очищается
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        entries = map.size();
+    }
+
+    // Десятичная запись числа, выровненная вправо перед позицией end, возвращает позицию первого символа
+    private static int writeDigits(byte[] buffer, int end, long value) {
+        boolean negative = value < 0;
+        long rest = Math.abs(value); // отступы и ID не достигают Long.MIN_VALUE
+        int position = end;
+        do {
+            buffer[--position] = (byte) ('0' + rest % 10);
+            rest /= 10;
+        } while (rest != 0);
+        if (negative) {
+            buffer[--position] = '-';
+        }
+        return position;
+    }
+
+    // Очистка журнала (новая или очищенная база данных). Пустой файл подменяет журнал, как при контрольной точке,
+    // поэтому открытый снимок журнала (FileSnapshot) продолжает читать прежний файл
+    public void truncate() throws IOException {
+        closeWriter();
+        File tmp = new File(file.getPath() + ".tmp");
+        Files.write(tmp.toPath(), new byte[0]);
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        entries = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeWriter();
+    }
+
+    private void closeWriter() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+}
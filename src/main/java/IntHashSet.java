@@ -0,0 +1,138 @@
+import java.util.Arrays;
+
+// Множество int с открытой адресацией (линейное пробирование) без упаковки в Integer,
+// устроено так же, как IntLongHashMap. Класс не потокобезопасен, синхронизацию обеспечивает владелец.
+public class IntHashSet {
+    private static final int FREE_KEY = 0; // ключ 0 хранится отдельно, в таблице он обозначает пустую ячейку
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private int[] keys;
+    private int mask;
+    private int size; // количество ключей в таблице (без ключа 0)
+    private int threshold;
+    private boolean hasZeroKey;
+
+    public IntHashSet() {
+        this(4);
+    }
+
+    public IntHashSet(int expectedSize) {
+        allocate(tableSizeFor(expectedSize));
+    }
+
+    public int size() {
+        return size + (hasZeroKey ? 1 : 0);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean contains(int key) {
+        if (key == FREE_KEY) {
+            return hasZeroKey;
+        }
+        return keys[indexOf(key)] == key;
+    }
+
+    // false, если ключ уже был в множестве
+    public boolean add(int key) {
+        if (key == FREE_KEY) {
+            boolean added = !hasZeroKey;
+            hasZeroKey = true;
+            return added;
+        }
+        int index = indexOf(key);
+        if (keys[index] == key) {
+            return false;
+        }
+        keys[index] = key;
+        if (++size > threshold) {
+            rehash(keys.length << 1);
+        }
+        return true;
+    }
+
+    // Удаление ключа со сдвигом следующих элементов цепочки, false если ключа не было
+    public boolean remove(int key) {
+        if (key == FREE_KEY) {
+            boolean removed = hasZeroKey;
+            hasZeroKey = false;
+            return removed;
+        }
+        int index = indexOf(key);
+        if (keys[index] != key) {
+            return false;
+        }
+        int gap = index;
+        int next = (gap + 1) & mask;
+        while (keys[next] != FREE_KEY) {
+            int home = slot(keys[next]);
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[gap] = FREE_KEY;
+        size--;
+        return true;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE_KEY);
+        size = 0;
+        hasZeroKey = false;
+    }
+
+    // Ключи множества в произвольном порядке
+    public int[] toArray() {
+        int[] result = new int[size()];
+        int count = 0;
+        if (hasZeroKey) {
+            result[count++] = FREE_KEY;
+        }
+        for (int key : keys) {
+            if (key != FREE_KEY) {
+                result[count++] = key;
+            }
+        }
+        return result;
+    }
+
+    // Ячейка с ключом или первая свободная ячейка цепочки
+    private int indexOf(int key) {
+        int index = slot(key);
+        while (keys[index] != FREE_KEY && keys[index] != key) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private int slot(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        allocate(capacity);
+        for (int key : oldKeys) {
+            if (key != FREE_KEY) {
+                keys[indexOf(key)] = key;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        mask = capacity - 1;
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        long needed = (long) Math.ceil(Math.max(expectedSize, 2) / LOAD_FACTOR);
+        int capacity = Integer.highestOneBit((int) Math.min(needed, 1 << 30));
+        return capacity < needed ? capacity << 1 : capacity;
+    }
+}
@@ -0,0 +1,184 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+// Хэш-таблица int -> long с открытой адресацией (линейное пробирование) без упаковки в Integer/Long.
+// Занимает около 12 байт на запись (плюс запас по заполненности) вместо 60-80 байт у HashMap<Integer, Long>.
+// Значение -1 хранится как обычное значение, поэтому семантика удаленных записей (отступ -1) сохраняется.
+// Класс не потокобезопасен, синхронизацию обеспечивает владелец (StorageEngine).
+public class IntLongHashMap {
+    public static final long NO_VALUE = Long.MIN_VALUE; // результат get для отсутствующего ключа
+
+    private static final int FREE_KEY = 0; // ключ 0 хранится отдельно, в таблице он обозначает пустую ячейку
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private int[] keys;
+    private long[] values;
+    private int mask;
+    private int size; // количество ключей в таблице (без ключа 0)
+    private int threshold;
+    private boolean hasZeroKey;
+    private long zeroValue;
+
+    public interface EntryVisitor {
+        void visit(int key, long value) throws IOException;
+    }
+
+    public IntLongHashMap() {
+        this(16);
+    }
+
+    public IntLongHashMap(int expectedSize) {
+        allocate(tableSizeFor(expectedSize));
+    }
+
+    public int size() {
+        return size + (hasZeroKey ? 1 : 0);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean containsKey(int key) {
+        if (key == FREE_KEY) {
+            return hasZeroKey;
+        }
+        return keys[indexOf(key)] == key;
+    }
+
+    // Значение по ключу или NO_VALUE, если ключа нет
+    public long get(int key) {
+        if (key == FREE_KEY) {
+            return hasZeroKey ? zeroValue : NO_VALUE;
+        }
+        int index = indexOf(key);
+        return keys[index] == key ? values[index] : NO_VALUE;
+    }
+
+    // Возвращает предыдущее значение или NO_VALUE
+    public long put(int key, long value) {
+        if (key == FREE_KEY) {
+            long previous = hasZeroKey ? zeroValue : NO_VALUE;
+            hasZeroKey = true;
+            zeroValue = value;
+            return previous;
+        }
+        int index = indexOf(key);
+        if (keys[index] == key) {
+            long previous = values[index];
+            values[index] = value;
+            return previous;
+        }
+        keys[index] = key;
+        values[index] = value;
+        if (++size > threshold) {
+            rehash(keys.length << 1);
+        }
+        return NO_VALUE;
+    }
+
+    // Удаление ключа со сдвигом следующих элементов цепочки, возвращает удаленное значение или NO_VALUE
+    public long remove(int key) {
+        if (key == FREE_KEY) {
+            long previous = hasZeroKey ? zeroValue : NO_VALUE;
+            hasZeroKey = false;
+            return previous;
+        }
+        int index = indexOf(key);
+        if (keys[index] != key) {
+            return NO_VALUE;
+        }
+        long previous = values[index];
+        int gap = index;
+        int next = (gap + 1) & mask;
+        while (keys[next] != FREE_KEY) {
+            int home = slot(keys[next]);
+            // Элемент можно перенести в освободившуюся ячейку, если она лежит между его исходной ячейкой и текущей
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[gap] = FREE_KEY;
+        size--;
+        return previous;
+    }
+
+    // Увеличение таблицы заранее, чтобы expectedSize ключей поместились без промежуточных перестроений
+    public void ensureCapacity(int expectedSize) {
+        int capacity = tableSizeFor(expectedSize);
+        if (capacity > keys.length) {
+            rehash(capacity);
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE_KEY);
+        size = 0;
+        hasZeroKey = false;
+    }
+
+    public void forEach(EntryVisitor visitor) throws IOException {
+        if (hasZeroKey) {
+            visitor.visit(FREE_KEY, zeroValue);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != FREE_KEY) {
+                visitor.visit(keys[i], values[i]);
+            }
+        }
+    }
+
+    // Количество ключей с заданным значением (например, удаленных записей с отступом -1)
+    public int countValue(long value) {
+        int count = hasZeroKey && zeroValue == value ? 1 : 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != FREE_KEY && values[i] == value) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Ячейка с ключом или первая свободная ячейка цепочки
+    private int indexOf(int key) {
+        int index = slot(key);
+        while (keys[index] != FREE_KEY && keys[index] != key) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private int slot(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE_KEY) {
+                int index = indexOf(oldKeys[i]);
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new long[capacity];
+        mask = capacity - 1;
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        long needed = (long) Math.ceil(Math.max(expectedSize, 4) / LOAD_FACTOR);
+        int capacity = Integer.highestOneBit((int) Math.min(needed, 1 << 30));
+        return capacity < needed ? capacity << 1 : capacity;
+    }
+}
@@ -0,0 +1,134 @@
+import java.io.File;
+import java.io.IOException;
+
+// Индекс смещений в куче (StripedIntLongMap), сохраняемый на диск журналом IndexLog (id.csv).
+// get и containsKey безопасны из любого потока без блокировок, неизменяемые версии словаря позволяют движку
+// читать индекс по версиям (см. version). Изменения и журнал по-прежнему сериализует движок
+public class LoggedOffsetIndex implements OffsetIndex {
+    private final File file;
+    private final StripedIntLongMap map = new StripedIntLongMap();
+    private final IndexLog log;
+    private int deleted;
+
+    public LoggedOffsetIndex(File file) {
+        this.file = file;
+        this.log = new IndexLog(file);
+    }
+
+    @Override
+    public File getFile() {
+        return file;
+    }
+
+    // Журнал только дописывается, а переписывается контрольной точкой через подмену файла,
+    // поэтому снимку достаточно длины журнала: открытый канал продолжает читать прежний файл
+    @Override
+    public FileSnapshot snapshot() throws IOException {
+        log.flush();
+        if (!file.exists()) {
+            log.truncate();
+        }
+        return new FileSnapshot(file, file.length());
+    }
+
+    @Override
+    public long load() throws IOException {
+        log.close();
+        map.clear();
+        long[] maxOffset = {-1L};
+        map.putAll(visitor -> maxOffset[0] = log.load(visitor));
+        deleted = map.countValue(DELETED);
+        return maxOffset[0];
+    }
+
+    @Override
+    public boolean accepts(int id) {
+        return true;
+    }
+
+    @Override
+    public boolean containsKey(int id) {
+        return map.containsKey(id);
+    }
+
+    @Override
+    public long get(int id) {
+        return map.get(id);
+    }
+
+    @Override
+    public void put(int id, long offset) throws IOException {
+        long previous = map.put(id, offset);
+        if (previous == DELETED) {
+            deleted--;
+        }
+        if (offset == DELETED) {
+            deleted++;
+        }
+        log.append(id, offset);
+    }
+
+    // Журнал не пополняется построчно: индекс целиком пишет контрольная точка вызывающего
+    @Override
+    public void putAll(IntLongHashMap entries) throws IOException {
+        map.putAll(entries::forEach);
+        deleted = map.countValue(DELETED);
+    }
+
+    @Override
+    public StripedIntLongMap.Version version() {
+        return map.version();
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public int deletedCount() {
+        return deleted;
+    }
+
+    @Override
+    public void forEach(IntLongHashMap.EntryVisitor visitor) throws IOException {
+        map.forEach(visitor);
+    }
+
+    // Журнал сжимается, когда устаревших строк в нем становится больше, чем актуальных
+    @Override
+    public void flush() throws IOException {
+        if (log.needsCheckpoint(map.size())) {
+            log.checkpoint(map);
+        } else {
+            log.flush();
+        }
+    }
+
+    @Override
+    public void checkpoint() throws IOException {
+        log.checkpoint(map);
+    }
+
+    @Override
+    public void clear() throws IOException {
+        map.clear();
+        deleted = 0;
+        log.truncate();
+    }
+
+    @Override
+    public void drop() throws IOException {
+        close();
+        if (file.exists() && !file.delete()) {
+            throw new IOException("не удалось удалить файл индексов " + file.getPath());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        log.close();
+        map.clear();
+        deleted = 0;
+    }
+}
@@ -10,9 +10,10 @@ public class Main {
         String dbPath = "database.csv";
         String idFilePath = "id.csv";
         String directory = "db";
+        int shards = 4; // новая база делится на шарды по хэшу ID, у каждого свой файл данных и индекс
 
         SwingUtilities.invokeLater(() -> {
-            FileDatabaseGUI gui = new FileDatabaseGUI(dbPath, idFilePath, directory);
+            FileDatabaseGUI gui = new FileDatabaseGUI(dbPath, idFilePath, directory, shards);
             gui.setVisible(true);
         });
 
@@ -0,0 +1,256 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Индекс смещений в файле, отображенном в память: по ячейке в 8 байт на каждый ID (адрес = заголовок + 8 * ID).
+// Открытие не зависит от количества записей, индекс держит страничный кэш ОС, а не куча Java,
+// и несколько процессов могут одновременно читать один файл индекса (режим только для чтения).
+// В ячейке хранится отступ + 2: 0 - ID отсутствует, 1 - запись удалена (-1). Поддерживаются только ID >= 0.
+public class MappedOffsetIndex implements OffsetIndex {
+    private static final long MAGIC = 0x4644424944583031L; // "FDBIDX01"
+    private static final int HEADER = 64;
+    private static final int SIZE_POS = 8;
+    private static final int DELETED_POS = 16;
+    private static final int MAX_OFFSET_POS = 24;
+    private static final int CHUNK_SHIFT = 26; // файл отображается фрагментами по 64 МБ
+    private static final long CHUNK_SIZE = 1L << CHUNK_SHIFT;
+
+    private final File file;
+    private final boolean readOnly;
+    // Фрагменты заменяются новым массивом целиком: в режиме только для чтения get под общей блокировкой
+    // отображает фрагменты, которые дописал другой процесс, пока другие читатели обращаются к прежнему массиву
+    private volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+    private RandomAccessFile raf;
+    private final List<FileSnapshot> snapshots = new CopyOnWriteArrayList<>(); // снимки, которым нужны прежние ячейки
+
+    public MappedOffsetIndex(File file, boolean readOnly) {
+        this.file = file;
+        this.readOnly = readOnly;
+    }
+
+    @Override
+    public File getFile() {
+        return file;
+    }
+
+    // Ячейки и заголовок меняются на месте, поэтому put сохраняет их прежнее содержимое в открытых снимках
+    @Override
+    public FileSnapshot snapshot() throws IOException {
+        if (raf == null) {
+            throw new IOException("Индекс не открыт: " + file.getPath());
+        }
+        snapshots.removeIf(FileSnapshot::isClosed);
+        FileSnapshot snapshot = new FileSnapshot(file, raf.length());
+        snapshots.add(snapshot);
+        return snapshot;
+    }
+
+    @Override
+    public long load() throws IOException {
+        if (raf == null) {
+            map();
+        }
+        return size() == 0 ? -1L : header().getLong(MAX_OFFSET_POS);
+    }
+
+    // Ячейка ID лежит по отступу 8 * id, поэтому отрицательные ID не хранятся
+    @Override
+    public boolean accepts(int id) {
+        return id >= 0;
+    }
+
+    @Override
+    public boolean containsKey(int id) {
+        return get(id) != NO_VALUE;
+    }
+
+    @Override
+    public long get(int id) {
+        if (id < 0) {
+            return NO_VALUE;
+        }
+        long position = HEADER + 8L * id;
+        int chunk = (int) (position >>> CHUNK_SHIFT);
+        MappedByteBuffer[] mapped = chunks;
+        if (chunk >= mapped.length && (!readOnly || chunk >= (mapped = remap()).length)) {
+            return NO_VALUE; // ячейка за пределами файла, значит такого ID еще нет
+        }
+        long raw = mapped[chunk].getLong((int) (position & (CHUNK_SIZE - 1)));
+        return raw == 0 ? NO_VALUE : raw - 2;
+    }
+
+    @Override
+    public void put(int id, long offset) throws IOException {
+        if (readOnly) {
+            throw new IOException("индекс открыт только для чтения: " + file.getPath());
+        }
+        if (!accepts(id)) {
+            throw new IllegalArgumentException("Индекс в файле поддерживает только неотрицательные ID: " + id);
+        }
+        long position = HEADER + 8L * id;
+        int chunk = (int) (position >>> CHUNK_SHIFT);
+        while (chunk >= chunks.length) {
+            grow();
+        }
+        for (FileSnapshot snapshot : snapshots) {
+            snapshot.preserve(0, HEADER);
+            snapshot.preserve(position, 8);
+        }
+        MappedByteBuffer buffer = chunks[chunk];
+        int index = (int) (position & (CHUNK_SIZE - 1));
+        long previous = buffer.getLong(index);
+        buffer.putLong(index, offset + 2);
+
+        MappedByteBuffer header = header();
+        if (previous == 0) {
+            header.putLong(SIZE_POS, header.getLong(SIZE_POS) + 1);
+        } else if (previous - 2 == DELETED) {
+            header.putLong(DELETED_POS, header.getLong(DELETED_POS) - 1);
+        }
+        if (offset == DELETED) {
+            header.putLong(DELETED_POS, header.getLong(DELETED_POS) + 1);
+        } else if (offset > header.getLong(MAX_OFFSET_POS)) {
+            header.putLong(MAX_OFFSET_POS, offset);
+        }
+    }
+
+    @Override
+    public void putAll(IntLongHashMap entries) throws IOException {
+        entries.forEach(this::put);
+    }
+
+    // Ячейки меняются на месте в отображенном файле, версий у индекса нет
+    @Override
+    public StripedIntLongMap.Version version() {
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return (int) header().getLong(SIZE_POS);
+    }
+
+    @Override
+    public int deletedCount() {
+        return (int) header().getLong(DELETED_POS);
+    }
+
+    @Override
+    public void forEach(IntLongHashMap.EntryVisitor visitor) throws IOException {
+        MappedByteBuffer[] mapped = chunks;
+        for (int chunk = 0; chunk < mapped.length; chunk++) {
+            MappedByteBuffer buffer = mapped[chunk];
+            for (int index = chunk == 0 ? HEADER : 0; index < CHUNK_SIZE; index += 8) {
+                long raw = buffer.getLong(index);
+                if (raw != 0) {
+                    long position = ((long) chunk << CHUNK_SHIFT) + index;
+                    visitor.visit((int) ((position - HEADER) / 8), raw - 2);
+                }
+            }
+        }
+    }
+
+    // Изменения сразу попадают в страничный кэш ОС, отдельный сброс не нужен
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void checkpoint() {
+        if (!readOnly) {
+            for (MappedByteBuffer buffer : chunks) {
+                buffer.force();
+            }
+        }
+    }
+
+    @Override
+    public void clear() throws IOException {
+        drop();
+        map();
+    }
+
+    @Override
+    public void drop() throws IOException {
+        close();
+        snapshots.clear(); // снимки читают удаляемый файл через свои каналы, новый файл их не касается
+        if (file.exists() && !file.delete()) {
+            throw new IOException("не удалось удалить файл индексов " + file.getPath());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        checkpoint();
+        chunks = new MappedByteBuffer[0];
+        if (raf != null) {
+            raf.close();
+            raf = null;
+        }
+    }
+
+    private MappedByteBuffer header() {
+        MappedByteBuffer[] mapped = chunks;
+        if (mapped.length == 0) {
+            throw new IllegalStateException("Индекс не открыт: " + file.getPath());
+        }
+        return mapped[0];
+    }
+
+    // Отображение файла в память, новый файл создается с пустым заголовком
+    private void map() throws IOException {
+        if (readOnly && !file.exists()) {
+            throw new IOException("файл индексов не найден: " + file.getPath());
+        }
+        raf = new RandomAccessFile(file, readOnly ? "r" : "rw");
+        if (raf.length() == 0 && !readOnly) {
+            grow();
+            MappedByteBuffer header = header();
+            header.putLong(0, MAGIC);
+            header.putLong(MAX_OFFSET_POS, -1L);
+        } else {
+            remap();
+        }
+        if (chunks.length == 0 || header().getLong(0) != MAGIC) {
+            close();
+            throw new IOException("файл не является индексом базы данных: " + file.getPath());
+        }
+    }
+
+    // Отображение фрагментов, появившихся после того, как файл вырос (в том числе в другом процессе).
+    // Читатели вызывают его одновременно, поэтому новые фрагменты отображаются под монитором индекса
+    // и публикуются новым массивом. Возвращает текущие фрагменты
+    private synchronized MappedByteBuffer[] remap() {
+        MappedByteBuffer[] mapped = chunks;
+        try {
+            long count = raf.length() >>> CHUNK_SHIFT;
+            if (mapped.length >= count) {
+                return mapped;
+            }
+            MappedByteBuffer[] grown = Arrays.copyOf(mapped, (int) count);
+            for (int chunk = mapped.length; chunk < count; chunk++) {
+                grown[chunk] = raf.getChannel().map(readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE,
+                        (long) chunk << CHUNK_SHIFT, CHUNK_SIZE);
+            }
+            chunks = grown;
+            return grown;
+        } catch (IOException e) {
+            return mapped;
+        }
+    }
+
+    // Файл растет целыми фрагментами; незаписанные ячейки не занимают места на диске
+    private synchronized void grow() throws IOException {
+        MappedByteBuffer[] mapped = chunks;
+        long start = (long) mapped.length << CHUNK_SHIFT;
+        raf.setLength(start + CHUNK_SIZE);
+        MappedByteBuffer[] grown = Arrays.copyOf(mapped, mapped.length + 1);
+        grown[mapped.length] = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, start, CHUNK_SIZE);
+        chunks = grown;
+    }
+}
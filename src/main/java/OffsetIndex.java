@@ -0,0 +1,59 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+// Индекс смещений записей: ID -> отступ строки в файле базы данных (-1 для удаленных записей).
+// Реализации сами отвечают за хранение индекса на диске.
+public interface OffsetIndex extends Closeable {
+    long NO_VALUE = IntLongHashMap.NO_VALUE; // результат get для неизвестного ID
+    long DELETED = -1L; // отступ удаленной записи
+
+    // Файл, в котором индекс хранится на диске
+    File getFile();
+
+    // Снимок файла индекса в текущем состоянии (см. FileSnapshot): изменения индекса после этого
+    // в снимок не попадают. Вызывается под эксклюзивной блокировкой движка, снимок закрывает вызывающий
+    FileSnapshot snapshot() throws IOException;
+
+    // Загрузка индекса с диска, возвращает максимальный отступ в индексе (-1, если индекс пуст)
+    long load() throws IOException;
+
+    // Индекс может хранить этот ID. Движок проверяет ID до записи операции в журнал,
+    // чтобы в журнал не попала операция, которую нельзя повторить при открытии
+    boolean accepts(int id);
+
+    boolean containsKey(int id);
+
+    long get(int id);
+
+    void put(int id, long offset) throws IOException;
+
+    // Добавление многих ID сразу (пакетная загрузка, сжатие) только в памяти: на диск индекс попадает
+    // контрольной точкой (checkpoint), которую вызывающий делает сразу после, до следующих put и flush
+    void putAll(IntLongHashMap entries) throws IOException;
+
+    // Неизменяемая версия индекса в текущем состоянии для чтения без блокировок из любого потока;
+    // null, если индекс меняется на месте и читать его можно только под блокировкой движка.
+    // Вызывается под эксклюзивной блокировкой движка
+    StripedIntLongMap.Version version();
+
+    // Количество ID в индексе, включая удаленные
+    int size();
+
+    // Количество удаленных записей (с отступом -1)
+    int deletedCount();
+
+    void forEach(IntLongHashMap.EntryVisitor visitor) throws IOException;
+
+    // Сброс последних изменений на диск
+    void flush() throws IOException;
+
+    // Запись индекса на диск в компактном виде
+    void checkpoint() throws IOException;
+
+    // Очистка индекса вместе с его файлом
+    void clear() throws IOException;
+
+    // Закрытие и удаление файлов индекса
+    void drop() throws IOException;
+}
@@ -0,0 +1,222 @@
+import java.io.IOException;
+
+// Словарь int -> long с неизменяемыми версиями для чтения без блокировок (копирование при записи).
+// Ключи разложены по префиксному дереву по битам перемешанного ключа: узел разбирает BITS бит и имеет
+// 2^BITS детей, пары хранятся в листьях до LEAF_SIZE штук. freeze() возвращает текущее состояние как
+// неизменяемую версию за O(1); первое изменение листа после freeze копирует лист и путь к нему от корня,
+// поэтому версию можно читать из любого потока, пока словарь меняется, а неизмененные узлы общие.
+// Узлы, созданные после последнего freeze, меняются на месте: пакетная загрузка не копирует путь на каждую пару.
+// Менять словарь и вызывать freeze может один поток за раз, синхронизацию писателей обеспечивает владелец.
+// Значение NO_VALUE хранить нельзя: get возвращает его для отсутствующего ключа.
+public class PersistentIntLongMap {
+    public static final long NO_VALUE = IntLongHashMap.NO_VALUE;
+
+    private static final int BITS = 6;
+    private static final int FANOUT = 1 << BITS;
+    private static final int LEAF_SIZE = 32; // больше пар лист делится на узел, кроме самого нижнего уровня
+    private static final int MAX_DEPTH = (32 + BITS - 1) / BITS; // на этой глубине биты ключа закончились
+
+    private Object root; // узел Object[], лист long[] или null
+    private int size;
+    private Object owner = new Object(); // узлы с этим владельцем созданы после последнего freeze
+    private long epoch; // то же для листов
+    private long previous; // предыдущее значение ключа в текущем put
+
+    // Узел - массив Object[FANOUT + 1]: дети и владелец в последней ячейке.
+    // Лист - массив long[]: эпоха, количество пар, затем пары ключ, значение.
+    // Без отдельных объектов-оберток поиск проходит по одному массиву на уровень.
+    private static final int EPOCH = 0;
+    private static final int COUNT = 1;
+    private static final int PAIRS = 2;
+
+    // Неизменяемая версия словаря
+    public static final class Version {
+        private final Object root;
+        private final int size;
+
+        private Version(Object root, int size) {
+            this.root = root;
+            this.size = size;
+        }
+
+        public long get(int key) {
+            return find(root, key);
+        }
+
+        public boolean containsKey(int key) {
+            return find(root, key) != NO_VALUE;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public void forEach(IntLongHashMap.EntryVisitor visitor) throws IOException {
+            visit(root, visitor);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(int key) {
+        return find(root, key) != NO_VALUE;
+    }
+
+    // Значение по ключу или NO_VALUE, если ключа нет
+    public long get(int key) {
+        return find(root, key);
+    }
+
+    // Возвращает предыдущее значение или NO_VALUE
+    public long put(int key, long value) {
+        if (value == NO_VALUE) {
+            throw new IllegalArgumentException("значение NO_VALUE зарезервировано для отсутствующего ключа");
+        }
+        previous = NO_VALUE;
+        root = put(root, 0, hash(key), key, value);
+        if (previous == NO_VALUE) {
+            size++;
+        }
+        return previous;
+    }
+
+    public void clear() {
+        root = null;
+        size = 0;
+    }
+
+    // Текущее состояние как неизменяемая версия; следующие изменения ее не затрагивают
+    public Version freeze() {
+        owner = new Object();
+        epoch++;
+        return new Version(root, size);
+    }
+
+    public void forEach(IntLongHashMap.EntryVisitor visitor) throws IOException {
+        visit(root, visitor);
+    }
+
+    // Количество ключей с заданным значением (например, удаленных записей с отступом -1)
+    public int countValue(long value) {
+        int[] count = {0};
+        try {
+            visit(root, (key, entry) -> {
+                if (entry == value) {
+                    count[0]++;
+                }
+            });
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // посетитель не бросает исключений
+        }
+        return count[0];
+    }
+
+    private Object put(Object node, int depth, int hash, int key, long value) {
+        if (node == null) {
+            return new long[]{epoch, 1, key, value};
+        }
+        if (node instanceof Object[]) {
+            Object[] branch = (Object[]) node;
+            int slot = slot(hash, depth);
+            Object child = put(branch[slot], depth + 1, hash, key, value);
+            if (child == branch[slot]) {
+                return branch;
+            }
+            Object[] target = branch[FANOUT] == owner ? branch : branch.clone();
+            target[FANOUT] = owner;
+            target[slot] = child;
+            return target;
+        }
+        long[] leaf = (long[]) node;
+        int count = (int) leaf[COUNT];
+        int end = PAIRS + 2 * count;
+        for (int i = PAIRS; i < end; i += 2) {
+            if (leaf[i] == key) {
+                previous = leaf[i + 1];
+                if (previous == value) {
+                    return leaf;
+                }
+                long[] target = leaf[EPOCH] == epoch ? leaf : leaf.clone();
+                target[EPOCH] = epoch;
+                target[i + 1] = value;
+                return target;
+            }
+        }
+        if (count >= LEAF_SIZE && depth < MAX_DEPTH) {
+            return split(leaf, depth, hash, key, value);
+        }
+        long[] target = leaf;
+        if (leaf[EPOCH] != epoch || end == leaf.length) {
+            // Лист своего пакета растет вдвое, чужой копируется ровно с одной новой парой
+            int capacity = leaf[EPOCH] == epoch ? Math.min(LEAF_SIZE, count * 2) : count + 1;
+            target = new long[PAIRS + 2 * Math.max(capacity, count + 1)];
+            System.arraycopy(leaf, 0, target, 0, end);
+            target[EPOCH] = epoch;
+        }
+        target[end] = key;
+        target[end + 1] = value;
+        target[COUNT] = count + 1;
+        return target;
+    }
+
+    // Переполненный лист заменяется узлом, пары расходятся по детям на следующей глубине
+    private Object split(long[] leaf, int depth, int hash, int key, long value) {
+        Object[] node = new Object[FANOUT + 1];
+        node[FANOUT] = owner;
+        Object result = node;
+        int end = PAIRS + 2 * (int) leaf[COUNT];
+        for (int i = PAIRS; i < end; i += 2) {
+            result = put(result, depth, hash((int) leaf[i]), (int) leaf[i], leaf[i + 1]);
+        }
+        return put(result, depth, hash, key, value);
+    }
+
+    private static long find(Object node, int key) {
+        int hash = hash(key);
+        for (int depth = 0; node instanceof Object[]; depth++) {
+            node = ((Object[]) node)[slot(hash, depth)];
+        }
+        if (node == null) {
+            return NO_VALUE;
+        }
+        long[] leaf = (long[]) node;
+        int end = PAIRS + 2 * (int) leaf[COUNT];
+        for (int i = PAIRS; i < end; i += 2) {
+            if (leaf[i] == key) {
+                return leaf[i + 1];
+            }
+        }
+        return NO_VALUE;
+    }
+
+    private static void visit(Object node, IntLongHashMap.EntryVisitor visitor) throws IOException {
+        if (node instanceof Object[]) {
+            Object[] branch = (Object[]) node;
+            for (int i = 0; i < FANOUT; i++) {
+                visit(branch[i], visitor);
+            }
+        } else if (node != null) {
+            long[] leaf = (long[]) node;
+            int end = PAIRS + 2 * (int) leaf[COUNT];
+            for (int i = PAIRS; i < end; i += 2) {
+                visitor.visit((int) leaf[i], leaf[i + 1]);
+            }
+        }
+    }
+
+    // Перемешивание взаимно однозначно: разные ключи дают разные хэши, поэтому на MAX_DEPTH в листе одна пара
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int slot(int hash, int depth) {
+        return (int) (((hash & 0xFFFFFFFFL) >>> (BITS * depth)) & (FANOUT - 1));
+    }
+}
@@ -0,0 +1,185 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.DateTimeException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+// Упорядоченный индекс по типизированному столбцу: ключ поля -> множество ID живых записей, ключи отсортированы.
+// Числа (Price, Quantity) и даты ISO (ExpirationDate, yyyy-MM-dd) приводятся к числовому ключу,
+// поэтому диапазонные запросы и обход по порядку не зависят от строкового представления.
+// Значения, которые не разбираются как ключ нужного типа, в индекс не попадают.
+// Хранится на диске так же, как SecondaryIndex: "<отметка>" + строки "ID,ключ", с перестроением после сбоя.
+public class RangeIndex implements ColumnIndex {
+    public enum Type {
+        NUMBER, DATE
+    }
+
+    public interface IdVisitor {
+        void visit(int id, double key) throws IOException;
+    }
+
+    private final int column;
+    private final Type type;
+    private final File file;
+    private final TreeMap<Double, IntHashSet> keys = new TreeMap<>();
+
+    public RangeIndex(int column, Type type, File file) {
+        this.column = column;
+        this.type = type;
+        this.file = file;
+    }
+
+    @Override
+    public int getColumn() {
+        return column;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    @Override
+    public File getFile() {
+        return file;
+    }
+
+    // Ключ значения поля (для дат - номер дня от 1970-01-01), null если значение не разбирается
+    public Double keyOf(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            String trimmed = value.trim();
+            return type == Type.DATE ? (double) LocalDate.parse(trimmed).toEpochDay() : Double.parseDouble(trimmed);
+        } catch (NumberFormatException | DateTimeException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void add(int id, String record) {
+        Double key = keyOf(valueOf(record));
+        if (key != null) {
+            keys.computeIfAbsent(key, k -> new IntHashSet()).add(id);
+        }
+    }
+
+    // Ключ разбирается прямо в буфере строки
+    @Override
+    public void add(int id, CsvTokenizer line) {
+        if (column >= line.fieldCount()) {
+            return;
+        }
+        double key;
+        try {
+            key = type == Type.DATE ? line.parseEpochDay(column) : line.parseDouble(column);
+        } catch (NumberFormatException | DateTimeException e) {
+            return;
+        }
+        keys.computeIfAbsent(key, k -> new IntHashSet()).add(id);
+    }
+
+    @Override
+    public void remove(int id, String record) {
+        Double key = keyOf(valueOf(record));
+        IntHashSet ids = key == null ? null : keys.get(key);
+        if (ids != null && ids.remove(id) && ids.isEmpty()) {
+            keys.remove(key);
+        }
+    }
+
+    // Обход ID с ключами в диапазоне по возрастанию ключа (при равных ключах - по возрастанию ID).
+    // Граница null означает отсутствие ограничения с этой стороны
+    public void forEach(Double from, boolean fromInclusive, Double to, boolean toInclusive, IdVisitor visitor) throws IOException {
+        NavigableMap<Double, IntHashSet> range = keys;
+        if (from != null && to != null) {
+            if (from > to) {
+                return;
+            }
+            range = keys.subMap(from, fromInclusive, to, toInclusive);
+        } else if (from != null) {
+            range = keys.tailMap(from, fromInclusive);
+        } else if (to != null) {
+            range = keys.headMap(to, toInclusive);
+        }
+        for (Map.Entry<Double, IntHashSet> entry : range.entrySet()) {
+            int[] ids = entry.getValue().toArray();
+            Arrays.sort(ids);
+            for (int id : ids) {
+                visitor.visit(id, entry.getKey());
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        keys.clear();
+    }
+
+    @Override
+    public boolean load(long stamp) throws IOException {
+        keys.clear();
+        if (!file.exists()) {
+            return false;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), 1 << 16)) {
+            String header = reader.readLine();
+            if (header == null || !header.equals(Long.toString(stamp))) {
+                return false;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int comma = line.indexOf(',');
+                if (comma < 0) {
+                    keys.clear();
+                    return false; // файл оборван - индекс нужно перестроить
+                }
+                keys.computeIfAbsent(Double.parseDouble(line.substring(comma + 1)), k -> new IntHashSet())
+                        .add(Integer.parseInt(line.substring(0, comma)));
+            }
+        } catch (NumberFormatException e) {
+            keys.clear();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void save(long stamp) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(tmp);
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(fileOut, StandardCharsets.UTF_8), 1 << 16)) {
+            out.write(Long.toString(stamp));
+            out.newLine();
+            for (Map.Entry<Double, IntHashSet> entry : keys.entrySet()) {
+                String key = entry.getKey().toString();
+                for (int id : entry.getValue().toArray()) {
+                    out.write(Integer.toString(id));
+                    out.write(',');
+                    out.write(key);
+                    out.newLine();
+                }
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public void drop() throws IOException {
+        keys.clear();
+        if (file.exists() && !file.delete()) {
+            throw new IOException("не удалось удалить файл индекса " + file.getPath());
+        }
+    }
+
+    private String valueOf(String record) {
+        return CsvTokenizer.field(record, column);
+    }
+}
@@ -0,0 +1,157 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Ограниченный кэш прочитанных записей по ID перед чтением файла данных (get и getAll движка).
+// Кэш разбит на сегменты по хэшу ID, каждый сегмент - LinkedHashMap в порядке доступа под своей блокировкой,
+// при переполнении сегмента вытесняется давно не читанная запись (LRU).
+// Записи читаются по версиям базы (MVCC), поэтому в кэше у строки есть отступ и версия, в которой она прочитана:
+// читатель берет строку, только если она прочитана не позже его версии и по тому же отступу.
+// Писатель до публикации новой версии убирает измененный ID (invalidate) и поднимает порог сегмента до этой версии:
+// читатели прежних версий, дочитавшие строку после изменения, в кэш ее уже не положат
+public class RecordCache {
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    // Счетчики кэша: попадания, промахи, вытеснения и количество записей в кэше
+    public static final class Stats {
+        public final long hits;
+        public final long misses;
+        public final long evictions;
+        public final int size;
+
+        Stats(long hits, long misses, long evictions, int size) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.size = size;
+        }
+
+        // Доля чтений, обслуженных кэшем; 0, если чтений не было
+        public double hitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+
+        // Сумма счетчиков (кэши нескольких шардов)
+        public Stats plus(Stats other) {
+            return new Stats(hits + other.hits, misses + other.misses, evictions + other.evictions, size + other.size);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("попаданий %d, промахов %d (%.1f%%), вытеснено %d, в кэше %d",
+                    hits, misses, hitRate() * 100, evictions, size);
+        }
+    }
+
+    private static final class CachedRow {
+        final long offset;
+        final long version;
+        final String record;
+
+        CachedRow(long offset, long version, String record) {
+            this.offset = offset;
+            this.version = version;
+            this.record = record;
+        }
+    }
+
+    // Сегмент кэша: строки в порядке доступа, первой идет давно не читанная. Меняется под блокировкой сегмента
+    private final class Segment {
+        final int capacity;
+        final LinkedHashMap<Integer, CachedRow> rows = new LinkedHashMap<>(16, 0.75f, true);
+        long floor; // строки, прочитанные в версиях раньше этой, в сегмент не кладутся
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+        }
+
+        void put(int id, CachedRow row) {
+            rows.put(id, row);
+            if (rows.size() > capacity) {
+                Iterator<Integer> eldest = rows.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    // capacity - наибольшее количество записей в кэше, делится между сегментами поровну
+    public RecordCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("размер кэша записей должен быть положительным: " + capacity);
+        }
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(Math.max(1, (capacity + SEGMENTS - 1) / SEGMENTS));
+        }
+    }
+
+    // Запись id, лежащая по отступу offset в версии version, или null, если в кэше ее нет
+    public String get(int id, long offset, long version) {
+        Segment segment = segment(id);
+        CachedRow entry;
+        synchronized (segment) {
+            entry = segment.rows.get(id);
+        }
+        if (entry != null && entry.offset == offset && entry.version <= version) {
+            hits.increment();
+            return entry.record;
+        }
+        misses.increment();
+        return null;
+    }
+
+    // Запись id, прочитанная по отступу offset в версии version. Строка более новой версии не заменяется
+    public void put(int id, long offset, String record, long version) {
+        Segment segment = segment(id);
+        synchronized (segment) {
+            if (version < segment.floor) {
+                return;
+            }
+            CachedRow current = segment.rows.get(id);
+            if (current == null || current.version <= version) {
+                segment.put(id, new CachedRow(offset, version, record));
+            }
+        }
+    }
+
+    // Запись id меняется в версии version
+    public void invalidate(int id, long version) {
+        Segment segment = segment(id);
+        synchronized (segment) {
+            segment.floor = Math.max(segment.floor, version);
+            segment.rows.remove(id);
+        }
+    }
+
+    // Вся база меняется в версии version (создание, открытие, закрытие)
+    public void clear(long version) {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.floor = Math.max(segment.floor, version);
+                segment.rows.clear();
+            }
+        }
+    }
+
+    public Stats stats() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.rows.size();
+            }
+        }
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), size);
+    }
+
+    private Segment segment(int id) {
+        int h = id * 0x9E3779B9;
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+}
@@ -0,0 +1,220 @@
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+// Виртуальная модель таблицы: строки не копируются в модель, а читаются из базы по мере отрисовки.
+// Модель хранит только отсортированный массив ID живых записей (строка i таблицы - запись ids[i]),
+// запись по ID берется по отступу из индекса. Прочитанные строки лежат в ограниченном LRU-кэше,
+// который заполняется страницами по PAGE_SIZE строк, поэтому прокрутка читает файл пачками,
+// а память модели не зависит от размера базы (кроме 4 байт на ID).
+// Добавление, редактирование и удаление записи меняют одну строку модели без перечитывания базы.
+// Страницы читаются в фоновом потоке: пока страница не прочитана, в ее ячейках стоит LOADING,
+// а после чтения строки обновляются событием модели, так что поток Swing файл не читает.
+// Ошибка чтения страницы передается в поток Swing и показывается, как ошибки остальных операций (DatabaseWorker).
+public class RecordTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+    static final int PAGE_SIZE = 128;
+    static final int CACHED_PAGES = 64;
+    static final String LOADING = "...";
+
+    private final Database engine;
+    private final Executor loader; // чтение страниц
+    private final Executor dispatcher; // применение прочитанной страницы к модели (поток Swing)
+    private final Consumer<Throwable> errors; // сообщение об ошибке чтения, вызывается в потоке dispatcher
+    private final Set<Integer> loading = new HashSet<>(); // ID записей страниц, которые сейчас читаются
+    private long generation; // меняется при редактировании и перезагрузке, чтения до этого отбрасываются
+    private long reportedGeneration = -1; // поколение, об ошибке чтения которого уже сообщено
+    private String[] columns = new String[0];
+    private int[] ids = new int[0];
+    private int size;
+    // Кэш прочитанных строк по ID: вставка и удаление строк сдвигают позиции, но не ID
+    private final Map<Integer, String[]> rows = new LinkedHashMap<Integer, String[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, String[]> eldest) {
+            return size() > PAGE_SIZE * CACHED_PAGES;
+        }
+    };
+
+    public RecordTableModel(Database engine) {
+        this(engine, Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "filedb-table");
+            thread.setDaemon(true);
+            return thread;
+        }), SwingUtilities::invokeLater);
+    }
+
+    RecordTableModel(Database engine, Executor loader, Executor dispatcher) {
+        this(engine, loader, dispatcher, cause -> DatabaseWorker.showError("Ошибка при чтении записей таблицы: ", cause));
+    }
+
+    RecordTableModel(Database engine, Executor loader, Executor dispatcher, Consumer<Throwable> errors) {
+        this.engine = engine;
+        this.loader = loader;
+        this.dispatcher = dispatcher;
+        this.errors = errors;
+    }
+
+    // Перечитывание списка записей и столбцов после массовых изменений (загрузка, удаление по полю, восстановление)
+    public void reload() throws IOException {
+        load(engine.getColumns(), engine.exists() ? engine.ids() : new int[0]);
+    }
+
+    // Подмена столбцов и списка ID, прочитанных заранее (например, в фоновой задаче)
+    public void load(String[] newColumns, int[] newIds) {
+        boolean structureChanged = !Arrays.equals(columns, newColumns);
+        columns = newColumns;
+        ids = newIds;
+        size = newIds.length;
+        invalidate();
+        if (structureChanged) {
+            fireTableStructureChanged();
+        } else {
+            fireTableDataChanged();
+        }
+    }
+
+    // Пустая таблица без столбцов (база удалена)
+    public void clear() {
+        columns = new String[0];
+        ids = new int[0];
+        size = 0;
+        invalidate();
+        fireTableStructureChanged();
+    }
+
+    public void recordAdded(int id) {
+        int position = Arrays.binarySearch(ids, 0, size, id);
+        if (position >= 0) {
+            recordUpdated(id);
+            return;
+        }
+        position = -position - 1;
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, Math.max(16, size + (size >> 1)));
+        }
+        System.arraycopy(ids, position, ids, position + 1, size - position);
+        ids[position] = id;
+        size++;
+        fireTableRowsInserted(position, position);
+    }
+
+    public void recordUpdated(int id) {
+        int position = Arrays.binarySearch(ids, 0, size, id);
+        if (position >= 0) {
+            rows.remove(id);
+            generation++;
+            fireTableRowsUpdated(position, position);
+        }
+    }
+
+    public void recordDeleted(int id) {
+        int position = Arrays.binarySearch(ids, 0, size, id);
+        if (position >= 0) {
+            System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+            size--;
+            rows.remove(id);
+            fireTableRowsDeleted(position, position);
+        }
+    }
+
+    // ID записи в строке таблицы
+    public int getId(int row) {
+        return ids[row];
+    }
+
+    @Override
+    public int getRowCount() {
+        return size;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return columns[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        String[] fields = rows.get(ids[row]);
+        if (fields == null) {
+            requestPage(row);
+            fields = rows.get(ids[row]); // страница могла прочитаться сразу (исполнители без потоков в тестах)
+            if (fields == null) {
+                return LOADING;
+            }
+        }
+        return column < fields.length ? fields[column] : "";
+    }
+
+    // Все прочитанные и читаемые страницы больше не действительны
+    private void invalidate() {
+        rows.clear();
+        loading.clear();
+        generation++;
+    }
+
+    // Фоновое чтение страницы, в которую попала строка
+    private void requestPage(int row) {
+        if (loading.contains(ids[row])) {
+            return;
+        }
+        int from = row / PAGE_SIZE * PAGE_SIZE;
+        int[] page = Arrays.copyOfRange(ids, from, Math.min(size, from + PAGE_SIZE));
+        for (int id : page) {
+            loading.add(id);
+        }
+        long requested = generation;
+        loader.execute(() -> {
+            String[] records;
+            try {
+                records = engine.getAll(page, 0, page.length);
+            } catch (IOException e) {
+                dispatcher.execute(() -> pageFailed(page, e, requested));
+                return;
+            }
+            dispatcher.execute(() -> pageLoaded(page, records, requested));
+        });
+    }
+
+    // Страница не прочиталась: ее строки остаются пустыми до reload, чтобы перерисовка не повторяла чтение,
+    // а об ошибке сообщается один раз на поколение модели, а не на каждую видимую страницу
+    private void pageFailed(int[] page, IOException cause, long requested) {
+        pageLoaded(page, new String[page.length], requested);
+        if (reportedGeneration != requested) {
+            reportedGeneration = requested;
+            errors.accept(cause);
+        }
+    }
+
+    private void pageLoaded(int[] page, String[] records, long requested) {
+        for (int i = 0; i < page.length; i++) {
+            loading.remove(page[i]);
+            // Устаревшая страница не сохраняется: после перерисовки строки запросятся заново.
+            // Запись могла быть удалена в обход модели - строка остается пустой до reload
+            if (requested == generation) {
+                rows.put(page[i], records[i] == null ? new String[0] : CsvTokenizer.split(records[i]));
+            }
+        }
+        int first = Arrays.binarySearch(ids, 0, size, page[0]);
+        int last = Arrays.binarySearch(ids, 0, size, page[page.length - 1]);
+        if (first < 0 || last < 0) {
+            first = 0;
+            last = size - 1;
+        }
+        if (first <= last) {
+            fireTableRowsUpdated(first, last);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+// Компактная двоичная кодировка записи по схеме таблицы.
+// Строка: битовая карта пустых полей, затем поля фиксированной ширины на постоянных отступах
+// (int и date - 4 байта, decimal - 8 байт: масштаб в старшем байте и 56 бит немасштабированного значения,
+// boolean - 1 байт),
+// затем строковые поля: длина (varint) и байты UTF-8. Числовые поля читаются по отступу без разбора текста,
+// поэтому скан по одному столбцу не трогает остальные.
+public class RowCodec {
+    private final Schema schema;
+    private final int bitmapLength;
+    private final int[] fixedOffsets; // отступ поля фиксированной ширины от начала строки, -1 для строковых
+    private final int variableStart; // начало строковых полей
+    private static final long MAX_UNSCALED = (1L << 55) - 1;
+
+    public RowCodec(Schema schema) {
+        this.schema = schema;
+        this.bitmapLength = (schema.size() + 7) / 8;
+        this.fixedOffsets = new int[schema.size()];
+        int position = bitmapLength;
+        for (int i = 0; i < schema.size(); i++) {
+            int width = width(schema.getType(i));
+            fixedOffsets[i] = width == 0 ? -1 : position;
+            position += width;
+        }
+        this.variableStart = position;
+    }
+
+    public Schema getSchema() {
+        return schema;
+    }
+
+    // Кодирование CSV-записи, значения должны соответствовать схеме (Schema.validate)
+    public byte[] encode(String record) {
+        String[] fields = CsvTokenizer.split(record);
+        if (fields.length > schema.size()) {
+            throw new IllegalArgumentException("В записи " + fields.length + " полей, а в таблице " + schema.size() + " столбцов.");
+        }
+        ByteBuffer fixed = ByteBuffer.allocate(variableStart);
+        ByteArrayOutputStream variable = new ByteArrayOutputStream(record.length());
+        for (int i = 0; i < schema.size(); i++) {
+            String value = i < fields.length ? fields[i] : "";
+            if (value.isEmpty()) {
+                fixed.put(i >>> 3, (byte) (fixed.get(i >>> 3) | 1 << (i & 7)));
+                if (fixedOffsets[i] < 0) {
+                    writeVarint(variable, 0);
+                }
+                continue;
+            }
+            String trimmed = value.trim();
+            switch (schema.getType(i)) {
+                case INT:
+                    fixed.putInt(fixedOffsets[i], Integer.parseInt(trimmed));
+                    break;
+                case DECIMAL:
+                    BigDecimal decimal = new BigDecimal(trimmed);
+                    if (decimal.scale() < 0) {
+                        decimal = decimal.setScale(0);
+                    }
+                    long unscaled = decimal.unscaledValue().longValueExact();
+                    if (unscaled > MAX_UNSCALED || unscaled < -MAX_UNSCALED - 1 || decimal.scale() > 255) {
+                        throw new ArithmeticException("значение " + value + " не помещается в столбец decimal");
+                    }
+                    fixed.putLong(fixedOffsets[i], (long) decimal.scale() << 56 | unscaled & 0x00FFFFFFFFFFFFFFL);
+                    break;
+                case DATE:
+                    fixed.putInt(fixedOffsets[i], (int) LocalDate.parse(trimmed).toEpochDay());
+                    break;
+                case BOOLEAN:
+                    fixed.put(fixedOffsets[i], (byte) (trimmed.equalsIgnoreCase("true") ? 1 : 0));
+                    break;
+                default:
+                    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                    writeVarint(variable, bytes.length);
+                    variable.write(bytes, 0, bytes.length);
+            }
+        }
+        byte[] row = new byte[variableStart + variable.size()];
+        System.arraycopy(fixed.array(), 0, row, 0, variableStart);
+        System.arraycopy(variable.toByteArray(), 0, row, variableStart, variable.size());
+        return row;
+    }
+
+    // Декодирование строки обратно в CSV-запись (пустые поля в конце опускаются, строки с запятыми - в кавычках)
+    public String decode(byte[] row, int offset) {
+        StringBuilder record = new StringBuilder(64);
+        int variable = offset + variableStart;
+        int written = 0; // длина записи без пустых полей в конце
+        for (int i = 0; i < schema.size(); i++) {
+            if (i > 0) {
+                record.append(',');
+            }
+            if (fixedOffsets[i] < 0) {
+                int length = readVarint(row, variable);
+                variable += varintLength(length);
+                CsvTokenizer.appendField(record, new String(row, variable, length, StandardCharsets.UTF_8));
+                variable += length;
+            } else if (!isNull(row, offset, i)) {
+                switch (schema.getType(i)) {
+                    case INT:
+                        record.append(getInt(row, offset, i));
+                        break;
+                    case DECIMAL:
+                        record.append(getDecimal(row, offset, i).toPlainString());
+                        break;
+                    case DATE:
+                        record.append(LocalDate.ofEpochDay(getInt(row, offset, i)));
+                        break;
+                    default:
+                        record.append(getBoolean(row, offset, i));
+                }
+            }
+            if (!isNull(row, offset, i)) {
+                written = record.length();
+            }
+        }
+        record.setLength(written);
+        return record.toString();
+    }
+
+    public boolean isNull(byte[] row, int offset, int column) {
+        return (row[offset + (column >>> 3)] & 1 << (column & 7)) != 0;
+    }
+
+    // Значение столбца int или date (номер дня от 1970-01-01)
+    public int getInt(byte[] row, int offset, int column) {
+        int position = offset + fixedOffsets[column];
+        return (row[position] & 0xFF) << 24 | (row[position + 1] & 0xFF) << 16 | (row[position + 2] & 0xFF) << 8 | row[position + 3] & 0xFF;
+    }
+
+    // Немасштабированное значение столбца decimal (для 50.99 - 5099 при масштабе 2)
+    public long getUnscaled(byte[] row, int offset, int column) {
+        return getLong(row, offset + fixedOffsets[column]) << 8 >> 8;
+    }
+
+    public int getScale(byte[] row, int offset, int column) {
+        return row[offset + fixedOffsets[column]] & 0xFF;
+    }
+
+    public BigDecimal getDecimal(byte[] row, int offset, int column) {
+        return BigDecimal.valueOf(getUnscaled(row, offset, column), getScale(row, offset, column));
+    }
+
+    public boolean getBoolean(byte[] row, int offset, int column) {
+        return row[offset + fixedOffsets[column]] != 0;
+    }
+
+    private static int width(Schema.Type type) {
+        switch (type) {
+            case INT:
+            case DATE:
+                return 4;
+            case DECIMAL:
+                return 8;
+            case BOOLEAN:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    private static long getLong(byte[] bytes, int position) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = value << 8 | bytes[position + i] & 0xFF;
+        }
+        return value;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write(value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(byte[] bytes, int position) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = bytes[position++];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private static int varintLength(int value) {
+        int length = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+}
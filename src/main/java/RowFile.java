@@ -0,0 +1,96 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+// Файл записей в двоичном формате RowCodec: магическое число, заголовок базы данных (со схемой),
+// затем строки в виде "длина (varint), байты строки". Используется для компактных копий базы;
+// основной файл базы данных и импорт/экспорт остаются в CSV.
+public class RowFile {
+    private static final long MAGIC = 0x4644425257533031L; // "FDBRWS01"
+
+    public interface RowVisitor {
+        // Строка занимает row[0, length), массив переиспользуется между вызовами
+        void visit(byte[] row, int length) throws IOException;
+    }
+
+    // Запись файла, пишущего строки через accept
+    public static final class Writer implements Closeable {
+        private final RowCodec codec;
+        private final DataOutputStream out;
+        private int rows;
+
+        public Writer(File file, Schema schema) throws IOException {
+            this.codec = new RowCodec(schema);
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+            out.writeLong(MAGIC);
+            byte[] header = schema.toHeader().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(header.length);
+            out.write(header);
+        }
+
+        public void accept(String record) throws IOException {
+            byte[] row = codec.encode(record);
+            int length = row.length;
+            while ((length & ~0x7F) != 0) {
+                out.write(length & 0x7F | 0x80);
+                length >>>= 7;
+            }
+            out.write(length);
+            out.write(row);
+            rows++;
+        }
+
+        public int getRows() {
+            return rows;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    // Заголовок базы данных, сохраненный в файле
+    public static String readHeader(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            return readHeader(in, file);
+        }
+    }
+
+    // Обход строк файла, возвращает схему из его заголовка
+    public static Schema read(File file, RowVisitor visitor) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            Schema schema = Schema.parse(readHeader(in, file));
+            byte[] row = new byte[256];
+            while (true) {
+                int length = 0;
+                for (int shift = 0; ; shift += 7) {
+                    int b = in.read();
+                    if (b < 0) {
+                        if (shift == 0) {
+                            return schema;
+                        }
+                        throw new EOFException("файл оборван: " + file.getPath());
+                    }
+                    length |= (b & 0x7F) << shift;
+                    if (b < 0x80) {
+                        break;
+                    }
+                }
+                if (length > row.length) {
+                    row = new byte[Math.max(length, row.length * 2)];
+                }
+                in.readFully(row, 0, length);
+                visitor.visit(row, length);
+            }
+        }
+    }
+
+    private static String readHeader(DataInputStream in, File file) throws IOException {
+        if (in.readLong() != MAGIC) {
+            throw new IOException("файл не является двоичной копией базы данных: " + file.getPath());
+        }
+        byte[] header = new byte[in.readInt()];
+        in.readFully(header);
+        return new String(header, StandardCharsets.UTF_8);
+    }
+}
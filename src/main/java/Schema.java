@@ -0,0 +1,131 @@
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+
+// Схема таблицы из заголовка базы данных. Тип столбца указывается после двоеточия:
+// "Id:int,ProductName:string,Price:decimal,Quantity:int,ExpirationDate:date,IsAvailable:boolean".
+// Столбцы без типа считаются строками, а заголовок совсем без типов - нетипизированная база, как раньше.
+// В типизированной базе записи проверяются при добавлении и редактировании; пустое поле допустимо для любого типа.
+public class Schema {
+    public enum Type {
+        INT, DECIMAL, DATE, BOOLEAN, STRING
+    }
+
+    private final String[] names;
+    private final Type[] types;
+    private final boolean typed;
+
+    private Schema(String[] names, Type[] types, boolean typed) {
+        this.names = names;
+        this.types = types;
+        this.typed = typed;
+    }
+
+    public static Schema parse(String header) {
+        if (header == null || header.isEmpty()) {
+            return new Schema(new String[0], new Type[0], false);
+        }
+        String[] parts = header.split(",");
+        String[] names = new String[parts.length];
+        Type[] types = new Type[parts.length];
+        boolean typed = false;
+        for (int i = 0; i < parts.length; i++) {
+            int colon = parts[i].lastIndexOf(':');
+            if (colon < 0) {
+                names[i] = parts[i];
+                types[i] = Type.STRING;
+                continue;
+            }
+            names[i] = parts[i].substring(0, colon);
+            try {
+                types[i] = Type.valueOf(parts[i].substring(colon + 1).trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Неизвестный тип столбца \"" + parts[i] + "\". Допустимые типы: int, decimal, date, boolean, string.");
+            }
+            typed = true;
+        }
+        if (typed && types[0] != Type.INT) {
+            throw new IllegalArgumentException("Ключевой столбец \"" + names[0] + "\" должен иметь тип int.");
+        }
+        return new Schema(names, types, typed);
+    }
+
+    // Названия столбцов без типов
+    public String[] getNames() {
+        return names.clone();
+    }
+
+    public String getName(int column) {
+        return names[column];
+    }
+
+    public Type getType(int column) {
+        return types[column];
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    // В заголовке указан тип хотя бы одного столбца
+    public boolean isTyped() {
+        return typed;
+    }
+
+    // Заголовок в том виде, в котором он записан в файл базы данных
+    public String toHeader() {
+        StringBuilder header = new StringBuilder();
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) {
+                header.append(',');
+            }
+            header.append(names[i]);
+            if (typed) {
+                header.append(':').append(types[i].name().toLowerCase());
+            }
+        }
+        return header.toString();
+    }
+
+    // Проверка полей записи по типам столбцов, IllegalArgumentException с названием столбца при ошибке
+    public void validate(String record) {
+        if (!typed) {
+            return;
+        }
+        String[] fields = CsvTokenizer.split(record);
+        if (fields.length > names.length) {
+            throw new IllegalArgumentException("В записи " + fields.length + " полей, а в таблице " + names.length + " столбцов.");
+        }
+        for (int i = 0; i < fields.length; i++) {
+            if (!isValid(types[i], fields[i])) {
+                throw new IllegalArgumentException("Значение \"" + fields[i] + "\" столбца \"" + names[i]
+                        + "\" не соответствует типу " + types[i].name().toLowerCase() + ".");
+            }
+        }
+    }
+
+    private static boolean isValid(Type type, String value) {
+        if (value.isEmpty()) {
+            return true;
+        }
+        try {
+            switch (type) {
+                case INT:
+                    Integer.parseInt(value.trim());
+                    return true;
+                case DECIMAL:
+                    new BigDecimal(value.trim());
+                    return true;
+                case DATE:
+                    LocalDate.parse(value.trim());
+                    return true;
+                case BOOLEAN:
+                    return value.trim().equalsIgnoreCase("true") || value.trim().equalsIgnoreCase("false");
+                default:
+                    return true;
+            }
+        } catch (NumberFormatException | DateTimeParseException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+// Вторичный хэш-индекс по неключевому столбцу: значение поля -> множество ID живых записей с этим значением.
+// Значения берутся так же, как при линейном поиске (CsvTokenizer, кавычки раскрываются), поэтому результаты совпадают.
+// На диск индекс пишется целиком при контрольной точке базы в файл "<отметка>" + строки "ID,значение";
+// отметка - длина файла данных в момент записи, по ней при открытии видно, что индекс соответствует файлу.
+public class SecondaryIndex implements ColumnIndex {
+    private static final IntHashSet EMPTY = new IntHashSet();
+
+    private final int column;
+    private final File file;
+    private final Map<String, IntHashSet> values = new HashMap<>();
+
+    public SecondaryIndex(int column, File file) {
+        this.column = column;
+        this.file = file;
+    }
+
+    @Override
+    public int getColumn() {
+        return column;
+    }
+
+    @Override
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public void add(int id, String record) {
+        String value = valueOf(record);
+        if (value != null) {
+            values.computeIfAbsent(value, key -> new IntHashSet()).add(id);
+        }
+    }
+
+    @Override
+    public void add(int id, CsvTokenizer line) {
+        if (column < line.fieldCount()) {
+            values.computeIfAbsent(line.field(column), key -> new IntHashSet()).add(id);
+        }
+    }
+
+    @Override
+    public void remove(int id, String record) {
+        String value = valueOf(record);
+        IntHashSet ids = value == null ? null : values.get(value);
+        if (ids != null && ids.remove(id) && ids.isEmpty()) {
+            values.remove(value);
+        }
+    }
+
+    // ID записей с заданным значением поля в произвольном порядке
+    public int[] find(String value) {
+        return values.getOrDefault(value, EMPTY).toArray();
+    }
+
+    @Override
+    public void clear() {
+        values.clear();
+    }
+
+    // Загрузка индекса с диска, false если файла нет или он записан для другого состояния файла данных
+    @Override
+    public boolean load(long stamp) throws IOException {
+        values.clear();
+        if (!file.exists()) {
+            return false;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), 1 << 16)) {
+            String header = reader.readLine();
+            if (header == null || !header.equals(Long.toString(stamp))) {
+                return false;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int comma = line.indexOf(',');
+                if (comma < 0) {
+                    values.clear();
+                    return false; // файл оборван - индекс нужно перестроить
+                }
+                values.computeIfAbsent(line.substring(comma + 1), key -> new IntHashSet())
+                        .add(Integer.parseInt(line.substring(0, comma)));
+            }
+        } catch (NumberFormatException e) {
+            values.clear();
+            return false;
+        }
+        return true;
+    }
+
+    // Запись индекса во временный файл и атомарная подмена, как у контрольной точки журнала индексов
+    @Override
+    public void save(long stamp) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(tmp);
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(fileOut, StandardCharsets.UTF_8), 1 << 16)) {
+            out.write(Long.toString(stamp));
+            out.newLine();
+            for (Map.Entry<String, IntHashSet> entry : values.entrySet()) {
+                for (int id : entry.getValue().toArray()) {
+                    out.write(Integer.toString(id));
+                    out.write(',');
+                    out.write(entry.getKey());
+                    out.newLine();
+                }
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public void drop() throws IOException {
+        values.clear();
+        if (file.exists() && !file.delete()) {
+            throw new IOException("не удалось удалить файл индекса " + file.getPath());
+        }
+    }
+
+    private String valueOf(String record) {
+        return CsvTokenizer.field(record, column);
+    }
+}
@@ -0,0 +1,803 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// База данных из нескольких шардов: записи распределены по хэшу ID между движками StorageEngine,
+// у каждого шарда своя поддиректория shard-<номер> с файлом данных, индексом смещений, журналом и вторичными индексами.
+// Операции с одной записью выполняются шардом записи в потоке вызова: шарды пишут независимо друг от друга,
+// а операции одного шарда, как и раньше, попадают в общие группы fsync его журнала.
+// Операции над всей базой (создание, открытие, пакетная загрузка, удаление по полю, индексы, восстановление)
+// идут одновременно на потоках записи шардов, по одному на шард; поиск и копии - параллельно на потоках чтения.
+// Сжатие у каждого шарда свое, по доле мертвых строк в шарде. Бэкапы и копии пишутся по шардам в поддиректории
+// с теми же именами, цепочки бэкапов шардов нумеруются вместе.
+// Число шардов задается при создании; существующая база открывается с тем числом шардов, с которым создана.
+// База без поддиректорий шардов (файл данных прямо в директории) открывается как один шард.
+// Срезы (ids, getAll, копии) согласованы внутри шарда, но не между шардами
+public class ShardedStorageEngine implements Database {
+    static final String SHARD_PREFIX = "shard-";
+    private static final int BULK_BATCH = 1024; // строк пакетной загрузки в одной передаче потоку шарда
+    private static final int BULK_QUEUE = 8; // передач в очереди шарда, дальше чтение файла ждет шард
+    private static final List<StorageEngine.BulkLine> BULK_END = new ArrayList<>(0); // конец строк для шарда
+
+    private final File directory;
+    private final StorageEngine[] shards;
+    private final boolean single; // один шард, файлы прямо в директории
+    private ExecutorService[] writers; // потоки записи шардов, создаются при первой операции над всей базой
+    private ExecutorService readers; // потоки параллельного поиска и копирования
+
+    // Задача над одним шардом
+    private interface ShardTask<T> {
+        T run(int index, StorageEngine shard) throws IOException;
+    }
+
+    public ShardedStorageEngine(String directory, String fileName, String idFileName, int shards) {
+        this(directory, fileName, idFileName, shards, null);
+    }
+
+    // shards - число шардов новой базы; options - настройки каждого шарда, null - настройки по умолчанию,
+    // в которых потоки поиска без индекса делятся между шардами
+    public ShardedStorageEngine(String directory, String fileName, String idFileName, int shards, StorageOptions options) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("Число шардов должно быть положительным: " + shards);
+        }
+        this.directory = new File(directory);
+        int count = existingShards(this.directory, fileName);
+        if (count == 0) {
+            count = shards;
+        }
+        this.single = count == 1;
+        this.shards = new StorageEngine[count];
+        StorageOptions shardOptions = options != null ? options
+                : new StorageOptions().scanParallelism(Math.max(1, Runtime.getRuntime().availableProcessors() / count));
+        for (int i = 0; i < count; i++) {
+            this.shards[i] = new StorageEngine(shardPath(this.directory, i).getPath(), fileName, idFileName, shardOptions);
+        }
+    }
+
+    // Число шардов существующей базы: 1 для базы без шардов, 0 если базы нет
+    private static int existingShards(File directory, String fileName) {
+        if (new File(directory, fileName).exists()) {
+            return 1;
+        }
+        int count = 0;
+        while (new File(directory, SHARD_PREFIX + count).isDirectory()) {
+            count++;
+        }
+        return count;
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    // Шард с номером index, например для сжатия или бэкапа только этого шарда
+    public StorageEngine getShard(int index) {
+        return shards[index];
+    }
+
+    // Номер шарда, в котором хранится запись с этим ID
+    public int shardOf(int id) {
+        return shardOf(id, shards.length);
+    }
+
+    // Перемешивание murmur3, а не то же, что у индексов внутри шарда: иначе ключи одного шарда попали бы в часть
+    // полос и ветвей его индекса смещений
+    static int shardOf(int id, int count) {
+        int h = id;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return (int) ((h & 0xFFFFFFFFL) % count);
+    }
+
+    @Override
+    public File getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public boolean exists() {
+        for (StorageEngine shard : shards) {
+            if (!shard.exists()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void create(String header) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("не удалось создать директорию " + directory.getPath());
+        }
+        onAllShards((index, shard) -> {
+            shard.create(header);
+            return null;
+        }, true);
+    }
+
+    @Override
+    public void open() throws IOException {
+        onAllShards((index, shard) -> {
+            shard.open();
+            return null;
+        }, true);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            onAllShards((index, shard) -> {
+                shard.close();
+                return null;
+            }, true);
+        } finally {
+            shutdownExecutors();
+        }
+    }
+
+    @Override
+    public Schema getSchema() {
+        return shards[0].getSchema();
+    }
+
+    @Override
+    public String[] getColumns() {
+        return shards[0].getColumns();
+    }
+
+    @Override
+    public boolean contains(int id) {
+        return shard(id).contains(id);
+    }
+
+    @Override
+    public boolean isDeleted(int id) {
+        return shard(id).isDeleted(id);
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (StorageEngine shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    // Счетчики кэшей записей всех шардов
+    @Override
+    public RecordCache.Stats getCacheStats() {
+        RecordCache.Stats stats = shards[0].getCacheStats();
+        for (int i = 1; i < shards.length; i++) {
+            stats = stats.plus(shards[i].getCacheStats());
+        }
+        return stats;
+    }
+
+    @Override
+    public String get(int id) throws IOException {
+        return shard(id).get(id);
+    }
+
+    // ID страницы группируются по шардам, каждый шард читает свои записи из одной своей версии
+    @Override
+    public String[] getAll(int[] ids, int from, int to) throws IOException {
+        if (single) {
+            return shards[0].getAll(ids, from, to);
+        }
+        String[] records = new String[to - from];
+        int[] owners = new int[to - from];
+        int[] counts = new int[shards.length];
+        for (int i = from; i < to; i++) {
+            owners[i - from] = shardOf(ids[i]);
+            counts[owners[i - from]]++;
+        }
+        for (int s = 0; s < shards.length; s++) {
+            if (counts[s] == 0) {
+                continue;
+            }
+            int[] part = new int[counts[s]];
+            int[] positions = new int[counts[s]];
+            int n = 0;
+            for (int i = 0; i < owners.length; i++) {
+                if (owners[i] == s) {
+                    part[n] = ids[from + i];
+                    positions[n++] = i;
+                }
+            }
+            String[] found = shards[s].getAll(part, 0, n);
+            for (int i = 0; i < n; i++) {
+                records[positions[i]] = found[i];
+            }
+        }
+        return records;
+    }
+
+    // ID всех живых записей по возрастанию
+    @Override
+    public int[] ids() throws IOException {
+        List<int[]> parts = onAllShards((index, shard) -> shard.ids(), false);
+        int total = 0;
+        for (int[] part : parts) {
+            total += part.length;
+        }
+        int[] ids = new int[total];
+        int n = 0;
+        for (int[] part : parts) {
+            System.arraycopy(part, 0, ids, n, part.length);
+            n += part.length;
+        }
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    @Override
+    public boolean put(String record) throws IOException {
+        return shard(StorageEngine.parseId(record)).put(record);
+    }
+
+    @Override
+    public boolean update(int id, String record) throws IOException {
+        return shard(id).update(id, record);
+    }
+
+    @Override
+    public boolean delete(int id) throws IOException {
+        return shard(id).delete(id);
+    }
+
+    // Пакетная загрузка: файл читается один раз в потоке вызова, строки раскладываются по шардам по ID
+    // и загружаются потоками записи шардов одновременно. Правила те же, что у StorageEngine.bulkLoad;
+    // при ошибке и отмене строки, прочитанные до нее, загружаются
+    @Override
+    public StorageEngine.LoadResult bulkLoad(File csvFile, StorageEngine.Progress progress) throws IOException {
+        if (single) {
+            return shards[0].bulkLoad(csvFile, progress);
+        }
+        List<BlockingQueue<List<StorageEngine.BulkLine>>> queues = new ArrayList<>();
+        List<List<StorageEngine.BulkLine>> batches = new ArrayList<>();
+        List<Future<StorageEngine.LoadResult>> loads = new ArrayList<>();
+        for (int i = 0; i < shards.length; i++) {
+            BlockingQueue<List<StorageEngine.BulkLine>> queue = new ArrayBlockingQueue<>(BULK_QUEUE);
+            StorageEngine shard = shards[i];
+            queues.add(queue);
+            batches.add(new ArrayList<>(BULK_BATCH));
+            loads.add(executor(i, true).submit(() -> shard.bulkLoadLines(new QueuedLines(queue))));
+        }
+        Exception readFailure = null;
+        try {
+            StorageEngine.readBulkLines(csvFile, progress, (bytes, start, end, lineNumber) -> {
+                while (end > start && (bytes[end - 1] & 0xFF) <= ' ') {
+                    end--;
+                }
+                if (end == start) {
+                    return; // пустая строка
+                }
+                int shard;
+                try {
+                    shard = shardOf(StorageEngine.parseId(bytes, start, end));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Некорректный ID в строке " + lineNumber + ": " + e.getMessage());
+                }
+                List<StorageEngine.BulkLine> batch = batches.get(shard);
+                batch.add(new StorageEngine.BulkLine(Arrays.copyOfRange(bytes, start, end), lineNumber));
+                if (batch.size() == BULK_BATCH) {
+                    batches.set(shard, new ArrayList<>(BULK_BATCH));
+                    if (!hand(queues.get(shard), batch, loads.get(shard))) {
+                        throw new CancellationException("загрузка шарда " + shard + " остановлена");
+                    }
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            readFailure = e;
+        }
+        for (int i = 0; i < shards.length; i++) {
+            if (!batches.get(i).isEmpty()) {
+                hand(queues.get(i), batches.get(i), loads.get(i));
+            }
+            hand(queues.get(i), BULK_END, loads.get(i));
+        }
+        List<StorageEngine.LoadResult> results = await(loads); // ошибка шарда важнее остановки чтения из-за нее
+        if (readFailure instanceof IOException) {
+            throw (IOException) readFailure;
+        }
+        if (readFailure != null) {
+            throw (RuntimeException) readFailure;
+        }
+        int loaded = 0;
+        int duplicates = 0;
+        for (StorageEngine.LoadResult result : results) {
+            loaded += result.loaded;
+            duplicates += result.duplicates;
+        }
+        return new StorageEngine.LoadResult(loaded, duplicates);
+    }
+
+    // Передача строк потоку шарда; false если загрузка шарда уже закончилась ошибкой и строки ей не нужны.
+    // Прерывание не останавливает передачу: шард ждет конца строк, иначе его поток записи не освободится
+    private static boolean hand(BlockingQueue<List<StorageEngine.BulkLine>> queue, List<StorageEngine.BulkLine> batch,
+                                Future<?> load) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    if (queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                    if (load.isDone()) {
+                        return false;
+                    }
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Строки шарда из очереди пакетной загрузки, до передачи BULK_END
+    private static final class QueuedLines implements Iterator<StorageEngine.BulkLine> {
+        private final BlockingQueue<List<StorageEngine.BulkLine>> queue;
+        private List<StorageEngine.BulkLine> batch = Collections.emptyList();
+        private int next;
+
+        QueuedLines(BlockingQueue<List<StorageEngine.BulkLine>> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == batch.size()) {
+                if (batch == BULK_END) {
+                    return false;
+                }
+                try {
+                    batch = queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CancellationException("загрузка прервана");
+                }
+                next = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public StorageEngine.BulkLine next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return batch.get(next++);
+        }
+    }
+
+    // Обход шардов по очереди в потоке вызова: visitor получает разбор строки, который действителен только
+    // во время вызова, поэтому шарды не обходятся параллельно. Ход - по сумме длин файлов данных шардов
+    @Override
+    public void scanLines(CsvTokenizer.LineVisitor visitor, StorageEngine.Progress progress) throws IOException {
+        long[] lengths = new long[shards.length];
+        long total = 0;
+        for (int i = 0; i < shards.length; i++) {
+            lengths[i] = shards[i].getDataFile().length();
+            total += lengths[i];
+        }
+        long before = 0;
+        for (int i = 0; i < shards.length; i++) {
+            long offset = before;
+            long all = total;
+            shards[i].scanLines(visitor, progress == null ? null : (done, length) -> progress.update(offset + done, all));
+            before += lengths[i];
+        }
+    }
+
+    // Поиск по полю на всех шардах параллельно: части результатов шардов отдаются consumer в потоке вызова
+    // по мере готовности, внутри шарда - в порядке расположения в его файле
+    @Override
+    public void findByField(String columnName, String value, Consumer<List<String>> consumer, StorageEngine.Progress progress) throws IOException {
+        if (single) {
+            shards[0].findByField(columnName, value, consumer, progress);
+            return;
+        }
+        ShardProgress shared = new ShardProgress(progress, shards.length);
+        BlockingQueue<List<String>> parts = new LinkedBlockingQueue<>();
+        List<Future<Void>> searches = new ArrayList<>();
+        for (int i = 0; i < shards.length; i++) {
+            int index = i;
+            searches.add(executor(i, false).submit(() -> {
+                shards[index].findByField(columnName, value, parts::add, shared.of(index));
+                return null;
+            }));
+        }
+        boolean completed = false;
+        try {
+            while (!allDone(searches) || !parts.isEmpty()) {
+                List<String> part;
+                try {
+                    part = parts.poll(50, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("поиск прерван");
+                }
+                if (part != null) {
+                    consumer.accept(part);
+                }
+            }
+            completed = true;
+        } finally {
+            if (!completed) {
+                shared.cancel();
+            }
+            await(searches);
+        }
+    }
+
+    @Override
+    public List<String> findAll(CsvTokenizer.LinePredicate predicate) throws IOException {
+        List<String> results = new ArrayList<>();
+        for (List<String> part : onAllShards((index, shard) -> shard.findAll(predicate), false)) {
+            results.addAll(part);
+        }
+        return results;
+    }
+
+    @Override
+    public int deleteByField(String columnName, String value) throws IOException {
+        int deleted = 0;
+        for (int count : onAllShards((index, shard) -> shard.deleteByField(columnName, value), true)) {
+            deleted += count;
+        }
+        return deleted;
+    }
+
+    @Override
+    public boolean createIndex(String columnName) throws IOException {
+        return onAllShards((index, shard) -> shard.createIndex(columnName), true).contains(true);
+    }
+
+    @Override
+    public boolean dropIndex(String columnName) throws IOException {
+        return onAllShards((index, shard) -> shard.dropIndex(columnName), true).contains(true);
+    }
+
+    @Override
+    public List<String> getIndexedColumns() {
+        return shards[0].getIndexedColumns();
+    }
+
+    @Override
+    public boolean createRangeIndex(String columnName, RangeIndex.Type type) throws IOException {
+        return onAllShards((index, shard) -> shard.createRangeIndex(columnName, type), true).contains(true);
+    }
+
+    @Override
+    public RangeIndex.Type getRangeIndexType(String columnName) {
+        return shards[0].getRangeIndexType(columnName);
+    }
+
+    // Результаты шардов сливаются по возрастанию значения (при равных - по ID); отступ ссылки - в файле ее шарда
+    @Override
+    public List<StorageEngine.RecordRef> findRange(String columnName, String from, String to) throws IOException {
+        List<StorageEngine.RecordRef> results = new ArrayList<>();
+        for (List<StorageEngine.RecordRef> part : onAllShards((index, shard) -> shard.findRange(columnName, from, to), false)) {
+            results.addAll(part);
+        }
+        if (!single) {
+            results.sort(Comparator.comparingDouble((StorageEngine.RecordRef ref) -> ref.key).thenComparingInt(ref -> ref.id));
+        }
+        return results;
+    }
+
+    // Сжатие шардов, которым оно нужно; каждый шард сжимается отдельно. true если сжат хотя бы один шард
+    public boolean compact() throws IOException {
+        return onAllShards((index, shard) -> shard.needsCompaction() && shard.compact(), true).contains(true);
+    }
+
+    @Override
+    public void clear() throws IOException {
+        onAllShards((index, shard) -> {
+            shard.clear();
+            return null;
+        }, true);
+    }
+
+    @Override
+    public void drop() throws IOException {
+        try {
+            onAllShards((index, shard) -> {
+                shard.drop();
+                return null;
+            }, true);
+        } finally {
+            shutdownExecutors();
+        }
+        String[] rest = directory.list();
+        if (directory.isDirectory() && rest != null && rest.length == 0) {
+            directory.delete();
+        }
+    }
+
+    @Override
+    public boolean hasCopy(File dbFile, File idFile) {
+        for (int i = 0; i < shards.length; i++) {
+            if (!shards[i].hasCopy(shardFile(dbFile, i), shardFile(idFile, i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Копии шардов пишутся одновременно, каждая в поддиректорию шарда рядом с targetDbFile.
+    // При ошибке и отмене удаляются копии всех шардов
+    @Override
+    public void writeSnapshot(File targetDbFile, File targetIdFile, StorageEngine.Progress progress) throws IOException {
+        if (single) {
+            shards[0].writeSnapshot(targetDbFile, targetIdFile, progress);
+            return;
+        }
+        ShardProgress shared = new ShardProgress(progress, shards.length);
+        boolean written = false;
+        try {
+            onAllShards((index, shard) -> {
+                File dbFile = shardFile(targetDbFile, index);
+                if (!dbFile.getParentFile().exists() && !dbFile.getParentFile().mkdirs()) {
+                    throw new IOException("не удалось создать директорию " + dbFile.getParent());
+                }
+                shard.writeSnapshot(dbFile, shardFile(targetIdFile, index), shared.of(index));
+                return null;
+            }, false);
+            written = true;
+        } finally {
+            if (!written) {
+                for (int i = 0; i < shards.length; i++) {
+                    shardFile(targetDbFile, i).delete();
+                    shardFile(targetIdFile, i).delete();
+                }
+            }
+        }
+    }
+
+    // Восстановление из копии, записанной writeSnapshot: шарды, файла данных которых нет, берут его из копии.
+    // true если восстановлен хотя бы один шард
+    @Override
+    public boolean restore(File sourceDbFile, File sourceIdFile) throws IOException {
+        for (int i = 0; i < shards.length; i++) {
+            if (!shards[i].exists() && !shards[i].hasCopy(shardFile(sourceDbFile, i), shardFile(sourceIdFile, i))) {
+                throw new IOException("в копии нет файлов шарда " + i + ": " + shardFile(sourceDbFile, i).getPath());
+            }
+        }
+        return onAllShards((index, shard) -> shard.restore(shardFile(sourceDbFile, index), shardFile(sourceIdFile, index)), true)
+                .contains(true);
+    }
+
+    // Бэкапы шардов пишутся одновременно, каждый в свою цепочку в поддиректории шарда, под общим номером:
+    // он больше последнего номера во всех цепочках. Если копия дошла не до всех шардов (ошибка или отмена),
+    // готовые копии шардов удаляются, чтобы номер не связал шарды на разные моменты.
+    // Возвращается сводное описание: номер копии и сумма сегментов и размеров по шардам
+    @Override
+    public BackupChain.Backup backup(File backupDirectory, boolean full, StorageEngine.Progress progress) throws IOException {
+        int number = nextBackupNumber(backupDirectory);
+        ShardProgress shared = new ShardProgress(progress, shards.length);
+        boolean written = false;
+        try {
+            BackupChain.Backup backup = BackupChain.Backup.combine(onAllShards((index, shard) ->
+                    shard.backup(shardPath(backupDirectory, index), number, full, shared.of(index)), false));
+            written = true;
+            return backup;
+        } finally {
+            if (!written) {
+                for (int i = 0; i < shards.length; i++) {
+                    shards[i].deleteBackup(shardPath(backupDirectory, i), number);
+                }
+            }
+        }
+    }
+
+    private int nextBackupNumber(File backupDirectory) throws IOException {
+        int number = 1;
+        for (int i = 0; i < shards.length; i++) {
+            number = Math.max(number, shards[i].nextBackupNumber(shardPath(backupDirectory, i)));
+        }
+        return number;
+    }
+
+    // Копии, которые есть в цепочках всех шардов (бэкап, прерванный сбоем процесса, мог дойти не до всех),
+    // по описаниям первого шарда
+    @Override
+    public List<BackupChain.Backup> listBackups(File backupDirectory) throws IOException {
+        List<BackupChain.Backup> backups = shards[0].listBackups(shardPath(backupDirectory, 0));
+        for (int i = 1; i < shards.length; i++) {
+            List<Integer> numbers = new ArrayList<>();
+            for (BackupChain.Backup backup : shards[i].listBackups(shardPath(backupDirectory, i))) {
+                numbers.add(backup.number);
+            }
+            backups.removeIf(backup -> !numbers.contains(backup.number));
+        }
+        return backups;
+    }
+
+    @Override
+    public void restoreBackup(File backupDirectory, int number) throws IOException {
+        onAllShards((index, shard) -> {
+            shard.restoreBackup(shardPath(backupDirectory, index), number);
+            return null;
+        }, true);
+    }
+
+    private StorageEngine shard(int id) {
+        return single ? shards[0] : shards[shardOf(id)];
+    }
+
+    // Директория шарда index внутри base; при одном шарде - сама base
+    private File shardPath(File base, int index) {
+        return single ? base : new File(base, SHARD_PREFIX + index);
+    }
+
+    // Файл шарда index с тем же именем в поддиректории шарда
+    private File shardFile(File file, int index) {
+        return single ? file : new File(shardPath(file.getAbsoluteFile().getParentFile(), index), file.getName());
+    }
+
+    // Задача на всех шардах одновременно: на потоках записи шардов (write) или на потоках чтения.
+    // Ждет все шарды, даже если какой-то завершился ошибкой, и бросает первую ошибку; результаты по порядку шардов
+    private <T> List<T> onAllShards(ShardTask<T> task, boolean write) throws IOException {
+        if (single) {
+            return Collections.singletonList(task.run(0, shards[0]));
+        }
+        List<Future<T>> futures = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            int index = i;
+            futures.add(executor(index, write).submit(() -> task.run(index, shards[index])));
+        }
+        return await(futures);
+    }
+
+    // Результаты задач шардов; ожидание не прерывается, чтобы после возврата ни один шард не был занят задачей
+    private static <T> List<T> await(List<Future<T>> futures) throws IOException {
+        List<T> results = new ArrayList<>(futures.size());
+        Throwable failure = null;
+        boolean interrupted = false;
+        for (Future<T> future : futures) {
+            while (true) {
+                try {
+                    results.add(future.get());
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                    results.add(null);
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        if (failure != null) {
+            throw new IOException(failure);
+        }
+        return results;
+    }
+
+    private static boolean allDone(List<? extends Future<?>> futures) {
+        for (Future<?> future : futures) {
+            if (!future.isDone()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private synchronized ExecutorService executor(int shard, boolean write) {
+        if (!write) {
+            if (readers == null) {
+                readers = Executors.newFixedThreadPool(shards.length, daemon("filedb-shard-reader"));
+            }
+            return readers;
+        }
+        if (writers == null) {
+            writers = new ExecutorService[shards.length];
+        }
+        if (writers[shard] == null) {
+            writers[shard] = Executors.newSingleThreadExecutor(daemon("filedb-shard-" + shard + "-writer"));
+        }
+        return writers[shard];
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    // Потоки создаются заново при следующей операции над всей базой
+    private synchronized void shutdownExecutors() {
+        if (writers != null) {
+            for (ExecutorService writer : writers) {
+                if (writer != null) {
+                    writer.shutdown();
+                }
+            }
+            writers = null;
+        }
+        if (readers != null) {
+            readers.shutdown();
+            readers = null;
+        }
+    }
+
+    // Общий ход операции, идущей на всех шардах сразу: сделанное и общий объем складываются по шардам.
+    // Отмена (false от progress или cancel) останавливает все шарды при их следующем отчете
+    private static final class ShardProgress {
+        private final StorageEngine.Progress progress;
+        private final long[] done;
+        private final long[] total;
+        private boolean cancelled;
+
+        ShardProgress(StorageEngine.Progress progress, int shards) {
+            this.progress = progress;
+            this.done = new long[shards];
+            this.total = new long[shards];
+        }
+
+        StorageEngine.Progress of(int shard) {
+            return progress == null ? null : (shardDone, shardTotal) -> update(shard, shardDone, shardTotal);
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+        }
+
+        private synchronized boolean update(int shard, long shardDone, long shardTotal) {
+            done[shard] = shardDone;
+            total[shard] = shardTotal;
+            long allDone = 0;
+            long allTotal = 0;
+            for (int i = 0; i < done.length; i++) {
+                allDone += done[i];
+                allTotal += total[i];
+            }
+            if (!cancelled && !progress.update(allDone, allTotal)) {
+                cancelled = true;
+            }
+            return !cancelled;
+        }
+    }
+}
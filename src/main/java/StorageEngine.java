@@ -0,0 +1,2435 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.IntToLongFunction;
+
+// Движок хранения без Swing: работа с CSV-файлом базы данных и индексом смещений (ID -> отступ в байтах).
+// Все методы потокобезопасны: изменения выполняются под эксклюзивной блокировкой, а чтения по ID и проходы
+// по файлу идут без блокировок по версиям (MVCC): писатель перед снятием блокировки публикует версию базы
+// (неизменяемая версия индекса смещений, длина файла, столбцы), читатель закрепляет текущую версию и видит
+// базу такой, какой она была в момент ее публикации, пока параллельно добавляются, меняются и удаляются записи.
+// Строки, переписанные на месте после версии, читаются из прежних байтов (см. DataFileVersions).
+// Индекс, отображенный в память, версий не имеет, с ним чтения идут под блокировкой чтения.
+// Индекс хранится на диске (журнал id.csv или файл, отображенный в память) и при открытии загружается
+// без полного чтения базы. Пока база открыта, файл данных держится открытым: один канал для чтения
+// по отступу (безопасен для параллельных читателей) и один канал для записи.
+// Удаленные записи и освобожденные слоты убираются сжатием (compact), которое при накоплении мертвых строк
+// запускается в фоне и не мешает чтению.
+// По неключевым столбцам можно объявить вторичные хэш-индексы (createIndex), тогда поиск и удаление по полю
+// не читают весь файл. Они хранятся рядом с индексом смещений и перестраиваются, если база закрылась не штатно.
+// Каждое изменение сначала записывается в журнал упреждающей записи (<файл базы>.wal), при открытии после сбоя
+// операции журнала повторяются. Журнал очищается контрольной точкой, когда файл данных и индекс сброшены на диск.
+// Поиск без индекса (findByField, deleteByField, findAll) делит большой файл на диапазоны по границам строк
+// и проверяет их параллельно на ForkJoinPool; найденные записи собираются в порядке расположения в файле.
+// С mappedScan эти проходы идут по файлу, отображенному в память участками до 1 ГБ.
+// Длительные операции (проход, поиск, пакетная загрузка, копия) принимают Progress: он получает ход операции
+// и может ее отменить, тогда метод завершается CancellationException.
+// Резервные копии читают снимок базы (snapshot): срез берется под короткой эксклюзивной блокировкой,
+// а копирование идет без блокировок, пока запись продолжается; запись на место внутри среза
+// сначала сохраняет прежние байты в снимке (см. FileSnapshot).
+// Записи, прочитанные по ID, лежат в ограниченном кэше (RecordCache), изменение записи убирает ее из кэша.
+public class StorageEngine implements Database {
+    public static final long DELETED = OffsetIndex.DELETED; // отступ удаленной записи
+    private static final int RECORD_READ_SIZE = 256; // размер первого чтения записи по отступу
+    private static final int MIN_SPLIT_LENGTH = 16; // остаток свободного слота, который имеет смысл вернуть в карту
+    private static final long WAL_CHECKPOINT_BYTES = 64L << 20; // размер журнала, после которого делается контрольная точка
+    private static final int TAIL_READ_SIZE = 4096;
+    private static final int BULK_BUFFER_SIZE = 1 << 20; // буфер чтения и записи пакетной загрузки
+    private static final long MIN_SCAN_SPLIT = 1L << 20; // диапазон параллельного прохода не меньше 1 МБ
+    private static final int SCAN_SPLITS_PER_THREAD = 4; // диапазонов на поток, чтобы потоки заканчивали одновременно
+    private static final long MAPPED_CHUNK_SIZE = 1L << 30; // участок файла в одном MappedByteBuffer (он не больше 2 ГБ)
+    private static final int PROGRESS_SPLITS = 64; // диапазонов поиска с отчетом о ходе, даже в одном потоке
+    private static final long PROGRESS_STEP = 1L << 20; // отчет о ходе прохода не чаще, чем раз в 1 МБ
+
+    private final File directory;
+    private final File dataFile;
+    private final File idFile;
+    private final StorageOptions options;
+    private final OffsetIndex map;
+    private final FreeSpaceMap freeSpace = new FreeSpaceMap();
+    private final Compactor compactor = new Compactor(this);
+    private final WriteAheadLog wal;
+    private final String indexBaseName; // имя файла индексов без расширения, от него строятся имена остальных индексов
+    private final List<ColumnIndex> secondary = new ArrayList<>(); // вторичные индексы: хэш и упорядоченные
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private String[] columns = new String[0];
+    private Schema schema = Schema.parse(""); // типы столбцов из заголовка, если они указаны
+    private boolean opened;
+    private FileChannel readChannel;
+    private FileChannel writeChannel;
+    private long dataLength; // текущая длина файла данных, сюда дописываются новые записи
+    private long modCount; // счетчик изменений, по нему сжатие проверяет, что файл не менялся во время копирования
+    private ForkJoinPool scanPool; // потоки параллельного прохода, создаются при первом большом поиске
+    private MappedChunk[] mappedChunks = new MappedChunk[0]; // отображение файла данных для mappedScan
+    private DataFileVersions mappedFile; // поколение, которое отображено в mappedChunks
+    private final List<Snapshot> snapshots = new ArrayList<>(); // открытые снимки, меняется под эксклюзивной блокировкой
+    private DataFileVersions versions; // поколение файла данных для чтения без блокировок, null пока база закрыта
+    private volatile ReadView view = new ReadView(0, 0, null, 0, null, new String[0], Schema.parse(""), 0);
+    private final ArrayDeque<ReadView> views = new ArrayDeque<>(); // опубликованные версии, меняется под эксклюзивной блокировкой
+    private final Object compactionMonitor = new Object(); // не больше одного сжатия одновременно
+    private IntHashSet compactionChanges; // ID, измененные во время копирования сжатия; меняется под эксклюзивной блокировкой
+    private final RecordCache cache; // null - кэш записей отключен
+
+    // Ход длительной операции: обработано done из total (байт файла). false - операцию нужно отменить
+    public interface Progress {
+        boolean update(long done, long total);
+    }
+
+    // Согласованный срез базы: файл данных до длины на момент среза и индекс смещений в том же состоянии.
+    // Снимок читается без блокировки движка и должен быть закрыт
+    public static final class Snapshot implements Closeable {
+        public final FileSnapshot data;
+        public final FileSnapshot index;
+        public final long version; // счетчик изменений базы на момент среза
+        private boolean detached; // файл данных подменен сжатием, запись в новый файл снимок не касается
+
+        Snapshot(FileSnapshot data, FileSnapshot index, long version) {
+            this.data = data;
+            this.index = index;
+            this.version = version;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                data.close();
+            } finally {
+                index.close();
+            }
+        }
+    }
+
+    // Опубликованная версия базы для чтения без блокировок: поколение файла данных и его длина, версия индекса
+    // смещений, столбцы и количество живых записей после изменения. Читатель закрепляет версию (acquire)
+    // и отпускает (release); замененную версию освобождает последний читатель
+    private static final class ReadView {
+        final long version;
+        final long modCount;
+        final DataFileVersions file; // null, пока база закрыта
+        final long dataLength;
+        final StripedIntLongMap.Version index; // null - индекс меняется на месте, читается под блокировкой
+        final String[] columns;
+        final Schema schema;
+        final int live;
+        final AtomicInteger pins = new AtomicInteger();
+        final AtomicBoolean freed = new AtomicBoolean();
+        volatile boolean retired; // опубликована более новая версия
+
+        ReadView(long version, long modCount, DataFileVersions file, long dataLength, StripedIntLongMap.Version index,
+                 String[] columns, Schema schema, int live) {
+            this.version = version;
+            this.modCount = modCount;
+            this.file = file;
+            this.dataLength = dataLength;
+            this.index = index;
+            this.columns = columns;
+            this.schema = schema;
+            this.live = live;
+        }
+
+        FileChannel channel() throws IOException {
+            if (file == null) {
+                throw new IOException("база данных не открыта");
+            }
+            return file.channel();
+        }
+
+        void free() {
+            if (freed.compareAndSet(false, true) && file != null) {
+                file.release();
+            }
+        }
+    }
+
+    public StorageEngine(String directory, String fileName, String idFileName) {
+        this(directory, fileName, idFileName, new StorageOptions());
+    }
+
+    public StorageEngine(String directory, String fileName, String idFileName, StorageOptions options) {
+        this.directory = new File(directory);
+        this.dataFile = new File(this.directory, fileName);
+        this.idFile = new File(this.directory, idFileName);
+        this.options = options;
+        this.indexBaseName = idFileName.contains(".") ? idFileName.substring(0, idFileName.lastIndexOf('.')) : idFileName;
+        if (options.isMappedIndex()) {
+            this.map = new MappedOffsetIndex(new File(this.directory, indexBaseName + ".idx"), options.isReadOnly());
+        } else {
+            this.map = new LoggedOffsetIndex(idFile);
+        }
+        this.wal = new WriteAheadLog(new File(this.directory, fileName + ".wal"), options.getDurability(),
+                options.getGroupCommitMillis(), options.getGroupCommitRecords());
+        boolean shared = options.isReadOnly() && options.isMappedIndex();
+        this.cache = options.getRecordCacheSize() > 0 && !shared ? new RecordCache(options.getRecordCacheSize()) : null;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public File getDataFile() {
+        return dataFile;
+    }
+
+    public File getIdFile() {
+        return idFile;
+    }
+
+    public boolean exists() {
+        return dataFile.exists();
+    }
+
+    // Создание новой базы данных с заданным заголовком (существующий файл перезаписывается).
+    // В заголовке можно указать типы столбцов (см. Schema), неизвестный тип - IllegalArgumentException
+    public void create(String header) throws IOException {
+        Schema newSchema = Schema.parse(header);
+        lock.writeLock().lock();
+        try {
+            checkWritable();
+            if (!directory.exists() && !directory.mkdirs()) {
+                throw new IOException("не удалось создать директорию " + directory.getPath());
+            }
+            closeChannels();
+            clearCache();
+            invalidateSnapshots("база данных создана заново"); // индекс, отображенный в память, очищается на месте
+            // Новый файл подменяет прежний переименованием: версии для чтения дочитывают прежний файл своим каналом
+            File created = new File(directory, dataFile.getName() + ".new");
+            try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(created), StandardCharsets.UTF_8))) {
+                writer.write(header);
+                writer.newLine();
+            }
+            Files.move(created.toPath(), dataFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            map.clear(); // Индекс новой базы пуст
+            dropSecondaryIndexes(); // у новой базы свои столбцы
+            freeSpace.clear();
+            modCount++;
+            schema = newSchema;
+            columns = schema.getNames();
+            openChannels();
+            wal.open();
+            wal.truncate();
+            opened = true;
+        } finally {
+            unlockWrite();
+        }
+    }
+
+    // Открытие существующей базы данных: читаем заголовок и загружаем индекс смещений с диска.
+    // Полностью файл читается только если индекса нет; иначе дочитываются лишь записи, добавленные
+    // после последней записи индекса (например, если программа завершилась между записью строки и индекса).
+    // Затем повторяются операции из журнала упреждающей записи, которые могли не дойти до файла или индекса
+    public void open() throws IOException {
+        lock.writeLock().lock();
+        try {
+            closeChannels();
+            clearCache();
+            openChannels();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(dataFile), StandardCharsets.UTF_8))) {
+                String header = reader.readLine();
+                schema = Schema.parse(header);
+                columns = schema.getNames();
+            }
+
+            long from = map.load();
+            findSecondaryIndexes();
+            if (options.isReadOnly()) {
+                if (!loadSecondaryIndexes()) {
+                    rebuildSecondaryIndexes(); // сохранить перестроенный индекс нельзя, он живет только в памяти
+                }
+                modCount++;
+                opened = true;
+                return;
+            }
+            truncateTornTail();
+            if (from >= 0 && !pointsToRecord(from)) {
+                // Индекс не соответствует файлу базы данных - строим его заново
+                map.clear();
+                from = -1L;
+            }
+            boolean rebuilt = map.size() == 0;
+            IntLongHashMap found = new IntLongHashMap(); // записи в конце файла, которых нет в индексе
+            freeSpace.clear();
+            forEachLine(Math.max(from, 0), line -> {
+                if (line.offset() == 0) {
+                    return;
+                }
+                if (line.isEmpty()) {
+                    freeSpace.add(line.offset(), line.length()); // слот, освобожденный при редактировании
+                    return;
+                }
+                int id;
+                try {
+                    id = parseId(line);
+                } catch (NumberFormatException e) {
+                    return; // строка, запись которой оборвалась при сбое; операция восстановится из журнала
+                }
+                if (!map.containsKey(id) && !found.containsKey(id)) {
+                    found.put(id, line.offset());
+                }
+            });
+            if (found.size() > 0) {
+                map.putAll(found); // одним пакетом: индекс не публикует версию на каждую запись
+            }
+            wal.open();
+            List<WriteAheadLog.Entry> entries = wal.readAll();
+            for (WriteAheadLog.Entry entry : entries) {
+                replay(entry);
+            }
+            // Вторичные индексы с диска годятся, только если база была закрыта штатно
+            boolean clean = !rebuilt && found.size() == 0 && wal.size() == 0;
+            boolean secondaryRebuilt = !clean || !loadSecondaryIndexes();
+            if (secondaryRebuilt) {
+                rebuildSecondaryIndexes();
+            }
+            if (rebuilt || found.size() > 0 || wal.size() > 0 || secondaryRebuilt && !secondary.isEmpty()) {
+                checkpoint(); // в том числе для записей, найденных в конце файла: putAll пишет их только в память
+            } else {
+                map.flush();
+            }
+            modCount++;
+            opened = true;
+        } finally {
+            unlockWrite();
+        }
+    }
+
+    // Закрытие базы данных: индекс сохраняется на диск в компактном виде.
+    // Ошибка фонового сжатия, о которой еще не сообщалось, выбрасывается после закрытия
+    @Override
+    public void close() throws IOException {
+        closeFiles();
+        compactor.rethrowFailure();
+    }
+
+    private void closeFiles() throws IOException {
+        compactor.close();
+        shutdownScanPool();
+        lock.writeLock().lock();
+        try {
+            if (opened && dataFile.exists() && !options.isReadOnly()) {
+                checkpoint();
+            }
+            wal.close();
+            map.close();
+            secondary.clear();
+            closeChannels();
+            clearCache();
+            freeSpace.clear();
+            columns = new String[0];
+            schema = Schema.parse("");
+            modCount++;
+            opened = false;
+        } finally {
+            unlockWrite();
+        }
+    }
+
+    public Schema getSchema() {
+        return view.schema;
+    }
+
+    public String[] getColumns() {
+        return view.columns.clone();
+    }
+
+    // Индекс столбца по его названию (без учета регистра), -1 если столбец не найден
+    public int columnIndex(String columnName) {
+        String[] names = view.columns;
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].trim().equalsIgnoreCase(columnName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // ID известен базе (в том числе если запись с ним была удалена)
+    public boolean contains(int id) {
+        ReadView v = acquire();
+        try {
+            return offsetOf(v, id) != OffsetIndex.NO_VALUE;
+        } finally {
+            release(v);
+        }
+    }
+
+    public boolean isDeleted(int id) {
+        ReadView v = acquire();
+        try {
+            return offsetOf(v, id) == DELETED;
+        } finally {
+            release(v);
+        }
+    }
+
+    // Количество живых записей
+    public int size() {
+        return view.live;
+    }
+
+    // Счетчики кэша записей; нули, если кэш отключен
+    public RecordCache.Stats getCacheStats() {
+        return cache != null ? cache.stats() : new RecordCache.Stats(0, 0, 0, 0);
+    }
+
+    // Поиск записи по ID, null если запись не найдена или была удалена
+    public String get(int id) throws IOException {
+        ReadView v = acquire();
+        try {
+            checkOpen(v);
+            long offset = offsetOf(v, id);
+            if (offset == OffsetIndex.NO_VALUE || offset == DELETED) {
+                return null;
+            }
+            return readCached(v, id, offset);
+        } finally {
+            release(v);
+        }
+    }
+
+    // Записи для ids[from, to) из одной версии базы; null на месте отсутствующих и удаленных
+    public String[] getAll(int[] ids, int from, int to) throws IOException {
+        String[] records = new String[to - from];
+        ReadView v = acquire();
+        try {
+            checkOpen(v);
+            for (int i = from; i < to; i++) {
+                long offset = offsetOf(v, ids[i]);
+                if (offset != OffsetIndex.NO_VALUE && offset != DELETED) {
+                    records[i - from] = readCached(v, ids[i], offset);
+                }
+            }
+            return records;
+        } finally {
+            release(v);
+        }
+    }
+
+    // ID всех живых записей по возрастанию
+    public int[] ids() throws IOException {
+        ReadView v = acquire();
+        try {
+            checkOpen(v);
+            int[] ids = new int[v.live];
+            int[] count = {0};
+            IntLongHashMap.EntryVisitor collect = (id, offset) -> {
+                if (offset != DELETED && count[0] < ids.length) {
+                    ids[count[0]++] = id;
+                }
+            };
+            if (v.index != null) {
+                v.index.forEach(collect);
+            } else {
+                map.forEach(collect);
+            }
+            Arrays.sort(ids, 0, count[0]);
+            return count[0] == ids.length ? ids : Arrays.copyOf(ids, count[0]);
+        } finally {
+            release(v);
+        }
+    }
+
+    // Добавление записи в свободный слот или в конец файла, false если ID уже существует
+    public boolean put(String record) throws IOException {
+        int id = parseId(record);
+        long sequence;
+        lock.writeLock().lock();
+        try {
+            checkWritable();
+            checkOpen();
+            schema.validate(record);
+            checkId(id);
+            if (map.containsKey(id)) {
+                return false;
+            }
+            sequence = wal.append(WriteAheadLog.PUT, id, record);
+            applyPut(id, record);
+            checkpointIfNeeded();
+        } finally {
+            unlockWrite();
+        }
+        wal.awaitDurable(sequence); // ждем вне блокировки, чтобы другие операции успели попасть в ту же группу
+        return true;
+    }
+
+    // Замена записи по ID, false если ID не найден или запись удалена.
+    // Если новая запись помещается на место старой, она пишется поверх с дополнением пробелами;
+    // иначе старая строка затирается пробелами и отдается в карту свободного места,
+    // а запись переносится в свободный слот или в конец файла, и индекс перенаправляется на нее
+    public boolean update(int id, String record) throws IOException {
+        if (parseId(record) != id) {
+            throw new IllegalArgumentException("ID записи " + parseId(record) + " не совпадает с редактируемым ID " + id);
+        }
+        long sequence;
+        lock.writeLock().lock();
+        try {
+            checkWritable();
+            checkOpen();
+            long offset = map.get(id);
+            if (offset == OffsetIndex.NO_VALUE || offset == DELETED) {
+                return false;
+            }
+            schema.validate(record);
+            sequence = wal.append(WriteAheadLog.UPDATE, id, record);
+            applyUpdate(id, record, offset);
+            checkpointIfNeeded();
+        } finally {
+            unlockWrite();
+        }
+        wal.awaitDurable(sequence);
+        return true;
+    }
+
+    // Удаление записи по ID: отступ заменяется на -1, файл не переписывается. false если ID не найден
+    public boolean delete(int id) throws IOException {
+        long sequence;
+        lock.writeLock().lock();
+        try {
+            checkWritable();
+            checkOpen();
+            if (!map.containsKey(id)) {
+                return false;
+            }
+            sequence = wal.append(WriteAheadLog.DELETE, id, null);
+            applyDelete(id);
+            map.flush();
+            modCount++;
+            checkpointIfNeeded();
+            requestCompactionIfNeeded();
+        } finally {
+            unlockWrite();
+        }
+        wal.awaitDurable(sequence);
+        return true;
+    }
+
+    // Результат пакетной загрузки
+    public static final class LoadResult {
+        public final int loaded; // добавлено записей
+        public final int duplicates; // пропущено записей с ID, который уже есть в базе или раньше в загрузке
+
+        LoadResult(int loaded, int duplicates) {
+            this.loaded = loaded;
+            this.duplicates = duplicates;
+        }
+    }
+
+    // Пакетная загрузка CSV-файла (первая строка - заголовок, она пропускается). Строки не декодируются:
+    // ID разбирается прямо из байтов, строка копируется в большой буфер записи в конец файла данных,
+    // а индекс пополняется одним проходом в конце. Дубликаты ID пропускаются (побеждает первая запись).
+    // Загрузка не пишется в журнал упреждающей записи: в конце файл данных и индекс сбрасываются на диск
+    // контрольной точкой, а строки, дописанные до сбоя посреди загрузки, подхватываются при открытии
+    public LoadResult bulkLoad(File csvFile) throws IOException {
+        return bulkLoad(csvFile, null);
+    }
+
+    // Пакетная загрузка с отчетом о прочитанных байтах файла. При отмене записи, загруженные до нее, остаются в базе
+    public LoadResult bulkLoad(File csvFile, Progress progress) throws IOException {
+        lock.writeLock().lock();
+        try {
+            checkWritable();
+            BulkWriter writer = new BulkWriter();
+            try {
+                readBulkLines(csvFile, progress, writer::add);
+            } finally {
+                writer.finish();
+            }
+            return writer.result();
+        } finally {
+            unlockWrite();
+        }
+    }
+
+    // Строка пакетной загрузки bytes[start, end) без перевода строки, lineNumber - номер строки в файле
+    interface BulkLineSink {
+        void add(byte[] bytes, int start, int end, long lineNumber) throws IOException;
+    }
+
+    // Чтение CSV-файла пакетной загрузки большими блоками без декодирования строк: sink получает каждую строку,
+    // кроме заголовка. Ход - по прочитанным байтам файла
+    static void readBulkLines(File csvFile, Progress progress, BulkLineSink sink) throws IOException {
+        try (FileChannel in = FileChannel.open(csvFile.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BULK_BUFFER_SIZE);
+            long lineNumber = 0;
+            int scanned = 0;
+            long total = in.size();
+            long loaded = 0;
+            while (true) {
+                int read = in.read(buffer);
+                if (read > 0) {
+                    loaded += read;
+                    report(progress, loaded, total);
+                }
+                byte[] bytes = buffer.array();
+                int limit = buffer.position();
+                int start = 0;
+                for (int i = scanned; i < limit; i++) {
+                    if (bytes[i] == '\n') {
+                        if (++lineNumber > 1) {
+                            sink.add(bytes, start, i, lineNumber);
+                        }
+                        start = i + 1;
+                    }
+                }
+                if (read < 0) {
+                    if (start < limit && ++lineNumber > 1) {
+                        sink.add(bytes, start, limit, lineNumber); // последняя строка без перевода строки
+                    }
+                    break;
+                }
+                if (start == 0 && !buffer.hasRemaining()) {
+                    // Строка длиннее буфера - буфер увеличивается
+                    ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                    buffer.flip();
+                    larger.put(buffer);
+                    buffer = larger;
+                } else {
+                    // Неполная строка переносится в начало буфера
+                    System.arraycopy(bytes, start, bytes, 0, limit - start);
+                    buffer.position(limit - start);
+                }
+                scanned = buffer.position();
+            }
+        }
+    }
+
+    // Пакетная загрузка записей из итератора, правила те же, что у загрузки CSV-файла
+    public LoadResult bulkLoad(Iterator<String> records) throws IOException {
+        lock.writeLock().lock();
+        try {
+            checkWritable();
+            BulkWriter writer = new BulkWriter();
+            try {
+                long lineNumber = 0;
+                while (records.hasNext()) {
+                    byte[] bytes = records.next().getBytes(StandardCharsets.UTF_8);
+                    writer.add(bytes, 0, bytes.length, ++lineNumber);
+                }
+            } finally {
+                writer.finish();
+            }
+            return writer.result();
+        } finally {
+            unlockWrite();
+        }
+    }
+
+    // Строка пакетной загрузки с номером строки исходного файла
+    static final class BulkLine {
+        final byte[] bytes;
+        final long lineNumber;
+
+        BulkLine(byte[] bytes, long lineNumber) {
+            this.bytes = bytes;
+            this.lineNumber = lineNumber;
+        }
+    }
+
+    // Пакетная загрузка строк, уже отобранных из файла (например, строк одного шарда): сообщения об ошибках
+    // ссылаются на номера строк исходного файла
+    LoadResult bulkLoadLines(Iterator<BulkLine> lines) throws IOException {
+        lock.writeLock().lock();
+        try {
+            checkWritable();
+            BulkWriter writer = new BulkWriter();
+            try {
+                while (lines.hasNext()) {
+                    BulkLine line = lines.next();
+                    writer.add(line.bytes, 0, line.bytes.length, line.lineNumber);
+                }
+            } finally {
+                writer.finish();
+            }
+            return writer.result();
+        } finally {
+            unlockWrite();
+        }
+    }
+
+    // Двоичная копия живых записей в формате RowFile (схема берется из заголовка), возвращает количество записей
+    public int writeBinaryCopy(File target) throws IOException {
+        ReadView v = acquire();
+        try (RowFile.Writer writer = new RowFile.Writer(target, v.schema)) {
+            scanLines(v, line -> writer.accept(line.toString()), null);
+            return writer.getRows();
+        } finally {
+            release(v);
+        }
+    }
+
+    // Пакетная загрузка записей из двоичной копии (RowFile), правила те же, что у загрузки CSV-файла.
+    // Количество столбцов копии должно совпадать с таблицей
+    public LoadResult bulkLoadBinary(File source) throws IOException {
+        RowCodec codec = new RowCodec(Schema.parse(RowFile.readHeader(source)));
+        lock.writeLock().lock();
+        try {
+            checkWritable();
+            if (codec.getSchema().size() != columns.length) {
+                throw new IllegalArgumentException("В двоичной копии " + codec.getSchema().size() + " столбцов, а в таблице " + columns.length + ".");
+            }
+            BulkWriter writer = new BulkWriter();
+            try {
+                long[] lineNumber = {0};
+                RowFile.read(source, (row, length) -> {
+                    byte[] bytes = codec.decode(row, 0).getBytes(StandardCharsets.UTF_8);
+                    writer.add(bytes, 0, bytes.length, ++lineNumber[0]);
+                });
+            } finally {
+                writer.finish();
+            }
+            return writer.result();
+        } finally {
+            unlockWrite();
+        }
+    }
+
+    // Обход всех живых записей в порядке их расположения в файле
+    public void scan(Consumer<String> consumer) throws IOException {
+        scanLines(line -> consumer.accept(line.toString()));
+    }
+
+    // Обход живых записей без создания строк: visitor получает разбор текущей строки (CsvTokenizer),
+    // который действителен только во время вызова
+    public void scanLines(CsvTokenizer.LineVisitor visitor) throws IOException {
+        scanLines(visitor, null);
+    }
+
+    // Обход живых записей с отчетом о ходе по отступу в файле
+    public void scanLines(CsvTokenizer.LineVisitor visitor, Progress progress) throws IOException {
+        ReadView v = acquire();
+        try {
+            scanLines(v, visitor, progress);
+        } finally {
+            release(v);
+        }
+    }
+
+    private void scanLines(ReadView v, CsvTokenizer.LineVisitor visitor, Progress progress) throws IOException {
+        forEachLine(v, 0, v.dataLength, tracked(line -> {
+            if (line.offset() != 0 && isLive(v, line)) {
+                visitor.visit(line);
+            }
+        }, progress, v.dataLength));
+    }
+
+    // Поиск по значению неключевого поля: по вторичному индексу, если он объявлен для столбца, иначе полным
+    // проходом (параллельным для большого файла). Записи возвращаются в порядке расположения в файле
+    public List<String> findByField(String columnName, String value) throws IOException {
+        List<String> results = new ArrayList<>();
+        findByField(columnName, value, results::addAll, null);
+        return results;
+    }
+
+    // Поиск по значению поля с выдачей результатов частями: consumer получает найденные записи диапазонов
+    // файла по порядку, как только диапазон проверен, поэтому первые результаты видны до конца прохода.
+    // Полный проход читает одну версию базы без блокировок, поиск по вторичному индексу - под блокировкой чтения
+    public void findByField(String columnName, String value, Consumer<List<String>> consumer, Progress progress) throws IOException {
+        int columnIndex = requireColumn(columnName);
+        lock.readLock().lock();
+        try {
+            SecondaryIndex index = secondaryIndex(columnIndex);
+            if (index != null) {
+                int[] ids = index.find(value);
+                long[] offsets = new long[ids.length];
+                for (int i = 0; i < ids.length; i++) {
+                    offsets[i] = map.get(ids[i]);
+                }
+                Arrays.sort(offsets);
+                List<String> results = new ArrayList<>();
+                for (long offset : offsets) {
+                    results.add(readLineAt(offset));
+                }
+                consumer.accept(results);
+                return;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        ReadView v = acquire();
+        try {
+            byte[] expected = value.getBytes(StandardCharsets.UTF_8);
+            streamLive(v, line -> line.fieldEquals(columnIndex, expected) ? line.toString() : null, consumer, progress);
+        } finally {
+            release(v);
+        }
+    }
+
+    // Отбор живых записей по произвольному условию полным проходом по файлу (параллельным для большого файла),
+    // записи возвращаются в порядке расположения в файле
+    public List<String> findAll(CsvTokenizer.LinePredicate predicate) throws IOException {
+        ReadView v = acquire();
+        try {
+            return collectLive(v, line -> predicate.test(line) ? line.toString() : null);
+        } finally {
+            release(v);
+        }
+    }
+
+    // Удаление всех записей с заданным значением неключевого поля, возвращает количество удаленных
+    public int deleteByField(String columnName, String value) throws IOException {
+        int columnIndex = requireColumn(columnName);
+        int[] ids;
+        long sequence = 0;
+        lock.writeLock().lock();
+        try {
+            checkWritable();
+            SecondaryIndex index = secondaryIndex(columnIndex);
+            if (index != null) {
+                ids = index.find(value);
+            } else {
+                byte[] expected = value.getBytes(StandardCharsets.UTF_8);
+                List<Integer> found = collectLive(view, line -> line.fieldEquals(columnIndex, expected) ? parseId(line) : null);
+                ids = new int[found.size()];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = found.get(i);
+                }
+            }
+            for (int id : ids) {
+                sequence = wal.append(WriteAheadLog.DELETE, id, null);
+                applyDelete(id);
+            }
+            map.flush();
+            modCount++;
+            checkpointIfNeeded();
+            requestCompactionIfNeeded();
+        } finally {
+            unlockWrite();
+        }
+        wal.awaitDurable(sequence);
+        return ids.length;
+    }
+
+    // Объявление вторичного индекса по столбцу: индекс строится одним проходом по файлу и сохраняется на диск.
+    // false если индекс по этому столбцу уже есть
+    public boolean createIndex(String columnName) throws IOException {
+        int columnIndex = requireColumn(columnName);
+        lock.writeLock().lock();
+        try {
+            checkWritable();
+            if (secondaryIndex(columnIndex) != null) {
+                return false;
+            }
+            SecondaryIndex index = new SecondaryIndex(columnIndex, secondaryIndexFile(columnIndex));
+            forEachLine(line -> {
+                if (line.offset() != 0 && isLive(line)) {
+                    index.add(parseId(line), line);
+                }
+            });
+            index.save(dataLength);
+            secondary.add(index);
+            return true;
+        } finally {
+            unlockWrite();
+        }
+    }
+
+    // Удаление вторичного индекса по столбцу, false если его не было
+    public boolean dropIndex(String columnName) throws IOException {
+        int columnIndex = requireColumn(columnName);
+        lock.writeLock().lock();
+        try {
+            checkWritable();
+            SecondaryIndex index = secondaryIndex(columnIndex);
+            if (index == null) {
+                return false;
+            }
+            secondary.remove(index);
+            index.drop();
+            return true;
+        } finally {
+            unlockWrite();
+        }
+    }
+
+    // Названия столбцов, по которым объявлены вторичные индексы
+    public List<String> getIndexedColumns() {
+        lock.readLock().lock();
+        try {
+            List<String> names = new ArrayList<>();
+            for (ColumnIndex index : secondary) {
+                if (index instanceof SecondaryIndex) {
+                    names.add(columns[index.getColumn()].trim());
+                }
+            }
+            return names;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Ссылка на запись из упорядоченного индекса: ID, отступ строки в файле данных и ключ индекса
+    // (для дат - номер дня). Отступ действителен до следующего изменения базы (редактирование и сжатие переносят записи)
+    public static final class RecordRef {
+        public final int id;
+        public final long offset;
+        public final double key;
+
+        RecordRef(int id, long offset, double key) {
+            this.id = id;
+            this.offset = offset;
+            this.key = key;
+        }
+    }
+
+    // Объявление упорядоченного индекса по числовому столбцу или столбцу с датами ISO (yyyy-MM-dd),
+    // индекс строится одним проходом по файлу. false если такой индекс по столбцу уже есть
+    public boolean createRangeIndex(String columnName, RangeIndex.Type type) throws IOException {
+        int columnIndex = requireColumn(columnName);
+        lock.writeLock().lock();
+        try {
+            checkWritable();
+            if (rangeIndex(columnIndex) != null) {
+                return false;
+            }
+            RangeIndex index = new RangeIndex(columnIndex, type, rangeIndexFile(columnIndex, type));
+            forEachLine(line -> {
+                if (line.offset() != 0 && isLive(line)) {
+                    index.add(parseId(line), line);
+                }
+            });
+            index.save(dataLength);
+            secondary.add(index);
+            return true;
+        } finally {
+            unlockWrite();
+        }
+    }
+
+    // Упорядоченный индекс с типом ключа из схемы: int и decimal - числа, date - даты
+    public boolean createRangeIndex(String columnName) throws IOException {
+        Schema.Type type = getSchema().getType(requireColumn(columnName));
+        if (type == Schema.Type.INT || type == Schema.Type.DECIMAL) {
+            return createRangeIndex(columnName, RangeIndex.Type.NUMBER);
+        }
+        if (type == Schema.Type.DATE) {
+            return createRangeIndex(columnName, RangeIndex.Type.DATE);
+        }
+        throw new IllegalArgumentException("Столбец \"" + columnName + "\" не числовой и не дата в схеме базы данных.");
+    }
+
+    // Удаление упорядоченного индекса по столбцу, false если его не было
+    public boolean dropRangeIndex(String columnName) throws IOException {
+        int columnIndex = requireColumn(columnName);
+        lock.writeLock().lock();
+        try {
+            checkWritable();
+            RangeIndex index = rangeIndex(columnIndex);
+            if (index == null) {
+                return false;
+            }
+            secondary.remove(index);
+            index.drop();
+            return true;
+        } finally {
+            unlockWrite();
+        }
+    }
+
+    // Тип упорядоченного индекса по столбцу или null, если такого индекса нет
+    public RangeIndex.Type getRangeIndexType(String columnName) {
+        int columnIndex = requireColumn(columnName);
+        lock.readLock().lock();
+        try {
+            RangeIndex index = rangeIndex(columnIndex);
+            return index == null ? null : index.getType();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Обход записей с значением столбца в диапазоне [from, to] по возрастанию значения (при равных - по ID).
+    // Границы задаются строками в формате столбца, null - без ограничения. Нужен упорядоченный индекс по столбцу
+    public void scanRange(String columnName, String from, boolean fromInclusive, String to, boolean toInclusive,
+                          Consumer<RecordRef> consumer) throws IOException {
+        int columnIndex = requireColumn(columnName);
+        lock.readLock().lock();
+        try {
+            RangeIndex index = rangeIndex(columnIndex);
+            if (index == null) {
+                throw new IllegalArgumentException("По столбцу \"" + columnName + "\" нет упорядоченного индекса.");
+            }
+            index.forEach(rangeKey(index, from), fromInclusive, rangeKey(index, to), toInclusive,
+                    (id, key) -> consumer.accept(new RecordRef(id, map.get(id), key)));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Записи с значением столбца от from до to включительно, по возрастанию значения
+    public List<RecordRef> findRange(String columnName, String from, String to) throws IOException {
+        List<RecordRef> results = new ArrayList<>();
+        scanRange(columnName, from, true, to, true, results::add);
+        return results;
+    }
+
+    // Очистка базы данных: остается только заголовок
+    public void clear() throws IOException {
+        lock.writeLock().lock();
+        try {
+            String header = schema.toHeader();
+            if (columns.length == 0) {
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(dataFile), StandardCharsets.UTF_8))) {
+                    header = reader.readLine();
+                }
+            }
+            List<ColumnIndex> indexed = new ArrayList<>(secondary);
+            create(header == null ? "" : header);
+            for (ColumnIndex index : indexed) {
+                // Столбцы остались те же, поэтому объявленные индексы сохраняются пустыми
+                index.clear();
+                index.save(dataLength);
+                secondary.add(index);
+            }
+        } finally {
+            unlockWrite();
+        }
+    }
+
+    // Удаление файлов базы данных и директории, если она осталась пустой
+    public void drop() throws IOException {
+        compactor.close();
+        compactor.discardFailure(); // база удаляется или заменяется, ошибка ее сжатия больше не важна
+        lock.writeLock().lock();
+        try {
+            checkWritable();
+            closeFiles();
+            map.drop();
+            dropSecondaryIndexes();
+            if (wal.getFile().exists() && !wal.getFile().delete()) {
+                throw new IOException("не удалось удалить журнал " + wal.getFile().getPath());
+            }
+            if (idFile.exists() && !idFile.delete()) {
+                throw new IOException("не удалось удалить файл индексов " + idFile.getPath());
+            }
+            if (dataFile.exists() && !dataFile.delete()) {
+                throw new IOException("не удалось удалить файл базы данных " + dataFile.getPath());
+            }
+            String[] rest = directory.list();
+            if (directory.isDirectory() && rest != null && rest.length == 0) {
+                directory.delete();
+            }
+        } finally {
+            unlockWrite();
+        }
+    }
+
+    // Запись копии базы данных без удаленных записей вместе с файлом смещений этой копии
+    public void writeCopy(File targetDbFile, File targetIdFile) throws IOException {
+        writeCopy(targetDbFile, targetIdFile, null);
+    }
+
+    // Копия с отчетом о ходе; при отмене недописанные файлы копии удаляются
+    public void writeCopy(File targetDbFile, File targetIdFile, Progress progress) throws IOException {
+        lock.readLock().lock();
+        try (BufferedWriter idWriter = new BufferedWriter(new FileWriter(targetIdFile))) {
+            copyLiveRecords(targetDbFile, (id, offset) -> {
+                idWriter.write(id + "," + offset);
+                idWriter.newLine();
+            }, progress);
+        } catch (CancellationException e) {
+            targetDbFile.delete();
+            targetIdFile.delete();
+            throw e;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Срез базы для копирования без остановки записи: эксклюзивная блокировка держится только на время
+    // открытия каналов снимка, дальше изменения идут параллельно с его чтением
+    public Snapshot snapshot() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (!opened) {
+                throw new IOException("база данных не открыта");
+            }
+            map.flush();
+            FileSnapshot data = new FileSnapshot(dataFile, dataLength);
+            FileSnapshot index;
+            try {
+                index = map.snapshot();
+            } catch (IOException e) {
+                data.close();
+                throw e;
+            }
+            snapshots.removeIf(snapshot -> snapshot.data.isClosed());
+            Snapshot snapshot = new Snapshot(data, index, modCount);
+            snapshots.add(snapshot);
+            return snapshot;
+        } finally {
+            unlockWrite();
+        }
+    }
+
+    public boolean hasCopy(File dbFile, File idFile) {
+        return dbFile.exists() && idFile.exists();
+    }
+
+    // Копия файла данных и индекса смещений в том виде, в каком они были при вызове, без остановки записи.
+    // Файлы копируются FileChannel.transferTo; копия открывается как обычная база (restore). При отмене и ошибке
+    // недописанные файлы удаляются
+    public void writeSnapshot(File targetDbFile, File targetIdFile, Progress progress) throws IOException {
+        boolean written = false;
+        try (Snapshot snapshot = snapshot()) {
+            long total = snapshot.data.length() + snapshot.index.length();
+            long done = transfer(snapshot.data, targetDbFile, 0, total, progress);
+            transfer(snapshot.index, targetIdFile, done, total, progress);
+            written = true;
+        } finally {
+            if (!written) {
+                targetDbFile.delete();
+                targetIdFile.delete();
+            }
+        }
+    }
+
+    // Пора ли сжимать базу: доля мертвых строк (удаленные записи и свободные слоты) превысила порог
+    public boolean needsCompaction() {
+        lock.readLock().lock();
+        try {
+            int dead = map.deletedCount() + freeSpace.size();
+            double threshold = options.getCompactionThreshold();
+            return opened && !options.isReadOnly() && threshold > 0
+                    && dead >= options.getCompactionMinDeadRecords()
+                    && dead >= threshold * (map.size() + freeSpace.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Сжатие: живые записи версии, закрепленной под короткой эксклюзивной блокировкой, копируются в новый файл
+    // без блокировок (чтение и запись продолжаются). ID, измененные за время копирования, запоминаются писателями;
+    // под эксклюзивной блокировкой их строки в копии затираются, текущие записи дописываются в конец копии,
+    // после чего файл атомарно подменяется и индекс перестраивается. Ошибка фонового сжатия выбрасывается
+    // из следующего compact или close. false если база не открыта или была пересоздана во время копирования
+    public boolean compact() throws IOException {
+        compactor.rethrowFailure();
+        return compactNow();
+    }
+
+    // Сжатие без проверки ошибки прошлого фонового сжатия (его вызывает Compactor)
+    boolean compactNow() throws IOException {
+        synchronized (compactionMonitor) {
+            File target = new File(directory, dataFile.getName() + ".compact");
+            ReadView v;
+            IntToLongFunction index;
+            lock.writeLock().lock();
+            try {
+                checkWritable();
+                if (!opened) {
+                    return false;
+                }
+                v = view; // под эксклюзивной блокировкой опубликованная версия совпадает с состоянием базы
+                v.pins.incrementAndGet();
+                if (v.index != null) {
+                    index = v.index::get;
+                } else {
+                    // Индекс, отображенный в память, меняется на месте: для копирования берется его копия в куче
+                    IntLongHashMap copy = new IntLongHashMap(map.size());
+                    map.forEach(copy::put);
+                    index = copy::get;
+                }
+                compactionChanges = new IntHashSet();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            try {
+                IntLongHashMap offsets = new IntLongHashMap(Math.max(16, v.live));
+                copyLiveRecords(v, index, target, offsets::put);
+                lock.writeLock().lock();
+                try {
+                    if (!opened || versions != v.file) {
+                        Files.deleteIfExists(target.toPath());
+                        return false;
+                    }
+                    List<FreeSpaceMap.Slot> freed = catchUp(target, offsets, compactionChanges);
+                    swapIn(target, offsets);
+                    for (FreeSpaceMap.Slot slot : freed) {
+                        freeSpace.add(slot.offset, slot.length);
+                    }
+                    return true;
+                } finally {
+                    unlockWrite();
+                }
+            } finally {
+                lock.writeLock().lock();
+                compactionChanges = null;
+                lock.writeLock().unlock();
+                if (v.pins.decrementAndGet() == 0 && v.retired) {
+                    v.free();
+                }
+            }
+        }
+    }
+
+    // Перенос изменений, сделанных во время копирования, в сжатую копию target (под эксклюзивной блокировкой):
+    // строка измененного ID в копии затирается пробелами, текущая запись дописывается в конец копии.
+    // Возвращает затертые слоты копии для карты свободного места
+    private List<FreeSpaceMap.Slot> catchUp(File target, IntLongHashMap offsets, IntHashSet changed) throws IOException {
+        List<FreeSpaceMap.Slot> freed = new ArrayList<>();
+        if (changed.isEmpty()) {
+            return freed;
+        }
+        try (FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long end = channel.size();
+            for (int id : changed.toArray()) {
+                long copied = offsets.remove(id);
+                if (copied != IntLongHashMap.NO_VALUE) {
+                    int length = readSlot(channel, copied).length;
+                    writeFully(channel, copied, padded(new byte[0], length));
+                    freed.add(new FreeSpaceMap.Slot(copied, length));
+                }
+                long current = map.get(id);
+                if (current != OffsetIndex.NO_VALUE && current != DELETED) {
+                    byte[] bytes = (readLineAt(current) + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+                    writeFully(channel, end, bytes);
+                    offsets.put(id, end);
+                    end += bytes.length;
+                }
+            }
+            channel.force(false);
+        }
+        return freed;
+    }
+
+    private static void writeFully(FileChannel channel, long offset, byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, offset + buffer.position());
+        }
+    }
+
+    // Восстановление из копии: файл базы данных копируется только если его еще нет,
+    // тогда и индекс берется из копии. Возвращает true, если файл базы данных был восстановлен из копии
+    public boolean restore(File sourceDbFile, File sourceIdFile) throws IOException {
+        compactor.close();
+        compactor.discardFailure(); // база удаляется или заменяется, ошибка ее сжатия больше не важна
+        lock.writeLock().lock();
+        try {
+            checkWritable();
+            if (!directory.exists() && !directory.mkdirs()) {
+                throw new IOException("не удалось создать директорию " + directory.getPath());
+            }
+            boolean restored = false;
+            if (!dataFile.exists()) {
+                closeFiles();
+                map.drop();
+                Files.deleteIfExists(wal.getFile().toPath()); // журнал относится к прежней базе
+                Files.copy(sourceDbFile.toPath(), dataFile.toPath());
+                Files.copy(sourceIdFile.toPath(), idFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                restored = true;
+            }
+            open();
+            return restored;
+        } finally {
+            unlockWrite();
+        }
+    }
+
+    // Инкрементальная резервная копия в цепочку directory (см. BackupChain): копируется снимок файла данных
+    // и индекса смещений, в копию попадают только сегменты, изменившиеся с предыдущей копии.
+    // Пока копия пишется, база доступна и для чтения, и для записи. full - полная копия, с которой начинается новая цепочка
+    public BackupChain.Backup backup(File backupDirectory, boolean full, Progress progress) throws IOException {
+        return backup(backupDirectory, new BackupChain(backupDirectory).nextNumber(), full, progress);
+    }
+
+    // То же с заданным номером копии (общий номер бэкапа всех шардов, см. ShardedStorageEngine)
+    public BackupChain.Backup backup(File backupDirectory, int number, boolean full, Progress progress) throws IOException {
+        try (Snapshot snapshot = snapshot()) {
+            return new BackupChain(backupDirectory).create(new FileSnapshot[]{snapshot.data, snapshot.index}, number, full, progress);
+        }
+    }
+
+    public int nextBackupNumber(File backupDirectory) throws IOException {
+        return new BackupChain(backupDirectory).nextNumber();
+    }
+
+    public boolean deleteBackup(File backupDirectory, int number) {
+        return new BackupChain(backupDirectory).delete(number);
+    }
+
+    public List<BackupChain.Backup> listBackups(File backupDirectory) throws IOException {
+        return new BackupChain(backupDirectory).list();
+    }
+
+    // Восстановление базы на момент копии number из цепочки directory: файл данных и индекс смещений
+    // перезаписываются, журнал прежней базы удаляется, вторичные индексы перестраиваются при открытии
+    public void restoreBackup(File backupDirectory, int number) throws IOException {
+        compactor.close();
+        compactor.discardFailure(); // база удаляется или заменяется, ошибка ее сжатия больше не важна
+        lock.writeLock().lock();
+        try {
+            checkWritable();
+            if (!directory.exists() && !directory.mkdirs()) {
+                throw new IOException("не удалось создать директорию " + directory.getPath());
+            }
+            List<ColumnIndex> indexed = new ArrayList<>(secondary);
+            closeFiles();
+            for (ColumnIndex index : indexed) {
+                // Сохраненные индексы описывают прежний файл данных: пустой индекс с неверной отметкой перестроится
+                index.clear();
+                index.save(-1L);
+            }
+            Files.deleteIfExists(wal.getFile().toPath()); // журнал относится к прежней базе
+            new BackupChain(backupDirectory).restore(number, new File[]{dataFile, map.getFile()});
+            open();
+        } finally {
+            unlockWrite();
+        }
+    }
+
+    public static int parseId(String record) {
+        int comma = record.indexOf(',');
+        return Integer.parseInt((comma < 0 ? record : record.substring(0, comma)).trim());
+    }
+
+    // Разбор ID из байтов строки [start, end) без создания String, по тем же правилам, что parseId(String)
+    static int parseId(byte[] bytes, int start, int end) {
+        int i = start;
+        while (i < end && (bytes[i] & 0xFF) <= ' ') {
+            i++;
+        }
+        boolean negative = i < end && bytes[i] == '-';
+        if (negative || i < end && bytes[i] == '+') {
+            i++;
+        }
+        int digits = i;
+        long value = 0;
+        while (i < end && bytes[i] >= '0' && bytes[i] <= '9' && value <= Integer.MAX_VALUE) {
+            value = value * 10 + (bytes[i++] - '0');
+        }
+        int digitsEnd = i;
+        while (i < end && bytes[i] != ',' && (bytes[i] & 0xFF) <= ' ') {
+            i++;
+        }
+        if (digitsEnd == digits || i < end && bytes[i] != ','
+                || value > (negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE)) {
+            int comma = start;
+            while (comma < end && bytes[comma] != ',') {
+                comma++;
+            }
+            throw new NumberFormatException("For input string: \"" + new String(bytes, start, comma - start, StandardCharsets.UTF_8).trim() + "\"");
+        }
+        return (int) (negative ? -value : value);
+    }
+
+    // Копирование заголовка и живых записей (без дополнения пробелами) в файл target,
+    // для каждой записи вызывается onRecord с ее ID и отступом в новом файле
+    private void copyLiveRecords(File target, IntLongHashMap.EntryVisitor onRecord) throws IOException {
+        copyLiveRecords(target, onRecord, null);
+    }
+
+    private void copyLiveRecords(File target, IntLongHashMap.EntryVisitor onRecord, Progress progress) throws IOException {
+        try (FileOutputStream fileOut = new FileOutputStream(target);
+             OutputStream out = new BufferedOutputStream(fileOut, 1 << 16)) {
+            byte[] separator = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+            long[] position = {0};
+            forEachLine(tracked(line -> {
+                if (line.offset() == 0 || isLive(line)) {
+                    if (line.offset() != 0) {
+                        onRecord.visit(parseId(line), position[0]);
+                    }
+                    line.writeTo(out);
+                    out.write(separator);
+                    position[0] += line.contentLength() + separator.length;
+                }
+            }, progress, dataLength));
+            out.flush();
+            fileOut.getFD().sync();
+        }
+    }
+
+    // Копирование живых строк версии v в target: строка живая, если index (снятый вместе с v) указывает на ее отступ
+    private void copyLiveRecords(ReadView v, IntToLongFunction index, File target, IntLongHashMap.EntryVisitor onRecord) throws IOException {
+        try (FileOutputStream fileOut = new FileOutputStream(target);
+             OutputStream out = new BufferedOutputStream(fileOut, 1 << 16)) {
+            byte[] separator = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+            long[] position = {0};
+            forEachLine(v, 0, v.dataLength, line -> {
+                if (line.offset() != 0) {
+                    if (line.isEmpty()) {
+                        return;
+                    }
+                    int id;
+                    try {
+                        id = parseId(line);
+                    } catch (NumberFormatException e) {
+                        return; // остаток оборванной при сбое записи
+                    }
+                    if (index.applyAsLong(id) != line.offset()) {
+                        return;
+                    }
+                    onRecord.visit(id, position[0]);
+                }
+                line.writeTo(out);
+                out.write(separator);
+                position[0] += line.contentLength() + separator.length;
+            });
+            out.flush();
+            fileOut.getFD().sync();
+        }
+    }
+
+    // Подмена файла данных сжатой копией и перестроение индекса по ее отступам (удаленные ID из индекса уходят)
+    private void swapIn(File compacted, IntLongHashMap offsets) throws IOException {
+        closeChannels();
+        for (Snapshot snapshot : snapshots) {
+            snapshot.detached = true; // снимки дочитывают прежний файл через свои каналы
+        }
+        Files.move(compacted.toPath(), dataFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        openChannels();
+        map.clear();
+        map.putAll(offsets);
+        checkpoint(); // сжатая копия уже содержит все операции журнала
+        freeSpace.clear();
+        modCount++;
+    }
+
+    // Добавление записи без журнала (сама операция или ее повтор из журнала)
+    private void applyPut(int id, String record) throws IOException {
+        changed(id);
+        long offset = writeRecord((record + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+        map.put(id, offset);
+        map.flush();
+        for (ColumnIndex index : secondary) {
+            index.add(id, record);
+        }
+        modCount++;
+    }
+
+    // Замена записи по отступу offset без журнала
+    private void applyUpdate(int id, String record, long offset) throws IOException {
+        changed(id);
+        if (!secondary.isEmpty()) {
+            String previous = readLineAt(offset);
+            for (ColumnIndex index : secondary) {
+                index.remove(id, previous);
+                index.add(id, record);
+            }
+        }
+        byte[] bytes = (record + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+        byte[] slot = readSlot(offset);
+        int slotLength = slot.length;
+        preserveLine(offset, slot); // строка переписывается на месте: версии до этого изменения читают прежние байты
+        modCount++;
+        if (bytes.length <= slotLength) {
+            writeAt(offset, padded(bytes, slotLength));
+            return;
+        }
+        writeAt(offset, padded(new byte[0], slotLength));
+        freeSpace.add(offset, slotLength);
+        map.put(id, writeRecord(bytes));
+        map.flush();
+        requestCompactionIfNeeded();
+    }
+
+    // Удаление записи без журнала: отступ заменяется на -1, запись убирается из вторичных индексов
+    private void applyDelete(int id) throws IOException {
+        changed(id);
+        long offset = map.get(id);
+        if (!secondary.isEmpty() && offset != OffsetIndex.NO_VALUE && offset != DELETED && offset < dataLength) {
+            String previous = readLineAt(offset);
+            for (ColumnIndex index : secondary) {
+                index.remove(id, previous);
+            }
+        }
+        map.put(id, DELETED);
+    }
+
+    // ID, который индекс смещений не может хранить, отклоняется до записи операции в журнал
+    private void checkId(int id) {
+        if (!map.accepts(id)) {
+            throw new IllegalArgumentException(rejectedId(id));
+        }
+    }
+
+    private String rejectedId(int id) {
+        return "ID " + id + " нельзя сохранить в индексе " + map.getFile().getName();
+    }
+
+    // Повтор операции из журнала. Повтор идемпотентен: операция, уже дошедшая до файла и индекса, ничего не меняет
+    private void replay(WriteAheadLog.Entry entry) throws IOException {
+        if (!map.accepts(entry.id)) {
+            return; // операция, записанная до проверки ID: она не выполнилась и тогда
+        }
+        long offset = map.get(entry.id);
+        if (entry.op == WriteAheadLog.DELETE) {
+            if (offset != OffsetIndex.NO_VALUE && offset != DELETED) {
+                applyDelete(entry.id);
+            }
+            return;
+        }
+        if (offset == OffsetIndex.NO_VALUE || offset == DELETED || offset >= dataLength) {
+            applyPut(entry.id, entry.record);
+        } else if (!entry.record.equals(readLineAt(offset))) {
+            applyUpdate(entry.id, entry.record, offset);
+        }
+    }
+
+    // Контрольная точка: файл данных и индекс сбрасываются на диск, после чего журнал больше не нужен
+    private void checkpoint() throws IOException {
+        if (writeChannel != null) {
+            writeChannel.force(false);
+        }
+        map.checkpoint();
+        for (ColumnIndex index : secondary) {
+            index.save(dataLength);
+        }
+        wal.truncate();
+    }
+
+    private SecondaryIndex secondaryIndex(int column) {
+        for (ColumnIndex index : secondary) {
+            if (index instanceof SecondaryIndex && index.getColumn() == column) {
+                return (SecondaryIndex) index;
+            }
+        }
+        return null;
+    }
+
+    private static Double rangeKey(RangeIndex index, String bound) {
+        if (bound == null) {
+            return null;
+        }
+        Double key = index.keyOf(bound);
+        if (key == null) {
+            throw new IllegalArgumentException("Граница диапазона \"" + bound + "\" не является "
+                    + (index.getType() == RangeIndex.Type.DATE ? "датой (yyyy-MM-dd)." : "числом."));
+        }
+        return key;
+    }
+
+    private RangeIndex rangeIndex(int column) {
+        for (ColumnIndex index : secondary) {
+            if (index instanceof RangeIndex && index.getColumn() == column) {
+                return (RangeIndex) index;
+            }
+        }
+        return null;
+    }
+
+    // Файл вторичного индекса: имя файла индексов, номер столбца и расширение .sidx (например, id.col1.sidx)
+    private File secondaryIndexFile(int column) {
+        return new File(directory, indexBaseName + ".col" + column + ".sidx");
+    }
+
+    // Файл упорядоченного индекса: в имени есть тип ключа, чтобы индекс можно было перестроить (id.col2.number.ridx)
+    private File rangeIndexFile(int column, RangeIndex.Type type) {
+        return new File(directory, indexBaseName + ".col" + column + "." + type.name().toLowerCase() + ".ridx");
+    }
+
+    // Поиск объявленных вторичных индексов по файлам рядом с индексом смещений
+    private void findSecondaryIndexes() {
+        secondary.clear();
+        String prefix = indexBaseName + ".col";
+        String[] names = directory.list();
+        if (names == null) {
+            return;
+        }
+        Arrays.sort(names);
+        for (String name : names) {
+            if (!name.startsWith(prefix) || !name.endsWith(".sidx") && !name.endsWith(".ridx")) {
+                continue;
+            }
+            // id.col<N>.sidx или id.col<N>.<тип>.ridx
+            String[] parts = name.substring(prefix.length()).split("\\.");
+            try {
+                int column = Integer.parseInt(parts[0]);
+                if (column >= columns.length) {
+                    continue;
+                }
+                if (parts.length == 2) {
+                    secondary.add(new SecondaryIndex(column, new File(directory, name)));
+                } else if (parts.length == 3) {
+                    RangeIndex.Type type = RangeIndex.Type.valueOf(parts[1].toUpperCase());
+                    secondary.add(new RangeIndex(column, type, new File(directory, name)));
+                }
+            } catch (IllegalArgumentException e) {
+                // посторонний файл с похожим именем
+            }
+        }
+    }
+
+    // Загрузка вторичных индексов с диска, false если хотя бы один не соответствует файлу данных
+    private boolean loadSecondaryIndexes() throws IOException {
+        for (ColumnIndex index : secondary) {
+            if (!index.load(dataLength)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Перестроение всех вторичных индексов одним проходом по файлу
+    private void rebuildSecondaryIndexes() throws IOException {
+        if (secondary.isEmpty()) {
+            return;
+        }
+        for (ColumnIndex index : secondary) {
+            index.clear();
+        }
+        forEachLine(line -> {
+            if (line.offset() != 0 && isLive(line)) {
+                int id = parseId(line);
+                for (ColumnIndex index : secondary) {
+                    index.add(id, line);
+                }
+            }
+        });
+    }
+
+    // Удаление файлов вторичных индексов (в том числе оставшихся от прежней базы с тем же именем)
+    private void dropSecondaryIndexes() throws IOException {
+        secondary.clear();
+        String prefix = indexBaseName + ".col";
+        String[] names = directory.list();
+        for (String name : names == null ? new String[0] : names) {
+            File file = new File(directory, name);
+            if (name.startsWith(prefix) && (name.endsWith(".sidx") || name.endsWith(".ridx")) && !file.delete()) {
+                throw new IOException("не удалось удалить файл индекса " + file.getPath());
+            }
+        }
+    }
+
+    private void checkpointIfNeeded() throws IOException {
+        if (wal.size() >= WAL_CHECKPOINT_BYTES) {
+            checkpoint();
+        }
+    }
+
+    // Отрезание недописанной последней строки (сбой во время дописывания), иначе следующая запись склеится с ней
+    private void truncateTornTail() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(TAIL_READ_SIZE);
+        long end = dataLength;
+        while (end > 0) {
+            long start = Math.max(0, end - TAIL_READ_SIZE);
+            buffer.clear().limit((int) (end - start));
+            while (buffer.hasRemaining() && readChannel.read(buffer, start + buffer.position()) > 0) {
+                // дочитываем блок целиком
+            }
+            for (int i = buffer.position() - 1; i >= 0; i--) {
+                if (buffer.get(i) == '\n') {
+                    long length = start + i + 1;
+                    if (length < dataLength) {
+                        unmapChunks();
+                        writeChannel.truncate(length);
+                        dataLength = length;
+                    }
+                    return;
+                }
+            }
+            end = start;
+        }
+    }
+
+    // Буферизованное дописывание строк пакетной загрузки в конец файла данных.
+    // Отступы новых записей копятся отдельно и попадают в индекс одним вызовом putAll в finish
+    private final class BulkWriter {
+        private final ByteBuffer out = ByteBuffer.allocate(BULK_BUFFER_SIZE);
+        private final IntLongHashMap offsets = new IntLongHashMap(1 << 16);
+        private final byte[] separator = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+        private long flushed = dataLength; // отступ, с которого начинается содержимое буфера
+        private long position = dataLength; // отступ следующей записи
+        private int loaded;
+        private int duplicates;
+
+        // Строка bytes[start, end) без перевода строки, lineNumber - для сообщения об ошибке
+        void add(byte[] bytes, int start, int end, long lineNumber) throws IOException {
+            while (end > start && (bytes[end - 1] & 0xFF) <= ' ') {
+                end--;
+            }
+            if (end == start) {
+                return; // пустая строка
+            }
+            int id;
+            try {
+                id = parseId(bytes, start, end);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Некорректный ID в строке " + lineNumber + ": " + e.getMessage());
+            }
+            if (!map.accepts(id)) {
+                throw new IllegalArgumentException("Строка " + lineNumber + ": " + rejectedId(id));
+            }
+            if (map.containsKey(id) || offsets.containsKey(id)) {
+                duplicates++;
+                return;
+            }
+            String record = null;
+            if (schema.isTyped() || !secondary.isEmpty()) {
+                record = new String(bytes, start, end - start, StandardCharsets.UTF_8);
+                try {
+                    schema.validate(record);
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Строка " + lineNumber + ": " + e.getMessage());
+                }
+            }
+            int length = end - start + separator.length;
+            if (length > out.remaining()) {
+                drain();
+            }
+            if (length > out.capacity()) {
+                byte[] line = Arrays.copyOfRange(bytes, start, end + separator.length);
+                System.arraycopy(separator, 0, line, end - start, separator.length);
+                flushed += writeAt(flushed, line);
+            } else {
+                out.put(bytes, start, end - start).put(separator);
+            }
+            offsets.put(id, position);
+            position += length;
+            loaded++;
+            if (!secondary.isEmpty()) {
+                for (ColumnIndex index : secondary) {
+                    index.add(id, record);
+                }
+            }
+        }
+
+        // Дописывание оставшегося буфера, обновление индекса и контрольная точка
+        void finish() throws IOException {
+            drain();
+            dataLength = position;
+            if (offsets.size() > 0) {
+                map.putAll(offsets);
+                modCount++;
+                if (compactionChanges != null) {
+                    offsets.forEach((id, offset) -> compactionChanges.add(id));
+                }
+            }
+            checkpoint();
+        }
+
+        LoadResult result() {
+            return new LoadResult(loaded, duplicates);
+        }
+
+        private void drain() throws IOException {
+            if (writeChannel == null) {
+                throw new IOException("база данных не открыта");
+            }
+            out.flip();
+            while (out.hasRemaining()) {
+                writeChannel.write(out, flushed + out.position());
+            }
+            flushed += out.limit();
+            out.clear();
+        }
+    }
+
+    private void requestCompactionIfNeeded() {
+        if (needsCompaction()) {
+            compactor.request();
+        }
+    }
+
+    // Объем освобожденного при редактировании места в файле, байт
+    public long freeBytes() {
+        lock.readLock().lock();
+        try {
+            return freeSpace.freeBytes();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Запись строки в наименьший подходящий свободный слот (остаток слота возвращается в карту) или в конец файла
+    private long writeRecord(byte[] bytes) throws IOException {
+        FreeSpaceMap.Slot slot = freeSpace.take(bytes.length);
+        if (slot == null) {
+            long offset = dataLength;
+            dataLength += writeAt(offset, bytes);
+            return offset;
+        }
+        int rest = slot.length - bytes.length;
+        if (rest >= MIN_SPLIT_LENGTH) {
+            writeAt(slot.offset, bytes);
+            writeAt(slot.offset + bytes.length, padded(new byte[0], rest));
+            freeSpace.add(slot.offset + bytes.length, rest);
+        } else {
+            writeAt(slot.offset, padded(bytes, slot.length));
+        }
+        return slot.offset;
+    }
+
+    // Строка (с переводом строки в конце) дополняется пробелами перед переводом строки до длины length
+    private static byte[] padded(byte[] line, int length) {
+        byte[] separator = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+        int content = line.length == 0 ? 0 : line.length - separator.length;
+        byte[] result = new byte[length];
+        System.arraycopy(line, 0, result, 0, content);
+        Arrays.fill(result, content, length - separator.length, (byte) ' ');
+        System.arraycopy(separator, 0, result, length - separator.length, separator.length);
+        return result;
+    }
+
+    // Байты строки по отступу вместе с переводом строки
+    private byte[] readSlot(long offset) throws IOException {
+        return readSlot(readChannel(), offset);
+    }
+
+    private static byte[] readSlot(FileChannel channel, long offset) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_READ_SIZE);
+        int scanned = 0;
+        while (true) {
+            int read = channel.read(buffer, offset + buffer.position());
+            byte[] bytes = buffer.array();
+            for (int i = scanned; i < buffer.position(); i++) {
+                if (bytes[i] == '\n') {
+                    return Arrays.copyOf(bytes, i + 1);
+                }
+            }
+            scanned = buffer.position();
+            if (read <= 0) {
+                return Arrays.copyOf(bytes, scanned);
+            }
+            if (!buffer.hasRemaining()) {
+                ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+        }
+    }
+
+    // Прежние байты строки для версий, опубликованных до текущего изменения
+    private void preserveLine(long offset, byte[] line) {
+        if (versions != null) {
+            versions.preserve(offset, line, view.version + 1);
+        }
+    }
+
+    private void checkWritable() throws IOException {
+        if (options.isReadOnly()) {
+            throw new IOException("база данных открыта только для чтения");
+        }
+    }
+
+    // Чтение и изменение закрытой базы завершаются понятной ошибкой, а не обращением к закрытому каналу
+    private static void checkOpen(ReadView v) throws IOException {
+        if (v.file == null) {
+            throw new IOException("база данных не открыта");
+        }
+    }
+
+    // То же для изменений, под эксклюзивной блокировкой
+    private void checkOpen() throws IOException {
+        if (!opened) {
+            throw new IOException("база данных не открыта");
+        }
+    }
+
+    private int requireColumn(String columnName) {
+        int columnIndex = columnIndex(columnName);
+        if (columnIndex == -1) {
+            throw new IllegalArgumentException("Столбец с названием \"" + columnName + "\" не найден.");
+        }
+        return columnIndex;
+    }
+
+    // Проверка, что по отступу из индекса начинается запись, на которую индекс и указывает
+    private boolean pointsToRecord(long offset) throws IOException {
+        if (offset >= dataLength) {
+            return false;
+        }
+        try {
+            String line = readLineAt(offset);
+            return line != null && !line.isEmpty() && map.get(parseId(line)) == offset;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    // Каналы файла данных и новое поколение для версий чтения: после подмены файла оно читает уже новый файл
+    private void openChannels() throws IOException {
+        readChannel = FileChannel.open(dataFile.toPath(), StandardOpenOption.READ);
+        if (!options.isReadOnly()) {
+            writeChannel = FileChannel.open(dataFile.toPath(), StandardOpenOption.WRITE);
+        }
+        dataLength = readChannel.size();
+        versions = new DataFileVersions(dataFile);
+    }
+
+    private void closeChannels() throws IOException {
+        unmapChunks();
+        if (versions != null) {
+            versions.release(); // прежнее поколение закрывается, когда его отпустят опубликованные версии
+            versions = null;
+        }
+        if (writeChannel != null) {
+            writeChannel.close();
+            writeChannel = null;
+        }
+        if (readChannel != null) {
+            readChannel.close();
+            readChannel = null;
+        }
+    }
+
+    private FileChannel readChannel() throws IOException {
+        if (readChannel == null) {
+            throw new IOException("база данных не открыта");
+        }
+        return readChannel;
+    }
+
+    // Запись байтов по отступу, возвращает количество записанных байтов
+    // Запись поверх существующих байтов (правка на месте, затирание и занятие свободного слота) ждет сброса журнала:
+    // в режимах GROUP и ASYNC операция еще может лежать в памяти, а ОС вправе записать страницу файла раньше нее,
+    // и после сбоя оборванную строку было бы нечем восстановить. Дописывание в конец файла не ждет: оборванный
+    // хвост отрезается при открытии
+    private int writeAt(long offset, byte[] bytes) throws IOException {
+        if (writeChannel == null) {
+            throw new IOException("база данных не открыта");
+        }
+        StampedLock lock = null;
+        if (offset < dataLength) {
+            wal.sync();
+            lock = versions.lineLock(offset); // поиск по отображению не разбирает строку, пока она переписывается
+        }
+        for (Snapshot snapshot : snapshots) {
+            if (!snapshot.detached) {
+                snapshot.data.preserve(offset, bytes.length);
+            }
+        }
+        long stamp = lock == null ? 0 : lock.writeLock();
+        try {
+            writeFully(writeChannel, offset, bytes);
+        } finally {
+            if (lock != null) {
+                lock.unlockWrite(stamp);
+            }
+        }
+        return bytes.length;
+    }
+
+    // Файлы переписываются не по месту среза: открытые снимки больше нельзя читать
+    private void invalidateSnapshots(String reason) {
+        for (Snapshot snapshot : snapshots) {
+            snapshot.data.invalidate(reason);
+            snapshot.index.invalidate(reason);
+        }
+        snapshots.clear();
+    }
+
+    // Копирование снимка в файл target участками по PROGRESS_STEP с отчетом о ходе, возвращает done с учетом снимка
+    private static long transfer(FileSnapshot snapshot, File target, long done, long total, Progress progress) throws IOException {
+        try (FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (long position = 0; position < snapshot.length(); position += PROGRESS_STEP) {
+                long count = Math.min(PROGRESS_STEP, snapshot.length() - position);
+                snapshot.transferTo(position, count, out);
+                done += count;
+                report(progress, done, total);
+            }
+        }
+        return done;
+    }
+
+    private String readLineAt(long offset) throws IOException {
+        return readRecord(readChannel(), offset);
+    }
+
+    // Снятие эксклюзивной блокировки: перед этим читателям публикуется состояние, оставленное писателем
+    private void unlockWrite() {
+        if (lock.getWriteHoldCount() == 1) {
+            publish();
+        }
+        lock.writeLock().unlock();
+    }
+
+    // Публикация новой версии для читателей, если база изменилась. Замененная версия освобождается сразу,
+    // если ее никто не читает, иначе последним читателем; прежние байты строк живут, пока нужны самой старой версии
+    private void publish() {
+        ReadView previous = view;
+        if (previous.modCount == modCount) {
+            return;
+        }
+        if (versions != null) {
+            versions.retain();
+        }
+        ReadView next = new ReadView(previous.version + 1, modCount, versions, dataLength, opened ? map.version() : null,
+                columns, schema, opened ? map.size() - map.deletedCount() : 0);
+        views.add(next);
+        view = next;
+        previous.retired = true;
+        if (previous.pins.get() == 0) {
+            previous.free();
+        }
+        while (views.peek() != next && views.peek().freed.get()) {
+            views.poll();
+        }
+        if (versions != null) {
+            versions.prune(views.peek().version);
+        }
+    }
+
+    // Закрепление текущей версии для чтения. Если у индекса нет версий, берется блокировка чтения,
+    // под которой опубликованная версия совпадает с состоянием базы
+    private ReadView acquire() {
+        while (true) {
+            ReadView current = view;
+            if (current.index == null) {
+                lock.readLock().lock();
+                if (view.index == null) {
+                    return view;
+                }
+                lock.readLock().unlock();
+                continue;
+            }
+            current.pins.incrementAndGet();
+            if (!current.retired) {
+                return current;
+            }
+            release(current); // версию заменили между чтением и закреплением
+        }
+    }
+
+    private void release(ReadView v) {
+        if (v.index == null) {
+            lock.readLock().unlock();
+        } else if (v.pins.decrementAndGet() == 0 && v.retired) {
+            v.free();
+        }
+    }
+
+    // Отступ записи в версии v; без версии индекса (или без v) - по текущему индексу под блокировкой
+    private long offsetOf(ReadView v, int id) {
+        return v != null && v.index != null ? v.index.get(id) : map.get(id);
+    }
+
+    // Запись по отступу в версии v: сначала строка из файла, затем прежние байты, если ее переписали после v
+    private static String readLine(ReadView v, long offset) throws IOException {
+        String line = readRecord(v.channel(), offset);
+        byte[] previous = v.file.lineAt(offset, v.version);
+        if (previous == null) {
+            return line;
+        }
+        int end = 0;
+        while (end < previous.length && previous[end] != '\n') {
+            end++;
+        }
+        return decode(previous, end);
+    }
+
+    // Запись id по отступу в версии v через кэш записей: промах читает строку из файла и кладет ее в кэш
+    private String readCached(ReadView v, int id, long offset) throws IOException {
+        if (cache == null) {
+            return readLine(v, offset);
+        }
+        String record = cache.get(id, offset, v.version);
+        if (record == null) {
+            record = readLine(v, offset);
+            if (record != null) {
+                cache.put(id, offset, record, v.version);
+            }
+        }
+        return record;
+    }
+
+    // Запись id меняется под эксклюзивной блокировкой: она станет видна в следующей опубликованной версии.
+    // Идущее сжатие перенесет ее в копию заново
+    private void changed(int id) {
+        if (cache != null) {
+            cache.invalidate(id, view.version + 1);
+        }
+        if (compactionChanges != null) {
+            compactionChanges.add(id);
+        }
+    }
+
+    private void clearCache() {
+        if (cache != null) {
+            cache.clear(view.version + 1);
+        }
+    }
+
+    // Чтение записи по отступу одним позиционным чтением: буфера RECORD_READ_SIZE хватает для типичной строки,
+    // для более длинных буфер увеличивается. Байты строки декодируются как UTF-8 целиком
+    public static String readRecord(FileChannel channel, long offset) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_READ_SIZE);
+        int scanned = 0;
+        while (true) {
+            int read = channel.read(buffer, offset + buffer.position());
+            int limit = buffer.position();
+            byte[] bytes = buffer.array();
+            for (int i = scanned; i < limit; i++) {
+                if (bytes[i] == '\n') {
+                    return decode(bytes, i);
+                }
+            }
+            scanned = limit;
+            if (read <= 0) {
+                return limit == 0 ? null : decode(bytes, limit); // последняя строка файла без перевода строки
+            }
+            if (!buffer.hasRemaining()) {
+                ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+        }
+    }
+
+    // Декодирование строки без перевода строки и пробелов, которыми дополнена запись на месте более длинной
+    private static String decode(byte[] bytes, int end) {
+        while (end > 0 && (bytes[end - 1] == '\r' || bytes[end - 1] == ' ')) {
+            end--;
+        }
+        return new String(bytes, 0, end, StandardCharsets.UTF_8);
+    }
+
+    // Результат проверки живой строки: значение для списка результатов или null, если строка не подходит
+    private interface LineMapper<T> {
+        T map(CsvTokenizer line) throws IOException;
+    }
+
+    // Проход по живым записям версии v, записи идут в порядке расположения в файле
+    private <T> List<T> collectLive(ReadView v, LineMapper<T> mapper) throws IOException {
+        List<T> results = new ArrayList<>();
+        streamLive(v, mapper, results::addAll, null);
+        return results;
+    }
+
+    // Диапазоны файла проверяются на scanPool, результаты диапазонов отдаются consumer по порядку.
+    // С progress файл делится на диапазоны и в одном потоке, чтобы ход и отмена были видны во время прохода
+    private <T> void streamLive(ReadView v, LineMapper<T> mapper, Consumer<List<T>> consumer, Progress progress) throws IOException {
+        long[] bounds = splitBounds(v, progress != null);
+        long length = bounds[bounds.length - 1];
+        AtomicBoolean cancelled = new AtomicBoolean();
+        if (bounds.length == 2 || options.getScanParallelism() <= 1) {
+            for (int i = 0; i + 1 < bounds.length; i++) {
+                consumer.accept(collectLive(v, bounds[i], bounds[i + 1], mapper, cancelled));
+                report(progress, bounds[i + 1], length);
+            }
+            return;
+        }
+        List<Future<List<T>>> futures = new ArrayList<>(bounds.length - 1);
+        for (int i = 0; i + 1 < bounds.length; i++) {
+            long start = bounds[i];
+            long end = bounds[i + 1];
+            futures.add(scanPool().submit(() -> collectLive(v, start, end, mapper, cancelled)));
+        }
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                consumer.accept(futures.get(i).get());
+                report(progress, bounds[i + 1], length);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("поиск прерван");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            // При ошибке или отмене оставшиеся диапазоны не проверяются; ждем их, чтобы не читать отпущенную версию
+            cancelled.set(true);
+            for (Future<List<T>> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException | CancellationException ignored) {
+                }
+            }
+        }
+    }
+
+    // Живые записи из строк, начинающихся в диапазоне [start, end) файла данных
+    private <T> List<T> collectLive(ReadView v, long start, long end, LineMapper<T> mapper, AtomicBoolean cancelled) throws IOException {
+        List<T> results = new ArrayList<>();
+        forEachLine(v, start, end, line -> {
+            if (cancelled.get()) {
+                throw new CancellationException("поиск отменен");
+            }
+            if (line.offset() == 0 || line.isEmpty()) {
+                return;
+            }
+            // Сначала условие, потом проверка по индексу: поиск в индексе дороже, а подходит обычно мало строк
+            T result;
+            try {
+                result = mapper.map(line);
+            } catch (RuntimeException e) {
+                if (isLive(v, line)) {
+                    throw e;
+                }
+                return; // мертвая строка (например, оборванная при сбое), которую условие не смогло разобрать
+            }
+            if (result != null && isLive(v, line)) {
+                results.add(result);
+            }
+        });
+        return results;
+    }
+
+    // Обход с отчетом о ходе по отступу строки, не чаще, чем раз в PROGRESS_STEP байт
+    private static CsvTokenizer.LineVisitor tracked(CsvTokenizer.LineVisitor visitor, Progress progress, long total) {
+        if (progress == null) {
+            return visitor;
+        }
+        long[] next = {0};
+        return line -> {
+            if (line.offset() >= next[0]) {
+                report(progress, line.offset(), total);
+                next[0] = line.offset() + PROGRESS_STEP;
+            }
+            visitor.visit(line);
+        };
+    }
+
+    private static void report(Progress progress, long done, long total) {
+        if (progress != null && !progress.update(done, total)) {
+            throw new CancellationException("операция отменена");
+        }
+    }
+
+    // Обход строк диапазона [start, end) файла данных версии v (границы - начала строк): по отображенным в память
+    // участкам, если включен mappedScan, иначе позиционными чтениями канала через буфер разбора.
+    // Строка, переписанная на месте после версии, подменяется прежними байтами
+    private void forEachLine(ReadView v, long start, long end, CsvTokenizer.LineVisitor target) throws IOException {
+        CsvTokenizer.LineVisitor visitor = line -> {
+            byte[] previous = v.file.lineAt(line.offset(), v.version);
+            if (previous == null) {
+                target.visit(line);
+                return;
+            }
+            CsvTokenizer old = new CsvTokenizer(ByteBuffer.wrap(previous), line.offset());
+            old.next();
+            target.visit(old);
+        };
+        if (!options.isMappedScan()) {
+            CsvTokenizer line = new CsvTokenizer(new ChannelRangeInputStream(v.channel(), start, end), start);
+            while (line.next()) {
+                visitor.visit(line);
+            }
+            return;
+        }
+        for (MappedChunk chunk : mappedChunks(v)) {
+            long from = Math.max(start, chunk.start);
+            long to = Math.min(end, chunk.end);
+            if (from >= to) {
+                continue;
+            }
+            ByteBuffer bytes = chunk.buffer.duplicate(); // своя позиция для каждого потока
+            bytes.limit((int) (to - chunk.start)).position((int) (from - chunk.start));
+            // Строка разбирается прямо на страницах отображения под блокировкой строки на чтение: писатель
+            // не перепишет ее посреди разбора, а переписанную раньше проверка прежних байтов подменит
+            CsvTokenizer line = new CsvTokenizer(bytes, from);
+            while (line.next()) {
+                StampedLock lock = v.file.lineLock(line.offset());
+                long stamp = lock.readLock();
+                try {
+                    visitor.visit(line);
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+        }
+    }
+
+    // Участок файла данных [start, end), отображенный в память; границы участков - начала строк
+    private static final class MappedChunk {
+        final long start;
+        final long end;
+        final MappedByteBuffer buffer;
+
+        MappedChunk(long start, long end, MappedByteBuffer buffer) {
+            this.start = start;
+            this.end = end;
+            this.buffer = buffer;
+        }
+    }
+
+    // Отображение файла данных версии v до ее длины. Участки переиспользуются между поисками (изменения на месте
+    // видны через отображение сразу), после дописывания в конец заново отображается только последний участок.
+    // Участки за длиной более старой версии ей не мешают: проход ограничен длиной версии
+    private synchronized MappedChunk[] mappedChunks(ReadView v) throws IOException {
+        if (mappedFile != v.file) {
+            mappedChunks = new MappedChunk[0];
+            mappedFile = v.file;
+        }
+        long length = v.dataLength;
+        int count = mappedChunks.length;
+        if (count > 0 && mappedChunks[count - 1].end >= length || count == 0 && length == 0) {
+            return mappedChunks;
+        }
+        List<MappedChunk> chunks = new ArrayList<>(Arrays.asList(mappedChunks));
+        if (count > 0) {
+            chunks.remove(count - 1);
+        }
+        long start = chunks.isEmpty() ? 0 : chunks.get(chunks.size() - 1).end;
+        while (start < length) {
+            long end = length - start <= MAPPED_CHUNK_SIZE ? length : nextLineStart(v, start + MAPPED_CHUNK_SIZE);
+            if (end - start > Integer.MAX_VALUE) {
+                throw new IOException("строка файла данных длиннее 1 ГБ, отступ " + start);
+            }
+            chunks.add(new MappedChunk(start, end, v.channel().map(FileChannel.MapMode.READ_ONLY, start, end - start)));
+            start = end;
+        }
+        mappedChunks = chunks.toArray(new MappedChunk[0]);
+        return mappedChunks;
+    }
+
+    // Отображение сбрасывается, когда файл данных подменяется или укорачивается
+    private synchronized void unmapChunks() {
+        mappedChunks = new MappedChunk[0];
+        mappedFile = null;
+    }
+
+    // Границы диапазонов параллельного прохода: 0, начала строк внутри файла, длина файла.
+    // Маленький файл или scanParallelism = 1 без отчета о ходе - один диапазон
+    private long[] splitBounds(ReadView v, boolean tracked) throws IOException {
+        long length = v.dataLength;
+        int parallelism = options.getScanParallelism();
+        long splits = (long) parallelism * SCAN_SPLITS_PER_THREAD;
+        long parts = Math.min(tracked ? Math.max(splits, PROGRESS_SPLITS) : splits, length / MIN_SCAN_SPLIT);
+        if (parallelism <= 1 && !tracked || parts <= 1) {
+            return new long[]{0, length};
+        }
+        long[] bounds = new long[(int) parts + 1];
+        int count = 1;
+        for (int i = 1; i < parts; i++) {
+            long start = nextLineStart(v, length * i / parts);
+            if (start > bounds[count - 1] && start < length) {
+                bounds[count++] = start;
+            }
+        }
+        bounds[count++] = length;
+        return Arrays.copyOf(bounds, count);
+    }
+
+    // Отступ первой строки версии v, которая начинается не раньше position. Граница внутри строки, переписанной
+    // после версии, безопасна: строка целиком подменяется прежними байтами там, где начинается
+    private static long nextLineStart(ReadView v, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(TAIL_READ_SIZE);
+        long dataLength = v.dataLength;
+        long from = position - 1; // перевод строки прямо перед position означает, что строка начинается в position
+        while (from < dataLength) {
+            buffer.clear();
+            int read = v.channel().read(buffer, from);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return from + i + 1;
+                }
+            }
+            from += read;
+        }
+        return dataLength;
+    }
+
+    private synchronized ForkJoinPool scanPool() {
+        if (scanPool == null) {
+            scanPool = new ForkJoinPool(options.getScanParallelism(), pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("filedb-scan-" + thread.getPoolIndex());
+                thread.setDaemon(true);
+                return thread;
+            }, null, false);
+        }
+        return scanPool;
+    }
+
+    private synchronized void shutdownScanPool() {
+        if (scanPool != null) {
+            scanPool.shutdown();
+            scanPool = null;
+        }
+    }
+
+    // Поток байтов диапазона [position, end) файла позиционными чтениями канала: каналом чтения базы
+    // одновременно пользуются несколько потоков, поэтому его общая позиция не трогается
+    private static final class ChannelRangeInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+
+        ChannelRangeInputStream(FileChannel channel, long position, long end) {
+            this.channel = channel;
+            this.position = position;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            int read = channel.read(ByteBuffer.wrap(bytes, offset, (int) Math.min(length, end - position)), position);
+            if (read <= 0) {
+                return -1;
+            }
+            position += read;
+            return read;
+        }
+    }
+
+    // Строка живая, если индекс указывает на ее отступ (под блокировкой вызывающего)
+    private boolean isLive(CsvTokenizer line) {
+        return isLive(null, line);
+    }
+
+    // Строка живая в версии v, если индекс версии указывает на ее отступ
+    private boolean isLive(ReadView v, CsvTokenizer line) {
+        if (line.isEmpty()) {
+            return false;
+        }
+        try {
+            return offsetOf(v, parseId(line)) == line.offset();
+        } catch (NumberFormatException e) {
+            return false; // остаток оборванной при сбое записи
+        }
+    }
+
+    private static int parseId(CsvTokenizer line) {
+        return line.parseInt(0);
+    }
+
+    private void forEachLine(CsvTokenizer.LineVisitor visitor) throws IOException {
+        forEachLine(0, visitor);
+    }
+
+    // Построчный обход файла, начиная с отступа from (начало строки): строки разбираются в одном буфере
+    // CsvTokenizer, String для строки создается только если он нужен посетителю
+    private void forEachLine(long from, CsvTokenizer.LineVisitor visitor) throws IOException {
+        try (FileInputStream fileIn = new FileInputStream(dataFile)) {
+            fileIn.getChannel().position(from);
+            CsvTokenizer line = new CsvTokenizer(fileIn, from);
+            while (line.next()) {
+                visitor.visit(line);
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+// Настройки движка хранения
+public class StorageOptions {
+    private boolean mappedIndex;
+    private boolean readOnly;
+    private double compactionThreshold = 0.5;
+    private int compactionMinDeadRecords = 1000;
+    private Durability durability = Durability.GROUP;
+    private int groupCommitMillis;
+    private int groupCommitRecords = 256;
+    private int scanParallelism = Runtime.getRuntime().availableProcessors();
+    private boolean mappedScan;
+    private int recordCacheSize = 10_000;
+
+    // Индекс смещений в файле, отображенном в память, вместо журнала id.csv и таблицы в куче
+    public StorageOptions mappedIndex(boolean mappedIndex) {
+        this.mappedIndex = mappedIndex;
+        return this;
+    }
+
+    // Открытие базы только для чтения (например, несколькими процессами над одним файлом индекса)
+    public StorageOptions readOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+        return this;
+    }
+
+    // Доля мертвых строк (удаленные записи и освобожденные при редактировании слоты), после которой
+    // база сжимается в фоне; 0 отключает фоновое сжатие
+    public StorageOptions compactionThreshold(double compactionThreshold) {
+        this.compactionThreshold = compactionThreshold;
+        return this;
+    }
+
+    // Минимальное количество мертвых строк для фонового сжатия, чтобы не переписывать маленькие базы
+    public StorageOptions compactionMinDeadRecords(int compactionMinDeadRecords) {
+        this.compactionMinDeadRecords = compactionMinDeadRecords;
+        return this;
+    }
+
+    // Когда операция изменения считается сохраненной: после своего fsync журнала (SYNC), после fsync своей группы
+    // (GROUP, по умолчанию) или сразу, со сбросом журнала в фоне (ASYNC)
+    public StorageOptions durability(Durability durability) {
+        this.durability = durability;
+        return this;
+    }
+
+    // Сколько миллисекунд копить группу операций перед fsync журнала; 0 - сбрасывать, как только закончился
+    // предыдущий fsync (группа складывается из операций, пришедших за это время)
+    public StorageOptions groupCommitMillis(int groupCommitMillis) {
+        this.groupCommitMillis = groupCommitMillis;
+        return this;
+    }
+
+    // Группа сбрасывается раньше groupCommitMillis, если в ней набралось столько операций
+    public StorageOptions groupCommitRecords(int groupCommitRecords) {
+        this.groupCommitRecords = groupCommitRecords;
+        return this;
+    }
+
+    // Сколько потоков проверяют диапазоны файла при поиске без индекса; 1 - последовательный проход
+    public StorageOptions scanParallelism(int scanParallelism) {
+        this.scanParallelism = scanParallelism;
+        return this;
+    }
+
+    // Поиск без индекса по файлу данных, отображенному в память: условие проверяется прямо на байтах страниц
+    // файла без копирования в буфер, повторные поиски читают страницы из кэша ОС без системных вызовов
+    public StorageOptions mappedScan(boolean mappedScan) {
+        this.mappedScan = mappedScan;
+        return this;
+    }
+
+    // Сколько прочитанных записей держать в кэше перед чтением по ID (см. RecordCache); 0 отключает кэш.
+    // Для базы только для чтения с индексом, отображенным в память, кэш не используется: файл могут менять другие процессы
+    public StorageOptions recordCacheSize(int recordCacheSize) {
+        this.recordCacheSize = recordCacheSize;
+        return this;
+    }
+
+    public boolean isMappedIndex() {
+        return mappedIndex;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    public double getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
+    public int getCompactionMinDeadRecords() {
+        return compactionMinDeadRecords;
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    public int getGroupCommitMillis() {
+        return groupCommitMillis;
+    }
+
+    public int getGroupCommitRecords() {
+        return groupCommitRecords;
+    }
+
+    public int getScanParallelism() {
+        return scanParallelism;
+    }
+
+    public boolean isMappedScan() {
+        return mappedScan;
+    }
+
+    public int getRecordCacheSize() {
+        return recordCacheSize;
+    }
+}
@@ -0,0 +1,191 @@
+import java.io.IOException;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Потокобезопасный словарь int -> long: чтение без блокировок, запись с блокировкой одной полосы (lock striping).
+// Ключи разложены по полосам по старшим битам перемешанного ключа. Полоса - PersistentIntLongMap под своей
+// блокировкой и опубликованная (volatile) неизменяемая версия этого словаря: put меняет словарь полосы
+// и публикует новую версию, get читает опубликованную версию и ничего не ждет. Писатели разных полос
+// не мешают друг другу, читатели не мешают никому.
+// Пакетное изменение (putAll) блокирует все полосы и публикует их по одному разу в конце.
+// version() собирает версии всех полос; согласованной между полосами она будет, если писатели не работают
+// одновременно с ней (у движка version вызывается под эксклюзивной блокировкой).
+// Значение NO_VALUE хранить нельзя: get возвращает его для отсутствующего ключа.
+public class StripedIntLongMap {
+    public static final long NO_VALUE = IntLongHashMap.NO_VALUE;
+    private static final int DEFAULT_STRIPES = 64;
+
+    private final Stripe[] stripes;
+    private final int shift; // сдвиг хэша до номера полосы
+
+    // Источник пар для пакетного изменения, например IntLongHashMap::forEach
+    public interface Source {
+        void forEach(IntLongHashMap.EntryVisitor visitor) throws IOException;
+    }
+
+    private static final class Stripe {
+        final ReentrantLock lock = new ReentrantLock();
+        final PersistentIntLongMap map = new PersistentIntLongMap(); // меняется под lock
+        volatile PersistentIntLongMap.Version published;
+
+        Stripe() {
+            published = map.freeze();
+        }
+
+        void publish() {
+            published = map.freeze();
+        }
+    }
+
+    // Неизменяемая версия словаря: версии полос на момент вызова version()
+    public static final class Version {
+        private final PersistentIntLongMap.Version[] stripes;
+        private final int shift;
+        private final int size;
+
+        private Version(PersistentIntLongMap.Version[] stripes, int shift) {
+            this.stripes = stripes;
+            this.shift = shift;
+            int total = 0;
+            for (PersistentIntLongMap.Version stripe : stripes) {
+                total += stripe.size();
+            }
+            this.size = total;
+        }
+
+        public long get(int key) {
+            return stripes[stripeOf(key, shift)].get(key);
+        }
+
+        public boolean containsKey(int key) {
+            return get(key) != NO_VALUE;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public void forEach(IntLongHashMap.EntryVisitor visitor) throws IOException {
+            for (PersistentIntLongMap.Version stripe : stripes) {
+                stripe.forEach(visitor);
+            }
+        }
+    }
+
+    public StripedIntLongMap() {
+        this(DEFAULT_STRIPES);
+    }
+
+    // stripes округляется вверх до степени двойки
+    public StripedIntLongMap(int stripes) {
+        int count = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.shift = 32 - Integer.numberOfTrailingZeros(count);
+    }
+
+    public long get(int key) {
+        return stripe(key).published.get(key);
+    }
+
+    public boolean containsKey(int key) {
+        return get(key) != NO_VALUE;
+    }
+
+    // Количество ключей; пока писатели работают, сумма по полосам может не совпасть ни с одним моментом
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.published.size();
+        }
+        return size;
+    }
+
+    // Возвращает предыдущее значение или NO_VALUE
+    public long put(int key, long value) {
+        Stripe stripe = stripe(key);
+        stripe.lock.lock();
+        try {
+            long previous = stripe.map.put(key, value);
+            if (previous != value) {
+                stripe.publish();
+            }
+            return previous;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    // Пакетное изменение: пары source пишутся без публикации после каждой, полосы публикуются один раз в конце
+    public void putAll(Source source) throws IOException {
+        lockAll();
+        try {
+            source.forEach((key, value) -> stripe(key).map.put(key, value));
+        } finally {
+            for (Stripe stripe : stripes) {
+                stripe.publish();
+            }
+            unlockAll();
+        }
+    }
+
+    public void clear() {
+        lockAll();
+        try {
+            for (Stripe stripe : stripes) {
+                stripe.map.clear();
+                stripe.publish();
+            }
+        } finally {
+            unlockAll();
+        }
+    }
+
+    public Version version() {
+        PersistentIntLongMap.Version[] versions = new PersistentIntLongMap.Version[stripes.length];
+        for (int i = 0; i < stripes.length; i++) {
+            versions[i] = stripes[i].published;
+        }
+        return new Version(versions, shift);
+    }
+
+    public void forEach(IntLongHashMap.EntryVisitor visitor) throws IOException {
+        version().forEach(visitor);
+    }
+
+    // Количество ключей с заданным значением (например, удаленных записей с отступом -1)
+    public int countValue(long value) {
+        int count = 0;
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                count += stripe.map.countValue(value);
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return count;
+    }
+
+    private Stripe stripe(int key) {
+        return stripes[stripeOf(key, shift)];
+    }
+
+    // Старшие биты перемешанного ключа: внутри полосы PersistentIntLongMap раскладывает ключи по младшим
+    private static int stripeOf(int key, int shift) {
+        return shift == 32 ? 0 : (key * 0x9E3779B9) >>> shift;
+    }
+
+    private void lockAll() {
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+        }
+    }
+
+    private void unlockAll() {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            stripes[i].lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,300 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// Журнал упреждающей записи: каждая операция изменения сначала попадает сюда, и только потом в файл базы данных
+// и индекс. После сбоя операции из журнала повторяются (StorageEngine.open), поэтому файл и индекс согласованы.
+// Журнал очищается контрольной точкой, когда файл базы данных и индекс сброшены на диск.
+// Формат записи: длина (int), CRC32 (int), операция (byte), ID (int), запись в UTF-8. Оборванная или
+// испорченная запись в конце журнала (сбой во время записи) при чтении отбрасывается вместе со всем, что за ней.
+public class WriteAheadLog implements Closeable {
+    public static final byte PUT = 1;
+    public static final byte UPDATE = 2;
+    public static final byte DELETE = 3;
+
+    private static final int ENTRY_HEADER = 4 + 4 + 1 + 4;
+
+    // Операция из журнала
+    public static final class Entry {
+        public final byte op;
+        public final int id;
+        public final String record;
+
+        Entry(byte op, int id, String record) {
+            this.op = op;
+            this.id = id;
+            this.record = record;
+        }
+    }
+
+    private final File file;
+    private final Durability durability;
+    private final int groupCommitMillis;
+    private final int groupCommitRecords;
+    private final Object ioLock = new Object(); // запись в канал и fsync
+    private FileChannel channel;
+    private Thread flusher;
+    private boolean closing;
+
+    // Под монитором this: накопленные, но еще не записанные операции
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream(1 << 16);
+    private int pendingRecords;
+    private long appendedSequence; // номер последней добавленной операции
+    private long durableSequence; // номер последней операции, сброшенной на диск
+    private IOException flushError;
+
+    public WriteAheadLog(File file, Durability durability, int groupCommitMillis, int groupCommitRecords) {
+        this.file = file;
+        this.durability = durability;
+        this.groupCommitMillis = groupCommitMillis;
+        this.groupCommitRecords = Math.max(1, groupCommitRecords);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public void open() throws IOException {
+        synchronized (ioLock) {
+            if (channel != null) {
+                return;
+            }
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.position(channel.size());
+        }
+        synchronized (this) {
+            closing = false;
+            flushError = null;
+            if (durability != Durability.SYNC) {
+                flusher = new Thread(this::flushLoop, "filedb-wal-flusher");
+                flusher.setDaemon(true);
+                flusher.start();
+            }
+        }
+    }
+
+    // Чтение всех целых операций журнала по порядку
+    public List<Entry> readAll() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        if (!file.exists()) {
+            return entries;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            while (true) {
+                int length;
+                int crc;
+                byte[] body;
+                try {
+                    length = in.readInt();
+                    crc = in.readInt();
+                    if (length < ENTRY_HEADER || length > 64 << 20) {
+                        break;
+                    }
+                    body = new byte[length - 8];
+                    in.readFully(body);
+                } catch (EOFException e) {
+                    break; // оборванная последняя запись
+                }
+                CRC32 checksum = new CRC32();
+                checksum.update(body, 0, body.length);
+                if ((int) checksum.getValue() != crc) {
+                    break;
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(body);
+                byte op = buffer.get();
+                int id = buffer.getInt();
+                String record = new String(body, 5, body.length - 5, StandardCharsets.UTF_8);
+                entries.add(new Entry(op, id, record));
+            }
+        }
+        return entries;
+    }
+
+    // Добавление операции в журнал, возвращает ее номер для awaitDurable
+    public long append(byte op, int id, String record) throws IOException {
+        byte[] recordBytes = record == null ? new byte[0] : record.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer body = ByteBuffer.allocate(5 + recordBytes.length);
+        body.put(op).putInt(id).put(recordBytes);
+        CRC32 checksum = new CRC32();
+        checksum.update(body.array(), 0, body.capacity());
+        ByteBuffer entry = ByteBuffer.allocate(8 + body.capacity());
+        entry.putInt(entry.capacity()).putInt((int) checksum.getValue()).put(body.array());
+
+        if (durability == Durability.SYNC) {
+            synchronized (ioLock) {
+                entry.flip();
+                writeFully(entry);
+                channel.force(false);
+            }
+            synchronized (this) {
+                return durableSequence = ++appendedSequence;
+            }
+        }
+        synchronized (this) {
+            if (flushError != null) {
+                throw flushError;
+            }
+            pending.write(entry.array(), 0, entry.capacity());
+            pendingRecords++;
+            notifyAll();
+            return ++appendedSequence;
+        }
+    }
+
+    // Ожидание, пока операция с номером sequence не будет сброшена на диск (в режиме ASYNC не ждет)
+    public void awaitDurable(long sequence) throws IOException {
+        if (durability != Durability.GROUP) {
+            return;
+        }
+        synchronized (this) {
+            while (durableSequence < sequence && flushError == null && !closing) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("ожидание записи журнала прервано");
+                }
+            }
+            if (flushError != null) {
+                throw flushError;
+            }
+        }
+    }
+
+    // Размер журнала на диске
+    public long size() throws IOException {
+        synchronized (ioLock) {
+            return channel == null ? 0 : channel.size();
+        }
+    }
+
+    // Запись накопленных операций и fsync. После возврата на диске все операции, добавленные до вызова:
+    // группу, которую уже забрал поток сброса, flushPending дожидается на ioLock
+    public void sync() throws IOException {
+        flushPending();
+        synchronized (this) {
+            if (flushError != null) {
+                throw flushError;
+            }
+        }
+    }
+
+    // Очистка журнала после контрольной точки: все операции уже отражены в сброшенных на диск файлах
+    public void truncate() throws IOException {
+        synchronized (this) {
+            pending.reset();
+            pendingRecords = 0;
+        }
+        synchronized (ioLock) {
+            if (channel != null) {
+                channel.truncate(0);
+                channel.position(0);
+                channel.force(true);
+            }
+        }
+        synchronized (this) {
+            durableSequence = appendedSequence;
+            notifyAll();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        Thread thread;
+        synchronized (this) {
+            closing = true;
+            notifyAll();
+            thread = flusher;
+            flusher = null;
+        }
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (ioLock) {
+            if (channel != null) {
+                flushPending();
+                channel.close();
+                channel = null;
+            }
+        }
+    }
+
+    // Поток группового сброса: ждет операций, при необходимости немного копит группу и сбрасывает ее одним fsync
+    private void flushLoop() {
+        while (true) {
+            synchronized (this) {
+                while (pendingRecords == 0 && !closing) {
+                    waitQuietly(durability == Durability.ASYNC && groupCommitMillis > 0 ? groupCommitMillis : 0);
+                }
+                if (pendingRecords == 0 && closing) {
+                    return;
+                }
+                if (groupCommitMillis > 0 && !closing) {
+                    long deadline = System.currentTimeMillis() + groupCommitMillis;
+                    long left;
+                    while (pendingRecords < groupCommitRecords && !closing && (left = deadline - System.currentTimeMillis()) > 0) {
+                        waitQuietly(left);
+                    }
+                }
+            }
+            try {
+                flushPending();
+            } catch (IOException e) {
+                synchronized (this) {
+                    flushError = e;
+                    notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    private void flushPending() throws IOException {
+        synchronized (ioLock) {
+            byte[] batch;
+            long sequence;
+            synchronized (this) {
+                if (pendingRecords == 0) {
+                    return;
+                }
+                batch = pending.toByteArray();
+                pending.reset();
+                pendingRecords = 0;
+                sequence = appendedSequence;
+            }
+            writeFully(ByteBuffer.wrap(batch));
+            channel.force(false);
+            synchronized (this) {
+                durableSequence = Math.max(durableSequence, sequence);
+                notifyAll();
+            }
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        if (channel == null) {
+            throw new IOException("журнал не открыт: " + file.getPath());
+        }
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void waitQuietly(long millis) {
+        try {
+            wait(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            closing = true;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * File size and scan cost of the product table as CSV text against RowCodec binary rows:
+ * sums the Price column by splitting and parsing every line versus reading the fixed-width field.
+ * Run with: java -cp target/classes:target/test-classes BinaryRowBenchmark [records]
+ */
+public class BinaryRowBenchmark
+{
+    private static final String HEADER = "Id:int,ProductName:string,Price:decimal,Quantity:int,ExpirationDate:date,IsAvailable:boolean";
+
+    public static void main( String[] args ) throws IOException
+    {
+        int records = args.length > 0 ? Integer.parseInt( args[0] ) : 2_000_000;
+        File csv = File.createTempFile( "filedb-rows", ".csv" );
+        File binary = File.createTempFile( "filedb-rows", ".rows" );
+        try
+        {
+            Schema schema = Schema.parse( HEADER );
+            try ( BufferedWriter writer = Files.newBufferedWriter( csv.toPath(), StandardCharsets.UTF_8 );
+                  RowFile.Writer rows = new RowFile.Writer( binary, schema ) )
+            {
+                writer.write( HEADER );
+                writer.newLine();
+                for ( int id = 1; id <= records; id++ )
+                {
+                    String record = id + ",Product " + id + "," + ( id % 1000 ) + "." + ( 10 + id % 90 ) + ","
+                            + ( id % 50 ) + ",2024-0" + ( 1 + id % 9 ) + "-1" + ( id % 10 ) + "," + ( id % 3 != 0 );
+                    writer.write( record );
+                    writer.newLine();
+                    rows.accept( record );
+                }
+            }
+            System.out.printf( "CSV size:     %,d bytes%n", csv.length() );
+            System.out.printf( "binary size:  %,d bytes%n", binary.length() );
+
+            for ( int round = 0; round < 3; round++ )
+            {
+                long start = System.nanoTime();
+                BigDecimal csvSum = BigDecimal.ZERO;
+                try ( BufferedReader reader = Files.newBufferedReader( csv.toPath(), StandardCharsets.UTF_8 ) )
+                {
+                    reader.readLine();
+                    String line;
+                    while ( ( line = reader.readLine() ) != null )
+                    {
+                        csvSum = csvSum.add( new BigDecimal( line.split( "," )[2] ) );
+                    }
+                }
+                long csvNanos = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                RowCodec codec = new RowCodec( schema );
+                long[] cents = { 0 };
+                RowFile.read( binary, ( row, length ) -> cents[0] += codec.getUnscaled( row, 0, 2 ) );
+                long binaryNanos = System.nanoTime() - start;
+
+                System.out.printf( "round %d: CSV split+parse %.0f ms (sum %s), binary fixed-width %.0f ms (sum %s)%n", round,
+                        csvNanos / 1e6, csvSum, binaryNanos / 1e6, BigDecimal.valueOf( cents[0], 2 ) );
+            }
+        }
+        finally
+        {
+            csv.delete();
+            binary.delete();
+        }
+    }
+}
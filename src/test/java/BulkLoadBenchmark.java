@@ -0,0 +1,63 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Throughput of StorageEngine.bulkLoad on a generated product catalogue against one put per record.
+ * Run with: java -cp target/classes:target/test-classes BulkLoadBenchmark [records]
+ */
+public class BulkLoadBenchmark
+{
+    public static void main( String[] args ) throws IOException
+    {
+        int records = args.length > 0 ? Integer.parseInt( args[0] ) : 2_000_000;
+        File dir = Files.createTempDirectory( "filedb-bulk" ).toFile();
+        String header = "Id,ProductName,Price,Quantity,ExpirationDate,IsAvailable";
+        try
+        {
+            File source = new File( dir, "catalogue.csv" );
+            try ( BufferedWriter writer = Files.newBufferedWriter( source.toPath(), StandardCharsets.UTF_8 ) )
+            {
+                writer.write( header );
+                writer.newLine();
+                for ( int id = 1; id <= records; id++ )
+                {
+                    writer.write( id + ",Product " + id + "," + ( id % 1000 ) + ".99," + ( id % 50 ) + ",2024-01-10,true" );
+                    writer.newLine();
+                }
+            }
+
+            StorageEngine bulk = new StorageEngine( new File( dir, "bulk" ).getPath(), "database.csv", "id.csv" );
+            bulk.create( header );
+            long start = System.nanoTime();
+            StorageEngine.LoadResult result = bulk.bulkLoad( source );
+            double seconds = ( System.nanoTime() - start ) / 1e9;
+            bulk.drop();
+            System.out.printf( "bulkLoad:  %,d records in %.2f s (%,.0f records/s)%n", result.loaded, seconds, result.loaded / seconds );
+
+            int single = Math.min( records, 20_000 );
+            StorageEngine one = new StorageEngine( new File( dir, "single" ).getPath(), "database.csv", "id.csv",
+                    new StorageOptions().durability( Durability.ASYNC ) );
+            one.create( header );
+            start = System.nanoTime();
+            for ( int id = 1; id <= single; id++ )
+            {
+                one.put( id + ",Product " + id + "," + ( id % 1000 ) + ".99," + ( id % 50 ) + ",2024-01-10,true" );
+            }
+            seconds = ( System.nanoTime() - start ) / 1e9;
+            one.drop();
+            System.out.printf( "put (async): %,d records in %.2f s (%,.0f records/s)%n", single, seconds, single / seconds );
+        }
+        finally
+        {
+            File[] files = dir.listFiles();
+            for ( File file : files == null ? new File[0] : files )
+            {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+}
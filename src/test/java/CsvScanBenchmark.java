@@ -0,0 +1,88 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Time and heap allocation of a field scan over the product table: BufferedReader.readLine with
+ * String.split(",") against CsvTokenizer comparing the field in its reused buffer.
+ * Allocation is measured per thread through com.sun.management.ThreadMXBean.
+ * Run with: java -cp target/classes:target/test-classes CsvScanBenchmark [records]
+ */
+public class CsvScanBenchmark
+{
+    public static void main( String[] args ) throws IOException
+    {
+        int records = args.length > 0 ? Integer.parseInt( args[0] ) : 2_000_000;
+        File csv = File.createTempFile( "filedb-scan", ".csv" );
+        try
+        {
+            try ( BufferedWriter writer = Files.newBufferedWriter( csv.toPath(), StandardCharsets.UTF_8 ) )
+            {
+                writer.write( "Id,ProductName,Price,Quantity,ExpirationDate,IsAvailable" );
+                writer.newLine();
+                for ( int id = 1; id <= records; id++ )
+                {
+                    writer.write( id + ",Product " + ( id % 5000 ) + "," + ( id % 1000 ) + "." + ( 10 + id % 90 ) + ","
+                            + ( id % 50 ) + ",2024-0" + ( 1 + id % 9 ) + "-1" + ( id % 10 ) + "," + ( id % 3 != 0 ) );
+                    writer.newLine();
+                }
+            }
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            long thread = Thread.currentThread().getId();
+            String value = "Product 4321";
+            byte[] expected = value.getBytes( StandardCharsets.UTF_8 );
+
+            for ( int round = 0; round < 3; round++ )
+            {
+                long allocated = threads.getThreadAllocatedBytes( thread );
+                long start = System.nanoTime();
+                int splitMatches = 0;
+                try ( BufferedReader reader = Files.newBufferedReader( csv.toPath(), StandardCharsets.UTF_8 ) )
+                {
+                    String line;
+                    while ( ( line = reader.readLine() ) != null )
+                    {
+                        String[] fields = line.split( "," );
+                        if ( 1 < fields.length && fields[1].equals( value ) )
+                        {
+                            splitMatches++;
+                        }
+                    }
+                }
+                long splitNanos = System.nanoTime() - start;
+                long splitBytes = threads.getThreadAllocatedBytes( thread ) - allocated;
+
+                allocated = threads.getThreadAllocatedBytes( thread );
+                start = System.nanoTime();
+                int tokenizerMatches = 0;
+                try ( FileInputStream in = new FileInputStream( csv ) )
+                {
+                    CsvTokenizer line = new CsvTokenizer( in );
+                    while ( line.next() )
+                    {
+                        if ( line.fieldEquals( 1, expected ) )
+                        {
+                            tokenizerMatches++;
+                        }
+                    }
+                }
+                long tokenizerNanos = System.nanoTime() - start;
+                long tokenizerBytes = threads.getThreadAllocatedBytes( thread ) - allocated;
+
+                System.out.printf( "round %d: readLine+split %d ms, %,d bytes allocated (%d matches); "
+                        + "CsvTokenizer %d ms, %,d bytes allocated (%d matches)%n", round,
+                        splitNanos / 1_000_000, splitBytes, splitMatches,
+                        tokenizerNanos / 1_000_000, tokenizerBytes, tokenizerMatches );
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists( csv.toPath() );
+        }
+    }
+}
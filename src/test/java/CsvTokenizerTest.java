@@ -0,0 +1,111 @@
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Unit tests for the streaming CSV tokenizer.
+ */
+public class CsvTokenizerTest extends TestCase
+{
+    public void testSplitMatchesStringSplitForPlainRecords()
+    {
+        String[] records = { "1,Bread,50.99,15,2024-01-10,true", "2,Milk,,,,", "3,,60.50", "4", " 5 ,a b, c " };
+        for ( String record : records )
+        {
+            assertTrue( record, Arrays.equals( record.split( "," ), CsvTokenizer.split( record ) ) );
+        }
+    }
+
+    public void testQuotedFields()
+    {
+        String record = "7,\"Cheese, aged\",\"He said \"\"hi\"\"\",,\"\"";
+        String[] fields = CsvTokenizer.split( record );
+        assertEquals( 5, fields.length );
+        assertEquals( "Cheese, aged", fields[1] );
+        assertEquals( "He said \"hi\"", fields[2] );
+        assertEquals( "", fields[3] );
+        assertEquals( "", fields[4] );
+
+        CsvTokenizer line = CsvTokenizer.of( record );
+        assertTrue( line.fieldEquals( 1, "Cheese, aged".getBytes( StandardCharsets.UTF_8 ) ) );
+        assertFalse( line.fieldEquals( 1, "Cheese".getBytes( StandardCharsets.UTF_8 ) ) );
+        assertFalse( line.fieldEquals( 9, "x".getBytes( StandardCharsets.UTF_8 ) ) );
+
+        StringBuilder appended = new StringBuilder();
+        CsvTokenizer.appendField( appended, "He said \"hi\"" );
+        assertEquals( "\"He said \"\"hi\"\"\"", appended.toString() );
+    }
+
+    public void testParsesNumbersAndDatesInPlace()
+    {
+        CsvTokenizer line = CsvTokenizer.of( " 42 ,-7,50.99,\"0.1\",1e3,123456789012345678,2024-02-29,-2147483648" );
+        assertEquals( 42, line.parseInt( 0 ) );
+        assertEquals( -7, line.parseInt( 1 ) );
+        assertEquals( Double.parseDouble( "50.99" ), line.parseDouble( 2 ) );
+        assertEquals( 0.1, line.parseDouble( 3 ) );
+        assertEquals( 1000.0, line.parseDouble( 4 ) );
+        assertEquals( Double.parseDouble( "123456789012345678" ), line.parseDouble( 5 ) );
+        assertEquals( java.time.LocalDate.of( 2024, 2, 29 ).toEpochDay(), line.parseEpochDay( 6 ) );
+        assertEquals( Integer.MIN_VALUE, line.parseInt( 7 ) );
+        try
+        {
+            CsvTokenizer.of( "2147483648" ).parseInt( 0 );
+            fail( "overflow accepted" );
+        }
+        catch ( NumberFormatException expected )
+        {
+        }
+        try
+        {
+            CsvTokenizer.of( "cheap" ).parseDouble( 0 );
+            fail( "text accepted as a number" );
+        }
+        catch ( NumberFormatException expected )
+        {
+        }
+    }
+
+    public void testStreamsLinesWithOffsetsAcrossBufferRefills() throws IOException
+    {
+        StringBuilder text = new StringBuilder( "Id,Name\n" );
+        StringBuilder longName = new StringBuilder();
+        for ( int i = 0; i < 100000; i++ )
+        {
+            longName.append( 'x' );
+        }
+        for ( int i = 1; i <= 5000; i++ )
+        {
+            text.append( i ).append( ',' ).append( i == 2500 ? longName : "Имя " + i ).append( "   \r\n" );
+        }
+        text.append( "\n5001,last" );
+        byte[] bytes = text.toString().getBytes( StandardCharsets.UTF_8 );
+
+        CsvTokenizer line = new CsvTokenizer( new ByteArrayInputStream( bytes ) );
+        long expectedOffset = 0;
+        int lines = 0;
+        String last = null;
+        while ( line.next() )
+        {
+            last = line.toString();
+            assertEquals( expectedOffset, line.offset() );
+            String content = new String( bytes, (int) line.offset(), line.length(), StandardCharsets.UTF_8 );
+            assertTrue( content.startsWith( line.toString() ) );
+            if ( lines > 0 && !line.isEmpty() )
+            {
+                assertEquals( line.fields()[0], Integer.toString( line.parseInt( 0 ) ) );
+            }
+            if ( lines == 2500 )
+            {
+                assertEquals( longName.toString(), line.field( 1 ) );
+            }
+            expectedOffset += line.length();
+            lines++;
+        }
+        assertEquals( bytes.length, expectedOffset );
+        assertEquals( 5003, lines );
+        assertEquals( "5001,last", last );
+    }
+}
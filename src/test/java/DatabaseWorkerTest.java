@@ -0,0 +1,97 @@
+import junit.framework.TestCase;
+
+import javax.swing.SwingUtilities;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for the completion order of background database operations.
+ */
+public class DatabaseWorkerTest extends TestCase
+{
+    public void testCancelledWorkerFinishesAfterWorkReturns() throws Exception
+    {
+        CountDownLatch started = new CountDownLatch( 1 );
+        CountDownLatch release = new CountDownLatch( 1 );
+        CountDownLatch finished = new CountDownLatch( 1 );
+        List<String> events = Collections.synchronizedList( new ArrayList<>() );
+        DatabaseWorker<Void, Void> worker = new DatabaseWorker<Void, Void>( "Test", "Error: ", true )
+        {
+            @Override
+            protected Void work() throws IOException
+            {
+                started.countDown();
+                try
+                {
+                    release.await();
+                }
+                catch ( InterruptedException e )
+                {
+                    throw new IOException( e );
+                }
+                events.add( "work returned" );
+                return null;
+            }
+
+            @Override
+            protected void cancelled()
+            {
+                events.add( "cancelled" );
+            }
+        };
+        worker.addPropertyChangeListener( e -> {
+            if ( DatabaseWorker.FINISHED.equals( e.getPropertyName() ) )
+            {
+                events.add( "finished" );
+                finished.countDown();
+            }
+        } );
+        worker.execute();
+        assertTrue( started.await( 10, TimeUnit.SECONDS ) );
+
+        // SwingWorker уже DONE, но work() еще идет: итог не сообщается
+        SwingUtilities.invokeAndWait( () -> worker.cancel( false ) );
+        assertTrue( worker.isDone() );
+        SwingUtilities.invokeAndWait( () -> { } );
+        assertTrue( events.toString(), events.isEmpty() );
+
+        release.countDown();
+        assertTrue( finished.await( 10, TimeUnit.SECONDS ) );
+        assertEquals( "[work returned, cancelled, finished]", events.toString() );
+    }
+
+    public void testWorkerCancelledBeforeStartFinishes() throws Exception
+    {
+        CountDownLatch finished = new CountDownLatch( 1 );
+        List<String> events = Collections.synchronizedList( new ArrayList<>() );
+        DatabaseWorker<Void, Void> worker = new DatabaseWorker<Void, Void>( "Test", "Error: ", true )
+        {
+            @Override
+            protected Void work()
+            {
+                events.add( "work" );
+                return null;
+            }
+
+            @Override
+            protected void cancelled()
+            {
+                events.add( "cancelled" );
+            }
+        };
+        worker.addPropertyChangeListener( e -> {
+            if ( DatabaseWorker.FINISHED.equals( e.getPropertyName() ) )
+            {
+                events.add( "finished" );
+                finished.countDown();
+            }
+        } );
+        SwingUtilities.invokeAndWait( () -> worker.cancel( false ) );
+        assertTrue( finished.await( 10, TimeUnit.SECONDS ) );
+        assertEquals( "[cancelled, finished]", events.toString() );
+    }
+}
@@ -0,0 +1,68 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.util.Iterator;
+
+/**
+ * Time and peak heap of the streaming .xlsx export for a typed product table.
+ * Run with a small heap to see that memory does not grow with the row count, e.g.
+ * java -Xmx256m -cp target/classes:target/test-classes:(dependencies) ExcelExportBenchmark [records]
+ */
+public class ExcelExportBenchmark
+{
+    public static void main( String[] args ) throws IOException
+    {
+        int records = args.length > 0 ? Integer.parseInt( args[0] ) : 1_000_000;
+        File dir = Files.createTempDirectory( "filedb-excel" ).toFile();
+        StorageEngine engine = new StorageEngine( dir.getPath(), "database.csv", "id.csv" );
+        try
+        {
+            engine.create( "Id:int,ProductName:string,Price:decimal,Quantity:int,ExpirationDate:date,IsAvailable:boolean" );
+            engine.bulkLoad( new Iterator<String>()
+            {
+                private int id;
+
+                public boolean hasNext()
+                {
+                    return id < records;
+                }
+
+                public String next()
+                {
+                    id++;
+                    return id + ",Product " + id + "," + ( id % 1000 ) + "." + ( 10 + id % 90 ) + ","
+                            + ( id % 50 ) + ",2024-0" + ( 1 + id % 9 ) + "-1" + ( id % 10 ) + "," + ( id % 3 != 0 );
+                }
+            } );
+
+            File target = new File( dir, "export.xlsx" );
+            System.gc();
+            for ( MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() )
+            {
+                pool.resetPeakUsage();
+            }
+            long start = System.nanoTime();
+            long rows = new ExcelExporter( engine ).export( target, null );
+            long millis = ( System.nanoTime() - start ) / 1_000_000;
+            long peak = 0;
+            for ( MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() )
+            {
+                if ( pool.getType() == MemoryType.HEAP )
+                {
+                    peak += pool.getPeakUsage().getUsed();
+                }
+            }
+            System.out.printf( "rows: %,d  sheets: %d  file: %,d bytes  time: %,d ms  peak heap: %,d MB%n",
+                    rows, Math.max( 1, ( rows + 1_048_574 ) / 1_048_575 ), target.length(), millis, peak >> 20 );
+            target.delete();
+        }
+        finally
+        {
+            engine.drop();
+            StorageEngineTest.deleteRecursively( dir );
+        }
+    }
+}
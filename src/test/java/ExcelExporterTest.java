@@ -0,0 +1,102 @@
+import junit.framework.TestCase;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Unit tests for the streaming Excel export.
+ */
+public class ExcelExporterTest extends TestCase
+{
+    private File dir;
+    private StorageEngine engine;
+
+    protected void setUp() throws IOException
+    {
+        dir = Files.createTempDirectory( "filedb" ).toFile();
+        engine = new StorageEngine( dir.getPath(), "database.csv", "id.csv" );
+    }
+
+    protected void tearDown() throws IOException
+    {
+        engine.drop();
+        StorageEngineTest.deleteRecursively( dir );
+    }
+
+    public void testTypedCellsLiveRowsAndSheetRollover() throws IOException
+    {
+        engine.create( "Id:int,ProductName:string,Price:decimal,Quantity:int,ExpirationDate:date,IsAvailable:boolean" );
+        for ( int id = 1; id <= 7; id++ )
+        {
+            engine.put( id + ",Product " + id + "," + id + ".25," + id + ",2024-01-0" + id + "," + ( id % 2 == 0 ) );
+        }
+        engine.put( "8,\"Bread, rye\",,,," );
+        engine.delete( 3 );
+
+        File target = new File( dir, "export.xlsx" );
+        assertEquals( 7, new ExcelExporter( engine, 4 ).export( target, null ) );
+
+        try ( XSSFWorkbook workbook = new XSSFWorkbook( new FileInputStream( target ) ) )
+        {
+            assertEquals( 3, workbook.getNumberOfSheets() );
+            assertEquals( "Database 2", workbook.getSheetName( 1 ) );
+            Sheet first = workbook.getSheetAt( 0 );
+            assertEquals( "ExpirationDate", first.getRow( 0 ).getCell( 4 ).getStringCellValue() );
+            Row row = first.getRow( 2 );
+            assertEquals( 2.0, row.getCell( 0 ).getNumericCellValue() );
+            assertEquals( "Product 2", row.getCell( 1 ).getStringCellValue() );
+            assertEquals( 2.25, row.getCell( 2 ).getNumericCellValue() );
+            assertTrue( DateUtil.isCellDateFormatted( row.getCell( 4 ) ) );
+            assertEquals( "2024-01-02", row.getCell( 4 ).getLocalDateTimeCellValue().toLocalDate().toString() );
+            assertEquals( CellType.BOOLEAN, row.getCell( 5 ).getCellType() );
+            assertTrue( row.getCell( 5 ).getBooleanCellValue() );
+            assertEquals( 4.0, first.getRow( 3 ).getCell( 0 ).getNumericCellValue() );
+
+            Sheet last = workbook.getSheetAt( 2 );
+            assertEquals( "Id", last.getRow( 0 ).getCell( 0 ).getStringCellValue() );
+            assertEquals( "Bread, rye", last.getRow( 1 ).getCell( 1 ).getStringCellValue() );
+            assertNull( last.getRow( 1 ).getCell( 2 ) );
+            assertTrue( first.getColumnWidth( 1 ) > first.getColumnWidth( 0 ) );
+        }
+    }
+
+    public void testUntypedDatabaseGuessesTypesAndCancelRemovesFile() throws IOException
+    {
+        engine.create( "Id,Code,Price,Date,Flag" );
+        engine.put( "1,007,50.99,2024-01-10,TRUE" );
+        engine.put( "2,A-1,-3,not a date,yes" );
+
+        File target = new File( dir, "export.xlsx" );
+        new ExcelExporter( engine ).export( target, null );
+        try ( XSSFWorkbook workbook = new XSSFWorkbook( new FileInputStream( target ) ) )
+        {
+            Row row = workbook.getSheetAt( 0 ).getRow( 1 );
+            assertEquals( "007", row.getCell( 1 ).getStringCellValue() );
+            assertEquals( 50.99, row.getCell( 2 ).getNumericCellValue() );
+            assertTrue( DateUtil.isCellDateFormatted( row.getCell( 3 ) ) );
+            assertTrue( row.getCell( 4 ).getBooleanCellValue() );
+            row = workbook.getSheetAt( 0 ).getRow( 2 );
+            assertEquals( -3.0, row.getCell( 2 ).getNumericCellValue() );
+            assertEquals( "not a date", row.getCell( 3 ).getStringCellValue() );
+            assertEquals( "yes", row.getCell( 4 ).getStringCellValue() );
+        }
+
+        try
+        {
+            new ExcelExporter( engine ).export( target, ( done, total ) -> false );
+            fail( "export was not cancelled" );
+        }
+        catch ( CancellationException expected )
+        {
+        }
+        assertFalse( target.exists() );
+    }
+}
@@ -0,0 +1,45 @@
+import java.util.HashMap;
+
+/**
+ * Heap footprint of the offset index: HashMap<Integer, Long> against IntLongHashMap.
+ * Run with: java -cp target/classes:target/test-classes IndexFootprintBenchmark [records]
+ */
+public class IndexFootprintBenchmark
+{
+    public static void main( String[] args )
+    {
+        int records = args.length > 0 ? Integer.parseInt( args[0] ) : 5_000_000;
+
+        long before = usedHeap();
+        HashMap<Integer, Long> boxed = new HashMap<>();
+        for ( int id = 1; id <= records; id++ )
+        {
+            boxed.put( id, id * 40L );
+        }
+        long boxedBytes = usedHeap() - before;
+        int boxedSize = boxed.size(); // карта должна оставаться достижимой во время замера
+        boxed = null;
+
+        before = usedHeap();
+        IntLongHashMap primitive = new IntLongHashMap();
+        for ( int id = 1; id <= records; id++ )
+        {
+            primitive.put( id, id * 40L );
+        }
+        long primitiveBytes = usedHeap() - before;
+
+        System.out.printf( "records:                 %,d / %,d%n", boxedSize, primitive.size() );
+        System.out.printf( "HashMap<Integer, Long>:  %,d bytes (%.1f bytes/record)%n", boxedBytes, (double) boxedBytes / records );
+        System.out.printf( "IntLongHashMap:          %,d bytes (%.1f bytes/record)%n", primitiveBytes, (double) primitiveBytes / records );
+    }
+
+    private static long usedHeap()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for ( int i = 0; i < 3; i++ )
+        {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
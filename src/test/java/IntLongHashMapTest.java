@@ -0,0 +1,53 @@
+import junit.framework.TestCase;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Unit tests for the primitive offset map.
+ */
+public class IntLongHashMapTest extends TestCase
+{
+    public void testPutGetAndTombstones()
+    {
+        IntLongHashMap map = new IntLongHashMap();
+        assertEquals( IntLongHashMap.NO_VALUE, map.get( 1 ) );
+        assertEquals( IntLongHashMap.NO_VALUE, map.put( 1, 58L ) );
+        assertEquals( 58L, map.put( 1, -1L ) );
+        assertTrue( map.containsKey( 1 ) );
+        assertEquals( -1L, map.get( 1 ) );
+
+        map.put( 0, 7L );
+        assertTrue( map.containsKey( 0 ) );
+        assertEquals( 2, map.size() );
+        assertEquals( 1, map.countValue( -1L ) );
+    }
+
+    public void testMatchesHashMapUnderRandomOperations()
+    {
+        IntLongHashMap map = new IntLongHashMap( 4 );
+        Map<Integer, Long> expected = new HashMap<>();
+        Random random = new Random( 42 );
+        for ( int i = 0; i < 200_000; i++ )
+        {
+            int key = random.nextInt( 5_000 ) - 100;
+            if ( random.nextInt( 4 ) == 0 )
+            {
+                Long previous = expected.remove( key );
+                assertEquals( previous == null ? IntLongHashMap.NO_VALUE : previous, map.remove( key ) );
+            }
+            else
+            {
+                long value = random.nextLong();
+                expected.put( key, value );
+                map.put( key, value );
+            }
+        }
+        assertEquals( expected.size(), map.size() );
+        for ( Map.Entry<Integer, Long> entry : expected.entrySet() )
+        {
+            assertEquals( entry.getValue().longValue(), map.get( entry.getKey() ) );
+        }
+    }
+}
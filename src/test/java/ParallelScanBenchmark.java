@@ -0,0 +1,82 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Iterator;
+
+/**
+ * Unindexed predicate scan (StorageEngine.findAll) over a generated product catalogue
+ * with scanParallelism 1, 2, 4, ... up to the number of available processors, reading the file through
+ * the channel and through the memory-mapped scan mode. Each time is the best of six repeated queries.
+ * Run with: java -cp target/classes:target/test-classes ParallelScanBenchmark [records]
+ */
+public class ParallelScanBenchmark
+{
+    public static void main( String[] args ) throws IOException
+    {
+        int records = args.length > 0 ? Integer.parseInt( args[0] ) : 4_000_000;
+        File dir = Files.createTempDirectory( "filedb-scan" ).toFile();
+        String header = "Id,ProductName,Price,Quantity,ExpirationDate,IsAvailable";
+        try
+        {
+            StorageEngine loader = new StorageEngine( dir.getPath(), "database.csv", "id.csv" );
+            loader.create( header );
+            loader.bulkLoad( new Iterator<String>()
+            {
+                private int id;
+
+                public boolean hasNext()
+                {
+                    return id < records;
+                }
+
+                public String next()
+                {
+                    id++;
+                    return id + ",Product " + ( id % 5000 ) + "," + ( id % 1000 ) + ".99," + ( id % 50 ) + ",2024-01-10,true";
+                }
+            } );
+            loader.close();
+            System.out.printf( "%,d records, %,d bytes%n", records, new File( dir, "database.csv" ).length() );
+
+            byte[] name = "Product 4321".getBytes( StandardCharsets.UTF_8 );
+            int processors = Runtime.getRuntime().availableProcessors();
+            for ( int threads = 1; threads <= Math.max( processors, 1 ); threads *= 2 )
+            {
+                long channel = run( dir, new StorageOptions().scanParallelism( threads ), name );
+                long mapped = run( dir, new StorageOptions().scanParallelism( threads ).mappedScan( true ), name );
+                System.out.printf( "threads %2d: channel reads %d ms, mapped %d ms%n", threads, channel, mapped );
+            }
+        }
+        finally
+        {
+            File[] files = dir.listFiles();
+            for ( File file : files == null ? new File[0] : files )
+            {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    private static long run( File dir, StorageOptions options, byte[] name ) throws IOException
+    {
+        StorageEngine engine = new StorageEngine( dir.getPath(), "database.csv", "id.csv", options );
+        engine.open();
+        long best = Long.MAX_VALUE;
+        try
+        {
+            for ( int round = 0; round < 6; round++ )
+            {
+                long start = System.nanoTime();
+                engine.findAll( line -> line.fieldEquals( 1, name ) && line.parseDouble( 2 ) > 100 );
+                best = Math.min( best, System.nanoTime() - start );
+            }
+        }
+        finally
+        {
+            engine.close();
+        }
+        return best / 1_000_000;
+    }
+}
@@ -0,0 +1,73 @@
+import junit.framework.TestCase;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Unit tests for the copy-on-write offset map and its frozen versions.
+ */
+public class PersistentIntLongMapTest extends TestCase
+{
+    public void testFrozenVersionIgnoresLaterPuts()
+    {
+        PersistentIntLongMap map = new PersistentIntLongMap();
+        for ( int i = 0; i < 10_000; i++ )
+        {
+            map.put( i, i * 10L );
+        }
+        PersistentIntLongMap.Version version = map.freeze();
+
+        map.put( 5, -1L );
+        map.put( 20_000, 7L );
+        for ( int i = 100; i < 200; i++ )
+        {
+            map.put( i, 1L );
+        }
+
+        assertEquals( 10_000, version.size() );
+        assertEquals( 50L, version.get( 5 ) );
+        assertEquals( 1_500L, version.get( 150 ) );
+        assertFalse( version.containsKey( 20_000 ) );
+        assertEquals( -1L, map.get( 5 ) );
+        assertEquals( 10_001, map.size() );
+        assertEquals( 1, map.countValue( -1L ) );
+    }
+
+    public void testVersionsMatchHashMapSnapshots() throws java.io.IOException
+    {
+        PersistentIntLongMap map = new PersistentIntLongMap();
+        Map<Integer, Long> expected = new HashMap<>();
+        Random random = new Random( 42 );
+        PersistentIntLongMap.Version[] versions = new PersistentIntLongMap.Version[10];
+        Map<Integer, Map<Integer, Long>> states = new HashMap<>();
+        for ( int round = 0; round < versions.length; round++ )
+        {
+            for ( int i = 0; i < 20_000; i++ )
+            {
+                int key = random.nextInt( 50_000 ) - 1_000;
+                long value = random.nextInt();
+                assertEquals( expected.containsKey( key ) ? expected.get( key ) : PersistentIntLongMap.NO_VALUE,
+                        map.put( key, value ) );
+                expected.put( key, value );
+            }
+            versions[round] = map.freeze();
+            states.put( round, new HashMap<>( expected ) );
+        }
+        for ( int round = 0; round < versions.length; round++ )
+        {
+            Map<Integer, Long> state = states.get( round );
+            assertEquals( state.size(), versions[round].size() );
+            for ( Map.Entry<Integer, Long> entry : state.entrySet() )
+            {
+                assertEquals( entry.getValue().longValue(), versions[round].get( entry.getKey() ) );
+            }
+            int[] visited = {0};
+            versions[round].forEach( ( key, value ) -> {
+                assertEquals( state.get( key ).longValue(), value );
+                visited[0]++;
+            } );
+            assertEquals( state.size(), visited[0] );
+        }
+    }
+}
@@ -0,0 +1,64 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Point reads by ID with traffic skewed to a few thousand hot products: 90% of lookups go to
+ * 2,000 hot IDs, the rest spread over the whole table. Compares the engine with the record cache
+ * against the same engine with the cache disabled and prints the cache hit rate.
+ * Run with: java -cp target/classes:target/test-classes RecordCacheBenchmark [records] [lookups]
+ */
+public class RecordCacheBenchmark
+{
+    private static final int HOT = 2_000;
+
+    public static void main( String[] args ) throws IOException
+    {
+        int records = args.length > 0 ? Integer.parseInt( args[0] ) : 1_000_000;
+        int lookups = args.length > 1 ? Integer.parseInt( args[1] ) : 2_000_000;
+        File dir = Files.createTempDirectory( "filedb-cache" ).toFile();
+        try
+        {
+            File csv = new File( dir, "load.csv" );
+            StringBuilder text = new StringBuilder( "Id,ProductName,Price,Quantity,ExpirationDate,IsAvailable\n" );
+            for ( int id = 1; id <= records; id++ )
+            {
+                text.append( id ).append( ",Product " ).append( id ).append( ',' ).append( id % 1000 ).append( ".99," )
+                        .append( id % 50 ).append( ",2024-01-10,true\n" );
+            }
+            Files.write( csv.toPath(), text.toString().getBytes( "UTF-8" ) );
+
+            for ( int cacheSize : new int[] { 0, 10_000 } )
+            {
+                File base = new File( dir, "db-" + cacheSize );
+                StorageEngine engine = new StorageEngine( base.getPath(), "database.csv", "id.csv",
+                        new StorageOptions().recordCacheSize( cacheSize ) );
+                engine.create( "Id,ProductName,Price,Quantity,ExpirationDate,IsAvailable" );
+                engine.bulkLoad( csv, null );
+                for ( int round = 0; round < 3; round++ )
+                {
+                    Random random = new Random( 42 );
+                    long start = System.nanoTime();
+                    long length = 0;
+                    for ( int i = 0; i < lookups; i++ )
+                    {
+                        int id = random.nextInt( 10 ) < 9 ? 1 + random.nextInt( HOT ) : 1 + random.nextInt( records );
+                        length += engine.get( id ).length();
+                    }
+                    long nanos = System.nanoTime() - start;
+                    RecordCache.Stats stats = engine.getCacheStats();
+                    System.out.printf( "cache %,d, round %d: %.0f ns per get (%d chars), hits %,d, misses %,d (hit rate %.1f%%), evictions %,d%n",
+                            cacheSize, round, (double) nanos / lookups, length, stats.hits, stats.misses, stats.hitRate() * 100,
+                            stats.evictions );
+                }
+                engine.drop();
+            }
+        }
+        finally
+        {
+            new File( dir, "load.csv" ).delete();
+            dir.delete();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for the versioned LRU cache of records read by ID.
+ */
+public class RecordCacheTest extends TestCase
+{
+    public void testHitsRequireSameOffsetAndNoNewerVersion()
+    {
+        RecordCache cache = new RecordCache( 100 );
+        assertNull( cache.get( 1, 0L, 5 ) );
+        cache.put( 1, 64L, "1,Bread", 5 );
+
+        assertEquals( "1,Bread", cache.get( 1, 64L, 5 ) );
+        assertEquals( "1,Bread", cache.get( 1, 64L, 9 ) );
+        assertNull( cache.get( 1, 64L, 4 ) );
+        assertNull( cache.get( 1, 128L, 9 ) );
+
+        RecordCache.Stats stats = cache.stats();
+        assertEquals( 2, stats.hits );
+        assertEquals( 3, stats.misses );
+        assertEquals( 1, stats.size );
+        assertEquals( 0.4, stats.hitRate(), 1e-9 );
+    }
+
+    public void testInvalidateRejectsRecordsReadBeforeChange()
+    {
+        RecordCache cache = new RecordCache( 100 );
+        cache.put( 1, 64L, "1,Bread", 5 );
+        cache.invalidate( 1, 6 );
+        assertNull( cache.get( 1, 64L, 6 ) );
+
+        // Читатель версии 5 дочитал строку уже после изменения
+        cache.put( 1, 64L, "1,Bread", 5 );
+        assertNull( cache.get( 1, 64L, 6 ) );
+
+        cache.put( 1, 64L, "1,Rye bread", 6 );
+        cache.put( 1, 64L, "1,Bread", 5 );
+        assertEquals( "1,Rye bread", cache.get( 1, 64L, 7 ) );
+
+        cache.clear( 8 );
+        assertNull( cache.get( 1, 64L, 8 ) );
+        assertEquals( 0, cache.stats().size );
+    }
+
+    public void testLeastRecentlyReadRecordsAreEvicted()
+    {
+        RecordCache cache = new RecordCache( 16 * 4 );
+        for ( int id = 0; id < 10_000; id++ )
+        {
+            cache.put( id, id * 10L, "record " + id, 1 );
+            assertEquals( "record 0", cache.get( 0, 0L, 1 ) );
+        }
+        RecordCache.Stats stats = cache.stats();
+        assertTrue( stats.size <= 64 );
+        assertEquals( 10_000 - stats.size, stats.evictions );
+        assertEquals( "record 9999", cache.get( 9999, 99_990L, 1 ) );
+        assertNull( cache.get( 5, 50L, 1 ) );
+    }
+}
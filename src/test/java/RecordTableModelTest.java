@@ -0,0 +1,156 @@
+import junit.framework.TestCase;
+
+import javax.swing.event.TableModelEvent;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit tests for the lazily fetched table model.
+ */
+public class RecordTableModelTest extends TestCase
+{
+    private File dir;
+    private StorageEngine engine;
+    private RecordTableModel model;
+    private final List<TableModelEvent> events = new ArrayList<>();
+
+    protected void setUp() throws IOException
+    {
+        dir = Files.createTempDirectory( "filedb" ).toFile();
+        engine = new StorageEngine( dir.getPath(), "database.csv", "id.csv" );
+        engine.create( "Id,ProductName,Price" );
+        model = new RecordTableModel( engine, Runnable::run, Runnable::run );
+        model.addTableModelListener( events::add );
+    }
+
+    protected void tearDown() throws IOException
+    {
+        engine.drop();
+        StorageEngineTest.deleteRecursively( dir );
+    }
+
+    public void testRowsAreReadByIdOrderAcrossPages() throws IOException
+    {
+        for ( int id = 1000; id > 0; id-- )
+        {
+            engine.put( id + ",Item " + id + "," + id + ".5" );
+        }
+        engine.delete( 500 );
+        model.reload();
+
+        assertEquals( 3, model.getColumnCount() );
+        assertEquals( "ProductName", model.getColumnName( 1 ) );
+        assertEquals( 999, model.getRowCount() );
+        assertEquals( "1", model.getValueAt( 0, 0 ) );
+        assertEquals( "Item 501", model.getValueAt( 499, 1 ) );
+        assertEquals( "1000.5", model.getValueAt( 998, 2 ) );
+        assertEquals( 501, model.getId( 499 ) );
+    }
+
+    public void testSingleRowEvents() throws IOException
+    {
+        engine.put( "1,Bread,50" );
+        engine.put( "3,Milk,60" );
+        model.reload();
+        assertEquals( "Milk", model.getValueAt( 1, 1 ) );
+
+        engine.put( "2,Cheese,70" );
+        events.clear();
+        model.recordAdded( 2 );
+        assertEvent( TableModelEvent.INSERT, 1 );
+        assertEquals( "Cheese", model.getValueAt( 1, 1 ) );
+        assertEquals( "Milk", model.getValueAt( 2, 1 ) );
+
+        engine.update( 3, "3,Kefir,65" );
+        events.clear();
+        model.recordUpdated( 3 );
+        assertEvent( TableModelEvent.UPDATE, 2 );
+        assertEquals( "Kefir", model.getValueAt( 2, 1 ) );
+
+        engine.delete( 1 );
+        events.clear();
+        model.recordDeleted( 1 );
+        assertEvent( TableModelEvent.DELETE, 0 );
+        assertEquals( 2, model.getRowCount() );
+        assertEquals( "Cheese", model.getValueAt( 0, 1 ) );
+
+        model.clear();
+        assertEquals( 0, model.getRowCount() );
+        assertEquals( 0, model.getColumnCount() );
+    }
+
+    public void testPagesAreReadInBackgroundAndStaleReadsDropped() throws IOException
+    {
+        List<Runnable> reads = new ArrayList<>();
+        List<Runnable> applies = new ArrayList<>();
+        model = new RecordTableModel( engine, reads::add, applies::add );
+        model.addTableModelListener( events::add );
+        engine.put( "1,Bread,50" );
+        engine.put( "2,Milk,60" );
+        model.reload();
+
+        assertEquals( RecordTableModel.LOADING, model.getValueAt( 0, 1 ) );
+        assertEquals( RecordTableModel.LOADING, model.getValueAt( 1, 1 ) );
+        assertEquals( 1, reads.size() );
+        reads.remove( 0 ).run();
+        events.clear();
+        applies.remove( 0 ).run();
+        assertEquals( "Milk", model.getValueAt( 1, 1 ) );
+        assertEquals( TableModelEvent.UPDATE, events.get( 0 ).getType() );
+
+        engine.update( 2, "2,Kefir,65" );
+        model.recordUpdated( 2 );
+        assertEquals( RecordTableModel.LOADING, model.getValueAt( 1, 1 ) );
+        reads.remove( 0 ).run();
+        engine.update( 2, "2,Cream,80" );
+        model.recordUpdated( 2 );
+        applies.remove( 0 ).run();
+        assertEquals( RecordTableModel.LOADING, model.getValueAt( 1, 1 ) );
+        reads.remove( 0 ).run();
+        applies.remove( 0 ).run();
+        assertEquals( "Cream", model.getValueAt( 1, 1 ) );
+    }
+
+    public void testPageReadFailureIsReportedOnce() throws IOException
+    {
+        StorageEngine failing = new StorageEngine( new File( dir, "failing" ).getPath(), "database.csv", "id.csv" )
+        {
+            @Override
+            public String[] getAll( int[] ids, int from, int to ) throws IOException
+            {
+                throw new IOException( "диск недоступен" );
+            }
+        };
+        failing.create( "Id,ProductName,Price" );
+        for ( int id = 1; id <= 300; id++ )
+        {
+            failing.put( id + ",Item " + id + "," + id );
+        }
+        List<Throwable> errors = new ArrayList<>();
+        model = new RecordTableModel( failing, Runnable::run, Runnable::run, errors::add );
+        model.reload();
+
+        assertEquals( "", model.getValueAt( 0, 1 ) );
+        assertEquals( "", model.getValueAt( 200, 1 ) );
+        assertEquals( "", model.getValueAt( 0, 1 ) );
+        assertEquals( 1, errors.size() );
+        assertEquals( "диск недоступен", errors.get( 0 ).getMessage() );
+
+        model.reload();
+        model.getValueAt( 0, 1 );
+        assertEquals( 2, errors.size() );
+        failing.drop();
+    }
+
+    private void assertEvent( int type, int row )
+    {
+        assertEquals( 1, events.size() );
+        TableModelEvent event = events.remove( 0 );
+        assertEquals( type, event.getType() );
+        assertEquals( row, event.getFirstRow() );
+        assertEquals( row, event.getLastRow() );
+    }
+}
@@ -0,0 +1,65 @@
+import junit.framework.TestCase;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Unit tests for the typed schema and the binary row encoding.
+ */
+public class RowCodecTest extends TestCase
+{
+    private static final String HEADER = "Id:int,ProductName:string,Price:decimal,Quantity:int,ExpirationDate:date,IsAvailable:boolean";
+
+    public void testSchemaParsesTypesAndValidates()
+    {
+        Schema schema = Schema.parse( HEADER );
+        assertTrue( schema.isTyped() );
+        assertEquals( "Price", schema.getName( 2 ) );
+        assertEquals( Schema.Type.DATE, schema.getType( 4 ) );
+        assertEquals( HEADER, schema.toHeader() );
+        assertFalse( Schema.parse( "Id,ProductName" ).isTyped() );
+
+        schema.validate( "1,Bread,50.99,15,2024-01-10,true" );
+        schema.validate( "2,Milk,,,," );
+        try
+        {
+            schema.validate( "3,Cheese,cheap,10,2024-02-15,true" );
+            fail( "decimal column accepted text" );
+        }
+        catch ( IllegalArgumentException expected )
+        {
+            assertTrue( expected.getMessage().contains( "Price" ) );
+        }
+        try
+        {
+            Schema.parse( "Id:uuid,Name" );
+            fail( "unknown type accepted" );
+        }
+        catch ( IllegalArgumentException expected )
+        {
+        }
+    }
+
+    public void testRoundTripAndFixedWidthAccess()
+    {
+        RowCodec codec = new RowCodec( Schema.parse( HEADER ) );
+        String record = "1,Хлеб бородинский,50.99,15,2024-01-10,true";
+        byte[] row = codec.encode( record );
+        assertEquals( record, codec.decode( row, 0 ) );
+        assertTrue( row.length < record.getBytes( java.nio.charset.StandardCharsets.UTF_8 ).length );
+
+        assertEquals( 1, codec.getInt( row, 0, 0 ) );
+        assertEquals( new BigDecimal( "50.99" ), codec.getDecimal( row, 0, 2 ) );
+        assertEquals( 5099L, codec.getUnscaled( row, 0, 2 ) );
+        assertEquals( LocalDate.of( 2024, 1, 10 ).toEpochDay(), codec.getInt( row, 0, 4 ) );
+        assertTrue( codec.getBoolean( row, 0, 5 ) );
+
+        byte[] sparse = codec.encode( "2,,60.50" );
+        assertTrue( codec.isNull( sparse, 0, 1 ) );
+        assertTrue( codec.isNull( sparse, 0, 3 ) );
+        assertEquals( "2,,60.50", codec.decode( sparse, 0 ) );
+
+        RowCodec untyped = new RowCodec( Schema.parse( "Id,Name,Note" ) );
+        assertEquals( "7,a,b", untyped.decode( untyped.encode( "7,a,b" ), 0 ) );
+    }
+}
@@ -0,0 +1,234 @@
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Unit tests for the hash-partitioned database spread over several storage engines.
+ */
+public class ShardedStorageEngineTest extends TestCase
+{
+    private File dir;
+    private File dbDir;
+    private ShardedStorageEngine engine;
+
+    protected void setUp() throws IOException
+    {
+        dir = Files.createTempDirectory( "filedb" ).toFile();
+        dbDir = new File( dir, "db" );
+        engine = new ShardedStorageEngine( dbDir.getPath(), "database.csv", "id.csv", 4 );
+        engine.create( "Id,ProductName,Price" );
+    }
+
+    protected void tearDown() throws IOException
+    {
+        engine.close();
+        StorageEngineTest.deleteRecursively( dir );
+    }
+
+    public void testPointOperationsRouteToOneShard() throws IOException
+    {
+        for ( int id = 1; id <= 200; id++ )
+        {
+            assertTrue( engine.put( id + ",Item " + id + "," + id ) );
+        }
+        assertFalse( engine.put( "7,Duplicate,1" ) );
+        assertTrue( engine.update( 7, "7,Renamed,7" ) );
+        assertTrue( engine.delete( 8 ) );
+
+        assertEquals( 4, engine.getShardCount() );
+        int total = 0;
+        for ( int i = 0; i < 4; i++ )
+        {
+            assertTrue( new File( dbDir, "shard-" + i + "/database.csv" ).exists() );
+            assertTrue( engine.getShard( i ).size() > 0 );
+            total += engine.getShard( i ).size();
+        }
+        assertEquals( 199, total );
+        assertEquals( 199, engine.size() );
+        assertEquals( "7,Renamed,7", engine.getShard( engine.shardOf( 7 ) ).get( 7 ) );
+        assertTrue( engine.isDeleted( 8 ) );
+
+        int[] ids = engine.ids();
+        assertEquals( 199, ids.length );
+        assertEquals( 1, ids[0] );
+        assertEquals( 9, ids[7] );
+        String[] page = engine.getAll( new int[] {3, 8, 150, 7}, 0, 4 );
+        assertEquals( "3,Item 3,3", page[0] );
+        assertNull( page[1] );
+        assertEquals( "150,Item 150,150", page[2] );
+        assertEquals( "7,Renamed,7", page[3] );
+    }
+
+    public void testReopenKeepsShardCountAndPlainDirectoryIsOneShard() throws IOException
+    {
+        engine.put( "1,Bread,50" );
+        engine.put( "2,Milk,60" );
+        engine.close();
+
+        engine = new ShardedStorageEngine( dbDir.getPath(), "database.csv", "id.csv", 8 );
+        assertEquals( 4, engine.getShardCount() );
+        engine.open();
+        assertEquals( "2,Milk,60", engine.get( 2 ) );
+
+        File plainDir = new File( dir, "plain" );
+        StorageEngine plain = new StorageEngine( plainDir.getPath(), "database.csv", "id.csv" );
+        plain.create( "Id,ProductName,Price" );
+        plain.put( "5,Cheese,70" );
+        plain.close();
+        ShardedStorageEngine opened = new ShardedStorageEngine( plainDir.getPath(), "database.csv", "id.csv", 4 );
+        assertEquals( 1, opened.getShardCount() );
+        opened.open();
+        assertEquals( "5,Cheese,70", opened.get( 5 ) );
+        assertTrue( opened.put( "6,Kefir,65" ) );
+        opened.close();
+        assertFalse( new File( plainDir, "shard-0" ).exists() );
+    }
+
+    public void testBulkLoadSpreadsLinesAndReportsFileLineNumbers() throws IOException
+    {
+        File csv = new File( dir, "load.csv" );
+        StringBuilder text = new StringBuilder( "Id,ProductName,Price\n" );
+        for ( int id = 1; id <= 5_000; id++ )
+        {
+            text.append( id ).append( ",Item " ).append( id ).append( ',' ).append( id ).append( '\n' );
+        }
+        text.append( "10,Duplicate,1\n" );
+        Files.write( csv.toPath(), text.toString().getBytes( StandardCharsets.UTF_8 ) );
+
+        StorageEngine.LoadResult result = engine.bulkLoad( csv, null );
+        assertEquals( 5_000, result.loaded );
+        assertEquals( 1, result.duplicates );
+        assertEquals( 5_000, engine.size() );
+        assertEquals( "4321,Item 4321,4321", engine.get( 4321 ) );
+
+        Files.write( csv.toPath(), "Id,ProductName,Price\n6001,A,1\n6002,B,2\nbad,C,3\n6003,D,4\n".getBytes( StandardCharsets.UTF_8 ) );
+        try
+        {
+            engine.bulkLoad( csv, null );
+            fail();
+        }
+        catch ( IllegalArgumentException expected )
+        {
+            assertTrue( expected.getMessage(), expected.getMessage().contains( "строке 4" ) );
+        }
+        assertEquals( "6002,B,2", engine.get( 6002 ) );
+        assertFalse( engine.contains( 6003 ) );
+    }
+
+    public void testSearchesFanOutToAllShards() throws IOException
+    {
+        for ( int id = 1; id <= 300; id++ )
+        {
+            engine.put( id + "," + ( id % 3 == 0 ? "Milk" : "Bread" ) + "," + ( 1000 - id ) );
+        }
+        List<String> found = new ArrayList<>();
+        engine.findByField( "ProductName", "Milk", found::addAll, null );
+        assertEquals( 100, found.size() );
+        assertEquals( 200, engine.findAll( line -> line.fieldEquals( 1, "Bread".getBytes( StandardCharsets.UTF_8 ) ) ).size() );
+
+        assertTrue( engine.createRangeIndex( "Price", RangeIndex.Type.NUMBER ) );
+        List<StorageEngine.RecordRef> refs = engine.findRange( "Price", "700", "710" );
+        assertEquals( 11, refs.size() );
+        for ( int i = 0; i < refs.size(); i++ )
+        {
+            assertEquals( 300 - i, refs.get( i ).id );
+        }
+
+        assertTrue( engine.createIndex( "ProductName" ) );
+        assertEquals( 100, engine.deleteByField( "ProductName", "Milk" ) );
+        assertEquals( 200, engine.size() );
+        assertNull( engine.get( 300 ) );
+    }
+
+    public void testBackupsAndCopiesArePerShard() throws IOException
+    {
+        for ( int id = 1; id <= 50; id++ )
+        {
+            engine.put( id + ",Item " + id + "," + id );
+        }
+        File backups = new File( dir, "backups" );
+        BackupChain.Backup first = engine.backup( backups, false, null );
+        assertTrue( first.isFull() );
+        assertTrue( new File( backups, "shard-3" ).isDirectory() );
+        engine.delete( 10 );
+        engine.put( "51,Item 51,51" );
+        BackupChain.Backup second = engine.backup( backups, false, null );
+        assertEquals( first.number + 1, second.number );
+        assertEquals( 2, engine.listBackups( backups ).size() );
+
+        engine.restoreBackup( backups, first.number );
+        assertEquals( "10,Item 10,10", engine.get( 10 ) );
+        assertFalse( engine.contains( 51 ) );
+
+        File saved = new File( dir, "saved" );
+        File savedDb = new File( saved, "database.csv_saved.backup" );
+        File savedId = new File( saved, "id.csv_saved.backup" );
+        engine.writeSnapshot( savedDb, savedId, null );
+        assertTrue( engine.hasCopy( savedDb, savedId ) );
+
+        ShardedStorageEngine copy = new ShardedStorageEngine( new File( dir, "copy" ).getPath(), "database.csv", "id.csv", 4 );
+        assertTrue( copy.restore( savedDb, savedId ) );
+        assertEquals( 50, copy.size() );
+        assertEquals( "33,Item 33,33", copy.get( 33 ) );
+        copy.close();
+    }
+
+    public void testCancelledBackupKeepsShardNumbersAligned() throws IOException
+    {
+        // Один шард намного больше остальных: маленькие успевают записать копию до отмены
+        StringBuilder name = new StringBuilder();
+        for ( int i = 0; i < 200; i++ )
+        {
+            name.append( 'x' );
+        }
+        int small = 0;
+        for ( int id = 1; id <= 40_000; id++ )
+        {
+            if ( engine.shardOf( id ) == 0 )
+            {
+                engine.put( id + "," + name + "," + id );
+            }
+            else if ( small < 30 )
+            {
+                engine.put( id + ",Item " + id + "," + id );
+                small++;
+            }
+        }
+        File backups = new File( dir, "backups" );
+        BackupChain.Backup first = engine.backup( backups, false, null );
+
+        try
+        {
+            engine.backup( backups, false, ( done, total ) -> done < 2 * BackupChain.SEGMENT_SIZE );
+            fail( "backup was not cancelled" );
+        }
+        catch ( CancellationException expected )
+        {
+        }
+        for ( int i = 0; i < 4; i++ )
+        {
+            assertEquals( 1, new BackupChain( new File( backups, "shard-" + i ) ).list().size() );
+        }
+
+        int added = 40_001;
+        while ( engine.shardOf( added ) == 0 )
+        {
+            added++;
+        }
+        engine.put( added + ",Added,1" );
+        BackupChain.Backup second = engine.backup( backups, false, null );
+        assertEquals( first.number + 1, second.number );
+        assertEquals( 2, engine.listBackups( backups ).size() );
+
+        engine.restoreBackup( backups, first.number );
+        assertFalse( engine.contains( added ) );
+        engine.restoreBackup( backups, second.number );
+        assertEquals( added + ",Added,1", engine.get( added ) );
+    }
+}
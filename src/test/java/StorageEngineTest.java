@@ -0,0 +1,1291 @@
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Unit tests for the headless storage engine.
+ */
+public class StorageEngineTest extends TestCase
+{
+    private File dir;
+    private StorageEngine engine;
+
+    protected void setUp() throws IOException
+    {
+        dir = Files.createTempDirectory( "filedb" ).toFile();
+        engine = new StorageEngine( dir.getPath(), "database.csv", "id.csv" );
+        engine.create( "Id,ProductName,Price,Quantity,ExpirationDate,IsAvailable" );
+    }
+
+    protected void tearDown() throws IOException
+    {
+        engine.drop();
+        deleteRecursively( dir );
+    }
+
+    public void testPutGetUpdateDelete() throws IOException
+    {
+        assertTrue( engine.put( "1,Bread,50.99,15,2024-01-10,true" ) );
+        assertTrue( engine.put( "2,Milk,60.50,20,2024-01-05,true" ) );
+        assertFalse( engine.put( "1,Duplicate,1,1,2024-01-01,false" ) );
+
+        assertEquals( "2,Milk,60.50,20,2024-01-05,true", engine.get( 2 ) );
+        assertTrue( engine.update( 1, "1,Bread,55.00,15,2024-01-10,true" ) );
+        assertEquals( "1,Bread,55.00,15,2024-01-10,true", engine.get( 1 ) );
+
+        assertTrue( engine.delete( 2 ) );
+        assertNull( engine.get( 2 ) );
+        assertTrue( engine.isDeleted( 2 ) );
+        assertFalse( engine.update( 2, "2,Milk,1,1,2024-01-05,true" ) );
+        assertFalse( engine.delete( 3 ) );
+        assertEquals( 1, engine.size() );
+    }
+
+    public void testChannelsReopenAfterCloseAndOpen() throws IOException
+    {
+        engine.put( "1,Bread,50.99,15,2024-01-10,true" );
+        engine.close();
+        engine.open();
+        assertEquals( "1,Bread,50.99,15,2024-01-10,true", engine.get( 1 ) );
+        assertTrue( engine.put( "2,Milk,60.50,20,2024-01-05,true" ) );
+        assertTrue( engine.update( 1, "1,Bread with a longer name,55.00,15,2024-01-10,true" ) );
+        assertEquals( "1,Bread with a longer name,55.00,15,2024-01-10,true", engine.get( 1 ) );
+        assertEquals( "2,Milk,60.50,20,2024-01-05,true", engine.get( 2 ) );
+    }
+
+    public void testChannelsReopenAfterClear() throws IOException
+    {
+        engine.put( "1,Bread,50.99,15,2024-01-10,true" );
+        engine.clear();
+        assertNull( engine.get( 1 ) );
+        assertTrue( engine.put( "1,Cheese,250.00,10,2024-02-15,true" ) );
+        assertEquals( "1,Cheese,250.00,10,2024-02-15,true", engine.get( 1 ) );
+        assertEquals( 1, engine.size() );
+    }
+
+    public void testChannelsReopenAfterRestore() throws IOException
+    {
+        engine.put( "1,Bread,50.99,15,2024-01-10,true" );
+        File copyDb = new File( dir, "copy.csv" );
+        File copyId = new File( dir, "copy_id.csv" );
+        engine.writeCopy( copyDb, copyId );
+        engine.drop();
+
+        assertTrue( engine.restore( copyDb, copyId ) );
+        assertEquals( "1,Bread,50.99,15,2024-01-10,true", engine.get( 1 ) );
+        assertTrue( engine.put( "2,Milk,60.50,20,2024-01-05,true" ) );
+        assertEquals( "2,Milk,60.50,20,2024-01-05,true", engine.get( 2 ) );
+    }
+
+    public void testChannelsReopenAfterDropAndCreate() throws IOException
+    {
+        engine.put( "1,Bread,50.99,15,2024-01-10,true" );
+        engine.drop();
+        engine.create( "Id,ProductName,Price" );
+        assertNull( engine.get( 1 ) );
+        assertTrue( engine.put( "1,Milk,60.50" ) );
+        assertEquals( "1,Milk,60.50", engine.get( 1 ) );
+    }
+
+    public void testClosedEngineFailsCleanly() throws IOException
+    {
+        engine.put( "1,Bread,50.99,15,2024-01-10,true" );
+        engine.close();
+        try
+        {
+            engine.get( 1 );
+            fail( "closed engine returned a record" );
+        }
+        catch ( IOException expected )
+        {
+            assertEquals( "база данных не открыта", expected.getMessage() );
+        }
+        try
+        {
+            engine.put( "2,Milk,60.50,20,2024-01-05,true" );
+            fail( "closed engine accepted a write" );
+        }
+        catch ( IOException expected )
+        {
+            assertEquals( "база данных не открыта", expected.getMessage() );
+        }
+        engine.open();
+        assertEquals( "1,Bread,50.99,15,2024-01-10,true", engine.get( 1 ) );
+        assertFalse( engine.contains( 2 ) );
+    }
+
+    public void testGetDecodesUtf8AndLongRecords() throws IOException
+    {
+        StringBuilder longName = new StringBuilder();
+        for ( int i = 0; i < 100; i++ )
+        {
+            longName.append( "Сыр" );
+        }
+        engine.put( "1,Хлеб бородинский,50.99,15,2024-01-10,true" );
+        engine.put( "2," + longName + ",250.00,10,2024-02-15,true" );
+        engine.put( "3,Milk,60.50,20,2024-01-05,true" );
+
+        assertEquals( "1,Хлеб бородинский,50.99,15,2024-01-10,true", engine.get( 1 ) );
+        assertEquals( "2," + longName + ",250.00,10,2024-02-15,true", engine.get( 2 ) );
+        assertEquals( "3,Milk,60.50,20,2024-01-05,true", engine.get( 3 ) );
+        assertEquals( 1, engine.findByField( "ProductName", "Хлеб бородинский" ).size() );
+    }
+
+    public void testUpdateInPlaceAndOutOfPlace() throws IOException
+    {
+        engine.put( "1,Bread,50.99,15,2024-01-10,true" );
+        engine.put( "2,Milk,60.50,20,2024-01-05,true" );
+        engine.put( "3,Cheese,250.00,10,2024-02-15,true" );
+        long length = engine.getDataFile().length();
+
+        // Короче старой записи - пишется на месте, файл не растет
+        assertTrue( engine.update( 2, "2,Milk,6,20,2024-01-05,true" ) );
+        assertEquals( length, engine.getDataFile().length() );
+        assertEquals( "2,Milk,6,20,2024-01-05,true", engine.get( 2 ) );
+        assertEquals( "3,Cheese,250.00,10,2024-02-15,true", engine.get( 3 ) );
+
+        // Длиннее - переносится в конец, старое место уходит в карту свободного места
+        assertTrue( engine.update( 1, "1,Bread with a much longer name,50.99,15,2024-01-10,true" ) );
+        assertEquals( "1,Bread with a much longer name,50.99,15,2024-01-10,true", engine.get( 1 ) );
+        assertEquals( "2,Milk,6,20,2024-01-05,true", engine.get( 2 ) );
+        assertTrue( engine.freeBytes() > 0 );
+
+        // Новая запись занимает освободившийся слот
+        long grown = engine.getDataFile().length();
+        assertTrue( engine.put( "4,Egg,9,1,2024-01-01,true" ) );
+        assertEquals( grown, engine.getDataFile().length() );
+        assertEquals( "4,Egg,9,1,2024-01-01,true", engine.get( 4 ) );
+
+        List<String> live = new ArrayList<>();
+        engine.scan( live::add );
+        assertEquals( 4, live.size() );
+        assertEquals( "4,Egg,9,1,2024-01-01,true", live.get( 0 ) );
+
+        engine.close();
+        engine.open();
+        assertEquals( 4, engine.size() );
+        assertEquals( "1,Bread with a much longer name,50.99,15,2024-01-10,true", engine.get( 1 ) );
+
+        try
+        {
+            engine.update( 2, "5,Other,1,1,2024-01-01,true" );
+            fail( "update accepted a record with another ID" );
+        }
+        catch ( IllegalArgumentException expected )
+        {
+        }
+    }
+
+    public void testCompactionDropsDeadRecords() throws IOException
+    {
+        for ( int id = 1; id <= 10; id++ )
+        {
+            engine.put( id + ",Product " + id + ",1.00,1,2024-01-01,true" );
+        }
+        engine.delete( 2 );
+        engine.deleteByField( "ProductName", "Product 5" );
+        engine.update( 7, "7,Product 7 with a longer name,1.00,1,2024-01-01,true" );
+        long before = engine.getDataFile().length();
+
+        assertTrue( engine.compact() );
+        assertTrue( engine.getDataFile().length() < before );
+        assertEquals( 8, engine.size() );
+        assertEquals( 0, engine.freeBytes() );
+        assertFalse( engine.contains( 2 ) );
+        assertEquals( "7,Product 7 with a longer name,1.00,1,2024-01-01,true", engine.get( 7 ) );
+        assertTrue( engine.put( "2,Product 2 again,1.00,1,2024-01-01,true" ) );
+
+        engine.close();
+        engine.open();
+        assertEquals( 9, engine.size() );
+        assertEquals( "10,Product 10,1.00,1,2024-01-01,true", engine.get( 10 ) );
+    }
+
+    public void testCompactionRunsInBackground() throws Exception
+    {
+        File compactDir = new File( dir, "compact" );
+        StorageEngine compacting = new StorageEngine( compactDir.getPath(), "database.csv", "id.csv",
+                new StorageOptions().compactionThreshold( 0.5 ).compactionMinDeadRecords( 5 ) );
+        compacting.create( "Id,ProductName" );
+        for ( int id = 1; id <= 10; id++ )
+        {
+            compacting.put( id + ",Product " + id );
+        }
+        long before = compacting.getDataFile().length();
+        for ( int id = 1; id <= 5; id++ )
+        {
+            compacting.delete( id );
+        }
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while ( compacting.getDataFile().length() >= before && System.currentTimeMillis() < deadline )
+        {
+            Thread.sleep( 10 );
+        }
+        assertTrue( compacting.getDataFile().length() < before );
+        assertEquals( 5, compacting.size() );
+        assertEquals( "6,Product 6", compacting.get( 6 ) );
+        compacting.drop();
+    }
+
+    public void testCloseWaitsForCompactionWhileWritersRequestIt() throws Exception
+    {
+        File compactDir = new File( dir, "compact" );
+        StorageEngine compacting = new StorageEngine( compactDir.getPath(), "database.csv", "id.csv",
+                new StorageOptions().compactionThreshold( 0.5 ).compactionMinDeadRecords( 5 ) );
+        compacting.create( "Id,ProductName" );
+        List<String> records = new ArrayList<>();
+        for ( int id = 1; id <= 200_000; id++ )
+        {
+            records.add( id + ",Product " + id % 2 );
+        }
+        compacting.bulkLoad( records.iterator() );
+        compacting.deleteByField( "ProductName", "Product 1" );
+        File target = new File( compactDir, "database.csv.compact" );
+        long deadline = System.currentTimeMillis() + 10_000;
+        while ( !target.exists() && System.currentTimeMillis() < deadline )
+        {
+            Thread.sleep( 1 );
+        }
+        assertTrue( target.exists() );
+
+        // Каждое удаление под эксклюзивной блокировкой снова просит сжатие, пока close ждет текущее
+        Thread writer = new Thread( () -> {
+            try
+            {
+                for ( int id = 2; id <= 200_000; id += 2 )
+                {
+                    compacting.delete( id );
+                }
+            }
+            catch ( IOException expected )
+            {
+                // база закрыта
+            }
+        } );
+        writer.start();
+        long start = System.nanoTime();
+        compacting.close();
+        long closeMillis = ( System.nanoTime() - start ) / 1_000_000;
+        writer.join();
+        assertTrue( closeMillis + " ms", closeMillis < 30_000 );
+        assertFalse( target.exists() );
+
+        compacting.open();
+        assertNull( compacting.get( 1 ) );
+        compacting.drop();
+    }
+
+    public void testCompactionDoesNotBlockWritersAndKeepsTheirChanges() throws Exception
+    {
+        List<String> records = new ArrayList<>();
+        for ( int id = 1; id <= 200_000; id++ )
+        {
+            records.add( id + ",Product " + id + ",1.00,1,2024-01-01,true" );
+        }
+        engine.bulkLoad( records.iterator() );
+        for ( int id = 1; id <= 200_000; id += 2 )
+        {
+            engine.delete( id );
+        }
+
+        long[] compactNanos = {0};
+        Throwable[] failure = {null};
+        Thread compaction = new Thread( () -> {
+            long start = System.nanoTime();
+            try
+            {
+                engine.compact();
+            }
+            catch ( Throwable e )
+            {
+                failure[0] = e;
+            }
+            compactNanos[0] = System.nanoTime() - start;
+        } );
+        File target = new File( dir, "database.csv.compact" );
+        compaction.start();
+        while ( !target.exists() && compaction.isAlive() )
+        {
+            Thread.sleep( 1 );
+        }
+
+        // Запись идет, пока живые строки копируются без блокировки
+        long start = System.nanoTime();
+        assertTrue( engine.put( "300000,New product,1.00,1,2024-01-01,true" ) );
+        assertTrue( engine.update( 4, "4,P4,1.00,1,2024-01-01,true" ) );
+        assertTrue( engine.update( 6, "6,Product 6 with a much longer name than before,1.00,1,2024-01-01,true" ) );
+        assertTrue( engine.delete( 8 ) );
+        assertTrue( engine.put( "300001,Another product,1.00,1,2024-01-01,true" ) );
+        long writeNanos = System.nanoTime() - start;
+        compaction.join();
+        assertNull( failure[0] );
+        assertTrue( writeNanos + " ns of writes during " + compactNanos[0] + " ns of compaction", writeNanos < compactNanos[0] / 2 );
+
+        for ( int pass = 0; pass < 2; pass++ )
+        {
+            assertEquals( 100_001, engine.size() );
+            assertEquals( "300000,New product,1.00,1,2024-01-01,true", engine.get( 300_000 ) );
+            assertEquals( "4,P4,1.00,1,2024-01-01,true", engine.get( 4 ) );
+            assertEquals( "6,Product 6 with a much longer name than before,1.00,1,2024-01-01,true", engine.get( 6 ) );
+            assertNull( engine.get( 8 ) );
+            assertEquals( "300001,Another product,1.00,1,2024-01-01,true", engine.get( 300_001 ) );
+            assertEquals( "10,Product 10,1.00,1,2024-01-01,true", engine.get( 10 ) );
+            assertEquals( 1, engine.findAll( line -> line.fieldEquals( 0, "6".getBytes( java.nio.charset.StandardCharsets.UTF_8 ) ) ).size() );
+            engine.close();
+            engine.open();
+        }
+    }
+
+    public void testBackgroundCompactionFailureIsRethrown() throws Exception
+    {
+        File compactDir = new File( dir, "compact" );
+        StorageEngine compacting = new StorageEngine( compactDir.getPath(), "database.csv", "id.csv",
+                new StorageOptions().compactionThreshold( 0.5 ).compactionMinDeadRecords( 5 ) );
+        compacting.create( "Id,ProductName" );
+        for ( int id = 1; id <= 10; id++ )
+        {
+            compacting.put( id + ",Product " + id );
+        }
+        // Копию сжатия нельзя создать: на ее месте директория
+        File blocker = new File( compactDir, "database.csv.compact" );
+        assertTrue( new File( blocker, "inside" ).mkdirs() );
+        for ( int id = 1; id <= 5; id++ )
+        {
+            compacting.delete( id );
+        }
+
+        try
+        {
+            compacting.close();
+            fail( "background compaction failure was lost" );
+        }
+        catch ( IOException expected )
+        {
+            assertTrue( expected.getMessage(), expected.getMessage().contains( "сжатия" ) );
+        }
+        deleteRecursively( blocker );
+        compacting.open();
+        assertEquals( 5, compacting.size() );
+        assertTrue( compacting.compact() );
+        assertEquals( "6,Product 6", compacting.get( 6 ) );
+        compacting.drop();
+    }
+
+    public void testScanAndFieldOperations() throws IOException
+    {
+        engine.put( "1,Bread,50.99,15,2024-01-10,true" );
+        engine.put( "2,Milk,60.50,20,2024-01-05,true" );
+        engine.put( "3,Cheese,250.00,10,2024-02-15,false" );
+
+        assertEquals( 2, engine.findByField( "isavailable", "true" ).size() );
+        assertEquals( 1, engine.deleteByField( "ProductName", "Milk" ) );
+
+        List<String> live = new ArrayList<>();
+        engine.scan( live::add );
+        assertEquals( 2, live.size() );
+        assertTrue( live.get( 0 ).startsWith( "1," ) );
+        assertTrue( live.get( 1 ).startsWith( "3," ) );
+    }
+
+    public void testReopenRebuildsIndex() throws IOException
+    {
+        engine.put( "1,Bread,50.99,15,2024-01-10,true" );
+        engine.put( "2,Milk,60.50,20,2024-01-05,true" );
+        engine.close();
+
+        StorageEngine reopened = new StorageEngine( dir.getPath(), "database.csv", "id.csv" );
+        reopened.open();
+        assertEquals( 6, reopened.getColumns().length );
+        assertEquals( "2,Milk,60.50,20,2024-01-05,true", reopened.get( 2 ) );
+        reopened.close();
+    }
+
+    public void testIndexLogSurvivesRestartWithoutClose() throws IOException
+    {
+        engine.put( "1,Bread,50.99,15,2024-01-10,true" );
+        engine.put( "2,Milk,60.50,20,2024-01-05,true" );
+        engine.delete( 1 );
+
+        // Строка, дописанная в файл без записи в журнал (сбой между записью данных и индекса)
+        File dbFile = new File( dir, "database.csv" );
+        Files.write( dbFile.toPath(), ( "3,Cheese,250.00,10,2024-02-15,true" + System.lineSeparator() ).getBytes( "UTF-8" ),
+                java.nio.file.StandardOpenOption.APPEND );
+
+        List<String> log = Files.readAllLines( new File( dir, "id.csv" ).toPath() );
+        assertEquals( 3, log.size() );
+        assertEquals( "1,-1", log.get( 2 ) );
+
+        StorageEngine reopened = new StorageEngine( dir.getPath(), "database.csv", "id.csv" );
+        reopened.open();
+        assertTrue( reopened.isDeleted( 1 ) );
+        assertEquals( "2,Milk,60.50,20,2024-01-05,true", reopened.get( 2 ) );
+        assertEquals( "3,Cheese,250.00,10,2024-02-15,true", reopened.get( 3 ) );
+        reopened.close();
+        assertEquals( 3, Files.readAllLines( new File( dir, "id.csv" ).toPath() ).size() );
+    }
+
+    public void testWriteAheadLogReplaysLostWrites() throws IOException
+    {
+        File walDir = new File( dir, "wal" );
+        StorageEngine logged = new StorageEngine( walDir.getPath(), "database.csv", "id.csv",
+                new StorageOptions().durability( Durability.SYNC ) );
+        logged.create( "Id,ProductName,Price" );
+        logged.put( "1,Bread,50.99" );
+        logged.put( "2,Milk,60.50" );
+        logged.update( 2, "2,Milk,61.00" );
+        logged.delete( 1 );
+
+        // Сбой: до диска не дошли ни строки данных, ни индекс, а последняя строка оборвалась на середине
+        File dbFile = new File( walDir, "database.csv" );
+        Files.write( dbFile.toPath(), ( "Id,ProductName,Price" + System.lineSeparator() + "3,Chee" ).getBytes( "UTF-8" ) );
+        Files.delete( new File( walDir, "id.csv" ).toPath() );
+
+        StorageEngine recovered = new StorageEngine( walDir.getPath(), "database.csv", "id.csv" );
+        recovered.open();
+        assertTrue( recovered.isDeleted( 1 ) );
+        assertEquals( "2,Milk,61.00", recovered.get( 2 ) );
+        assertFalse( recovered.contains( 3 ) );
+        assertTrue( recovered.put( "3,Cheese,250.00" ) );
+        assertTrue( new File( walDir, "database.csv.wal" ).length() > 0 );
+        recovered.close();
+        assertEquals( 0, new File( walDir, "database.csv.wal" ).length() );
+
+        recovered.open();
+        assertEquals( "3,Cheese,250.00", recovered.get( 3 ) );
+        assertEquals( 2, recovered.size() );
+        recovered.drop();
+    }
+
+    public void testInPlaceUpdateWaitsForLogInGroupModes() throws IOException
+    {
+        File walDir = new File( dir, "wal" );
+        // Поток сброса копит группу минуту: без правки на месте журнал оставался бы в памяти
+        StorageEngine logged = new StorageEngine( walDir.getPath(), "database.csv", "id.csv",
+                new StorageOptions().durability( Durability.ASYNC ).groupCommitMillis( 60_000 ).groupCommitRecords( 1000 ) );
+        logged.create( "Id,ProductName,Price" );
+        logged.put( "1,Bread,50.99" );
+        logged.put( "2,Milk,60.50" );
+        File walFile = new File( walDir, "database.csv.wal" );
+        assertEquals( 0, walFile.length() );
+
+        assertTrue( logged.update( 2, "2,Kefir,61" ) );
+        assertTrue( walFile.length() > 0 );
+
+        // Сбой: правка дошла до файла наполовину, поток сброса так и не запустился
+        File dbFile = new File( walDir, "database.csv" );
+        String text = new String( Files.readAllBytes( dbFile.toPath() ), "UTF-8" );
+        int row = text.indexOf( "2,Kefir" );
+        byte[] bytes = Files.readAllBytes( dbFile.toPath() );
+        System.arraycopy( "2,Mi".getBytes( "UTF-8" ), 0, bytes, row, 4 );
+        Files.write( dbFile.toPath(), bytes );
+
+        StorageEngine recovered = new StorageEngine( walDir.getPath(), "database.csv", "id.csv" );
+        recovered.open();
+        assertEquals( "1,Bread,50.99", recovered.get( 1 ) );
+        assertEquals( "2,Kefir,61", recovered.get( 2 ) );
+        recovered.close();
+        logged.close();
+    }
+
+    public void testBulkLoadSkipsDuplicates() throws IOException
+    {
+        engine.put( "1,Bread,50.99,15,2024-01-10,true" );
+        File source = new File( dir, "catalogue.csv" );
+        Files.write( source.toPath(), ( "Id,ProductName,Price,Quantity,ExpirationDate,IsAvailable\r\n"
+                + "1,Bread again,1,1,2024-01-01,true\r\n"
+                + "2,Milk,60.50,20,2024-01-05,true\r\n"
+                + "\r\n"
+                + "3,Сыр,250.00,10,2024-02-15,true\r\n"
+                + "2,Milk again,1,1,2024-01-01,true\r\n"
+                + "4,Egg,9,1,2024-01-01,true" ).getBytes( "UTF-8" ) );
+
+        StorageEngine.LoadResult result = engine.bulkLoad( source );
+        assertEquals( 3, result.loaded );
+        assertEquals( 2, result.duplicates );
+        assertEquals( "1,Bread,50.99,15,2024-01-10,true", engine.get( 1 ) );
+        assertEquals( "3,Сыр,250.00,10,2024-02-15,true", engine.get( 3 ) );
+        assertEquals( "4,Egg,9,1,2024-01-01,true", engine.get( 4 ) );
+
+        List<String> more = new ArrayList<>();
+        for ( int id = 5; id <= 1000; id++ )
+        {
+            more.add( id + ",Product " + id + ",1.00,1,2024-01-01,true" );
+        }
+        assertEquals( 996, engine.bulkLoad( more.iterator() ).loaded );
+        assertTrue( engine.put( "1001,Cheese,250.00,10,2024-02-15,true" ) );
+
+        engine.close();
+        engine.open();
+        assertEquals( 1001, engine.size() );
+        assertEquals( "500,Product 500,1.00,1,2024-01-01,true", engine.get( 500 ) );
+        assertEquals( "1001,Cheese,250.00,10,2024-02-15,true", engine.get( 1001 ) );
+
+        try
+        {
+            engine.bulkLoad( java.util.Arrays.asList( "1002,Ok", "x,Broken" ).iterator() );
+            fail( "bulk load accepted a record without an ID" );
+        }
+        catch ( IllegalArgumentException expected )
+        {
+        }
+        assertEquals( "1002,Ok", engine.get( 1002 ) );
+    }
+
+    public void testBulkLoadWritesIndexOnceAtCheckpoint() throws IOException
+    {
+        File logFile = new File( dir, "bulk.csv" );
+        LoggedOffsetIndex index = new LoggedOffsetIndex( logFile );
+        index.load();
+        IntLongHashMap entries = new IntLongHashMap();
+        for ( int id = 1; id <= 100; id++ )
+        {
+            entries.put( id, id * 10L );
+        }
+        index.putAll( entries );
+        assertEquals( 100, index.size() );
+        assertEquals( 0, logFile.length() );
+        index.checkpoint();
+        assertEquals( 100, Files.readAllLines( logFile.toPath() ).size() );
+        index.close();
+
+        List<String> records = new ArrayList<>();
+        for ( int id = 1; id <= 500; id++ )
+        {
+            records.add( id + ",Product " + id + ",1.00,1,2024-01-01,true" );
+        }
+        engine.bulkLoad( records.iterator() );
+        assertEquals( 500, Files.readAllLines( new File( dir, "id.csv" ).toPath() ).size() );
+
+        // Без закрытия: индекс уже на диске после контрольной точки загрузки
+        StorageEngine reopened = new StorageEngine( dir.getPath(), "database.csv", "id.csv" );
+        reopened.open();
+        assertEquals( 500, reopened.size() );
+        assertEquals( "250,Product 250,1.00,1,2024-01-01,true", reopened.get( 250 ) );
+        reopened.close();
+    }
+
+    public void testSecondaryIndexFollowsChanges() throws IOException
+    {
+        engine.put( "1,Bread,50.99,15,2024-01-10,true" );
+        engine.put( "2,Milk,60.50,20,2024-01-05,true" );
+        assertTrue( engine.createIndex( "ProductName" ) );
+        assertFalse( engine.createIndex( "productname" ) );
+        assertTrue( engine.createIndex( "IsAvailable" ) );
+        assertTrue( new File( dir, "id.col1.sidx" ).exists() );
+
+        engine.put( "3,Milk,70.00,5,2024-01-07,false" );
+        engine.update( 1, "1,Rye bread with a much longer name,50.99,15,2024-01-10,false" );
+        engine.delete( 2 );
+        assertEquals( 1, engine.findByField( "ProductName", "Milk" ).size() );
+        assertEquals( 0, engine.findByField( "ProductName", "Bread" ).size() );
+
+        List<String> unavailable = engine.findByField( "IsAvailable", "false" );
+        assertEquals( 2, unavailable.size() );
+        assertTrue( unavailable.get( 0 ).startsWith( "3," ) ); // порядок файла: запись 1 перенесена в конец
+        assertTrue( unavailable.get( 1 ).startsWith( "1," ) );
+
+        engine.close();
+        engine.open();
+        assertEquals( java.util.Arrays.asList( "ProductName", "IsAvailable" ), engine.getIndexedColumns() );
+        assertEquals( 2, engine.findByField( "IsAvailable", "false" ).size() );
+
+        // После сбоя вторичный индекс не доверяется файлу и перестраивается
+        engine.put( "4,Milk,60.50,20,2024-01-05,true" );
+        StorageEngine recovered = new StorageEngine( dir.getPath(), "database.csv", "id.csv" );
+        recovered.open();
+        assertEquals( 2, recovered.findByField( "ProductName", "Milk" ).size() );
+        assertEquals( 2, recovered.deleteByField( "ProductName", "Milk" ) );
+        assertEquals( 0, recovered.findByField( "ProductName", "Milk" ).size() );
+        assertEquals( 1, recovered.size() );
+
+        recovered.clear();
+        assertEquals( 2, recovered.getIndexedColumns().size() );
+        recovered.put( "5,Milk,60.50,20,2024-01-05,true" );
+        assertEquals( 1, recovered.findByField( "ProductName", "Milk" ).size() );
+        assertTrue( recovered.dropIndex( "ProductName" ) );
+        assertFalse( new File( dir, "id.col1.sidx" ).exists() );
+        assertEquals( 1, recovered.findByField( "ProductName", "Milk" ).size() );
+        recovered.close();
+    }
+
+    public void testRangeIndexQueries() throws IOException
+    {
+        engine.put( "1,Bread,50.99,15,2024-01-10,true" );
+        engine.put( "2,Milk,60.50,20,2024-01-05,true" );
+        engine.put( "3,Cheese,250.00,10,2024-02-15,true" );
+        engine.put( "4,Egg,9,1,not a date,true" );
+        assertTrue( engine.createRangeIndex( "Price", RangeIndex.Type.NUMBER ) );
+        assertTrue( engine.createRangeIndex( "ExpirationDate", RangeIndex.Type.DATE ) );
+        assertFalse( engine.createRangeIndex( "price", RangeIndex.Type.NUMBER ) );
+
+        List<StorageEngine.RecordRef> cheap = engine.findRange( "Price", "50", "100" );
+        assertEquals( 2, cheap.size() );
+        assertEquals( 1, cheap.get( 0 ).id );
+        assertEquals( 2, cheap.get( 1 ).id );
+        try ( java.nio.channels.FileChannel channel = java.nio.channels.FileChannel.open( engine.getDataFile().toPath() ) )
+        {
+            assertEquals( "2,Milk,60.50,20,2024-01-05,true", StorageEngine.readRecord( channel, cheap.get( 1 ).offset ) );
+        }
+
+        // Даты до 2024-02-01 (граница не включается), упорядочены по дате
+        List<Integer> expiring = new ArrayList<>();
+        engine.scanRange( "ExpirationDate", null, true, "2024-02-01", false, ref -> expiring.add( ref.id ) );
+        assertEquals( java.util.Arrays.asList( 2, 1 ), expiring );
+
+        engine.update( 2, "2,Milk,120.00,20,2024-01-05,true" );
+        engine.delete( 1 );
+        engine.put( "5,Butter,75,3,2024-03-01,true" );
+        List<Integer> ordered = new ArrayList<>();
+        engine.scanRange( "Price", null, true, null, true, ref -> ordered.add( ref.id ) );
+        assertEquals( java.util.Arrays.asList( 4, 5, 2, 3 ), ordered );
+
+        engine.close();
+        engine.open();
+        assertEquals( RangeIndex.Type.DATE, engine.getRangeIndexType( "ExpirationDate" ) );
+        assertEquals( 1, engine.findRange( "Price", "100", "200" ).size() );
+        try
+        {
+            engine.findRange( "ExpirationDate", "tomorrow", null );
+            fail( "range accepted a bound that is not a date" );
+        }
+        catch ( IllegalArgumentException expected )
+        {
+        }
+        assertTrue( engine.dropRangeIndex( "Price" ) );
+        assertNull( engine.getRangeIndexType( "Price" ) );
+    }
+
+    public void testTypedSchemaAndBinaryCopy() throws IOException
+    {
+        File typedDir = new File( dir, "typed" );
+        StorageEngine typed = new StorageEngine( typedDir.getPath(), "database.csv", "id.csv" );
+        typed.create( "Id:int,ProductName:string,Price:decimal,Quantity:int,ExpirationDate:date,IsAvailable:boolean" );
+        assertEquals( "Price", typed.getColumns()[2] );
+        assertEquals( 2, typed.columnIndex( "price" ) );
+        typed.put( "1,Bread,50.99,15,2024-01-10,true" );
+        typed.put( "2,Milk,60.50,20,2024-01-05,true" );
+        try
+        {
+            typed.put( "3,Cheese,cheap,10,2024-02-15,true" );
+            fail( "typed engine accepted text in a decimal column" );
+        }
+        catch ( IllegalArgumentException expected )
+        {
+        }
+        assertFalse( typed.contains( 3 ) );
+        assertTrue( typed.createRangeIndex( "ExpirationDate" ) );
+        assertEquals( RangeIndex.Type.DATE, typed.getRangeIndexType( "ExpirationDate" ) );
+
+        File copy = new File( dir, "copy.rows" );
+        assertEquals( 2, typed.writeBinaryCopy( copy ) );
+        typed.clear();
+        assertTrue( typed.getSchema().isTyped() );
+        assertEquals( 2, typed.bulkLoadBinary( copy ).loaded );
+        assertEquals( "1,Bread,50.99,15,2024-01-10,true", typed.get( 1 ) );
+        assertEquals( 1, typed.findRange( "ExpirationDate", null, "2024-01-06" ).size() );
+
+        typed.close();
+        typed.open();
+        assertEquals( Schema.Type.BOOLEAN, typed.getSchema().getType( 5 ) );
+        typed.drop();
+    }
+
+    public void testFieldSearchHonoursQuotedCommas() throws IOException
+    {
+        engine.put( "1,\"Cheese, aged\",250.00,10,2024-02-15,true" );
+        engine.put( "2,Cheese,120.00,5,2024-02-15,true" );
+        engine.put( "3,\"Cheese, aged\",260.00,3,2024-03-01,false" );
+        engine.delete( 3 );
+
+        assertEquals( 1, engine.findByField( "ProductName", "Cheese, aged" ).size() );
+        assertEquals( "2,Cheese,120.00,5,2024-02-15,true", engine.findByField( "ProductName", "Cheese" ).get( 0 ) );
+        assertEquals( 1, engine.findByField( "Price", "250.00" ).size() );
+
+        engine.createIndex( "ProductName" );
+        assertEquals( 1, engine.findByField( "ProductName", "Cheese, aged" ).size() );
+        assertEquals( 1, engine.deleteByField( "ProductName", "Cheese, aged" ) );
+        assertEquals( 1, engine.size() );
+    }
+
+    public void testParallelScanKeepsFileOrderAndSkipsDeleted() throws IOException
+    {
+        engine.close();
+        engine = new StorageEngine( dir.getPath(), "database.csv", "id.csv", new StorageOptions().scanParallelism( 4 ) );
+        engine.open();
+        List<String> records = new ArrayList<>();
+        for ( int id = 1; id <= 200000; id++ )
+        {
+            records.add( id + ",Product " + ( id % 100 ) + "," + ( id % 1000 ) + ".50,1,2024-01-01,true" );
+        }
+        engine.bulkLoad( records.iterator() );
+        for ( int id = 7; id <= 200000; id += 1000 )
+        {
+            engine.delete( id );
+        }
+        engine.update( 8, "8,Product 7,7.50,1,2024-01-01,true" );
+
+        List<String> expected = new ArrayList<>();
+        engine.scan( line ->
+        {
+            if ( line.split( "," )[1].equals( "Product 7" ) )
+            {
+                expected.add( line );
+            }
+        } );
+        assertEquals( 1801, expected.size() );
+        assertEquals( expected, engine.findByField( "ProductName", "Product 7" ) );
+        assertEquals( expected, engine.findAll( line -> line.fieldEquals( 1, "Product 7".getBytes() ) ) );
+        assertEquals( 400, engine.findAll( line -> line.parseDouble( 2 ) > 998 ).size() );
+
+        assertEquals( 1801, engine.deleteByField( "ProductName", "Product 7" ) );
+        assertTrue( engine.findByField( "ProductName", "Product 7" ).isEmpty() );
+    }
+
+    public void testSearchReportsProgressInChunksAndCancels() throws IOException
+    {
+        engine.close();
+        engine = new StorageEngine( dir.getPath(), "database.csv", "id.csv", new StorageOptions().scanParallelism( 1 ) );
+        engine.open();
+        List<String> records = new ArrayList<>();
+        for ( int id = 1; id <= 100000; id++ )
+        {
+            records.add( id + ",Product " + ( id % 10 ) + ",1.00,1,2024-01-01,true" );
+        }
+        engine.bulkLoad( records.iterator() );
+
+        List<String> found = new ArrayList<>();
+        List<Integer> chunks = new ArrayList<>();
+        long[] last = {0};
+        engine.findByField( "ProductName", "Product 3", chunk ->
+        {
+            chunks.add( chunk.size() );
+            found.addAll( chunk );
+        }, ( done, total ) ->
+        {
+            assertTrue( done >= last[0] && done <= total );
+            last[0] = done;
+            return true;
+        } );
+        assertEquals( engine.findByField( "ProductName", "Product 3" ), found );
+        assertEquals( 10000, found.size() );
+        assertTrue( chunks.size() > 1 );
+        assertEquals( engine.getDataFile().length(), last[0] );
+
+        List<String> partial = new ArrayList<>();
+        try
+        {
+            engine.findByField( "ProductName", "Product 3", partial::addAll, ( done, total ) -> partial.isEmpty() );
+            fail( "search was not cancelled" );
+        }
+        catch ( CancellationException expected )
+        {
+        }
+        assertTrue( partial.size() > 0 && partial.size() < 10000 );
+
+        int[] visited = {0};
+        try
+        {
+            engine.scanLines( line -> visited[0]++, ( done, total ) -> visited[0] < 50000 );
+            fail( "scan was not cancelled" );
+        }
+        catch ( CancellationException expected )
+        {
+        }
+        assertTrue( visited[0] < 100000 );
+    }
+
+    public void testCancelledCopyLeavesNoFiles() throws IOException
+    {
+        List<String> records = new ArrayList<>();
+        for ( int id = 1; id <= 50000; id++ )
+        {
+            records.add( id + ",Product,1.00,1,2024-01-01,true" );
+        }
+        engine.bulkLoad( records.iterator() );
+        File copy = new File( dir, "copy.csv" );
+        File copyIds = new File( dir, "copy_id.csv" );
+        try
+        {
+            engine.writeCopy( copy, copyIds, ( done, total ) -> done < total / 2 );
+            fail( "copy was not cancelled" );
+        }
+        catch ( CancellationException expected )
+        {
+        }
+        assertFalse( copy.exists() );
+        assertFalse( copyIds.exists() );
+    }
+
+    public void testMappedScanSeesLaterWrites() throws IOException
+    {
+        engine.close();
+        engine = new StorageEngine( dir.getPath(), "database.csv", "id.csv",
+                new StorageOptions().mappedScan( true ).scanParallelism( 3 ) );
+        engine.open();
+        List<String> records = new ArrayList<>();
+        for ( int id = 1; id <= 100000; id++ )
+        {
+            records.add( id + ",Product " + ( id % 10 ) + ",1.00,1,2024-01-01,true" );
+        }
+        engine.bulkLoad( records.iterator() );
+        assertEquals( 10000, engine.findByField( "ProductName", "Product 3" ).size() );
+
+        engine.delete( 3 );
+        engine.update( 13, "13,Product 4,1.00,1,2024-01-01,true" );
+        engine.put( "100001,Product 3,1.00,1,2024-01-01,true" );
+        List<String> found = engine.findByField( "ProductName", "Product 3" );
+        assertEquals( 9999, found.size() );
+        assertEquals( "23,Product 3,1.00,1,2024-01-01,true", found.get( 0 ) );
+        assertEquals( "100001,Product 3,1.00,1,2024-01-01,true", found.get( found.size() - 1 ) );
+
+        engine.compact();
+        assertEquals( 9999, engine.findByField( "ProductName", "Product 3" ).size() );
+        int[] live = { 0 };
+        engine.scanLines( line -> live[0]++ );
+        assertEquals( 100000, live[0] );
+    }
+
+    public void testMappedScanDoesNotSeeRowsRewrittenDuringParsing() throws Exception
+    {
+        engine.close();
+        engine = new StorageEngine( dir.getPath(), "database.csv", "id.csv",
+                new StorageOptions().mappedScan( true ).scanParallelism( 3 ) );
+        engine.open();
+        List<String> records = new ArrayList<>();
+        for ( int id = 1; id <= 20000; id++ )
+        {
+            records.add( id + ",Product 3,1.00,1,2024-01-01,true" );
+        }
+        engine.bulkLoad( records.iterator() );
+
+        // В каждой версии не больше одной строки переписано на месте в Product 4
+        AtomicBoolean stop = new AtomicBoolean();
+        Throwable[] failure = {null};
+        Thread writer = new Thread( () -> {
+            try
+            {
+                for ( int id = 1; !stop.get(); id = id % 20000 + 1 )
+                {
+                    engine.update( id, id + ",Product 4,1.00,1,2024-01-01,true" );
+                    engine.update( id, id + ",Product 3,1.00,1,2024-01-01,true" );
+                }
+            }
+            catch ( Throwable e )
+            {
+                failure[0] = e;
+            }
+        } );
+        writer.start();
+        try
+        {
+            for ( int i = 0; i < 50; i++ )
+            {
+                List<String> found = engine.findByField( "ProductName", "Product 3" );
+                assertTrue( found.size() + " rows", found.size() == 20000 || found.size() == 19999 );
+                for ( String record : found )
+                {
+                    assertTrue( record, record.endsWith( ",Product 3,1.00,1,2024-01-01,true" ) );
+                }
+            }
+        }
+        finally
+        {
+            stop.set( true );
+            writer.join();
+        }
+        assertNull( failure[0] );
+    }
+
+    public void testMappedIndexReopensWithoutScan() throws IOException
+    {
+        File mappedDir = new File( dir, "mapped" );
+        StorageOptions options = new StorageOptions().mappedIndex( true );
+        StorageEngine mapped = new StorageEngine( mappedDir.getPath(), "database.csv", "id.csv", options );
+        mapped.create( "Id,ProductName,Price" );
+        mapped.put( "1,Bread,50.99" );
+        mapped.put( "100000,Milk,60.50" );
+        mapped.delete( 1 );
+        mapped.close();
+        assertTrue( new File( mappedDir, "id.idx" ).exists() );
+
+        StorageEngine reader = new StorageEngine( mappedDir.getPath(), "database.csv", "id.csv",
+                new StorageOptions().mappedIndex( true ).readOnly( true ) );
+        reader.open();
+        assertTrue( reader.isDeleted( 1 ) );
+        assertEquals( "100000,Milk,60.50", reader.get( 100000 ) );
+        assertEquals( 1, reader.size() );
+        try
+        {
+            reader.put( "2,Cheese,250.00" );
+            fail( "read-only engine accepted a write" );
+        }
+        catch ( IOException expected )
+        {
+        }
+        reader.close();
+
+        mapped.open();
+        assertTrue( mapped.put( "2,Cheese,250.00" ) );
+        assertEquals( "2,Cheese,250.00", mapped.get( 2 ) );
+        mapped.drop();
+        assertFalse( new File( mappedDir, "id.idx" ).exists() );
+    }
+
+    public void testReadOnlyEnginesShareGrowingMappedIndex() throws Exception
+    {
+        File mappedDir = new File( dir, "mapped" );
+        StorageEngine writer = new StorageEngine( mappedDir.getPath(), "database.csv", "id.csv",
+                new StorageOptions().mappedIndex( true ) );
+        writer.create( "Id,ProductName,Price" );
+        writer.put( "1,Bread,50.99" );
+        StorageEngine[] readers = new StorageEngine[2];
+        for ( int i = 0; i < readers.length; i++ )
+        {
+            readers[i] = new StorageEngine( mappedDir.getPath(), "database.csv", "id.csv",
+                    new StorageOptions().mappedIndex( true ).readOnly( true ) );
+            readers[i].open();
+        }
+
+        // Индекс вырастает на несколько фрагментов по 64 МБ после открытия читателей
+        int[] ids = { 1, 10_000_000, 18_400_000, 26_800_000, 35_200_000 };
+        for ( int i = 1; i < ids.length; i++ )
+        {
+            writer.put( ids[i] + ",Product " + ids[i] + ",1.00" );
+        }
+
+        // Читатели одновременно отображают новые фрагменты, начиная с последнего
+        Throwable[] failure = {null};
+        List<Thread> threads = new ArrayList<>();
+        for ( StorageEngine reader : readers )
+        {
+            for ( int t = 0; t < 4; t++ )
+            {
+                threads.add( new Thread( () -> {
+                    try
+                    {
+                        for ( int i = ids.length - 1; i > 0; i-- )
+                        {
+                            assertEquals( ids[i] + ",Product " + ids[i] + ",1.00", reader.get( ids[i] ) );
+                        }
+                        assertEquals( "1,Bread,50.99", reader.get( 1 ) );
+                    }
+                    catch ( Throwable e )
+                    {
+                        failure[0] = e;
+                    }
+                } ) );
+            }
+        }
+        for ( Thread thread : threads )
+        {
+            thread.start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        assertNull( failure[0] );
+        for ( StorageEngine reader : readers )
+        {
+            assertNull( reader.get( 35_200_001 ) );
+            reader.close();
+        }
+        writer.drop();
+    }
+
+    public void testMappedIndexRejectsNegativeIdBeforeLoggingIt() throws IOException
+    {
+        File mappedDir = new File( dir, "mapped" );
+        StorageEngine mapped = new StorageEngine( mappedDir.getPath(), "database.csv", "id.csv",
+                new StorageOptions().mappedIndex( true ).durability( Durability.SYNC ) );
+        mapped.create( "Id,ProductName,Price" );
+        mapped.put( "1,Bread,50.99" );
+        try
+        {
+            mapped.put( "-5,Broken,1" );
+            fail( "mapped index accepted a negative ID" );
+        }
+        catch ( IllegalArgumentException expected )
+        {
+        }
+        mapped.put( "2,Milk,60.50" );
+
+        // Сбой без закрытия: при открытии повторяется весь журнал
+        assertTrue( new File( mappedDir, "database.csv.wal" ).length() > 0 );
+        StorageEngine reopened = new StorageEngine( mappedDir.getPath(), "database.csv", "id.csv",
+                new StorageOptions().mappedIndex( true ) );
+        reopened.open();
+        assertEquals( "2,Milk,60.50", reopened.get( 2 ) );
+        assertFalse( reopened.contains( -5 ) );
+        assertEquals( 2, reopened.size() );
+        reopened.close();
+        reopened.open();
+        assertEquals( 2, reopened.size() );
+        reopened.drop();
+        mapped.close();
+    }
+
+    public void testCopySkipsDeletedRecords() throws IOException
+    {
+        engine.put( "1,Bread,50.99,15,2024-01-10,true" );
+        engine.put( "2,Milk,60.50,20,2024-01-05,true" );
+        engine.delete( 1 );
+
+        File copyDb = new File( dir, "copy.csv" );
+        File copyId = new File( dir, "copy_id.csv" );
+        engine.writeCopy( copyDb, copyId );
+
+        StorageEngine restored = new StorageEngine( new File( dir, "restored" ).getPath(), "database.csv", "id.csv" );
+        assertTrue( restored.restore( copyDb, copyId ) );
+        assertNull( restored.get( 1 ) );
+        assertEquals( "2,Milk,60.50,20,2024-01-05,true", restored.get( 2 ) );
+        restored.drop();
+    }
+
+    public void testIncrementalBackupRestoresPointInTime() throws IOException
+    {
+        List<String> records = new ArrayList<>();
+        for ( int id = 1; id <= 30000; id++ )
+        {
+            records.add( id + ",Product number " + id + " with a fairly long name," + id + ".50,10,2024-01-10,true" );
+        }
+        engine.bulkLoad( records.iterator() );
+        engine.createIndex( "ProductName" );
+        File backups = new File( dir, "backups" );
+
+        BackupChain.Backup full = engine.backup( backups, false, null );
+        assertTrue( full.isFull() );
+        assertEquals( full.totalSegments, full.segments );
+        assertTrue( full.segments > 2 );
+
+        engine.update( 5, "5,Bread,1.00,10,2024-01-10,true" );
+        BackupChain.Backup second = engine.backup( backups, false, null );
+        assertEquals( full.number, second.parent );
+        assertTrue( second.segments < full.segments );
+        assertTrue( second.size() < full.size() / 2 );
+
+        engine.delete( 5 );
+        engine.put( "30001,Milk,60.50,20,2024-01-05,true" );
+        BackupChain.Backup third = engine.backup( backups, false, null );
+        engine.update( 7, "7,Cheese,2.00,10,2024-01-10,true" );
+        assertEquals( 3, engine.listBackups( backups ).size() );
+
+        engine.restoreBackup( backups, second.number );
+        assertEquals( "5,Bread,1.00,10,2024-01-10,true", engine.get( 5 ) );
+        assertNull( engine.get( 30001 ) );
+        assertEquals( 30000, engine.size() );
+        assertEquals( 1, engine.findByField( "ProductName", "Bread" ).size() );
+        assertTrue( engine.findByField( "ProductName", "Cheese" ).isEmpty() );
+
+        engine.restoreBackup( backups, third.number );
+        assertNull( engine.get( 5 ) );
+        assertTrue( engine.isDeleted( 5 ) );
+        assertEquals( "30001,Milk,60.50,20,2024-01-05,true", engine.get( 30001 ) );
+        assertTrue( engine.findByField( "ProductName", "Bread" ).isEmpty() );
+
+        engine.restoreBackup( backups, full.number );
+        assertEquals( records.get( 4 ), engine.get( 5 ) );
+        assertEquals( 30000, engine.size() );
+        assertTrue( engine.put( "30002,Kefir,65,1,2024-01-05,true" ) );
+        engine.close();
+        engine.open();
+        assertEquals( "30002,Kefir,65,1,2024-01-05,true", engine.get( 30002 ) );
+    }
+
+    public void testSnapshotIgnoresWritesAfterCut() throws IOException
+    {
+        List<String> records = new ArrayList<>();
+        for ( int id = 1; id <= 5000; id++ )
+        {
+            records.add( id + ",Product " + id + "," + id + ".50,10,2024-01-10,true" );
+        }
+        engine.bulkLoad( records.iterator() );
+        engine.update( 3, "3,A much longer product name that moves the record,1,1,2024-01-10,true" );
+        byte[] data = Files.readAllBytes( engine.getDataFile().toPath() );
+        byte[] ids = Files.readAllBytes( engine.getIdFile().toPath() );
+
+        StorageEngine.Snapshot snapshot = engine.snapshot();
+        engine.update( 1, "1,X,1,1,2024-01-10,true" );
+        engine.update( 2, "2,Another much longer product name for the second record,1,1,2024-01-10,true" );
+        engine.put( "6000,Short,1,1,2024-01-10,true" );
+        engine.delete( 4000 );
+        engine.put( "6001,Milk,60.50,20,2024-01-05,true" );
+
+        File copy = new File( dir, "snapshot.csv" );
+        try ( java.nio.channels.FileChannel out = java.nio.channels.FileChannel.open( copy.toPath(),
+                java.nio.file.StandardOpenOption.CREATE, java.nio.file.StandardOpenOption.WRITE ) )
+        {
+            snapshot.data.transferTo( 0, snapshot.data.length(), out );
+        }
+        assertTrue( java.util.Arrays.equals( data, Files.readAllBytes( copy.toPath() ) ) );
+        assertTrue( snapshot.data.preservedPages() > 0 );
+
+        assertTrue( engine.compact() );
+        java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocate( (int) snapshot.index.length() );
+        snapshot.index.read( buffer, 0 );
+        assertTrue( java.util.Arrays.equals( ids, buffer.array() ) );
+        snapshot.close();
+
+        StorageEngine.Snapshot stale = engine.snapshot();
+        engine.clear();
+        try
+        {
+            stale.data.read( java.nio.ByteBuffer.allocate( 1 ), 0 );
+            fail( "snapshot of a recreated database must not be readable" );
+        }
+        catch ( IOException expected )
+        {
+        }
+        stale.close();
+    }
+
+    public void testSavedSnapshotOpensAsDatabase() throws IOException
+    {
+        engine.put( "1,Bread,50.99,15,2024-01-10,true" );
+        engine.put( "2,Milk,60.50,20,2024-01-05,true" );
+        engine.update( 1, "1,Bread with a much longer name than before,50.99,15,2024-01-10,true" );
+        engine.delete( 2 );
+
+        File copyDb = new File( dir, "saved.csv" );
+        File copyId = new File( dir, "saved_id.csv" );
+        engine.writeSnapshot( copyDb, copyId, null );
+        engine.put( "3,Cheese,250.00,5,2024-02-01,true" );
+
+        StorageEngine restored = new StorageEngine( new File( dir, "restored" ).getPath(), "database.csv", "id.csv" );
+        assertTrue( restored.restore( copyDb, copyId ) );
+        assertEquals( "1,Bread with a much longer name than before,50.99,15,2024-01-10,true", restored.get( 1 ) );
+        assertNull( restored.get( 2 ) );
+        assertNull( restored.get( 3 ) );
+        restored.drop();
+    }
+
+    public void testScanSeesVersionFromItsStartWhileWritesProceed() throws IOException
+    {
+        engine.put( "1,Bread,50.99,15,2024-01-10,true" );
+        engine.put( "2,Milk,60.50,20,2024-01-05,true" );
+        engine.put( "3,Cheese,250.00,5,2024-02-01,true" );
+        engine.put( "4,Butter,120.00,8,2024-01-20,true" );
+
+        List<String> seen = new ArrayList<>();
+        engine.scan( record -> {
+            if ( seen.isEmpty() )
+            {
+                // The scan holds no lock, so the same thread can write while it is running
+                try
+                {
+                    assertTrue( engine.update( 2, "2,Milk,61.00,20,2024-01-05,true" ) );
+                    assertTrue( engine.update( 3, "3,Cheese with a much longer name than before,250.00,5,2024-02-01,true" ) );
+                    assertTrue( engine.delete( 4 ) );
+                    assertTrue( engine.put( "5,Eggs,90.00,30,2024-01-15,true" ) );
+                    assertTrue( engine.put( "6,Tea,45.00,12,2024-03-01,true" ) );
+                    assertEquals( "2,Milk,61.00,20,2024-01-05,true", engine.get( 2 ) );
+                }
+                catch ( IOException e )
+                {
+                    throw new java.io.UncheckedIOException( e );
+                }
+            }
+            seen.add( record );
+        } );
+
+        List<String> expected = new ArrayList<>();
+        expected.add( "1,Bread,50.99,15,2024-01-10,true" );
+        expected.add( "2,Milk,60.50,20,2024-01-05,true" );
+        expected.add( "3,Cheese,250.00,5,2024-02-01,true" );
+        expected.add( "4,Butter,120.00,8,2024-01-20,true" );
+        assertEquals( expected, seen );
+        assertEquals( 5, engine.size() );
+        assertEquals( "3,Cheese with a much longer name than before,250.00,5,2024-02-01,true", engine.get( 3 ) );
+        assertEquals( 5, engine.findAll( line -> true ).size() );
+    }
+
+    public void testScanKeepsReadingReplacedDataFile() throws IOException
+    {
+        engine.put( "1,Bread,50.99,15,2024-01-10,true" );
+        engine.put( "2,Milk,60.50,20,2024-01-05,true" );
+
+        List<String> seen = new ArrayList<>();
+        engine.scan( record -> {
+            if ( seen.isEmpty() )
+            {
+                try
+                {
+                    engine.delete( 1 );
+                    engine.compact();
+                    engine.clear();
+                }
+                catch ( IOException e )
+                {
+                    throw new java.io.UncheckedIOException( e );
+                }
+            }
+            seen.add( record );
+        } );
+
+        assertEquals( 2, seen.size() );
+        assertEquals( "2,Milk,60.50,20,2024-01-05,true", seen.get( 1 ) );
+        assertEquals( 0, engine.size() );
+        assertNull( engine.get( 2 ) );
+    }
+
+    public void testRecordCacheServesRepeatedReadsAndForgetsChangedRecords() throws IOException
+    {
+        engine.put( "1,Bread,50.99,15,2024-01-10,true" );
+        engine.put( "2,Milk,60.50,20,2024-01-05,true" );
+
+        assertEquals( "1,Bread,50.99,15,2024-01-10,true", engine.get( 1 ) );
+        assertEquals( "1,Bread,50.99,15,2024-01-10,true", engine.get( 1 ) );
+        RecordCache.Stats stats = engine.getCacheStats();
+        assertEquals( 1, stats.hits );
+        assertEquals( 1, stats.misses );
+
+        assertTrue( engine.update( 1, "1,Bread,55.00,15,2024-01-10,true" ) );
+        assertEquals( "1,Bread,55.00,15,2024-01-10,true", engine.get( 1 ) );
+        assertTrue( engine.update( 1, "1,Bread with a much longer name,55.00,15,2024-01-10,true" ) );
+        assertEquals( "1,Bread with a much longer name,55.00,15,2024-01-10,true", engine.get( 1 ) );
+
+        String[] page = engine.getAll( new int[] {1, 2}, 0, 2 );
+        assertEquals( "2,Milk,60.50,20,2024-01-05,true", page[1] );
+        assertTrue( engine.delete( 2 ) );
+        assertNull( engine.get( 2 ) );
+        assertNull( engine.getAll( new int[] {1, 2}, 0, 2 )[1] );
+
+        engine.clear();
+        engine.put( "1,Cheese,70,5,2024-03-01,true" );
+        assertEquals( "1,Cheese,70,5,2024-03-01,true", engine.get( 1 ) );
+        assertTrue( engine.getCacheStats().hits >= 2 );
+    }
+
+    public void testRecordCacheCanBeDisabled() throws IOException
+    {
+        StorageEngine uncached = new StorageEngine( new File( dir, "nocache" ).getPath(), "database.csv", "id.csv",
+                new StorageOptions().recordCacheSize( 0 ) );
+        uncached.create( "Id,ProductName" );
+        uncached.put( "1,Bread" );
+        assertEquals( "1,Bread", uncached.get( 1 ) );
+        assertEquals( "1,Bread", uncached.get( 1 ) );
+        assertEquals( 0, uncached.getCacheStats().hits );
+        assertEquals( 0, uncached.getCacheStats().misses );
+        uncached.drop();
+    }
+
+    static void deleteRecursively( File file )
+    {
+        File[] children = file.listFiles();
+        if ( children != null )
+        {
+            for ( File child : children )
+            {
+                deleteRecursively( child );
+            }
+        }
+        file.delete();
+    }
+}
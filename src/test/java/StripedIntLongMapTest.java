@@ -0,0 +1,103 @@
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Unit tests for the lock-striped offset map shared by concurrent readers and writers.
+ */
+public class StripedIntLongMapTest extends TestCase
+{
+    public void testPutReturnsPreviousValueAndCountsKeys() throws java.io.IOException
+    {
+        StripedIntLongMap map = new StripedIntLongMap( 5 );
+        assertEquals( StripedIntLongMap.NO_VALUE, map.put( 7, 70L ) );
+        assertEquals( 70L, map.put( 7, -1L ) );
+        assertEquals( StripedIntLongMap.NO_VALUE, map.put( -3, 30L ) );
+
+        assertEquals( 2, map.size() );
+        assertEquals( -1L, map.get( 7 ) );
+        assertFalse( map.containsKey( 8 ) );
+        assertEquals( 1, map.countValue( -1L ) );
+
+        StripedIntLongMap.Version version = map.version();
+        map.clear();
+        assertEquals( 0, map.size() );
+        assertEquals( 2, version.size() );
+        assertEquals( 30L, version.get( -3 ) );
+    }
+
+    public void testPutAllPublishesEveryPair() throws java.io.IOException
+    {
+        IntLongHashMap source = new IntLongHashMap();
+        for ( int i = 0; i < 50_000; i++ )
+        {
+            source.put( i, i * 8L );
+        }
+        StripedIntLongMap map = new StripedIntLongMap();
+        map.putAll( source::forEach );
+
+        assertEquals( 50_000, map.size() );
+        long[] sum = {0};
+        map.forEach( ( key, value ) -> {
+            assertEquals( key * 8L, value );
+            sum[0] += value;
+        } );
+        assertEquals( 8L * 50_000 * 49_999 / 2, sum[0] );
+    }
+
+    public void testReadersSeeEveryKeyWhileWritersMoveThem() throws InterruptedException
+    {
+        int keys = 20_000;
+        StripedIntLongMap map = new StripedIntLongMap();
+        for ( int i = 0; i < keys; i++ )
+        {
+            map.put( i, i );
+        }
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for ( int t = 0; t < 4; t++ )
+        {
+            int writer = t;
+            threads.add( new Thread( () -> {
+                // Каждый писатель двигает свою четверть ключей: значение по модулю keys остается равным ключу
+                for ( int round = 1; round <= 20; round++ )
+                {
+                    for ( int i = writer; i < keys; i += 4 )
+                    {
+                        map.put( i, (long) round * keys + i );
+                    }
+                }
+            } ) );
+            threads.add( new Thread( () -> {
+                for ( int round = 0; round < 20 && failure.get() == null; round++ )
+                {
+                    StripedIntLongMap.Version version = map.version();
+                    for ( int i = 0; i < keys; i++ )
+                    {
+                        long value = map.get( i );
+                        if ( value % keys != i || version.get( i ) % keys != i )
+                        {
+                            failure.compareAndSet( null, new AssertionError( "key " + i + " -> " + value ) );
+                        }
+                    }
+                }
+            } ) );
+        }
+        for ( Thread thread : threads )
+        {
+            thread.start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        assertNull( failure.get() );
+        assertEquals( keys, map.size() );
+        for ( int i = 0; i < keys; i++ )
+        {
+            assertEquals( 20L * keys + i, map.get( i ) );
+        }
+    }
+}
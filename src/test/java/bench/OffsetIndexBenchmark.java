@@ -0,0 +1,141 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Mixed point operations on the primary offset index shared by many threads: 80% get, 15% put
+ * (a record moved to a new offset) and 5% delete (the offset replaced with -1, as the engine does).
+ * Compares StripedIntLongMap (lock-free reads, one lock per stripe for writes) against the
+ * previous arrangement, an IntLongHashMap behind a single ReentrantReadWriteLock.
+ *
+ * The main method runs every map with 1, 2, 4, 8, 16 and 32 threads; scaling past the number
+ * of cores only shows how the map behaves under oversubscription.
+ * Application classes live in the default package, so they are reached through MethodHandles.
+ * Run with: mvn test-compile, then
+ * java -cp target/classes:target/test-classes:$(mvn -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout) bench.OffsetIndexBenchmark
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class OffsetIndexBenchmark
+{
+    private static final int KEYS = 1_000_000;
+    private static final long DELETED = -1L;
+
+    private static final MethodHandle NEW_STRIPED = constructor( "StripedIntLongMap" );
+    private static final MethodHandle STRIPED_GET = method( "StripedIntLongMap", "get", long.class, int.class );
+    private static final MethodHandle STRIPED_PUT = method( "StripedIntLongMap", "put", long.class, int.class, long.class );
+    private static final MethodHandle NEW_HASH = constructor( "IntLongHashMap" );
+    private static final MethodHandle HASH_GET = method( "IntLongHashMap", "get", long.class, int.class );
+    private static final MethodHandle HASH_PUT = method( "IntLongHashMap", "put", long.class, int.class, long.class );
+
+    private Object striped;
+    private Object hash;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    @Setup
+    public void setUp() throws Throwable
+    {
+        striped = (Object) NEW_STRIPED.invokeExact();
+        hash = (Object) NEW_HASH.invokeExact();
+        for ( int id = 0; id < KEYS; id++ )
+        {
+            long offset = 64L * id;
+            long ignored = (long) STRIPED_PUT.invokeExact( striped, id, offset );
+            ignored = (long) HASH_PUT.invokeExact( hash, id, offset );
+        }
+    }
+
+    @Benchmark
+    public long striped() throws Throwable
+    {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int id = random.nextInt( KEYS );
+        int op = random.nextInt( 100 );
+        if ( op < 80 )
+        {
+            return (long) STRIPED_GET.invokeExact( striped, id );
+        }
+        long offset = op < 95 ? 64L * ( KEYS + random.nextInt( KEYS ) ) : DELETED;
+        return (long) STRIPED_PUT.invokeExact( striped, id, offset );
+    }
+
+    @Benchmark
+    public long readWriteLocked() throws Throwable
+    {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int id = random.nextInt( KEYS );
+        int op = random.nextInt( 100 );
+        if ( op < 80 )
+        {
+            lock.readLock().lock();
+            try
+            {
+                return (long) HASH_GET.invokeExact( hash, id );
+            }
+            finally
+            {
+                lock.readLock().unlock();
+            }
+        }
+        long offset = op < 95 ? 64L * ( KEYS + random.nextInt( KEYS ) ) : DELETED;
+        lock.writeLock().lock();
+        try
+        {
+            return (long) HASH_PUT.invokeExact( hash, id, offset );
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static MethodHandle constructor( String className )
+    {
+        try
+        {
+            return MethodHandles.publicLookup().findConstructor( Class.forName( className ), MethodType.methodType( void.class ) )
+                    .asType( MethodType.methodType( Object.class ) );
+        }
+        catch ( ReflectiveOperationException e )
+        {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    private static MethodHandle method( String className, String name, Class<?> returnType, Class<?>... parameters )
+    {
+        try
+        {
+            MethodHandle handle = MethodHandles.publicLookup().findVirtual( Class.forName( className ), name,
+                    MethodType.methodType( returnType, parameters ) );
+            return handle.asType( handle.type().changeParameterType( 0, Object.class ) );
+        }
+        catch ( ReflectiveOperationException e )
+        {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    public static void main( String[] args ) throws RunnerException
+    {
+        for ( int threads : new int[] { 1, 2, 4, 8, 16, 32 } )
+        {
+            new Runner( new OptionsBuilder().include( OffsetIndexBenchmark.class.getSimpleName() )
+                    .threads( threads ).build() ).run();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.*;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point lookup by offset: RandomAccessFile.readLine (the old searchById path, with and without
+ * opening the file per lookup) against StorageEngine.readRecord, one positional channel read
+ * with UTF-8 decoding.
+ *
+ * JMH does not allow benchmarks in the default package where the application classes live,
+ * so StorageEngine is reached through a constant MethodHandle.
+ * Run with: mvn test-compile, then
+ * java -cp target/classes:target/test-classes:$(mvn -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout) bench.RecordReadBenchmark
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class RecordReadBenchmark
+{
+    private static final int RECORDS = 100_000;
+    private static final MethodHandle READ_RECORD = readRecordHandle();
+
+    private File file;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private long[] offsets;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        file = File.createTempFile( "database", ".csv" );
+        offsets = new long[RECORDS];
+        try ( OutputStream out = new BufferedOutputStream( new FileOutputStream( file ) ) )
+        {
+            long offset = 0;
+            byte[] header = "Id,ProductName,Price,Quantity,ExpirationDate,IsAvailable\n".getBytes( StandardCharsets.UTF_8 );
+            out.write( header );
+            offset += header.length;
+            for ( int id = 0; id < RECORDS; id++ )
+            {
+                byte[] record = ( id + ",Товар номер " + id + "," + ( id % 1000 ) + ".99," + ( id % 50 ) + ",2024-01-10,true\n" )
+                        .getBytes( StandardCharsets.UTF_8 );
+                out.write( record );
+                offsets[id] = offset;
+                offset += record.length;
+            }
+        }
+        Random random = new Random( 7 );
+        for ( int i = offsets.length - 1; i > 0; i-- )
+        {
+            int j = random.nextInt( i + 1 );
+            long tmp = offsets[i];
+            offsets[i] = offsets[j];
+            offsets[j] = tmp;
+        }
+        raf = new RandomAccessFile( file, "r" );
+        channel = FileChannel.open( file.toPath(), StandardOpenOption.READ );
+    }
+
+    @TearDown
+    public void tearDown() throws IOException
+    {
+        raf.close();
+        channel.close();
+        file.delete();
+    }
+
+    private long nextOffset()
+    {
+        next = ( next + 1 ) % offsets.length;
+        return offsets[next];
+    }
+
+    @Benchmark
+    public String readLineOpenPerLookup() throws IOException
+    {
+        try ( RandomAccessFile perLookup = new RandomAccessFile( file, "r" ) )
+        {
+            perLookup.seek( nextOffset() );
+            return perLookup.readLine();
+        }
+    }
+
+    @Benchmark
+    public String readLineSharedFile() throws IOException
+    {
+        raf.seek( nextOffset() );
+        return raf.readLine();
+    }
+
+    @Benchmark
+    public String positionalRead() throws Throwable
+    {
+        return (String) READ_RECORD.invokeExact( channel, nextOffset() );
+    }
+
+    private static MethodHandle readRecordHandle()
+    {
+        try
+        {
+            return MethodHandles.publicLookup().findStatic( Class.forName( "StorageEngine" ), "readRecord",
+                    MethodType.methodType( String.class, FileChannel.class, long.class ) );
+        }
+        catch ( ReflectiveOperationException e )
+        {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    public static void main( String[] args ) throws RunnerException
+    {
+        new Runner( new OptionsBuilder().include( RecordReadBenchmark.class.getSimpleName() ).build() ).run();
+    }
+}